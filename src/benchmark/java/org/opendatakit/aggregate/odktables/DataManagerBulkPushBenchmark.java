@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
+import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowFilterScope;
+import org.opendatakit.aggregate.odktables.rest.entity.RowList;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome.OutcomeType;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
+import org.opendatakit.aggregate.odktables.rest.entity.Scope;
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Pushes 100, 1,000 and 10,000 new rows through
+ * DataManager.insertOrUpdateRows, then pushes updates to all of them, and
+ * reports the rows per second of each push. The update pushes measure the
+ * lookup of the existing rows.
+ */
+public class DataManagerBulkPushBenchmark {
+  private static final int[] PUSH_SIZES = { 100, 1000, 10000 };
+
+  private static class AllPermissions implements TablesUserPermissions {
+
+    @Override
+    public String getOdkTablesUserId() {
+      return "myid";
+    }
+
+    @Override
+    public void checkPermission(String appId, String tableId, TablePermission permission) {
+    }
+
+    @Override
+    public boolean hasPermission(String appId, String tableId, TablePermission permission) {
+      return true;
+    }
+
+    @Override
+    public boolean hasFilterScope(String appId, String tableId, TablePermission permission,
+        String rowId, Scope filterScope) {
+      return true;
+    }
+  }
+
+  private CallingContext cc;
+  private TableManager tm;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    tm = new TableManager(T.appId, new AllPermissions(), cc);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (int size : PUSH_SIZES) {
+      try {
+        tm.deleteTable(tableId(size));
+      } catch (ODKEntityNotFoundException e) {
+        // ignore
+      }
+    }
+  }
+
+  @Test
+  public void bulk_push_throughput() throws Exception {
+    for (int size : PUSH_SIZES) {
+      TableEntry entry = tm.createTable(tableId(size), T.columns);
+      DataManager dm = new DataManager(T.appId, tableId(size), new AllPermissions(), cc);
+
+      ArrayList<Row> inserts = new ArrayList<Row>();
+      for (int i = 0; i < size; ++i) {
+        inserts.add(Row.forInsert("row" + i, T.form_id_1, T.locale_1,
+            SavepointTypeManipulator.complete(), T.savepoint_timestamp_1, T.savepoint_creator_1,
+            RowFilterScope.EMPTY_ROW_FILTER, values(i, "23")));
+      }
+      long start = System.currentTimeMillis();
+      RowOutcomeList inserted = dm.insertOrUpdateRows(new RowList(inserts, entry.getDataETag()));
+      report("insert", size, System.currentTimeMillis() - start);
+
+      ArrayList<Row> updates = new ArrayList<Row>();
+      for (RowOutcome outcome : inserted.getRows()) {
+        assertEquals(OutcomeType.SUCCESS, outcome.getOutcome());
+        updates.add(Row.forUpdate(outcome.getRowId(), outcome.getRowETag(), T.form_id_1,
+            T.locale_1, SavepointTypeManipulator.complete(), T.savepoint_timestamp_1,
+            T.savepoint_creator_1, RowFilterScope.EMPTY_ROW_FILTER,
+            values(Integer.parseInt(outcome.getRowId().substring(3)), "24")));
+      }
+      start = System.currentTimeMillis();
+      RowOutcomeList updated = dm.insertOrUpdateRows(new RowList(updates, inserted.getDataETag()));
+      report("update", size, System.currentTimeMillis() - start);
+
+      assertEquals(size, updated.getRows().size());
+      for (RowOutcome outcome : updated.getRows()) {
+        assertEquals(OutcomeType.SUCCESS, outcome.getOutcome());
+      }
+    }
+  }
+
+  private static String tableId(int size) {
+    return "bulk_push_" + size;
+  }
+
+  private static ArrayList<DataKeyValue> values(int i, String age) {
+    ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>();
+    values.add(new DataKeyValue(T.Columns.column_name.getElementKey(), "name" + i));
+    values.add(new DataKeyValue(T.Columns.column_age.getElementKey(), age));
+    values.add(new DataKeyValue(T.Columns.column_weight.getElementKey(), "175"));
+    return values;
+  }
+
+  private static void report(String kind, int size, long elapsed) {
+    System.out.println("DataManagerBulkPushBenchmark " + kind + " " + size + " rows: "
+        + elapsed + " ms, "
+        + (elapsed == 0 ? "-" : Long.toString((1000L * size) / elapsed)) + " rows/sec");
+  }
+}
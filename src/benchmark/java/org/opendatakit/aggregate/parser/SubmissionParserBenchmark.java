@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Reads the field values of a 5,000-repeat instance once through a DOM, the
+ * way SubmissionParser used to, and once through the pull parser it uses now.
+ * Both readings must yield the same values; only parsing is timed, nothing is
+ * persisted.
+ */
+public class SubmissionParserBenchmark {
+  private static final int REPEAT_COUNT = 5000;
+  private static final int ROUNDS = 20;
+  private static final Set<String> FIELDS = new HashSet<String>(Arrays.asList("name", "label",
+      "count", "instanceID"));
+
+  @Test
+  public void dom_versus_pull_parse() throws Exception {
+    byte[] xml = buildInstance();
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setIgnoringComments(true);
+    factory.setCoalescing(true);
+
+    List<String> domValues = readWithDom(factory, xml);
+    List<String> pullValues = readWithPullParser(xml);
+    assertEquals(2 * REPEAT_COUNT + 2, domValues.size());
+    assertEquals(domValues, pullValues);
+
+    long dom = 0;
+    long pull = 0;
+    for (int i = 0; i < ROUNDS; ++i) {
+      long start = System.nanoTime();
+      readWithDom(factory, xml);
+      dom += System.nanoTime() - start;
+      start = System.nanoTime();
+      readWithPullParser(xml);
+      pull += System.nanoTime() - start;
+    }
+    System.out.println("SubmissionParserBenchmark " + REPEAT_COUNT + " repeats (" + xml.length
+        + " bytes): DOM " + (dom / ROUNDS / 1000000) + " ms, pull parser "
+        + (pull / ROUNDS / 1000000) + " ms per parse");
+  }
+
+  private static List<String> readWithDom(DocumentBuilderFactory factory, byte[] xml)
+      throws Exception {
+    Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    List<String> values = new ArrayList<String>();
+    collect(doc.getDocumentElement(), values);
+    return values;
+  }
+
+  private static void collect(Node element, List<String> values) {
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
+      if (FIELDS.contains(child.getLocalName())) {
+        String value = null;
+        for (Node text = child.getFirstChild(); text != null && value == null; text = text
+            .getNextSibling()) {
+          if (text.getNodeType() == Node.TEXT_NODE && text.getNodeValue().trim().length() > 0) {
+            value = text.getNodeValue().trim();
+          }
+        }
+        values.add(value);
+      } else {
+        collect(child, values);
+      }
+    }
+  }
+
+  private static List<String> readWithPullParser(byte[] xml) throws Exception {
+    XmlPullParser parser = SubmissionParser.openParser(new ByteArrayInputStream(xml));
+    List<String> values = new ArrayList<String>();
+    int eventType;
+    while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+      if (eventType == XmlPullParser.START_TAG && FIELDS.contains(parser.getName())) {
+        values.add(SubmissionParser.getSubmissionValue(parser));
+      }
+    }
+    return values;
+  }
+
+  private static byte[] buildInstance() {
+    StringBuilder b = new StringBuilder();
+    b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    b.append("<data id=\"submission_parser_benchmark\">\n");
+    b.append("<name>benchmark</name>\n");
+    for (int i = 0; i < REPEAT_COUNT; ++i) {
+      b.append("<item><label>item ").append(i).append("</label><count>").append(i)
+          .append("</count></item>\n");
+    }
+    b.append("<meta><instanceID>uuid:benchmark</instanceID></meta>\n");
+    b.append("</data>\n");
+    return b.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.persistence.BatchPersistenceTest.BatchTable;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Times writing, updating and deleting 2,000 rows one at a time and through
+ * the batched Datastore.putEntities and Datastore.deleteEntities paths, so
+ * that the saving in database round trips can be observed.
+ */
+public class BatchPersistenceBenchmark {
+  private static final int ROW_COUNT = 2000;
+
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private BatchTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+    table = BatchTable.assertRelation(cc);
+    // drop it, in case prior run was messed up...
+    ds.dropRelation(table, user);
+    table = BatchTable.assertRelation(cc);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ds.dropRelation(table, user);
+  }
+
+  @Test
+  public void row_by_row_versus_batched() throws ODKDatastoreException {
+    List<BatchTable> rows = createRows("single");
+    long start = System.currentTimeMillis();
+    for (BatchTable row : rows) {
+      ds.putEntity(row, user);
+    }
+    long singleInsert = System.currentTimeMillis() - start;
+
+    for (BatchTable row : rows) {
+      row.setLongField(BatchTable.counterField, 7L);
+    }
+    start = System.currentTimeMillis();
+    for (BatchTable row : rows) {
+      ds.putEntity(row, user);
+    }
+    long singleUpdate = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    for (BatchTable row : rows) {
+      ds.deleteEntity(row.getEntityKey(), user);
+    }
+    long singleDelete = System.currentTimeMillis() - start;
+
+    rows = createRows("batch");
+    start = System.currentTimeMillis();
+    ds.putEntities(rows, user);
+    long batchInsert = System.currentTimeMillis() - start;
+
+    for (BatchTable row : rows) {
+      row.setLongField(BatchTable.counterField, 7L);
+    }
+    start = System.currentTimeMillis();
+    ds.putEntities(rows, user);
+    long batchUpdate = System.currentTimeMillis() - start;
+
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    for (BatchTable row : rows) {
+      keys.add(row.getEntityKey());
+    }
+    start = System.currentTimeMillis();
+    ds.deleteEntities(keys, user);
+    long batchDelete = System.currentTimeMillis() - start;
+    assertEquals(0, ds.createQuery(table, "BatchPersistenceBenchmark.countRows", user)
+        .executeQuery().size());
+
+    System.out.println("BatchPersistenceBenchmark " + ROW_COUNT + " rows (ms): insert "
+        + singleInsert + " -> " + batchInsert + ", update " + singleUpdate + " -> "
+        + batchUpdate + ", delete " + singleDelete + " -> " + batchDelete);
+  }
+
+  private List<BatchTable> createRows(String prefix) {
+    List<BatchTable> rows = new ArrayList<BatchTable>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      BatchTable row = ds.createEntityUsingRelation(table, user);
+      row.setStringField(BatchTable.nameField, prefix + "-" + i);
+      row.setLongField(BatchTable.counterField, (long) i);
+      rows.add(row);
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.security.User;
+
+/**
+ * Materializes rows of a 300-column relation, the way RelationRowMapper does
+ * for a wide form, and reports the bytes allocated per row. The same values
+ * are also put into a HashMap per row, which is how CommonFieldsBase held
+ * them before the values were kept in an array indexed by field ordinal.
+ */
+public class CommonFieldsBaseAllocationBenchmark {
+  private static final int COLUMNS = 300;
+  private static final int ROWS = 10000;
+
+  private static class WideTable extends CommonFieldsBase {
+    final DataField[] columns = new DataField[COLUMNS];
+
+    WideTable() {
+      super("odk_prod", "WIDE_FORM_CORE");
+      for (int i = 0; i < COLUMNS; ++i) {
+        columns[i] = new DataField("COLUMN_" + i, DataType.STRING, true, 255L);
+        fieldList.add(columns[i]);
+      }
+    }
+
+    private WideTable(WideTable ref, User user) {
+      super(ref, user);
+      System.arraycopy(ref.columns, 0, columns, 0, COLUMNS);
+    }
+
+    @Override
+    public CommonFieldsBase getEmptyRow(User user) {
+      return new WideTable(this, user);
+    }
+  }
+
+  @Test
+  public void allocation_per_row() {
+    WideTable relation = new WideTable();
+    User user = user();
+    String[] values = new String[COLUMNS];
+    for (int i = 0; i < COLUMNS; ++i) {
+      values[i] = "value " + i;
+    }
+
+    // warm up both paths
+    materialize(relation, user, values, true);
+    materialize(relation, user, values, false);
+
+    long entity = materialize(relation, user, values, true);
+    long map = materialize(relation, user, values, false);
+    System.out.println("CommonFieldsBaseAllocationBenchmark " + COLUMNS + " columns: "
+        + (entity < 0 ? "-" : Long.toString(entity / ROWS)) + " bytes/row, "
+        + (map < 0 ? "-" : Long.toString(map / ROWS)) + " bytes/row with a HashMap per row");
+  }
+
+  /**
+   * @return the bytes allocated by this thread, or -1 if that is not measurable.
+   */
+  private static long materialize(WideTable relation, User user, String[] values,
+      boolean asEntities) {
+    long before = allocatedBytes();
+    int count = 0;
+    for (int r = 0; r < ROWS; ++r) {
+      if (asEntities) {
+        CommonFieldsBase row = relation.getEmptyRow(user);
+        for (int i = 0; i < COLUMNS; ++i) {
+          row.setStringField(relation.columns[i], values[i]);
+        }
+        count += row.isNull(relation.columns[COLUMNS - 1]) ? 0 : 1;
+      } else {
+        Map<DataField, Object> row = new HashMap<DataField, Object>();
+        for (int i = 0; i < COLUMNS; ++i) {
+          row.put(relation.columns[i], values[i]);
+        }
+        count += row.containsKey(relation.columns[COLUMNS - 1]) ? 1 : 0;
+      }
+    }
+    long after = allocatedBytes();
+    assertEquals(ROWS, count);
+    return (before < 0 || after < 0) ? -1 : after - before;
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+          .currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static User user() {
+    User user = mock(User.class);
+    when(user.getUriUser()).thenReturn("mailto:user@example.org");
+    return user;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.parser.SubmissionLockTemplate;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Runs 64 concurrent submitters, each acquiring and releasing the submission
+ * lock the way SubmissionParser does, and reports the lock throughput and the
+ * number of acquisitions that timed out. Every submitter works on its own form,
+ * so any waiting is caused by the task lock implementation rather than by real
+ * contention for a resource.
+ *
+ * Run this once with jdbc.useAdvisoryTaskLocks=false (the table lock) and once
+ * with it set to true to compare the two implementations. AdvisoryTaskLockTest
+ * checks the behaviour of the advisory locks.
+ */
+public class TaskLockContentionBenchmark {
+  private static final int SUBMITTERS = 64;
+  private static final int SUBMISSIONS_PER_SUBMITTER = 10;
+
+  @Test
+  public void concurrent_submitters_on_distinct_forms() throws Exception {
+    final CallingContext cc = TestContextFactory.getCallingContext();
+    final CyclicBarrier launchBarrier = new CyclicBarrier(SUBMITTERS + 1);
+    final AtomicInteger acquired = new AtomicInteger();
+    final AtomicInteger timedOut = new AtomicInteger();
+
+    List<Thread> submitters = new ArrayList<Thread>();
+    for (int i = 0; i < SUBMITTERS; ++i) {
+      final String formId = "lock_benchmark_" + i;
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            launchBarrier.await();
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+          for (int j = 0; j < SUBMISSIONS_PER_SUBMITTER; ++j) {
+            SubmissionLockTemplate lock = new SubmissionLockTemplate(formId,
+                "uuid:" + UUID.randomUUID().toString(), cc);
+            try {
+              lock.acquire();
+            } catch (ODKTaskLockException e) {
+              timedOut.incrementAndGet();
+              continue;
+            }
+            acquired.incrementAndGet();
+            try {
+              lock.release();
+            } catch (ODKTaskLockException e) {
+              e.printStackTrace();
+            }
+          }
+        }
+      };
+      t.start();
+      submitters.add(t);
+    }
+
+    launchBarrier.await();
+    long start = System.currentTimeMillis();
+    for (Thread t : submitters) {
+      t.join();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    int total = SUBMITTERS * SUBMISSIONS_PER_SUBMITTER;
+    System.out.println("TaskLockContentionBenchmark " + SUBMITTERS + " submitters: "
+        + acquired.get() + " of " + total + " locks acquired, " + timedOut.get()
+        + " timed out, " + elapsed + " ms, "
+        + (elapsed == 0 ? "-" : Long.toString((1000L * acquired.get()) / elapsed))
+        + " locks/sec");
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.security.User;
+
+/**
+ * Compares the time to get the statement text of a relation from the template
+ * cache with the time to build it on every call, as the JDBC engines
+ * previously did. A submission table with 40 columns is used.
+ */
+public class StatementTemplatesBenchmark {
+  private static final int COLUMNS = 40;
+  private static final int ITERATIONS = 200000;
+
+  private static class Relation extends CommonFieldsBase {
+    Relation(String tableName, int columns) {
+      super("odk_prod", tableName);
+      for (int i = 0; i < columns; ++i) {
+        fieldList.add(new DataField("COLUMN_" + i, DataType.STRING, true));
+      }
+    }
+
+    @Override
+    public CommonFieldsBase getEmptyRow(User user) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  public void template_throughput() {
+    Relation relation = new Relation("SUBMISSION_CORE", COLUMNS);
+    StatementTemplates templates = new StatementTemplates("\"");
+
+    // warm up both paths
+    measure(templates, relation, ITERATIONS, true);
+    measure(templates, relation, ITERATIONS, false);
+
+    long cached = measure(templates, relation, ITERATIONS, true);
+    long rebuilt = measure(templates, relation, ITERATIONS, false);
+    System.out.println("StatementTemplatesBenchmark " + COLUMNS + " columns: cached "
+        + (cached / ITERATIONS) + " ns/op, rebuilt " + (rebuilt / ITERATIONS) + " ns/op");
+  }
+
+  private static long measure(StatementTemplates templates, Relation relation, int iterations,
+      boolean cached) {
+    int length = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      StatementTemplates.Template t = cached ? templates.get(relation)
+          : new StatementTemplates("\"").get(relation);
+      length += t.insert.length() + t.update.length() + t.select.length();
+    }
+    long elapsed = System.nanoTime() - start;
+    assertEquals(0, length % iterations);
+    return elapsed;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.utils.tomcat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Posts to a local stub server the way AbstractExternalService publishes a
+ * submission, first with a new client per request (the previous behavior) and
+ * then through the pooled client, and prints the requests per second of each.
+ */
+public class PooledHttpClientBenchmark {
+  private static final int REQUESTS = 2000;
+  private static final int PUBLISHERS = 8;
+  private static final String BODY = "{\"token\":\"\",\"content\":\"record\",\"data\":[{}]}";
+
+  private HttpServer server;
+  private String url;
+  private TomcatHttpClientFactoryImpl factory;
+  private final AtomicInteger received = new AtomicInteger();
+
+  @BeforeClass
+  public static void disableNagle() {
+    // otherwise the stub server's separate header and body writes stall on
+    // delayed ACKs once the connection is kept alive.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/publish", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        received.incrementAndGet();
+        byte[] rsp = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, rsp.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(rsp);
+        os.close();
+      }
+    });
+    server.setExecutor(Executors.newFixedThreadPool(PUBLISHERS));
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/publish";
+    factory = new TomcatHttpClientFactoryImpl();
+  }
+
+  @After
+  public void tearDown() {
+    factory.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void new_client_versus_pooled_client() throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < REQUESTS; ++i) {
+      CloseableHttpClient client = factory.createHttpClient(null, null, null);
+      try {
+        post(client);
+      } finally {
+        client.close();
+      }
+    }
+    long unpooled = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    for (int i = 0; i < REQUESTS; ++i) {
+      post(factory.getPooledHttpClient());
+    }
+    long pooled = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    List<Thread> publishers = new ArrayList<Thread>();
+    final AtomicInteger failures = new AtomicInteger();
+    for (int t = 0; t < PUBLISHERS; ++t) {
+      Thread publisher = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < REQUESTS / PUBLISHERS; ++i) {
+            try {
+              post(factory.getPooledHttpClient());
+            } catch (IOException e) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      publisher.start();
+      publishers.add(publisher);
+    }
+    for (Thread publisher : publishers) {
+      publisher.join();
+    }
+    long concurrent = System.currentTimeMillis() - start;
+
+    assertEquals(0, failures.get());
+    assertEquals(3 * REQUESTS, received.get());
+
+    // every response was consumed, so all connections are back in the pool
+    PoolStats stats = factory.getConnectionPoolStats();
+    assertEquals(0, stats.getLeased());
+    assertEquals(0, stats.getPending());
+    assertTrue(stats.getAvailable() > 0 && stats.getAvailable() <= PUBLISHERS);
+
+    System.out.println("PooledHttpClientBenchmark " + REQUESTS + " requests (req/s): new client "
+        + rate(unpooled) + ", pooled " + rate(pooled) + ", pooled with " + PUBLISHERS
+        + " publishers " + rate(concurrent) + "; pool " + stats.toString());
+  }
+
+  private void post(CloseableHttpClient client) throws IOException {
+    HttpPost post = new HttpPost(url);
+    post.setConfig(RequestConfig.custom().setConnectTimeout(10000).setSocketTimeout(10000).build());
+    post.setEntity(new StringEntity(BODY, ContentType.APPLICATION_JSON));
+    HttpResponse rsp = client.execute(post);
+    EntityUtils.consume(rsp.getEntity());
+    assertEquals(200, rsp.getStatusLine().getStatusCode());
+  }
+
+  private static String rate(long elapsed) {
+    return elapsed == 0 ? "-" : Long.toString((1000L * REQUESTS) / elapsed);
+  }
+}
@@ -59,6 +59,12 @@ public final class ParserConsts {
    */
   public final static int FILE_SIZE_MAX = 5000000;
 
+  /**
+   * Default size above which an uploaded part is written to a temporary file
+   * rather than held in memory
+   */
+  public final static int DEFAULT_MULTIPART_SPILL_THRESHOLD = 256 * 1024;
+
   /**
    * Namespace of ODK extensions to the OpenRosa standards
    */
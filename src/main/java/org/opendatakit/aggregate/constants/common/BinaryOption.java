@@ -12,7 +12,8 @@ import java.io.Serializable;
  */
 public enum BinaryOption implements Serializable {
   PROVIDE_LINKS("Links(URLs) to Media"),
-  EMBED_BINARY("Embed the Media Binary");
+  EMBED_BINARY("Embed the Media Binary"),
+  PROVIDE_SIGNED_LINKS("Signed links(URLs) to Media");
   
   private String descriptionOfOption;
   
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.exception;
+
+/**
+ * Thrown when the external service rejected a request because it is rate
+ * limiting us or is temporarily unable to handle it (HTTP 429 or 5xx). The
+ * publisher should be retried later, after backing off.
+ */
+public class ODKExternalServiceUnavailableException extends ODKExternalServiceException {
+  /**
+   * Serial number for serialization
+   */
+  private static final long serialVersionUID = -4638165287021635474L;
+
+  private final int statusCode;
+
+  /**
+   * Construct exception with the error message and status code
+   *
+   * @param message exception message
+   * @param statusCode the HTTP status returned by the external service
+   */
+  public ODKExternalServiceUnavailableException(String message, int statusCode) {
+    super(message);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * Construction exception with throwable cause and status code
+   *
+   * @param cause throwable cause
+   * @param statusCode the HTTP status returned by the external service
+   */
+  public ODKExternalServiceUnavailableException(Throwable cause, int statusCode) {
+    super(cause);
+    this.statusCode = statusCode;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @param statusCode
+   * @return true if the HTTP status indicates that the service is throttling
+   *         requests or is temporarily unavailable.
+   */
+  public static boolean isUnavailableStatus(int statusCode) {
+    return statusCode == 429 || statusCode >= 500;
+  }
+}
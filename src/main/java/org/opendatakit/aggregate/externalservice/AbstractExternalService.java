@@ -32,10 +32,9 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.config.SocketConfig;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.protocol.BasicHttpContext;
@@ -63,6 +62,8 @@ import org.opendatakit.common.security.User;
 import org.opendatakit.common.utils.HttpClientFactory;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.HtmlConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -73,6 +74,8 @@ import org.opendatakit.common.web.constants.HtmlConsts;
  */
 public abstract class AbstractExternalService implements ExternalService {
 
+  private static final Logger logger = LoggerFactory.getLogger(AbstractExternalService.class);
+
   private static final String NO_BATCH_FUNCTIONALITY_ERROR = "ERROR! External Service does NOT implement a BATCH function to upload multiple submissions - AbstractExternalService";
 
   /**
@@ -106,6 +109,10 @@ public abstract class AbstractExternalService implements ExternalService {
 
   protected static final int SOCKET_ESTABLISHMENT_TIMEOUT_MILLISECONDS = 60000;
 
+  // how long to wait for a connection from the shared pool once all of them
+  // are leased to other publishers.
+  protected static final int CONNECTION_POOL_TIMEOUT_MILLISECONDS = 60000;
+
   protected static final Charset UTF_CHARSET = Charset.forName(HtmlConsts.UTF8_ENCODE);
 
   protected AbstractExternalService(IForm form, FormServiceCursor formServiceCursor, ElementFormatter formatter, HeaderFormatter headerFormatter, CallingContext cc) {
@@ -138,6 +145,48 @@ public abstract class AbstractExternalService implements ExternalService {
     insertData(submission, cc);
   }
 
+  /**
+   * Send a batch of submissions to the external service. Publishers that can
+   * combine several submissions into a single request override this (and
+   * canBatchSubmissions()); by default, the submissions are sent one at a
+   * time.
+   *
+   * @param submissions
+   * @param cc
+   * @throws ODKExternalServiceException
+   */
+  protected void insertBatch(List<Submission> submissions, CallingContext cc) throws ODKExternalServiceException {
+    for (Submission submission : submissions) {
+      insertData(submission, cc);
+    }
+  }
+
+  /**
+   * Send the submissions through a single insertBatch() call, then advance and
+   * persist the form service cursor to the last of them. The submissions are
+   * one query page of the upload worker, so its page size bounds the batch.
+   * The cursor is left untouched if insertBatch() fails.
+   *
+   * @param submissions
+   * @param streaming
+   * @param cc
+   * @throws ODKExternalServiceException
+   */
+  protected void sendSubmissionBatch(List<Submission> submissions, boolean streaming, CallingContext cc) throws ODKExternalServiceException {
+    if (submissions.isEmpty()) {
+      return;
+    }
+    insertBatch(submissions, cc);
+
+    // persist updated last send date
+    ExternalServiceUtils.updateFscToSuccessfulSubmissionDate(fsc, submissions.get(submissions.size() - 1), streaming);
+    try {
+      cc.getDatastore().putEntity(fsc, cc.getCurrentUser());
+    } catch (ODKEntityPersistException | ODKOverQuotaException e) {
+      throw new ODKExternalServiceException(e);
+    }
+  }
+
   @Override
   public void setUploadCompleted(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
     fsc.setUploadCompleted(true);
@@ -156,18 +205,19 @@ public abstract class AbstractExternalService implements ExternalService {
     // setup client
     HttpClientFactory factory = (HttpClientFactory) cc.getBean(BeanDefs.HTTP_CLIENT_FACTORY);
 
-    SocketConfig socketConfig = SocketConfig.copy(SocketConfig.DEFAULT)
-        .setSoTimeout(SOCKET_ESTABLISHMENT_TIMEOUT_MILLISECONDS)
-        .build();
     RequestConfig requestConfig = RequestConfig.copy(RequestConfig.DEFAULT)
+        .setSocketTimeout(SOCKET_ESTABLISHMENT_TIMEOUT_MILLISECONDS)
         .setConnectTimeout(SERVICE_TIMEOUT_MILLISECONDS)
+        .setConnectionRequestTimeout(CONNECTION_POOL_TIMEOUT_MILLISECONDS)
         .setRedirectsEnabled(true)
         .setAuthenticationEnabled(true)
         .setMaxRedirects(32)
         .setCircularRedirectsAllowed(true)
         .build();
 
-    HttpClient client = factory.createHttpClient(socketConfig, null, requestConfig);
+    // shared client, so that connections to the publishing server are kept
+    // alive and reused across submissions.
+    HttpClient client = factory.getPooledHttpClient();
 
     // context holds authentication state machine, so it cannot be
     // shared across independent activities.
@@ -176,7 +226,7 @@ public abstract class AbstractExternalService implements ExternalService {
     localContext.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
     localContext.setAttribute(HttpClientContext.CREDS_PROVIDER, credsProvider);
 
-    HttpUriRequest request = null;
+    HttpRequestBase request = null;
     if (entity == null && (POST.equals(method) || PATCH.equals(method) || PUT.equals(method))) {
       throw new IllegalStateException("No body supplied for POST, PATCH or PUT request");
     } else if (entity != null && !(POST.equals(method) || PATCH.equals(method) || PUT.equals(method))) {
@@ -202,7 +252,7 @@ public abstract class AbstractExternalService implements ExternalService {
       e1.printStackTrace();
       throw new IllegalStateException(e1);
     }
-    System.out.println(uri.toString());
+    logger.debug(method + " " + uri.toString());
 
     if (GET.equals(method)) {
       HttpGet get = new HttpGet(uri);
@@ -226,6 +276,8 @@ public abstract class AbstractExternalService implements ExternalService {
       throw new IllegalStateException("Unexpected request method");
     }
 
+    request.setConfig(requestConfig);
+
     HttpResponse resp = client.execute(request);
     return resp;
   }
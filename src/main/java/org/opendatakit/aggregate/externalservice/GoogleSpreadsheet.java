@@ -20,6 +20,7 @@ package org.opendatakit.aggregate.externalservice;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -42,6 +43,7 @@ import org.opendatakit.aggregate.datamodel.FormElementModel;
 import org.opendatakit.aggregate.datamodel.FormElementModel.ElementType;
 import org.opendatakit.aggregate.exception.ODKExternalServiceCredentialsException;
 import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.exception.ODKExternalServiceUnavailableException;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.MiscTasks;
@@ -75,6 +77,7 @@ import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpContent;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -600,6 +603,27 @@ public class GoogleSpreadsheet extends GoogleOauth2ExternalService implements Ex
   @Override
   protected void insertData(Submission submission, CallingContext cc)
       throws ODKExternalServiceException {
+    insertBatch(Collections.singletonList(submission), cc);
+  }
+
+  @Override
+  public boolean canBatchSubmissions() {
+    return true;
+  }
+
+  @Override
+  public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc)
+      throws ODKExternalServiceException {
+    sendSubmissionBatch(submissions, streaming, cc);
+  }
+
+  /**
+   * Appends the rows of all the submissions (and of their repeat groups) with a
+   * single spreadsheet batchUpdate call.
+   */
+  @Override
+  protected void insertBatch(List<Submission> submissions, CallingContext cc)
+      throws ODKExternalServiceException {
     if (getReady()) {
       try {
         buildSheetInfoMap(cc);
@@ -607,30 +631,32 @@ public class GoogleSpreadsheet extends GoogleOauth2ExternalService implements Ex
         SheetInfo sheetInfo;
         List<Request> requests = new ArrayList<Request>();
 
-        // upload base submission values
-        sheetInfo = sheetInfoMap.get(objectEntity.getTopLevelWorksheetId());
-        AppendCellsRequest acr = createAppendCellsRequest(submission, sheetInfo, cc);
-        requests.add(new Request().setAppendCells(acr));
-
-        // upload repeat values
-        for (GoogleSpreadsheet2RepeatParameterTable tableId : repeatElementEntities) {
-          FormElementKey elementKey = tableId.getFormElementKey();
-          FormElementModel element = FormElementModel.retrieveFormElementModel(form, elementKey);
-          sheetInfo = sheetInfoMap.get(tableId.getWorksheetId());
-
-          List<SubmissionValue> values = submission.findElementValue(element);
-          for (SubmissionValue value : values) {
-            if (value instanceof RepeatSubmissionType) {
-              RepeatSubmissionType repeat = (RepeatSubmissionType) value;
-              if (repeat.getElement().equals(element)) {
-                for (SubmissionSet set : repeat.getSubmissionSets()) {
-                  acr = createAppendCellsRequest(set, sheetInfo, cc);
-                  requests.add(new Request().setAppendCells(acr));
+        for (Submission submission : submissions) {
+          // upload base submission values
+          sheetInfo = sheetInfoMap.get(objectEntity.getTopLevelWorksheetId());
+          AppendCellsRequest acr = createAppendCellsRequest(submission, sheetInfo, cc);
+          requests.add(new Request().setAppendCells(acr));
+
+          // upload repeat values
+          for (GoogleSpreadsheet2RepeatParameterTable tableId : repeatElementEntities) {
+            FormElementKey elementKey = tableId.getFormElementKey();
+            FormElementModel element = FormElementModel.retrieveFormElementModel(form, elementKey);
+            sheetInfo = sheetInfoMap.get(tableId.getWorksheetId());
+
+            List<SubmissionValue> values = submission.findElementValue(element);
+            for (SubmissionValue value : values) {
+              if (value instanceof RepeatSubmissionType) {
+                RepeatSubmissionType repeat = (RepeatSubmissionType) value;
+                if (repeat.getElement().equals(element)) {
+                  for (SubmissionSet set : repeat.getSubmissionSets()) {
+                    acr = createAppendCellsRequest(set, sheetInfo, cc);
+                    requests.add(new Request().setAppendCells(acr));
+                  }
                 }
+              } else {
+                System.out
+                    .println("ERROR: How did a non Repeat Submission Type get in the for loop?");
               }
-            } else {
-              System.out
-                  .println("ERROR: How did a non Repeat Submission Type get in the for loop?");
             }
           }
         }
@@ -643,6 +669,13 @@ public class GoogleSpreadsheet extends GoogleOauth2ExternalService implements Ex
               spreadsheetService.spreadsheets().batchUpdate(objectEntity.getSpreadsheetKey(), req).execute();
         }
 
+      } catch (HttpResponseException e) {
+        logger.error("Unable to insert data into spreadsheet " + objectEntity.getSpreadsheetName()
+            + " exception: " + e.getMessage(), e);
+        if (ODKExternalServiceUnavailableException.isUnavailableStatus(e.getStatusCode())) {
+          throw new ODKExternalServiceUnavailableException(e, e.getStatusCode());
+        }
+        throw new ODKExternalServiceException(e);
       } catch (Exception e) {
         logger.error("Unable to insert data into spreadsheet " + objectEntity.getSpreadsheetName()
             + " exception: " + e.getMessage(), e);
@@ -17,9 +17,12 @@
 
 package org.opendatakit.aggregate.externalservice;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
 
@@ -27,6 +30,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
 import org.opendatakit.aggregate.constants.common.BinaryOption;
 import org.opendatakit.aggregate.constants.common.ExternalServicePublicationOption;
@@ -34,6 +40,7 @@ import org.opendatakit.aggregate.constants.common.ExternalServiceType;
 import org.opendatakit.aggregate.constants.common.OperationalStatus;
 import org.opendatakit.aggregate.exception.ODKExternalServiceCredentialsException;
 import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.exception.ODKExternalServiceUnavailableException;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.format.element.BasicElementFormatter;
 import org.opendatakit.aggregate.format.header.BasicHeaderFormatter;
@@ -48,10 +55,10 @@ import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.BasicConsts;
 import org.opendatakit.common.web.constants.HtmlConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 /**
  *
@@ -60,6 +67,7 @@ import com.google.gson.JsonParser;
  *
  */
 public class JsonServer extends AbstractExternalService implements ExternalService {
+  private static final Logger logger = LoggerFactory.getLogger(JsonServer.class.getName());
 
   /**
    * Datastore entity specific to this type of external service
@@ -139,6 +147,8 @@ public class JsonServer extends AbstractExternalService implements ExternalServi
       }
       if (statusCode == HttpServletResponse.SC_UNAUTHORIZED) {
         throw new ODKExternalServiceCredentialsException(reason + " (" + statusCode + ")");
+      } else if (ODKExternalServiceUnavailableException.isUnavailableStatus(statusCode)) {
+        throw new ODKExternalServiceUnavailableException(reason + " (" + statusCode + ")", statusCode);
       } else if (statusCode != HttpServletResponse.SC_OK) {
         throw new ODKExternalServiceException(reason + " (" + statusCode + ")");
       }
@@ -164,35 +174,63 @@ public class JsonServer extends AbstractExternalService implements ExternalServi
   }
 
   @Override
-  protected void insertData(Submission submission, CallingContext cc)
-      throws ODKExternalServiceException {
-    try {
-      BinaryOption option = objectEntity.getBinaryOption();
+  public boolean canBatchSubmissions() {
+    return true;
+  }
 
-      ByteArrayOutputStream baStream = new ByteArrayOutputStream();
-      PrintWriter pWriter = new PrintWriter(new OutputStreamWriter(baStream, HtmlConsts.UTF8_ENCODE));
+  @Override
+  public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc)
+      throws ODKExternalServiceException {
+    sendSubmissionBatch(submissions, streaming, cc);
+  }
 
-      System.out.println("Sending one JSON Submission");
+  @Override
+  protected void insertData(Submission submission, CallingContext cc)
+      throws ODKExternalServiceException {
+    insertBatch(Collections.singletonList(submission), cc);
+  }
 
-      // format submission
-      JsonFormatterWithFilters formatter = new JsonFormatterWithFilters(pWriter, form, null, option,
-          true, cc.getServerURL());
-      formatter.processSubmissions(Collections.singletonList(submission), cc);
-      pWriter.flush();
+  @Override
+  protected void insertBatch(final List<Submission> submissions, final CallingContext cc)
+      throws ODKExternalServiceException {
+    try {
+      final BinaryOption option = objectEntity.getBinaryOption();
 
-      JsonParser parser = new JsonParser();
-      JsonElement submissionJsonObj = parser.parse(baStream.toString(HtmlConsts.UTF8_ENCODE));
+      logger.info("Sending " + submissions.size() + " JSON Submission(s)");
 
-      // create json object
+      // create json object; the data is appended to it as it is sent
       JsonObject entity = new JsonObject();
       entity.addProperty("token", getAuthKey());
       entity.addProperty("content", "record");
       entity.addProperty("formId", form.getFormId());
       entity.addProperty("formVersion", form.getMajorMinorVersionString());
-      entity.add("data", submissionJsonObj);
-
-      StringEntity postentity = new StringEntity(entity.toString(), HtmlConsts.UTF8_ENCODE);
-      postentity.setContentType("application/json");
+      String header = entity.toString();
+      final String prefix = header.substring(0, header.length() - 1)
+          + BasicConsts.COMMA + BasicConsts.QUOTE + "data" + BasicConsts.QUOTE + BasicConsts.COLON;
+
+      HttpEntity postentity;
+      if (option == BinaryOption.EMBED_BINARY) {
+        // format the submissions while the request is written. Embedded media
+        // are Base64-encoded as they are read, so the request body is never
+        // held in memory. The entity can only be written once, so the request
+        // cannot be replayed on a redirect or an authentication challenge.
+        EntityTemplate template = new EntityTemplate(new ContentProducer() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            PrintWriter pWriter = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(os, HtmlConsts.UTF8_ENCODE)));
+            writeBody(pWriter, prefix, submissions, option, cc);
+          }
+        });
+        template.setContentType("application/json");
+        postentity = template;
+      } else {
+        // links only -- the body is small, so build it up front. A repeatable
+        // entity can be re-sent on redirects and authentication challenges.
+        StringWriter body = new StringWriter();
+        writeBody(new PrintWriter(body), prefix, submissions, option, cc);
+        postentity = new StringEntity(body.toString(), ContentType.APPLICATION_JSON);
+      }
 
       this.sendRequest(getServerUrl(), postentity, cc);
     } catch (ODKExternalServiceCredentialsException e) {
@@ -211,6 +249,26 @@ public class JsonServer extends AbstractExternalService implements ExternalServi
     }
   }
 
+  /**
+   * Write the request body -- the data is always a JSON array.
+   */
+  private void writeBody(PrintWriter pWriter, String prefix, List<Submission> submissions,
+      BinaryOption option, CallingContext cc) throws IOException {
+    pWriter.write(prefix);
+    JsonFormatterWithFilters formatter = new JsonFormatterWithFilters(pWriter, form, null,
+        option, true, cc.getServerURL(), true);
+    try {
+      formatter.processSubmissions(submissions, cc);
+    } catch (ODKDatastoreException e) {
+      throw new IOException("Unable to format the submissions", e);
+    }
+    pWriter.write(BasicConsts.RIGHT_BRACE);
+    pWriter.flush();
+    if (pWriter.checkError()) {
+      throw new IOException("Unable to write the submissions");
+    }
+  }
+
   @Override
   public String getDescriptiveTargetString() {
     // the token, if supplied, is a secret.
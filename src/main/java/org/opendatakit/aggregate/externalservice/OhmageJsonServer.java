@@ -19,7 +19,9 @@ package org.opendatakit.aggregate.externalservice;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,6 +40,7 @@ import org.opendatakit.aggregate.constants.common.ExternalServiceType;
 import org.opendatakit.aggregate.constants.common.OperationalStatus;
 import org.opendatakit.aggregate.exception.ODKExternalServiceCredentialsException;
 import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.exception.ODKExternalServiceUnavailableException;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.format.element.BasicElementFormatter;
 import org.opendatakit.aggregate.format.element.OhmageJsonElementFormatter;
@@ -202,6 +205,9 @@ public class OhmageJsonServer extends AbstractExternalService implements Externa
     if (statusCode == HttpServletResponse.SC_UNAUTHORIZED) {
       throw new ODKExternalServiceCredentialsException("failure from server: " + statusCode
           + " response: " + responseString);
+    } else if (ODKExternalServiceUnavailableException.isUnavailableStatus(statusCode)) {
+      throw new ODKExternalServiceUnavailableException("failure from server: " + statusCode
+          + " response: " + responseString, statusCode);
     } else if (statusCode >= 300) {
       throw new ODKExternalServiceException("failure from server: " + statusCode + " response: "
           + responseString);
@@ -222,26 +228,50 @@ public class OhmageJsonServer extends AbstractExternalService implements Externa
         && (fsc == null ? (other.fsc == null) : (other.fsc != null && fsc.equals(other.fsc)));
   }
 
+  @Override
+  public boolean canBatchSubmissions() {
+    return true;
+  }
+
+  @Override
+  public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc)
+      throws ODKExternalServiceException {
+    sendSubmissionBatch(submissions, streaming, cc);
+  }
+
   @Override
   protected void insertData(Submission submission, CallingContext cc)
       throws ODKExternalServiceException {
+    insertBatch(Collections.singletonList(submission), cc);
+  }
+
+  @Override
+  protected void insertBatch(List<Submission> submissions, CallingContext cc)
+      throws ODKExternalServiceException {
     try {
-      OhmageJsonTypes.Survey survey = new OhmageJsonTypes.Survey();
-      // TODO: figure out these values
-      survey.setDate(null);
-      survey.setLocation(null);
-      survey.setLocation_status(null);
-      survey.setSurvey_id(null);
-      survey.setSurvey_lauch_context(null);
-      survey.setTime(System.currentTimeMillis());
-      survey.setTimezone(null);
-
-      OhmageJsonElementFormatter formatter = new OhmageJsonElementFormatter();
-      // called purely for side effects
-      submission.getFormattedValuesAsRow(null, formatter, false, cc);
-      survey.setResponses(formatter.getResponses());
-
-      uploadSurveys(Collections.singletonList(survey), formatter.getPhotos(), cc);
+      List<OhmageJsonTypes.Survey> surveys = new ArrayList<OhmageJsonTypes.Survey>();
+      Map<UUID, ByteArrayBody> photos = new HashMap<UUID, ByteArrayBody>();
+      for (Submission submission : submissions) {
+        OhmageJsonTypes.Survey survey = new OhmageJsonTypes.Survey();
+        // TODO: figure out these values
+        survey.setDate(null);
+        survey.setLocation(null);
+        survey.setLocation_status(null);
+        survey.setSurvey_id(null);
+        survey.setSurvey_lauch_context(null);
+        survey.setTime(System.currentTimeMillis());
+        survey.setTimezone(null);
+
+        OhmageJsonElementFormatter formatter = new OhmageJsonElementFormatter();
+        // called purely for side effects
+        submission.getFormattedValuesAsRow(null, formatter, false, cc);
+        survey.setResponses(formatter.getResponses());
+        surveys.add(survey);
+        // photo parts are keyed by a random UUID, so these cannot collide
+        photos.putAll(formatter.getPhotos());
+      }
+
+      uploadSurveys(surveys, photos, cc);
 
     } catch (ODKExternalServiceCredentialsException e) {
       fsc.setOperationalStatus(OperationalStatus.BAD_CREDENTIALS);
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -50,6 +51,7 @@ import org.opendatakit.aggregate.constants.common.OperationalStatus;
 import org.opendatakit.aggregate.constants.format.FormatConsts;
 import org.opendatakit.aggregate.datamodel.FormElementModel;
 import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.exception.ODKExternalServiceUnavailableException;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.format.element.BasicElementFormatter;
 import org.opendatakit.aggregate.format.header.BasicHeaderFormatter;
@@ -80,7 +82,21 @@ import org.xml.sax.SAXException;
 
 
 public class REDCapServer extends AbstractExternalService implements ExternalService {
-  private static final Logger logger = LoggerFactory.getLogger(FusionTable.class.getName());
+  private static final Logger logger = LoggerFactory.getLogger(REDCapServer.class.getName());
+
+  /**
+   * The media attachments of one imported record, uploaded once the record
+   * import succeeds.
+   */
+  private static final class RecordAttachments {
+    final String studyId;
+    final Map<String, BlobSubmissionType> blobs;
+
+    RecordAttachments(String studyId, Map<String, BlobSubmissionType> blobs) {
+      this.studyId = studyId;
+      this.blobs = blobs;
+    }
+  }
 
   /**
    * Datastore entity specific to this type of external service
@@ -149,13 +165,19 @@ public class REDCapServer extends AbstractExternalService implements ExternalSer
   }
 
   private void submitPost(String actionType, HttpEntity postentity, List<NameValuePair> qparam,
-                          CallingContext cc) {
+                          CallingContext cc) throws ODKExternalServiceUnavailableException {
 
     try {
       HttpResponse response = this.sendHttpRequest(POST, getUrl(), postentity, qparam, cc);
       int statusCode = response.getStatusLine().getStatusCode();
       String responseString = WebUtils.readResponse(response);
 
+      if (ODKExternalServiceUnavailableException.isUnavailableStatus(statusCode)) {
+        throw new ODKExternalServiceUnavailableException(actionType
+            + " to REDCap server failed. Reason: " + response.getStatusLine().getReasonPhrase()
+            + " status code: " + statusCode, statusCode);
+      }
+
       if (responseString.length() != 0) {
         DocumentBuilderFactory xmlFactory = DocumentBuilderFactory.newInstance();
         xmlFactory.setNamespaceAware(true);
@@ -211,7 +233,7 @@ public class REDCapServer extends AbstractExternalService implements ExternalSer
 
   public void submitFile(String recordID, String fileField, BlobSubmissionType blob_value,
                          CallingContext cc) throws MalformedURLException, IOException,
-      ODKDatastoreException {
+      ODKDatastoreException, ODKExternalServiceUnavailableException {
 
     String contentType = blob_value.getContentType(1, cc);
     String filename = blob_value.getUnrootedFilename(1, cc);
@@ -236,237 +258,290 @@ public class REDCapServer extends AbstractExternalService implements ExternalSer
     submitPost("File import", builder.build(), null, cc);
   }
 
+  @Override
+  public boolean canBatchSubmissions() {
+    return true;
+  }
+
+  @Override
+  public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc)
+      throws ODKExternalServiceException {
+    sendSubmissionBatch(submissions, streaming, cc);
+  }
+
   @Override
   protected void insertData(Submission submission, CallingContext cc)
       throws ODKExternalServiceException {
+    insertBatch(Collections.singletonList(submission), cc);
+  }
+
+  /**
+   * Imports all the submissions as records of a single REDCap record import,
+   * then uploads the media attachments of each record.
+   */
+  @Override
+  protected void insertBatch(List<Submission> submissions, CallingContext cc)
+      throws ODKExternalServiceException {
 
     try {
-      // an empty map to hold our values
-      String study_id = null;
+      StringBuilder records = new StringBuilder();
+      records.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?><records>");
 
-      // create a hash to hold the blobs for later processing
-      Map<String, BlobSubmissionType> blobs = new HashMap<String, BlobSubmissionType>();
+      // hold the blobs of each submission for later processing; several
+      // submissions of the batch may update the same study_id
+      List<RecordAttachments> attachments = new ArrayList<RecordAttachments>();
 
-      StringBuilder b = new StringBuilder();
+      for (Submission submission : submissions) {
+        Map<String, BlobSubmissionType> blobs = new HashMap<String, BlobSubmissionType>();
+        String study_id = appendRecord(submission, records, blobs, cc);
+        attachments.add(new RecordAttachments(study_id, blobs));
+      }
+      records.append("</records>");
 
-      Map<FormElementModel, SubmissionValue> valuesMap = submission.getSubmissionValuesMap();
+      List<NameValuePair> eparams = new ArrayList<NameValuePair>();
+      eparams.add(new BasicNameValuePair("token", getApiKey()));
+      eparams.add(new BasicNameValuePair("content", "record"));
+      eparams.add(new BasicNameValuePair("format", "xml"));
+      eparams.add(new BasicNameValuePair("overwriteBehavior", "overwrite"));
+      eparams.add(new BasicNameValuePair("data", records.toString()));
+      eparams.add(new BasicNameValuePair("returnContent", "ids"));
+      eparams.add(new BasicNameValuePair("returnFormat", "xml"));
+
+      HttpEntity postentity = new UrlEncodedFormEntity(eparams, UTF_CHARSET);
 
-      for (FormElementModel element : valuesMap.keySet()) {
-        SubmissionValue value = valuesMap.get(element);
-        if (value == null) {
-          continue;
+      submitPost("Publishing", postentity, null, cc);
+
+      // send the files if they exist
+      for (RecordAttachments record : attachments) {
+        for (Map.Entry<String, BlobSubmissionType> e : record.blobs.entrySet()) {
+          logger.debug("Processing media attachment " + e.getKey() + " of record " + record.studyId);
+          BlobSubmissionType blob = e.getValue();
+          submitFile(record.studyId, e.getKey(), blob, cc);
         }
-        if (element.isMetadata()) {
-          // handle metadata specially
-        } else {
-          switch (element.getElementType()) {
-            case METADATA:
-              // This keeps lint warnings down...
-              break;
-            case GEOSHAPE:
-            case GEOTRACE:
-            case STRING: {
-              StringSubmissionType str = (StringSubmissionType) value;
-              String strValue = str.getValue();
-              if (element.getElementName().equals("study_id")) {
-                // Piece of crap parser in REDCap requires study id to be first
-                // element
-                study_id = strValue;
-              } else if (strValue != null) {
-                b.append("<").append(element.getElementName()).append(">")
-                    .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
-                    .append(element.getElementName()).append(">");
-              }
-            }
-            break;
+      }
 
-            case JRDATETIME: {
-              JRDateTimeType dt = (JRDateTimeType) value;
-              Date dtValue = dt.getValue();
+    } catch (ODKExternalServiceException e) {
+      throw e; // don't wrap these...
+    } catch (Exception e) {
+      throw new ODKExternalServiceException(e);
+    }
 
-              if (dtValue != null) {
-                GregorianCalendar g = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
-                g.setTime(dtValue);
+  }
+
+  /**
+   * Append the &lt;item&gt; element for this submission to the records being
+   * imported.
+   *
+   * @param submission
+   * @param records
+   * @param blobs
+   *          receives the media attachments to upload once the record has been
+   *          imported.
+   * @param cc
+   * @return the study_id of the record
+   * @throws ODKDatastoreException
+   */
+  private String appendRecord(Submission submission, StringBuilder records,
+      Map<String, BlobSubmissionType> blobs, CallingContext cc) throws ODKDatastoreException {
+    // an empty map to hold our values
+    String study_id = null;
 
-                String strValue = String.format(FormatConsts.REDCAP_DATE_TIME_FORMAT_STRING,
-                    g.get(Calendar.YEAR), g.get(Calendar.MONTH) + 1, g.get(Calendar.DAY_OF_MONTH),
-                    g.get(Calendar.HOUR_OF_DAY), g.get(Calendar.MINUTE), g.get(Calendar.SECOND));
+    StringBuilder b = new StringBuilder();
 
-                b.append("<").append(element.getElementName()).append(">")
-                    .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
-                    .append(element.getElementName()).append(">");
+    Map<FormElementModel, SubmissionValue> valuesMap = submission.getSubmissionValuesMap();
 
-              }
-            }
+    for (FormElementModel element : valuesMap.keySet()) {
+      SubmissionValue value = valuesMap.get(element);
+      if (value == null) {
+        continue;
+      }
+      if (element.isMetadata()) {
+        // handle metadata specially
+      } else {
+        switch (element.getElementType()) {
+          case METADATA:
+            // This keeps lint warnings down...
             break;
+          case GEOSHAPE:
+          case GEOTRACE:
+          case STRING: {
+            StringSubmissionType str = (StringSubmissionType) value;
+            String strValue = str.getValue();
+            if (element.getElementName().equals("study_id")) {
+              // Piece of crap parser in REDCap requires study id to be first
+              // element
+              study_id = strValue;
+            } else if (strValue != null) {
+              b.append("<").append(element.getElementName()).append(">")
+                  .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
+                  .append(element.getElementName()).append(">");
+            }
+          }
+          break;
 
-            case JRDATE: {
-              JRDateType dt = (JRDateType) value;
-              Date dtValue = dt.getValue();
+          case JRDATETIME: {
+            JRDateTimeType dt = (JRDateTimeType) value;
+            Date dtValue = dt.getValue();
 
-              if (dtValue != null) {
-                GregorianCalendar g = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
-                g.setTime(dtValue);
+            if (dtValue != null) {
+              GregorianCalendar g = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+              g.setTime(dtValue);
 
-                String strValue = String.format(FormatConsts.REDCAP_DATE_ONLY_FORMAT_STRING,
-                    g.get(Calendar.YEAR), g.get(Calendar.MONTH) + 1, g.get(Calendar.DAY_OF_MONTH));
+              String strValue = String.format(FormatConsts.REDCAP_DATE_TIME_FORMAT_STRING,
+                  g.get(Calendar.YEAR), g.get(Calendar.MONTH) + 1, g.get(Calendar.DAY_OF_MONTH),
+                  g.get(Calendar.HOUR_OF_DAY), g.get(Calendar.MINUTE), g.get(Calendar.SECOND));
+
+              b.append("<").append(element.getElementName()).append(">")
+                  .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
+                  .append(element.getElementName()).append(">");
 
-                b.append("<").append(element.getElementName()).append(">")
-                    .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
-                    .append(element.getElementName()).append(">");
-              }
             }
-            break;
+          }
+          break;
 
-            case JRTIME: {
-              JRTimeType dt = (JRTimeType) value;
-              Date dtValue = dt.getValue();
+          case JRDATE: {
+            JRDateType dt = (JRDateType) value;
+            Date dtValue = dt.getValue();
 
-              if (dtValue != null) {
-                GregorianCalendar g = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
-                g.setTime(dtValue);
+            if (dtValue != null) {
+              GregorianCalendar g = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+              g.setTime(dtValue);
 
-                String strValue = String.format(FormatConsts.REDCAP_TIME_FORMAT_STRING,
-                    g.get(Calendar.HOUR_OF_DAY), g.get(Calendar.MINUTE));
+              String strValue = String.format(FormatConsts.REDCAP_DATE_ONLY_FORMAT_STRING,
+                  g.get(Calendar.YEAR), g.get(Calendar.MONTH) + 1, g.get(Calendar.DAY_OF_MONTH));
 
-                b.append("<").append(element.getElementName()).append(">")
-                    .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
-                    .append(element.getElementName()).append(">");
-              }
+              b.append("<").append(element.getElementName()).append(">")
+                  .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
+                  .append(element.getElementName()).append(">");
             }
-            break;
+          }
+          break;
 
-            case INTEGER: {
-              LongSubmissionType longVal = (LongSubmissionType) value;
-              if (longVal.getValue() != null) {
-                String strValue = longVal.getValue().toString();
+          case JRTIME: {
+            JRTimeType dt = (JRTimeType) value;
+            Date dtValue = dt.getValue();
 
-                b.append("<").append(element.getElementName()).append(">")
-                    .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
-                    .append(element.getElementName()).append(">");
-              }
-            }
-            break;
+            if (dtValue != null) {
+              GregorianCalendar g = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+              g.setTime(dtValue);
 
-            case DECIMAL: {
-              DecimalSubmissionType dec = (DecimalSubmissionType) value;
-              if (dec.getValue() != null) {
-                String strValue = dec.getValue().toString();
+              String strValue = String.format(FormatConsts.REDCAP_TIME_FORMAT_STRING,
+                  g.get(Calendar.HOUR_OF_DAY), g.get(Calendar.MINUTE));
 
-                b.append("<").append(element.getElementName()).append(">")
-                    .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
-                    .append(element.getElementName()).append(">");
-              }
+              b.append("<").append(element.getElementName()).append(">")
+                  .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
+                  .append(element.getElementName()).append(">");
             }
-            break;
+          }
+          break;
 
-            case GEOPOINT: {
-              // TODO: should not have gps_ prefix on tag...
-              String strippedElementName = element.getElementName().replace("gps_", "");
-              GeoPointSubmissionType submissionValue = (GeoPointSubmissionType) value;
-              GeoPoint coors = submissionValue.getValue();
-              if (coors.getLatitude() != null) {
-                b.append("<").append("gps_lat_" + strippedElementName).append(">")
-                    .append(StringEscapeUtils.escapeXml10(coors.getLatitude().toString())).append("</")
-                    .append("gps_lat_" + strippedElementName).append(">");
-
-                b.append("<").append("gps_lon_" + strippedElementName).append(">")
-                    .append(StringEscapeUtils.escapeXml10(coors.getLongitude().toString()))
-                    .append("</").append("gps_lon_" + strippedElementName).append(">");
-
-                b.append("<").append("gps_alt_" + strippedElementName).append(">")
-                    .append(StringEscapeUtils.escapeXml10(coors.getAltitude().toString())).append("</")
-                    .append("gps_alt_" + strippedElementName).append(">");
-
-                b.append("<").append("gps_acc_" + strippedElementName).append(">")
-                    .append(StringEscapeUtils.escapeXml10(coors.getAccuracy().toString())).append("</")
-                    .append("gps_acc_" + strippedElementName).append(">");
-              }
-            }
-            break;
+          case INTEGER: {
+            LongSubmissionType longVal = (LongSubmissionType) value;
+            if (longVal.getValue() != null) {
+              String strValue = longVal.getValue().toString();
 
-            case BINARY: {
-              String file_field = element.getElementName();
-              BlobSubmissionType blob_value = (BlobSubmissionType) value;
-              if (blob_value.getAttachmentCount(cc) == 1) {
-                blobs.put(file_field, blob_value);
-              }
-              // upload these after we have successfully imported the record
+              b.append("<").append(element.getElementName()).append(">")
+                  .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
+                  .append(element.getElementName()).append(">");
             }
-            break;
+          }
+          break;
 
-            case BOOLEAN: {
-              String strippedElementName = element.getElementName().replace("slct-", "");
-              BooleanSubmissionType bType = (BooleanSubmissionType) value;
-              if (bType.getValue() != null) {
-                b.append("<").append(strippedElementName + "___" + bType.getValue().toString())
-                    .append(">").append(StringEscapeUtils.escapeXml10("1")).append("</")
-                    .append(strippedElementName + "___" + bType.getValue().toString()).append(">");
-              }
-            }
-            break;
+          case DECIMAL: {
+            DecimalSubmissionType dec = (DecimalSubmissionType) value;
+            if (dec.getValue() != null) {
+              String strValue = dec.getValue().toString();
 
-            case SELECT1:
-            case SELECTN: {
-              // TODO: it's not necessary to add (or remove) 'slct-' from
-              // the field name anymore
-              String formatElementName = element.getElementName().replace("slct-", "");
-              ChoiceSubmissionType choice = (ChoiceSubmissionType) value;
-              for (String choiceVal : choice.getValue()) {
-                b.append("<").append(formatElementName + "___" + choiceVal).append(">")
-                    .append(StringEscapeUtils.escapeXml10("1")).append("</")
-                    .append(formatElementName + "___" + choiceVal).append(">");
-              }
+              b.append("<").append(element.getElementName()).append(">")
+                  .append(StringEscapeUtils.escapeXml10(strValue)).append("</")
+                  .append(element.getElementName()).append(">");
             }
-            break;
-
-            case REPEAT: {
-              logger.warn("Unable to publish repeat groups to REDCap");
-              // REDCap does not handle repeat groups.
+          }
+          break;
+
+          case GEOPOINT: {
+            // TODO: should not have gps_ prefix on tag...
+            String strippedElementName = element.getElementName().replace("gps_", "");
+            GeoPointSubmissionType submissionValue = (GeoPointSubmissionType) value;
+            GeoPoint coors = submissionValue.getValue();
+            if (coors.getLatitude() != null) {
+              b.append("<").append("gps_lat_" + strippedElementName).append(">")
+                  .append(StringEscapeUtils.escapeXml10(coors.getLatitude().toString())).append("</")
+                  .append("gps_lat_" + strippedElementName).append(">");
+
+              b.append("<").append("gps_lon_" + strippedElementName).append(">")
+                  .append(StringEscapeUtils.escapeXml10(coors.getLongitude().toString()))
+                  .append("</").append("gps_lon_" + strippedElementName).append(">");
+
+              b.append("<").append("gps_alt_" + strippedElementName).append(">")
+                  .append(StringEscapeUtils.escapeXml10(coors.getAltitude().toString())).append("</")
+                  .append("gps_alt_" + strippedElementName).append(">");
+
+              b.append("<").append("gps_acc_" + strippedElementName).append(">")
+                  .append(StringEscapeUtils.escapeXml10(coors.getAccuracy().toString())).append("</")
+                  .append("gps_acc_" + strippedElementName).append(">");
             }
-            break;
+          }
+          break;
 
-            case GROUP:
-              logger.warn("The GROUP submission type is not implemented");
-              break;
+          case BINARY: {
+            String file_field = element.getElementName();
+            BlobSubmissionType blob_value = (BlobSubmissionType) value;
+            if (blob_value.getAttachmentCount(cc) == 1) {
+              blobs.put(file_field, blob_value);
+            }
+            // upload these after we have successfully imported the record
+          }
+          break;
+
+          case BOOLEAN: {
+            String strippedElementName = element.getElementName().replace("slct-", "");
+            BooleanSubmissionType bType = (BooleanSubmissionType) value;
+            if (bType.getValue() != null) {
+              b.append("<").append(strippedElementName + "___" + bType.getValue().toString())
+                  .append(">").append(StringEscapeUtils.escapeXml10("1")).append("</")
+                  .append(strippedElementName + "___" + bType.getValue().toString()).append(">");
+            }
+          }
+          break;
+
+          case SELECT1:
+          case SELECTN: {
+            // TODO: it's not necessary to add (or remove) 'slct-' from
+            // the field name anymore
+            String formatElementName = element.getElementName().replace("slct-", "");
+            ChoiceSubmissionType choice = (ChoiceSubmissionType) value;
+            for (String choiceVal : choice.getValue()) {
+              b.append("<").append(formatElementName + "___" + choiceVal).append(">")
+                  .append(StringEscapeUtils.escapeXml10("1")).append("</")
+                  .append(formatElementName + "___" + choiceVal).append(">");
+            }
+          }
+          break;
 
+          case REPEAT: {
+            logger.warn("Unable to publish repeat groups to REDCap");
+            // REDCap does not handle repeat groups.
           }
-        }
-      }
+          break;
 
-      b.append("</item></records>");
+          case GROUP:
+            logger.warn("The GROUP submission type is not implemented");
+            break;
 
-      if (study_id == null) {
-        throw new IllegalStateException("Form does not contain a study_id field -- cannot publish!");
+        }
       }
+    }
 
-      String submissionsListString = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?><records><item><study_id>"
-          + StringEscapeUtils.escapeXml10(study_id) + "</study_id>" + b.toString();
-
-      List<NameValuePair> eparams = new ArrayList<NameValuePair>();
-      eparams.add(new BasicNameValuePair("token", getApiKey()));
-      eparams.add(new BasicNameValuePair("content", "record"));
-      eparams.add(new BasicNameValuePair("format", "xml"));
-      eparams.add(new BasicNameValuePair("overwriteBehavior", "overwrite"));
-      eparams.add(new BasicNameValuePair("data", submissionsListString));
-      eparams.add(new BasicNameValuePair("returnContent", "ids"));
-      eparams.add(new BasicNameValuePair("returnFormat", "xml"));
-
-      HttpEntity postentity = new UrlEncodedFormEntity(eparams, UTF_CHARSET);
-
-      submitPost("Publishing", postentity, null, cc);
-
-      // send the files if they exist
-      for (Map.Entry<String, BlobSubmissionType> e : blobs.entrySet()) {
-        System.out.println("Processing media attachment....");
-        BlobSubmissionType blob = e.getValue();
-        submitFile(study_id, e.getKey(), blob, cc);
-      }
+    b.append("</item>");
 
-    } catch (Exception e) {
-      throw new ODKExternalServiceException(e);
+    if (study_id == null) {
+      throw new IllegalStateException("Form does not contain a study_id field -- cannot publish!");
     }
 
+    records.append("<item><study_id>").append(StringEscapeUtils.escapeXml10(study_id))
+        .append("</study_id>").append(b);
+    return study_id;
   }
 
   /**
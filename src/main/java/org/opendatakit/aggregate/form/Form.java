@@ -16,6 +16,8 @@
 
 package org.opendatakit.aggregate.form;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -703,9 +705,20 @@ class Form implements IForm {
     if (filePath.indexOf("/") != -1) {
       filePath = filePath.substring(filePath.indexOf("/") + 1);
     }
-    byte[] byteArray = item.getStream().toByteArray();
-    BlobSubmissionOutcome outcome =
-        manifest.setValueFromByteArray(byteArray, item.getContentType(), filePath, overwriteOK, cc);
+    BlobSubmissionOutcome outcome;
+    try {
+      // stream the content so that large media files are read from their
+      // temporary file rather than held in memory
+      InputStream stream = item.openStream();
+      try {
+        outcome = manifest.setValueFromStream(stream, item.getContentType(), filePath,
+            overwriteOK, cc);
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      throw new ODKDatastoreException("Unable to read form media file " + filePath, e);
+    }
     return (outcome == BlobSubmissionOutcome.NEW_FILE_VERSION);
   }
 
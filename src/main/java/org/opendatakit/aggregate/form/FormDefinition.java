@@ -15,11 +15,13 @@ package org.opendatakit.aggregate.form;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +40,7 @@ import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.Query.FilterOperation;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
@@ -70,9 +73,37 @@ public class FormDefinition {
      * If forms are deleted and reloaded, they get a different key each time.
      * The key is defined in the SubmissionAssociationTable.
      *
-     * NOTE: should only be accessed via synchronized methods to get or remove forms.
+     * Entries are only added while holding the per-formId load lock.
      */
-    private static final Map<String, FormDefinition> formDefinitions = new HashMap<String, FormDefinition>();
+    private static final Map<String, FormDefinition> formDefinitions = new ConcurrentHashMap<String, FormDefinition>();
+
+    /**
+     * Map from the formId to the definition last resolved for it and the time at
+     * which that resolution was checked against the SubmissionAssociationTable.
+     * Lookups within PersistConsts.MAX_SETTLE_MILLISECONDS of that check are
+     * answered from here without locking or touching the datastore.
+     */
+    private static final Map<String, ValidatedDefinition> formIdDefinitions = new ConcurrentHashMap<String, ValidatedDefinition>();
+
+    /**
+     * Per-formId monitors so that only one thread loads or revalidates a given
+     * form definition while requests for other forms proceed.
+     */
+    private static final ConcurrentHashMap<String, Object> formIdLoadLocks = new ConcurrentHashMap<String, Object>();
+
+    private static final class ValidatedDefinition {
+        final FormDefinition formDefinition;
+        final long validatedTimestamp;
+
+        ValidatedDefinition(FormDefinition formDefinition, long validatedTimestamp) {
+            this.formDefinition = formDefinition;
+            this.validatedTimestamp = validatedTimestamp;
+        }
+
+        boolean isFresh(long now) {
+            return validatedTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > now;
+        }
+    }
 
     /** the entity that defines the mapping of the form id to this data model */
     private final SubmissionAssociationTable submissionAssociation;
@@ -146,7 +177,7 @@ public class FormDefinition {
 
     /**
      * Traverse the form data model and assertRelation() on all the backing objects.
-     * Called from within the synchronized getFormDefinition() static method.
+     * Called while loading a form definition under its per-formId load lock.
      *
      * @param m
      * @param objs
@@ -167,22 +198,57 @@ public class FormDefinition {
     }
 
     /**
-     * Synchronized access to the formDefinitions map.  Synchronization is only required for the
-     * put operation on the map, but also aids in efficient quota usage during periods of intense start-up.
+     * Returns the definition for the given formId. A definition resolved within the
+     * last PersistConsts.MAX_SETTLE_MILLISECONDS is returned directly. Otherwise,
+     * one thread per formId re-reads the SubmissionAssociationTable record and
+     * reuses the cached definition if that record's uriSubmissionDataModel and
+     * last-update date are unchanged; only a changed record causes the form data
+     * model to be reloaded.
      *
-     * @param xformParameters  -- the form id, version and ui version of a form definition.
-     * @param uriSubmissionDataModel -- the uri of the definition specification.
+     * @param formId -- the form id of a form definition.
      * @param cc
      * @return The definition.  The uriSubmissionDataModel is used to ensure that the
      *          currently valid definition of a form is being used (should the form be
      *          deleted then reloaded).
      */
-    public static synchronized final FormDefinition getFormDefinition(String formId, CallingContext cc) {
+    public static final FormDefinition getFormDefinition(String formId, CallingContext cc) {
 
         if ( formId.indexOf('/') != -1 ) {
             throw new IllegalArgumentException("formId is not well formed: " + formId);
         }
 
+        ValidatedDefinition v = formIdDefinitions.get(formId);
+        if ( v != null && v.isFresh(System.currentTimeMillis()) ) {
+            return v.formDefinition;
+        }
+
+        Object loadLock = formIdLoadLocks.computeIfAbsent(formId, k -> new Object());
+        synchronized (loadLock) {
+            // another thread may have revalidated it while we waited...
+            v = formIdDefinitions.get(formId);
+            if ( v != null && v.isFresh(System.currentTimeMillis()) ) {
+                return v.formDefinition;
+            }
+
+            FormDefinition fd = loadFormDefinition(formId, cc);
+            if ( fd == null ) {
+                formIdDefinitions.remove(formId);
+            } else {
+                formIdDefinitions.put(formId, new ValidatedDefinition(fd, System.currentTimeMillis()));
+            }
+            return fd;
+        }
+    }
+
+    private static boolean sameDate(Date a, Date b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    /**
+     * Resolve the definition through the SubmissionAssociationTable.
+     * Called under the per-formId load lock.
+     */
+    private static final FormDefinition loadFormDefinition(String formId, CallingContext cc) {
         // always look at SubmissionAssociationTable to retrieve the proper variant
         boolean asDaemon = cc.getAsDeamon();
         try {
@@ -201,8 +267,9 @@ public class FormDefinition {
 
                 // try to retrieve based upon this uri...
                 FormDefinition fd = formDefinitions.get(uriSubmissionDataModel);
-                if ( fd != null ) {
-                    // found it...
+                if ( fd != null && sameDate(fd.getSubmissionAssociation().getLastUpdateDate(),
+                                             sa.getLastUpdateDate()) ) {
+                    // found it and it is unchanged...
                     return fd;
                 } else {
                     // retrieve it...
@@ -252,8 +319,10 @@ public class FormDefinition {
         return null;
     }
 
-    static synchronized final void forget(String uriSubmissionDataModel) {
+    static final void forget(String uriSubmissionDataModel) {
         formDefinitions.remove(uriSubmissionDataModel);
+        formIdDefinitions.values().removeIf(v ->
+            v.formDefinition.getSubmissionAssociation().getUriSubmissionDataModel().equals(uriSubmissionDataModel));
     }
 
     public FormDefinition(SubmissionAssociationTable sa, String formId, List<?> formDataModelList, CallingContext cc) {
@@ -33,7 +33,13 @@ import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
 import org.opendatakit.common.security.User;
 import org.opendatakit.common.web.CallingContext;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Factory class for managing Form objects.
@@ -46,8 +52,32 @@ public class FormFactory {
 
   private static final Logger logger = LoggerFactory.getLogger(FormFactory.class);
 
-  private static long cacheTimestamp = 0L;
-  private static final List<IForm> cache = new LinkedList<IForm>();
+  /**
+   * Immutable snapshot of the forms in the database. Readers use whichever
+   * snapshot is current without locking; a refresh publishes a new one.
+   */
+  private static final class FormCache {
+    final long timestamp;
+    final List<IForm> forms;
+    final Map<String, IForm> formsByUri;
+
+    FormCache(long timestamp, List<IForm> forms) {
+      this.timestamp = timestamp;
+      this.forms = Collections.unmodifiableList(forms);
+      Map<String, IForm> byUri = new HashMap<String, IForm>();
+      for (IForm f : forms) {
+        byUri.put(f.getUri(), f);
+      }
+      this.formsByUri = byUri;
+    }
+
+    boolean isFresh() {
+      return timestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > System.currentTimeMillis();
+    }
+  }
+
+  private static volatile FormCache cache = new FormCache(0L, new ArrayList<IForm>());
+  private static final ReentrantLock refreshLock = new ReentrantLock();
 
   private FormFactory() {};
 
@@ -63,11 +93,11 @@ public class FormFactory {
    * @throws ODKOverQuotaException
    * @throws ODKDatastoreException
    */
-  private static synchronized final List<IForm> internalGetForms(String topLevelAuri, CallingContext cc)
+  private static final List<IForm> internalGetForms(String topLevelAuri, CallingContext cc)
       throws ODKOverQuotaException, ODKDatastoreException {
 
-    List<IForm> forms = new ArrayList<IForm>();
-    if ( cacheTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > System.currentTimeMillis() ) {
+    FormCache current = cache;
+    if ( current.isFresh() ) {
       // TODO: This cache should reside in MemCache.  Right now, different running
       // servers might see different Form definitions for up to the settle time.
       //
@@ -76,15 +106,52 @@ public class FormFactory {
       // support, this is somewhat problematic since different server instances might
       // see different versions of the same Form.
       //
-      logger.info("FormCache: using cached list of Forms");
+      logger.debug("FormCache: using cached list of Forms");
+    } else {
+      current = refreshCache(current, cc);
+    }
+
+    List<IForm> forms = new ArrayList<IForm>();
+    if ( topLevelAuri == null ) {
+      forms.addAll(current.forms);
+    } else {
+      IForm v = current.formsByUri.get(topLevelAuri);
+      if ( v != null ) {
+        forms.add(v);
+      }
+    }
+    return forms;
+  }
+
+  /**
+   * Rebuild the cache from the form info table. Only one thread refreshes at a
+   * time; once a list has been loaded, other threads keep using the stale list
+   * rather than waiting for the refresh to complete.
+   *
+   * @param stale
+   * @param cc
+   * @return the current snapshot
+   * @throws ODKOverQuotaException
+   * @throws ODKDatastoreException
+   */
+  private static FormCache refreshCache(FormCache stale, CallingContext cc)
+      throws ODKOverQuotaException, ODKDatastoreException {
+    if ( stale.timestamp != 0L ) {
+      if ( !refreshLock.tryLock() ) {
+        return stale;
+      }
     } else {
+      refreshLock.lock();
+    }
+    try {
+      FormCache current = cache;
+      if ( current.isFresh() ) {
+        // refreshed while we were waiting for the lock
+        return current;
+      }
+
       // we have a fairly stale list of forms -- interrogate the database
       // for what is really there and update the cache.
-      Map<String,IForm> oldForms = new HashMap<String,IForm>();
-      for ( IForm f : cache ) {
-        oldForms.put(f.getUri(), f);
-      }
-      cache.clear();
       logger.info("FormCache: fetching new list of Forms");
 
       Datastore ds = cc.getDatastore();
@@ -95,63 +162,53 @@ public class FormFactory {
       Query formQuery = ds.createQuery(relation, "Form.getForms", user);
       List<? extends CommonFieldsBase> infoRows = formQuery.executeQuery();
 
+      List<IForm> forms = new ArrayList<IForm>();
       for (CommonFieldsBase cb : infoRows) {
         FormInfoTable infoRow = (FormInfoTable) cb;
-        IForm f = oldForms.get(infoRow.getUri());
+        IForm f = current.formsByUri.get(infoRow.getUri());
         // rely on the fact that a persist updates the last-update-date of the
         // top-level FormInfoTable even if only subordinate values are updated.
         Date infoDate = infoRow.getLastUpdateDate();
         Date oldDate = (f == null) ? null : f.getLastUpdateDate();
-        if ( f != null &&  f.hasValidFormDefinition() &&
-            (infoRow.getCreationDate().equals(f.getCreationDate())) &&
-            ((infoDate == null && oldDate == null) ||
-             (infoDate != null && oldDate != null && infoDate.equals(oldDate))) ) {
-          cache.add(f);
-        } else {
+        if ( f == null || !f.hasValidFormDefinition() ||
+            !(infoRow.getCreationDate().equals(f.getCreationDate())) ||
+            !((infoDate == null && oldDate == null) ||
+              (infoDate != null && oldDate != null && infoDate.equals(oldDate))) ) {
           logger.info("FormCache: refreshing form definition from database: " + infoRow.getStringField(FormInfoTable.FORM_ID));
           // pull and update from the datastore
           f = new Form(infoRow, cc);
-          cache.add(f);
         }
-      }
 
-      for (IForm form : cache)
-        if (!form.isValid()) {
-          logger.error("Possible corruption: Form with URI " + form.getUri() + " is not valid");
-          cache.remove(form);
+        if (!f.isValid()) {
+          logger.error("Possible corruption: Form with URI " + f.getUri() + " is not valid");
+        } else {
+          forms.add(f);
         }
+      }
 
-      // sort by form title then by form id
-      Collections.sort(forms, new Comparator<IForm>() {
-
-        @Override
-        public int compare(IForm o1, IForm o2) {
-          int ref = o1.getViewableName().compareToIgnoreCase(o2.getViewableName());
-          if ( ref != 0 ) return ref;
-          return o1.getFormId().compareToIgnoreCase(o2.getFormId());
-        }});
-
-      // update cacheTimestamp -- note that if the datastore is very slow, this will
-      // space out the updates because the cacheTimestamp is established after all
-      // the datastore accesses.
-      cacheTimestamp = System.currentTimeMillis();
+      // the timestamp is established after all the datastore accesses -- note
+      // that if the datastore is very slow, this will space out the updates.
+      current = new FormCache(System.currentTimeMillis(), forms);
+      cache = current;
 
       // test to see if we need to trigger the watchdog
       BackendActionsTable.triggerWatchdog(cc);
+      return current;
+    } finally {
+      refreshLock.unlock();
     }
-
-    for (IForm v : cache) {
-      if ( topLevelAuri == null || v.getUri().equals(topLevelAuri) ) {
-        forms.add(v);
-      }
-    }
-    return forms;
   }
 
-  public static synchronized void clearForm(IForm match) {
-    // NOTE: delays refresh of the forms list by the settle time.
-    cache.remove(match);
-    cacheTimestamp = System.currentTimeMillis();
+  public static void clearForm(IForm match) {
+    refreshLock.lock();
+    try {
+      // NOTE: delays refresh of the forms list by the settle time.
+      List<IForm> forms = new ArrayList<IForm>(cache.forms);
+      forms.remove(match);
+      cache = new FormCache(System.currentTimeMillis(), forms);
+    } finally {
+      refreshLock.unlock();
+    }
   }
 
   /**
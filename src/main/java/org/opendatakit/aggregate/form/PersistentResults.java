@@ -15,6 +15,9 @@
  */
 package org.opendatakit.aggregate.form;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -225,13 +228,15 @@ public class PersistentResults {
     public final String downloadUrl;
     public final String contentType;
     public final Long contentLength;
+    public final String contentHash;
 
     ResultFileInfo(String unrootedFilename, String downloadUrl, String contentType,
-        Long contentLength) {
+        Long contentLength, String contentHash) {
       this.unrootedFilename = unrootedFilename;
       this.downloadUrl = downloadUrl;
       this.contentType = contentType;
       this.contentLength = contentLength;
+      this.contentHash = contentHash;
     }
   }
 
@@ -249,7 +254,8 @@ public class PersistentResults {
     properties.put(ServletConsts.AS_ATTACHMENT, "yes");
     String addr = cc.getServerURL() + BasicConsts.FORWARDSLASH + BinaryDataServlet.ADDR;
     String url = HtmlUtil.createLinkWithProperties(addr, properties);
-    return new ResultFileInfo(unrootedFilename, url, bcm.getContentType(1, cc), bcm.getContentLength(1, cc));
+    return new ResultFileInfo(unrootedFilename, url, bcm.getContentType(1, cc),
+        bcm.getContentLength(1, cc), bcm.getContentHash(1, cc));
   }
 
   public byte[] getResultFileContents(CallingContext cc) throws ODKDatastoreException {
@@ -261,6 +267,25 @@ public class PersistentResults {
     return bcm.getBlob(1, cc);
   }
 
+  /**
+   * Write the given range of the result file to the stream without assembling
+   * the file in memory.
+   *
+   * @param os
+   * @param offset
+   * @param length
+   * @param cc
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public void writeResultFileRange(OutputStream os, long offset, long length, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+    if (bcm.getAttachmentCount(cc) != 1) {
+      throw new IllegalStateException("Expected exactly one result attached!");
+    }
+    bcm.writeBlobRange(1, os, offset, length, cc);
+  }
+
   public void setResultFile(byte[] byteArray, String contentType,
       String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
     if (bcm.getAttachmentCount(cc) > 0) {
@@ -269,6 +294,15 @@ public class PersistentResults {
     bcm.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
   }
 
+  public void setResultFile(InputStream stream, String contentType,
+      String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException,
+      IOException {
+    if (bcm.getAttachmentCount(cc) > 0) {
+      throw new IllegalStateException("Results are already attached!");
+    }
+    bcm.setValueFromStream(stream, contentType, unrootedFilePath, overwriteOK, cc);
+  }
+
   public String getUri() {
     return row.getUri();
   }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.format.element;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Defers the Base64 encoding of embedded media. The element formatter puts a
+ * placeholder in the formatted JSON for each attachment; when the JSON is
+ * written out, each placeholder is replaced by its attachment, Base64-encoded
+ * while it is read from the datastore. The encoded bytes are never held in a
+ * String.
+ */
+public final class EmbeddedBinaryWriter {
+
+  private static final char END_OF_PLACEHOLDER = '@';
+
+  // unique per writer, so it cannot collide with submitted values
+  private final String marker = "@odk-binary:" + UUID.randomUUID().toString() + ":";
+
+  private final List<BlobSubmissionType> blobs = new ArrayList<BlobSubmissionType>();
+
+  /**
+   * @param blob
+   * @return the placeholder to put in place of the attachment's Base64 content.
+   */
+  String addPlaceholder(BlobSubmissionType blob) {
+    blobs.add(blob);
+    return marker + (blobs.size() - 1) + END_OF_PLACEHOLDER;
+  }
+
+  /**
+   * Write the formatted value, streaming the Base64 content of the attachments
+   * in place of their placeholders.
+   *
+   * @param value
+   * @param out
+   * @param cc
+   * @throws IOException
+   * @throws ODKDatastoreException
+   */
+  public void write(String value, Writer out, CallingContext cc) throws IOException,
+      ODKDatastoreException {
+    int start = 0;
+    int idx;
+    while ((idx = value.indexOf(marker, start)) != -1) {
+      out.write(value, start, idx - start);
+      int end = value.indexOf(END_OF_PLACEHOLDER, idx + marker.length());
+      BlobSubmissionType blob = blobs.get(Integer.parseInt(value.substring(
+          idx + marker.length(), end)));
+      // no line breaks in the encoded output
+      Base64OutputStream encoder = new Base64OutputStream(new WriterOutputStream(out), true, 0,
+          null);
+      blob.writeBlob(1, encoder, cc);
+      // writes the final (padded) block; does not close the writer
+      encoder.close();
+      start = end + 1;
+    }
+    out.write(value, start, value.length() - start);
+  }
+
+  /**
+   * Forget the attachments whose placeholders have been written.
+   */
+  public void clear() {
+    blobs.clear();
+  }
+
+  /**
+   * Passes the (ASCII) Base64 output through to the writer.
+   */
+  private static final class WriterOutputStream extends OutputStream {
+    private final Writer out;
+    private final char[] buffer = new char[4096];
+
+    WriterOutputStream(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write((char) (b & 0xff));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, buffer.length);
+        for (int i = 0; i < n; ++i) {
+          buffer[i] = (char) (b[off + i] & 0xff);
+        }
+        out.write(buffer, 0, n);
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void close() {
+      // leave the writer open
+    }
+  }
+}
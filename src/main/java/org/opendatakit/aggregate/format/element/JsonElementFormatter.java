@@ -33,6 +33,7 @@ import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionRepeat;
 import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
 import org.opendatakit.aggregate.submission.type.GeoPoint;
+import org.opendatakit.aggregate.util.BinaryLinkSigner;
 import org.opendatakit.common.persistence.WrappedBigDecimal;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.utils.WebUtils;
@@ -60,6 +61,17 @@ public class JsonElementFormatter implements ElementFormatter {
 
   private String baseWebServerUrl;
 
+  /**
+   * if true, the links to the binaries are signed (see BinaryLinkSigner).
+   */
+  private boolean signLinks = false;
+
+  /**
+   * if not null, embedded binaries are streamed through this writer rather
+   * than encoded into the formatted value.
+   */
+  private EmbeddedBinaryWriter embeddedBinaryWriter = null;
+
   /**
    * separate the GPS coordinates of latitude and longitude into columns
    */
@@ -128,6 +140,58 @@ public class JsonElementFormatter implements ElementFormatter {
     baseWebServerUrl = webServerUrl;
   }
 
+  /**
+   * Construct a JSON Element Formatter with signed links, which can be
+   * followed without logging in until they expire.
+   *
+   * @param webServerUrl
+   *          base url for the web app (e.g.,
+   *          localhost:8080/ODKAggregatePlatform)
+   * @param signLinks
+   *          if true, sign the links
+   * @param separateGpsCoordinates
+   *          separate the GPS coordinates of latitude and longitude into
+   *          columns
+   * @param includeGpsAltitude
+   *          include GPS altitude data
+   * @param includeGpsAccuracy
+   *          include GPS accuracy data
+   * @param expressMultipleChoiceListsAsArrays
+   *          if true, express the multiple-choice fields as arrays of strings
+   */
+  public JsonElementFormatter(String webServerUrl, boolean signLinks,
+      boolean separateGpsCoordinates, boolean includeGpsAltitude, boolean includeGpsAccuracy,
+      boolean expressMultipleChoiceListsAsArrays, RepeatCallbackFormatter formatter) {
+    this(webServerUrl, separateGpsCoordinates, includeGpsAltitude, includeGpsAccuracy,
+        expressMultipleChoiceListsAsArrays, formatter);
+    this.signLinks = signLinks;
+  }
+
+  /**
+   * Construct a JSON Element Formatter that embeds the binaries through the
+   * given writer.
+   *
+   * @param embeddedBinaryWriter
+   *          writer that will stream the Base64 content of the binaries when
+   *          the formatted values are written out
+   * @param separateGpsCoordinates
+   *          separate the GPS coordinates of latitude and longitude into
+   *          columns
+   * @param includeGpsAltitude
+   *          include GPS altitude data
+   * @param includeGpsAccuracy
+   *          include GPS accuracy data
+   * @param expressMultipleChoiceListsAsArrays
+   *          if true, express the multiple-choice fields as arrays of strings
+   */
+  public JsonElementFormatter(EmbeddedBinaryWriter embeddedBinaryWriter,
+      boolean separateGpsCoordinates, boolean includeGpsAltitude, boolean includeGpsAccuracy,
+      boolean expressMultipleChoiceListsAsArrays, RepeatCallbackFormatter formatter) {
+    this(separateGpsCoordinates, includeGpsAltitude, includeGpsAccuracy,
+        expressMultipleChoiceListsAsArrays, formatter);
+    this.embeddedBinaryWriter = embeddedBinaryWriter;
+  }
+
   @Override
   public void formatUid(String uri, String propertyName, Row row) {
     // unneeded so unimplemented
@@ -142,39 +206,56 @@ public class JsonElementFormatter implements ElementFormatter {
       return;
     }
 
+    if (blobSubmission.getAttachmentCount(cc) != 1) {
+      return;
+    }
     byte[] imageBlob = null;
-    if (blobSubmission.getAttachmentCount(cc) == 1) {
+    if (baseWebServerUrl == null && embeddedBinaryWriter == null) {
       imageBlob = blobSubmission.getBlob(1, cc);
-    }
-    if (imageBlob != null && imageBlob.length > 0) {
-      Map<String,String> obj = new HashMap<String,String>();
-      obj.put("filename", blobSubmission.getUnrootedFilename(1, cc));
-      obj.put("type", blobSubmission.getContentType(1, cc));
-      if (baseWebServerUrl == null) {
-        // embed the binary
-        obj.put("bytes", new String(Base64.encodeBase64(imageBlob)));
-      } else {
-        // create a link to the binary
-        SubmissionKey key = blobSubmission.getValue();
-        Map<String, String> properties = new HashMap<String, String>();
-        properties.put(ServletConsts.BLOB_KEY, key.toString());
-        String url = HtmlUtil.createLinkWithProperties(baseWebServerUrl + BasicConsts.FORWARDSLASH
-            + BinaryDataServlet.ADDR, properties);
-        obj.put("url", url);
+      if (imageBlob == null || imageBlob.length == 0) {
+        return;
       }
-      String serialized = null;
-      try {
-        serialized = mapper.writeValueAsString(obj);
-      } catch (JsonGenerationException e) {
-        e.printStackTrace();
-      } catch (JsonMappingException e) {
-        e.printStackTrace();
-      } catch (IOException e) {
-        e.printStackTrace();
+    } else {
+      Long contentLength = blobSubmission.getContentLength(1, cc);
+      if (contentLength != null && contentLength == 0L) {
+        return;
       }
-      addToJsonValueToRow(serialized, false, element.getElementName(), row);
     }
 
+    Map<String,String> obj = new HashMap<String,String>();
+    obj.put("filename", blobSubmission.getUnrootedFilename(1, cc));
+    obj.put("type", blobSubmission.getContentType(1, cc));
+    if (imageBlob != null) {
+      // embed the binary
+      obj.put("bytes", new String(Base64.encodeBase64(imageBlob)));
+    } else if (embeddedBinaryWriter != null) {
+      // embed the binary when the value is written out
+      obj.put("bytes", embeddedBinaryWriter.addPlaceholder(blobSubmission));
+    } else if (signLinks) {
+      // create a signed link to the binary
+      obj.put("url", BinaryLinkSigner.createSignedLink(baseWebServerUrl,
+          blobSubmission.getValue().toString(), cc));
+    } else {
+      // create a link to the binary
+      SubmissionKey key = blobSubmission.getValue();
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put(ServletConsts.BLOB_KEY, key.toString());
+      String url = HtmlUtil.createLinkWithProperties(baseWebServerUrl + BasicConsts.FORWARDSLASH
+          + BinaryDataServlet.ADDR, properties);
+      obj.put("url", url);
+    }
+    String serialized = null;
+    try {
+      serialized = mapper.writeValueAsString(obj);
+    } catch (JsonGenerationException e) {
+      e.printStackTrace();
+    } catch (JsonMappingException e) {
+      e.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    addToJsonValueToRow(serialized, false, element.getElementName(), row);
+
   }
 
   @Override
@@ -14,6 +14,7 @@
 
 package org.opendatakit.aggregate.format.structure;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.List;
@@ -27,6 +28,7 @@ import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.format.RepeatCallbackFormatter;
 import org.opendatakit.aggregate.format.Row;
 import org.opendatakit.aggregate.format.SubmissionFormatter;
+import org.opendatakit.aggregate.format.element.EmbeddedBinaryWriter;
 import org.opendatakit.aggregate.format.element.JsonElementFormatter;
 import org.opendatakit.aggregate.server.GenerateHeaderInfo;
 import org.opendatakit.aggregate.submission.Submission;
@@ -51,12 +53,33 @@ public class JsonFormatterWithFilters implements SubmissionFormatter, RepeatCall
 
   private PrintWriter output;
 
+  private EmbeddedBinaryWriter embeddedBinaryWriter = null;
+
   public JsonFormatterWithFilters(PrintWriter printWriter, IForm form, FilterGroup filterGroup,
       BinaryOption binaryOption, boolean expandMultipleChoiceAsArray, String webServerUrl) {
+    this(printWriter, form, filterGroup, binaryOption, expandMultipleChoiceAsArray, webServerUrl,
+        false);
+  }
+
+  /**
+   * @param streamEmbeddedBinaries
+   *          if true and the binaries are embedded, stream their Base64
+   *          content to the printWriter instead of building it in memory.
+   */
+  public JsonFormatterWithFilters(PrintWriter printWriter, IForm form, FilterGroup filterGroup,
+      BinaryOption binaryOption, boolean expandMultipleChoiceAsArray, String webServerUrl,
+      boolean streamEmbeddedBinaries) {
     output = printWriter;
 
-    if (binaryOption == BinaryOption.EMBED_BINARY) {
+    if (binaryOption == BinaryOption.EMBED_BINARY && streamEmbeddedBinaries) {
+      embeddedBinaryWriter = new EmbeddedBinaryWriter();
+      elemFormatter = new JsonElementFormatter(embeddedBinaryWriter, true, true, true,
+          expandMultipleChoiceAsArray, this);
+    } else if (binaryOption == BinaryOption.EMBED_BINARY) {
       elemFormatter = new JsonElementFormatter(true, true, true, expandMultipleChoiceAsArray, this);
+    } else if (binaryOption == BinaryOption.PROVIDE_SIGNED_LINKS) {
+      elemFormatter = new JsonElementFormatter(webServerUrl, true, true, true, true,
+          expandMultipleChoiceAsArray, this);
     } else {
       elemFormatter = new JsonElementFormatter(webServerUrl, true, true, true,
           expandMultipleChoiceAsArray, this);
@@ -84,7 +107,7 @@ public class JsonFormatterWithFilters implements SubmissionFormatter, RepeatCall
       }
       first = false;
       Row row = sub.getFormattedValuesAsRow(propertyNames, elemFormatter, false, cc);
-      appendJsonObject(row.getFormattedValues().iterator());
+      appendJsonObject(row.getFormattedValues().iterator(), cc);
     }
   }
 
@@ -141,8 +164,11 @@ public class JsonFormatterWithFilters implements SubmissionFormatter, RepeatCall
    *
    * @param itr
    *          string values to be separated by commas
+   * @param cc
+   * @throws ODKDatastoreException
    */
-  private void appendJsonObject(Iterator<String> itr) {
+  private void appendJsonObject(Iterator<String> itr, CallingContext cc)
+      throws ODKDatastoreException {
     output.append(BasicConsts.LEFT_BRACE);
     boolean firstElement = true;
     while (itr.hasNext()) {
@@ -150,8 +176,19 @@ public class JsonFormatterWithFilters implements SubmissionFormatter, RepeatCall
         output.append(FormatConsts.JSON_VALUE_DELIMITER);
       }
       firstElement = false;
-      output.append(itr.next());
+      if (embeddedBinaryWriter == null) {
+        output.append(itr.next());
+      } else {
+        try {
+          embeddedBinaryWriter.write(itr.next(), output, cc);
+        } catch (IOException e) {
+          throw new IllegalStateException("Unable to write the embedded media", e);
+        }
+      }
     }
     output.append(BasicConsts.RIGHT_BRACE);
+    if (embeddedBinaryWriter != null) {
+      embeddedBinaryWriter.clear();
+    }
   }
 }
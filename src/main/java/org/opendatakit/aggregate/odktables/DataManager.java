@@ -21,8 +21,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
@@ -209,60 +212,146 @@ public class DataManager {
   }
 
   /**
-   * Retrieve all current rows of the table.
+   * The table state a read is performed against: the table entry as of the
+   * start of the read, the column definitions and relations of its schemaETag,
+   * and the value produced by the {@link SnapshotReader}. A reader that cannot
+   * produce its result without the lock sets requiresLock on an unlocked
+   * snapshot.
+   */
+  private static final class TableSnapshot<T> {
+    DbTableEntryEntity entry;
+    List<DbColumnDefinitionsEntity> columns;
+    DbTable table;
+    DbLogTable logTable;
+    boolean isLocked;
+    boolean requiresLock;
+    T result;
+  }
+
+  private interface SnapshotReader<T> {
+    T read(TableSnapshot<T> snapshot) throws ODKDatastoreException, InconsistentStateException,
+        BadColumnNameException;
+  }
+
+  private <T> TableSnapshot<T> openSnapshot(DbTableEntryEntity entry, boolean isLocked)
+      throws ODKDatastoreException, InconsistentStateException {
+    String schemaETag = entry.getSchemaETag();
+
+    if (schemaETag == null) {
+      throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+    }
+
+    TableSnapshot<T> snapshot = new TableSnapshot<T>();
+    snapshot.entry = entry;
+    snapshot.isLocked = isLocked;
+
+    DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag, cc);
+    snapshot.columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+
+    snapshot.table = DbTable.getRelation(tableDefn, snapshot.columns, cc);
+    snapshot.logTable = DbLogTable.getRelation(tableDefn, snapshot.columns, cc);
+    return snapshot;
+  }
+
+  /**
+   * Perform a read of the table data.
+   * <p>
+   * Writers hold the TABLES_NON_PERMISSIONS_CHANGES lock and bracket their
+   * changes by setting and then clearing the pendingDataETag of the table
+   * entry. If there is no pending change, the read is done without the lock
+   * and the table entry is re-read afterwards. If the dataETag and schemaETag
+   * are unchanged and no change is pending, nothing was committed or
+   * partially written while reading and the result is a consistent snapshot.
+   * Otherwise, or if the table entry carries an abandoned pendingDataETag, or
+   * if the reader asked for the lock, the read is repeated under the lock
+   * after reverting pending changes.
    *
-   * @return all the rows of the table.
+   * @param reader
+   * @return the snapshot the reader was applied to, holding its result
    * @throws ODKDatastoreException
-   * @throws PermissionDeniedException
    * @throws ODKTaskLockException
    * @throws InconsistentStateException
    * @throws BadColumnNameException
    */
-  public WebsafeRows getRows(QueryResumePoint startCursor, int fetchLimit)
-      throws ODKDatastoreException, PermissionDeniedException, ODKTaskLockException,
-      InconsistentStateException, BadColumnNameException {
+  private <T> TableSnapshot<T> readSnapshot(SnapshotReader<T> reader)
+      throws ODKDatastoreException, ODKTaskLockException, InconsistentStateException,
+      BadColumnNameException {
 
-    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    if (entry.getPendingDataETag() == null) {
+      TableSnapshot<T> snapshot = openSnapshot(entry, false);
+      ODKDatastoreException failure = null;
+      try {
+        snapshot.result = reader.read(snapshot);
+      } catch (ODKDatastoreException e) {
+        // may be caused by a concurrent change (e.g., a dropped stale table).
+        failure = e;
+      }
+      if (isUnchanged(entry, DbTableEntry.getTableIdEntry(tableId, cc))) {
+        if (failure != null) {
+          throw failure;
+        }
+        if (!snapshot.requiresLock) {
+          return snapshot;
+        }
+      } else {
+        logger.info("Table " + tableId + " changed during unlocked read -- retrying under lock");
+      }
+    }
 
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
     OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.SHORT, cc);
     try {
       propsLock.acquire();
 
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
+      entry = DbTableEntry.getTableIdEntry(tableId, cc);
+      TableSnapshot<T> snapshot = openSnapshot(entry, true);
 
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
+      revertPendingChanges(entry, snapshot.columns, snapshot.table, snapshot.logTable);
 
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+      snapshot.result = reader.read(snapshot);
+      return snapshot;
+    } finally {
+      propsLock.release();
+    }
+  }
 
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+  private static boolean isUnchanged(DbTableEntryEntity before, DbTableEntryEntity after) {
+    return after.getPendingDataETag() == null
+        && Objects.equals(before.getDataETag(), after.getDataETag())
+        && Objects.equals(before.getSchemaETag(), after.getSchemaETag());
+  }
 
-      revertPendingChanges(entry, columns, table, logTable);
+  /**
+   * Retrieve all current rows of the table.
+   *
+   * @return all the rows of the table.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws ODKTaskLockException
+   * @throws InconsistentStateException
+   * @throws BadColumnNameException
+   */
+  public WebsafeRows getRows(QueryResumePoint startCursor, int fetchLimit)
+      throws ODKDatastoreException, PermissionDeniedException, ODKTaskLockException,
+      InconsistentStateException, BadColumnNameException {
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-      Query query = buildRowsQuery(table);
-      query.addSort(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+    TableSnapshot<WebsafeQueryResult> snapshot = readSnapshot(s -> {
+      Query query = buildRowsQuery(s.table);
+      query.addSort(s.table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
           (startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING
               : Direction.DESCENDING);
       // we need the filter to activate the sort...
-      query.addFilter(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+      query.addFilter(s.table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
           org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
-      result = query.execute(startCursor, fetchLimit);
+      return query.execute(startCursor, fetchLimit);
+    });
 
-    } finally {
-      propsLock.release();
-    }
+    String currentDataETag = snapshot.entry.getDataETag();
+    List<DbColumnDefinitionsEntity> columns = snapshot.columns;
+    WebsafeQueryResult result = snapshot.result;
 
     if (result.entities == null || columns == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
@@ -306,40 +395,46 @@ public class DataManager {
   public WebsafeRows getRowsSince(String dataETag, QueryResumePoint startCursor, int fetchLimit)
       throws ODKDatastoreException, ODKTaskLockException, InconsistentStateException,
       PermissionDeniedException, BadColumnNameException {
+    return getRowsSince(dataETag, startCursor, fetchLimit, false);
+  }
 
-    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
-
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
-    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.SHORT, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
-
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+  /**
+   * Retrieves a set of rows representing the changes since the given data etag.
+   * <p>
+   * If compacted is true, only the latest change to each row is returned: log
+   * entries that have been superseded by a later change to the same row are
+   * dropped from every page. A row edited many times since the data etag is
+   * then shipped once rather than once per edit. Because the range of the
+   * change feed is open-ended, the latest change of a row is always within it.
+   * A compacted page can hold fewer rows than fetchLimit, or none at all,
+   * while hasMore is still true, so callers must follow the resume cursor
+   * until hasMore is false.
+   *
+   * @param dataETag
+   *          the data ETag
+   * @param startCursor
+   * @param fetchLimit
+   *          the number of log entries to examine for this page
+   * @param compacted
+   *          true to return only the latest change to each row
+   * @return the rows which have changed or been added since the given data etag
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   * @throws InconsistentStateException
+   * @throws PermissionDeniedException
+   * @throws BadColumnNameException
+   */
+  public WebsafeRows getRowsSince(String dataETag, QueryResumePoint startCursor, int fetchLimit,
+      boolean compacted) throws ODKDatastoreException, ODKTaskLockException,
+      InconsistentStateException, PermissionDeniedException, BadColumnNameException {
 
-      revertPendingChanges(entry, columns, table, logTable);
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
+    TableSnapshot<WebsafeQueryResult> snapshot = readSnapshot(s -> {
       String sequenceValue = null;
       if (dataETag != null) {
         try {
-          sequenceValue = getSequenceValueForDataETag(logTable, dataETag);
+          sequenceValue = getSequenceValueForDataETag(s.logTable, dataETag);
         } catch (ODKEntityNotFoundException e) {
           // TODO: log this as a warning -- may be returning a very large set
           sequenceValue = null;
@@ -348,17 +443,25 @@ public class DataManager {
 
       Query query;
       if (sequenceValue == null) {
-        query = buildRowsFromBeginningQuery(logTable, entry, (startCursor == null ? true
+        query = buildRowsFromBeginningQuery(s.logTable, s.entry, (startCursor == null ? true
             : startCursor.isForwardCursor()));
       } else {
-        query = buildRowsSinceQuery(logTable, sequenceValue, (startCursor == null ? true
+        query = buildRowsSinceQuery(s.logTable, sequenceValue, (startCursor == null ? true
             : startCursor.isForwardCursor()));
       }
 
-      result = query.execute(startCursor, fetchLimit);
-    } finally {
-      propsLock.release();
-    }
+      WebsafeQueryResult page = query.execute(startCursor, fetchLimit);
+      if (compacted && page.entities != null) {
+        page = new WebsafeQueryResult(retainLatestChanges(s.table, page.entities),
+            page.websafeRefetchCursor, page.websafeBackwardCursor, page.websafeResumeCursor,
+            page.hasMore, page.hasPrior);
+      }
+      return page;
+    });
+
+    String currentDataETag = snapshot.entry.getDataETag();
+    List<DbColumnDefinitionsEntity> columns = snapshot.columns;
+    WebsafeQueryResult result = snapshot.result;
 
     if (result.entities == null || columns == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
@@ -409,78 +512,58 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
     
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
-    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.SHORT, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
-
-      currentDataETag = entry.getDataETag();
-
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+    if (startTime == null) {
+      throw new IllegalArgumentException("startTime must be specified.");
+    }
 
-      revertPendingChanges(entry, columns, table, logTable);
+    SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS");
+    Date startDateToCompare = sf.parse(startTime);
+    // endTime is an optional parameter
+    // and does not have to have a valid value
+    Date endDateToCompare = (endTime == null) ? null : sf.parse(endTime);
+    String queryColumn = query_col;
 
-     SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS");
-     Date startDateToCompare = null;
+    TableSnapshot<WebsafeQueryResult> snapshot = readSnapshot(s -> {
       String startSequenceValue = null;
-      if (startTime != null) {
-        try {
-        startDateToCompare = sf.parse(startTime);
-          startSequenceValue = getSequenceValueForStartTime(logTable, query_col, startTime, startDateToCompare, Direction.ASCENDING);
-              //(startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING : Direction.DESCENDING);
-        } catch (ODKEntityNotFoundException e) {
-          // No values to display should return empty list
-          ArrayList<Row> rows = new ArrayList<Row>();
-          return new WebsafeRows(rows, currentDataETag, null, null, null, false, false);
-        }
-      } else {
-        throw new IllegalArgumentException("startTime must be specified.");
+      try {
+        startSequenceValue = getSequenceValueForStartTime(s.logTable, queryColumn, startTime, startDateToCompare, Direction.ASCENDING);
+            //(startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING : Direction.DESCENDING);
+      } catch (ODKEntityNotFoundException e) {
+        // No values to display should return empty list
+        return null;
       }
-      
-      // endTime is an optional parameter
-      // and does not have to have a valid value
-     Date endDateToCompare = null;
+
       String endSequenceValue = null;
       if (endTime != null) {
         try {
-         endDateToCompare = sf.parse(endTime);
          // For the end time stamp we want the last one
-         endSequenceValue = getSequenceValueForEndTime(logTable, query_col, endTime, endDateToCompare, Direction.DESCENDING);
+         endSequenceValue = getSequenceValueForEndTime(s.logTable, queryColumn, endTime, endDateToCompare, Direction.DESCENDING);
              // (startCursor == null || startCursor.isForwardCursor()) ? Direction.DESCENDING : Direction.ASCENDING);
         } catch (ODKEntityNotFoundException e) {
           // If a sequence values is not found,
           // the query should still work
         }
-      } 
+      }
 
       // CAL: From getRowsSince
       Query query;
       if (startSequenceValue == null) {
         throw new IllegalArgumentException("No sequence value exists for the specified startTime.");
       } else {
-        query = buildRowsIncludingQuery(logTable, startSequenceValue, endSequenceValue, (startCursor == null ? true
+        query = buildRowsIncludingQuery(s.logTable, startSequenceValue, endSequenceValue, (startCursor == null ? true
             : startCursor.isForwardCursor()));
       }
 
-      result = query.execute(startCursor, fetchLimit);
-    } finally {
-      propsLock.release();
+      return query.execute(startCursor, fetchLimit);
+    });
+
+    String currentDataETag = snapshot.entry.getDataETag();
+    List<DbColumnDefinitionsEntity> columns = snapshot.columns;
+    WebsafeQueryResult result = snapshot.result;
+
+    if (result == null) {
+      ArrayList<Row> rows = new ArrayList<Row>();
+      return new WebsafeRows(rows, currentDataETag, null, null, null, false, false);
     }
 
     if (result.entities == null || columns == null) {
@@ -501,17 +584,9 @@ public class DataManager {
       }
     }
     
-    List<Row> diffRows = computeDiff(rows);
-    
-    // Display rows in the order that they were meant to be 
+    // computeDiff keeps the rows in the order that they were meant to be
     // displayed
-    List<Row> orderedRows = new ArrayList<Row>();
-    for (int i = 0; i < rows.size(); i++) {
-      if (diffRows.contains(rows.get(i))) {
-         orderedRows.add(rows.get(i));
-      }
-    }
-    return new WebsafeRows(orderedRows, currentDataETag, result.websafeRefetchCursor,
+    return new WebsafeRows(computeDiff(rows), currentDataETag, result.websafeRefetchCursor,
         result.websafeBackwardCursor, result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
 
@@ -548,6 +623,27 @@ public class DataManager {
     return e.getString(DbLogTable.SEQUENCE_VALUE);
   }
   
+  /**
+   * @param logTable
+   * @return the highest SEQUENCE_VALUE in the log table, or null if it is empty
+   * @throws ODKDatastoreException
+   */
+  private String getLastSequenceValue(DbLogTable logTable) throws ODKDatastoreException {
+    Query query = logTable.query("DataManager.getLastSequenceValue", cc);
+
+    // we need the filter to activate the sort for the sequence value
+    query.addFilter(DbLogTable.SEQUENCE_VALUE,
+            org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, " ");
+
+    query.addSort(DbLogTable.SEQUENCE_VALUE, Direction.DESCENDING);
+
+    WebsafeQueryResult result = query.execute(null, 1);
+    if (result.entities == null || result.entities.isEmpty()) {
+      return null;
+    }
+    return result.entities.get(0).getString(DbLogTable.SEQUENCE_VALUE);
+  }
+
   /**
    * Perform direct query on dateColToUseForCompare to retrieve the
    * SEQUENCE_VALUE of that row. This is then used to construct the
@@ -692,18 +788,54 @@ public class DataManager {
    * Takes a list of rows which are not necessarily all unique and returns a
    * list of unique rows. In the case where there is more than one row with the
    * same rowId, only the last (highest index) row is included in the returned
-   * list.
+   * list. The returned rows keep their relative order.
    *
    * @param rows
    *          the rows
    * @return the list of unique rows
    */
   private List<Row> computeDiff(List<Row> rows) {
-    Map<String, Row> diff = new HashMap<String, Row>();
-    for (Row logRow : rows) {
-      diff.put(logRow.getRowId(), logRow);
+    Map<String, Integer> lastIndex = new HashMap<String, Integer>();
+    for (int i = 0; i < rows.size(); ++i) {
+      lastIndex.put(rows.get(i).getRowId(), i);
+    }
+    List<Row> diff = new ArrayList<Row>(lastIndex.size());
+    for (int i = 0; i < rows.size(); ++i) {
+      if (lastIndex.get(rows.get(i).getRowId()) == i) {
+        diff.add(rows.get(i));
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * The ROW_ETAG of a DbTable row is the primary key of the log entry holding
+   * its current state. Drop the log entries that are not the current state of
+   * their row.
+   *
+   * @param table
+   * @param logEntities
+   * @return the log entities that are the latest change to their row, in their
+   *         original order.
+   * @throws ODKDatastoreException
+   */
+  private List<Entity> retainLatestChanges(DbTable table, List<Entity> logEntities)
+      throws ODKDatastoreException {
+    Set<String> rowIds = new HashSet<String>();
+    for (Entity logEntity : logEntities) {
+      rowIds.add(logEntity.getString(DbLogTable.ROW_ID));
+    }
+    Set<String> currentRowETags = new HashSet<String>();
+    for (Entity rowEntity : DbTable.query(table, new ArrayList<String>(rowIds), cc)) {
+      currentRowETags.add(rowEntity.getString(DbTable.ROW_ETAG));
+    }
+    List<Entity> latest = new ArrayList<Entity>();
+    for (Entity logEntity : logEntities) {
+      if (currentRowETags.contains(logEntity.getId())) {
+        latest.add(logEntity);
+      }
     }
-    return new ArrayList<Row>(diff.values());
+    return latest;
   }
 
   /**
@@ -728,35 +860,10 @@ public class DataManager {
 
       userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-      List<DbColumnDefinitionsEntity> columns = null;
-      Entity entity = null;
-      OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId,
-          ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.SHORT, cc);
-      try {
-        propsLock.acquire();
-
-        DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-        String schemaETag = entry.getSchemaETag();
-
-        if (schemaETag == null) {
-          throw new InconsistentStateException("Schema for table " + tableId
-              + " is not yet defined.");
-        }
-
-        DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
-            cc);
-        columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-        DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-        DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-        revertPendingChanges(entry, columns, table, logTable);
+      TableSnapshot<Entity> snapshot = readSnapshot(s -> s.table.getEntity(rowId, cc));
 
-        entity = table.getEntity(rowId, cc);
-
-      } finally {
-        propsLock.release();
-      }
+      List<DbColumnDefinitionsEntity> columns = snapshot.columns;
+      Entity entity = snapshot.result;
 
       if (columns == null) {
         throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
@@ -960,16 +1067,34 @@ public class DataManager {
 
         ArrayList<BulkRowObjWrapper> rowWrapperList = new ArrayList<BulkRowObjWrapper>();
 
+        // fetch all the existing rows up front rather than one at a time
+        List<BulkRowObjWrapper> incomingRows = new ArrayList<BulkRowObjWrapper>();
+        List<String> rowIds = new ArrayList<String>();
         for (Row row : rows.getRows()) {
-
           BulkRowObjWrapper rowWrapper = new BulkRowObjWrapper(row);
+          incomingRows.add(rowWrapper);
+          rowIds.add(rowWrapper.getRowId());
+        }
+        Map<String, Entity> existingRows = new HashMap<String, Entity>();
+        for (Entity entity : DbTable.query(table, rowIds, cc)) {
+          existingRows.put(entity.getId(), entity);
+        }
+        Set<String> existingRowIds = new HashSet<String>(existingRows.keySet());
+
+        for (BulkRowObjWrapper rowWrapper : incomingRows) {
+
+          Row row = rowWrapper.getRow();
 
           // and add row wrapper for bulk processing
           rowWrapperList.add(rowWrapper);
 
-          Entity entity = null;
-          try {
+          // a row id that appears more than once in the push gets its own
+          // entity, as each is applied against the stored row.
+          Entity entity = existingRows.remove(rowWrapper.getRowId());
+          if (entity == null && existingRowIds.contains(rowWrapper.getRowId())) {
             entity = table.getEntity(rowWrapper.getRowId(), cc);
+          }
+          if (entity != null) {
 
             if (rowWrapper.hasNewRowId()) {
               // yikes! -- generated UUID conflicts with an existing one.
@@ -978,7 +1103,7 @@ public class DataManager {
               continue;
             }
 
-          } catch (ODKEntityNotFoundException e) {
+          } else {
 
             if (row.isDeleted()) {
               rowWrapper.setOutcome(OutcomeType.DENIED);
@@ -1554,40 +1679,26 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-    String currentDataETag = null;
-    String retrievalSequenceValue = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    List<?> result = null;
-    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.SHORT, cc);
-    try {
-      propsLock.acquire();
-      Sequencer sequencer = new Sequencer(cc);
-      retrievalSequenceValue = sequencer.getNextSequenceValue();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+    TableSnapshot<ChangeSetList> snapshot = readSnapshot(s -> {
+      String retrievalSequenceValue;
+      if (s.isLocked) {
+        Sequencer sequencer = new Sequencer(cc);
+        retrievalSequenceValue = sequencer.getNextSequenceValue();
+      } else {
+        // without the lock the sequencer base cannot be advanced; the last
+        // committed change is as far as this snapshot can see.
+        retrievalSequenceValue = getLastSequenceValue(s.logTable);
+        if (retrievalSequenceValue == null) {
+          // nothing has been logged yet -- only the sequencer can supply a value.
+          s.requiresLock = true;
+          return null;
+        }
       }
 
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-      revertPendingChanges(entry, columns, table, logTable);
-
       String unifiedSequenceValue = null;
       if (dataETag != null) {
         try {
-          unifiedSequenceValue = getSequenceValueForDataETag(logTable, dataETag);
+          unifiedSequenceValue = getSequenceValueForDataETag(s.logTable, dataETag);
         } catch (ODKEntityNotFoundException e) {
           // TODO: log this as a warning -- may be returning a very large set
           unifiedSequenceValue = null;
@@ -1601,27 +1712,28 @@ public class DataManager {
       
       Query query;
       if (unifiedSequenceValue == null) {
-        query = buildRowsFromBeginningQuery(logTable, entry, true);
+        query = buildRowsFromBeginningQuery(s.logTable, s.entry, true);
       } else {
-        query = buildRowsSinceQuery(logTable, unifiedSequenceValue, true);
+        query = buildRowsSinceQuery(s.logTable, unifiedSequenceValue, true);
       }
       
-      result = query.getDistinct(DbLogTable.DATA_ETAG_AT_MODIFICATION);
-    } finally {
-      propsLock.release();
-    }
+      List<?> result = query.getDistinct(DbLogTable.DATA_ETAG_AT_MODIFICATION);
+      String currentDataETag = s.entry.getDataETag();
 
-    if (result == null || result.isEmpty() ) {
-      return new ChangeSetList(null, currentDataETag, retrievalSequenceValue);
-    }
+      if (result == null || result.isEmpty() ) {
+        return new ChangeSetList(null, currentDataETag, retrievalSequenceValue);
+      }
 
-    ArrayList<String> dataETags = new ArrayList<String>();
-    for (Object o : result) {
-      String value = (String) o;
-      dataETags.add(value);
-    }
-    
-    return new ChangeSetList(dataETags, currentDataETag, retrievalSequenceValue);
+      ArrayList<String> dataETags = new ArrayList<String>();
+      for (Object o : result) {
+        String value = (String) o;
+        dataETags.add(value);
+      }
+      
+      return new ChangeSetList(dataETags, currentDataETag, retrievalSequenceValue);
+    });
+
+    return snapshot.result;
   }
 
   /**
@@ -1646,39 +1758,13 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
-    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.SHORT, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
-
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-      revertPendingChanges(entry, columns, table, logTable);
-
+    TableSnapshot<WebsafeQueryResult> snapshot = readSnapshot(s -> {
       boolean isForwardCursor = (startCursor == null ? true
           : startCursor.isForwardCursor());
       
       if ( isActive ) {
         // query is against DbTable
-        Query query = table.query("DataManager.getChangeSetRows", cc);
+        Query query = s.table.query("DataManager.getChangeSetRows", cc);
         query.equal(DbTable.DATA_ETAG_AT_MODIFICATION, dataETag);
         if (isForwardCursor) {
           query.greaterThan(DbTable.ROW_ETAG,"");
@@ -1688,11 +1774,11 @@ public class DataManager {
           query.sortDescending(DbTable.ROW_ETAG);
         }
 
-        result = query.execute(startCursor, fetchLimit);
+        return query.execute(startCursor, fetchLimit);
         
       } else {
         // query is against DbLogTable
-        Query query = logTable.query("DataManager.getChangeSetRows", cc);
+        Query query = s.logTable.query("DataManager.getChangeSetRows", cc);
         query.equal(DbLogTable.DATA_ETAG_AT_MODIFICATION, dataETag);
         if (isForwardCursor) {
           query.greaterThan(DbLogTable.ROW_ID,"");
@@ -1702,12 +1788,13 @@ public class DataManager {
           query.sortDescending(DbLogTable.ROW_ID);
         }
         
-        result = query.execute(startCursor, fetchLimit);
+        return query.execute(startCursor, fetchLimit);
       }
+    });
 
-    } finally {
-      propsLock.release();
-    }
+    String currentDataETag = snapshot.entry.getDataETag();
+    List<DbColumnDefinitionsEntity> columns = snapshot.columns;
+    WebsafeQueryResult result = snapshot.result;
 
     if (result.entities == null || columns == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
@@ -19,32 +19,63 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.odktables.impl.api.FileServiceImpl;
+import org.opendatakit.aggregate.odktables.relation.DbManifestETags;
+import org.opendatakit.aggregate.odktables.relation.DbManifestETags.DbManifestETagEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo;
 import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo.DbTableFileInfoEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableFiles;
 import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifest;
 import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntry;
 import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.PersistenceUtils;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.web.CallingContext;
 
 /**
  * Manages the manifest of files.
  *
+ * Building a manifest costs several queries per file, so the manifest entries
+ * are cached by (appId, tableId, odkClientVersion) along with the manifest
+ * ETag they were built for. FileManager clears the ETag whenever a file
+ * changes; until then, the cached entries are served without taking the table
+ * lock.
+ *
+ * There is one ETag per tableId (see {@link DbManifestETags}), shared by the
+ * manifests of every odkClientVersion. It is a fresh value each time it is
+ * recreated after a change, rather than a hash of one version's manifest, so
+ * that serving another client version never replaces it. A change to the
+ * files of one client version therefore also changes the ETag seen by the
+ * other versions; their clients just fetch an unchanged manifest again.
+ *
  * @author sudar.sam@gmail.com
  *
  */
 public class FileManifestManager {
 
+  private static final class CachedManifest {
+    final String eTag;
+    final ArrayList<OdkTablesFileManifestEntry> entries;
+
+    CachedManifest(String eTag, ArrayList<OdkTablesFileManifestEntry> entries) {
+      this.eTag = eTag;
+      this.entries = entries;
+    }
+  }
+
+  private static final ConcurrentHashMap<String, CachedManifest> manifestCache = new ConcurrentHashMap<String, CachedManifest>();
+
   private String appId;
   private String odkClientVersion;
+  private String manifestETag;
   private CallingContext cc;
   private Logger log;
 
@@ -58,8 +89,16 @@ public class FileManifestManager {
     this.log = LoggerFactory.getLogger(FileManifestManager.class);
   }
 
+  /**
+   * @return the ETag of the manifest most recently returned by this manager.
+   */
+  public String getManifestETag() {
+    return manifestETag;
+  }
+
   /**
    * Get the manifest entries for the files associated with the given table.
+   * Its ETag is then available from {@link #getManifestETag()}.
    *
    * @param tableId
    * @return
@@ -69,23 +108,7 @@ public class FileManifestManager {
   public OdkTablesFileManifest getManifestForTable(String tableId)
       throws ODKDatastoreException, ODKTaskLockException {
     // TODO: need to handle access control.
-
-    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId, null,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.MEDIUM, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableFiles dbTableFiles = new DbTableFiles(cc);
-      List<DbTableFileInfoEntity> entities = DbTableFileInfo.queryForTableIdFiles(odkClientVersion,
-          tableId, cc);
-      ArrayList<OdkTablesFileManifestEntry> manifestEntries = getEntriesFromQuery(entities,
-          dbTableFiles);
-      OdkTablesFileManifest manifest = new OdkTablesFileManifest(manifestEntries);
-      return manifest;
-
-    } finally {
-      propsLock.release();
-    }
+    return getManifest(tableId, tableId);
   }
 
   /**
@@ -100,18 +123,61 @@ public class FileManifestManager {
   public OdkTablesFileManifest getManifestForAppLevelFiles()
       throws ODKDatastoreException, ODKTaskLockException {
     // TODO: need to handle access control.
+    return getManifest(DbTableFileInfo.NO_TABLE_ID, DbManifestETags.APP_LEVEL);
+  }
 
-    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(DbTableFileInfo.NO_TABLE_ID, null,
+  /**
+   * Serve the manifest from the cache if the ETag it was built for is still
+   * current. Otherwise, rebuild it under the table lock and record its ETag.
+   *
+   * @param tableId
+   *          the tableId of the files (NO_TABLE_ID for app-level files)
+   * @param manifestETagId
+   *          the id of the ETag entry (APP_LEVEL for app-level files)
+   * @return
+   * @throws ODKDatastoreException
+   * @throws ODKTaskLockException
+   */
+  private OdkTablesFileManifest getManifest(String tableId, String manifestETagId)
+      throws ODKDatastoreException, ODKTaskLockException {
+    String cacheKey = appId + "|" + manifestETagId + "|" + odkClientVersion;
+
+    DbManifestETagEntity eTagEntity = getManifestETagEntity(manifestETagId);
+    CachedManifest cached = manifestCache.get(cacheKey);
+    if (eTagEntity != null && cached != null && cached.eTag.equals(eTagEntity.getManifestETag())) {
+      manifestETag = cached.eTag;
+      return new OdkTablesFileManifest(copyOf(cached.entries));
+    }
+
+    OdkTablesLockTemplate propsLock = new OdkTablesLockTemplate(tableId, null,
         ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, OdkTablesLockTemplate.DelayStrategy.MEDIUM, cc);
     try {
       propsLock.acquire();
 
       DbTableFiles dbTableFiles = new DbTableFiles(cc);
-      List<DbTableFileInfoEntity> entities = DbTableFileInfo.queryForAppLevelFiles(odkClientVersion,
-          cc);
+      List<DbTableFileInfoEntity> entities;
+      if (DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
+        entities = DbTableFileInfo.queryForAppLevelFiles(odkClientVersion, cc);
+      } else {
+        entities = DbTableFileInfo.queryForTableIdFiles(odkClientVersion, tableId, cc);
+      }
       ArrayList<OdkTablesFileManifestEntry> manifestEntries = getEntriesFromQuery(entities,
           dbTableFiles);
       OdkTablesFileManifest manifest = new OdkTablesFileManifest(manifestEntries);
+
+      // record the ETag while holding the lock, so that it cannot be
+      // recorded after a concurrent change to the files has cleared it. If
+      // another client version already recorded one, the files have not
+      // changed since, and it applies to this manifest as well.
+      eTagEntity = getManifestETagEntity(manifestETagId);
+      if (eTagEntity == null) {
+        eTagEntity = DbManifestETags.createNewEntity(manifestETagId, cc);
+        eTagEntity.setManifestETag(PersistenceUtils.newUri());
+        eTagEntity.put(cc);
+      }
+      manifestETag = eTagEntity.getManifestETag();
+
+      manifestCache.put(cacheKey, new CachedManifest(manifestETag, copyOf(manifest.getFiles())));
       return manifest;
 
     } finally {
@@ -119,6 +185,38 @@ public class FileManifestManager {
     }
   }
 
+  private DbManifestETagEntity getManifestETagEntity(String manifestETagId)
+      throws ODKDatastoreException {
+    try {
+      return DbManifestETags.getTableIdEntry(manifestETagId, cc);
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The caller fills in the downloadUrl of the returned entries, so the cached
+   * entries are never handed out.
+   *
+   * @param entries
+   * @return
+   */
+  private static ArrayList<OdkTablesFileManifestEntry> copyOf(
+      List<OdkTablesFileManifestEntry> entries) {
+    ArrayList<OdkTablesFileManifestEntry> copy = new ArrayList<OdkTablesFileManifestEntry>(
+        entries.size());
+    for (OdkTablesFileManifestEntry entry : entries) {
+      OdkTablesFileManifestEntry e = new OdkTablesFileManifestEntry();
+      e.filename = entry.filename;
+      e.contentLength = entry.contentLength;
+      e.contentType = entry.contentType;
+      e.md5hash = entry.md5hash;
+      e.downloadUrl = entry.downloadUrl;
+      copy.add(e);
+    }
+    return copy;
+  }
+
   /**
    * Get a list of entries from a query of {@link DbTableFileInfo}. The query
    * can be of any level--app, table, or even single entry.
@@ -150,10 +248,11 @@ public class FileManifestManager {
       String pathToFile = entity.getPathToFile();
       BlobEntitySet blobEntitySet = dbTableFiles.getBlobEntitySet(rowUri, cc);
       // We should only ever have one.
-      if (blobEntitySet.getAttachmentCount(cc) > 1) {
+      int attachmentCount = blobEntitySet.getAttachmentCount(cc);
+      if (attachmentCount > 1) {
         log.error(
             "more than one entity for appId: " + appId + ", " + ", pathToFile: " + pathToFile);
-      } else if (blobEntitySet.getAttachmentCount(cc) < 1) {
+      } else if (attachmentCount < 1) {
         log.error("file not found for: " + appId + ", pathToFile: " + pathToFile);
         continue;
       }
@@ -492,11 +492,13 @@ public class TableManager {
       if ( definitionEntity != null ) {
         // delete the data table
         DbTable tableRelation = DbTable.getRelation(definitionEntity, colDefs, cc);
+        DbTable.clearRelationCache(definitionEntity, cc);
         if ( tableRelation != null ) {
           tableRelation.dropRelation(cc);
         }
         // delete the data log table
         DbLogTable logTableRelation = DbLogTable.getRelation(definitionEntity, colDefs, cc);
+        DbLogTable.clearRelationCache(definitionEntity, cc);
         if ( logTableRelation != null ) {
           logTableRelation.dropRelation(cc);
         }
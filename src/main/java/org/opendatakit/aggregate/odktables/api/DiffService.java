@@ -41,10 +41,18 @@ public interface DiffService {
   public static final String FETCH_LIMIT = "fetchLimit";
 
   /**
+   * Get the latest change to each row that has changed since the dataETag.
+   * <p>
+   * Changes are read fetchLimit log entries at a time, and the entries that
+   * a later change to the same row supersedes are dropped from each page. A
+   * page can therefore hold fewer rows than fetchLimit, or none at all, while
+   * hasMoreResults is still true. An empty page is not the end of the
+   * changes: keep passing the webSafeResumeCursor of each page until
+   * hasMoreResults is false.
    *
    * @param dataETag
    * @param cursor - null or a websafeCursor value from the RowResourceList of a previous call
-   * @param fetchLimit - null or the number of rows to fetch. If null, server will choose the limit.
+   * @param fetchLimit - null or the number of log entries to examine. If null, server will choose the limit.
    * @return {@link RowResourceList} of row changes since the dataETag value
    * @throws ODKDatastoreException
    * @throws PermissionDeniedException
@@ -117,20 +117,8 @@ public class FileManifestServiceImpl implements FileManifestService {
           .header("Access-Control-Allow-Origin", "*")
           .header("Access-Control-Allow-Credentials", "true").build();
     } else {
-      String newETag = Integer.toHexString(manifest.hashCode());
-      // create a new eTagEntity if there isn't one already...
-      if (eTagEntity == null) {
-        eTagEntity = DbManifestETags.createNewEntity(DbManifestETags.APP_LEVEL, cc);
-        eTagEntity.setManifestETag(newETag);
-        eTagEntity.put(cc);
-      } else if (!newETag.equals(eTagEntity.getManifestETag())) {
-        Logger log = LoggerFactory.getLogger(FileManifestServiceImpl.class);
-        log.error("App-level Manifest ETag does not match computed value!");
-        eTagEntity.setManifestETag(newETag);
-        eTagEntity.put(cc);
-      }
-      // and whatever the eTag is in that entity is the eTag we should return...
-      eTag = eTagEntity.getManifestETag();
+      // the manifest manager has recorded this as the eTag of the manifest...
+      eTag = manifestManager.getManifestETag();
 
       UriBuilder ub = info.getBaseUriBuilder();
       ub.path(OdkTables.class, "getFilesService");
@@ -190,20 +178,8 @@ public class FileManifestServiceImpl implements FileManifestService {
           .header("Access-Control-Allow-Origin", "*")
           .header("Access-Control-Allow-Credentials", "true").build();
     } else {
-      String newETag = Integer.toHexString(manifest.hashCode());
-      // create a new eTagEntity if there isn't one already...
-      if (eTagEntity == null) {
-        eTagEntity = DbManifestETags.createNewEntity(tableId, cc);
-        eTagEntity.setManifestETag(newETag);
-        eTagEntity.put(cc);
-      } else if (!newETag.equals(eTagEntity.getManifestETag())) {
-        Logger log = LoggerFactory.getLogger(FileManifestServiceImpl.class);
-        log.error("Table-level (" + tableId + ") Manifest ETag does not match computed value!");
-        eTagEntity.setManifestETag(newETag);
-        eTagEntity.put(cc);
-      }
-      // and whatever the eTag is in that entity is the eTag we should return...
-      eTag = eTagEntity.getManifestETag();
+      // the manifest manager has recorded this as the eTag of the manifest...
+      eTag = manifestManager.getManifestETag();
 
       UriBuilder ub = info.getBaseUriBuilder();
       ub.path(OdkTables.class, "getFilesService");
@@ -18,7 +18,9 @@ package org.opendatakit.aggregate.odktables.relation;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
@@ -132,11 +134,45 @@ public class DbLogTable extends Relation {
     return dataTableName + "_LOG";
   }
 
+  /**
+   * Asserting a relation queries the database catalog while holding a global
+   * lock, so the asserted relations are cached by (schema, table, schemaETag).
+   * TableManager evicts the entries of a table before dropping it.
+   */
+  private static final ConcurrentHashMap<String, DbLogTable> relationCache = new ConcurrentHashMap<String, DbLogTable>();
+
   public static DbLogTable getRelation(DbTableDefinitionsEntity entity, List<DbColumnDefinitionsEntity> entities, CallingContext cc)
       throws ODKDatastoreException {
+    String tableName = getDbLogTableName(entity.getDbTableName());
+    String key = RUtil.getRelationCacheKey(cc.getDatastore().getDefaultSchemaName(), tableName,
+        entity.getSchemaETag());
+    DbLogTable relation = relationCache.get(key);
+    if (relation != null) {
+      return relation;
+    }
     List<DataField> fields = converter.toFields(entities);
     fields.addAll(getStaticFields());
-    return getRelation(getDbLogTableName(entity.getDbTableName()), fields, cc);
+    relation = getRelation(tableName, fields, cc);
+    DbLogTable existing = relationCache.putIfAbsent(key, relation);
+    return (existing == null) ? relation : existing;
+  }
+
+  /**
+   * Remove all cached relations for the given table definition. This must be
+   * called before the backing table is dropped or redefined.
+   *
+   * @param entity
+   * @param cc
+   */
+  public static void clearRelationCache(DbTableDefinitionsEntity entity, CallingContext cc) {
+    String prefix = RUtil.getRelationCacheKeyPrefix(cc.getDatastore().getDefaultSchemaName(),
+        getDbLogTableName(entity.getDbTableName()));
+    Iterator<String> it = relationCache.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
   }
 
   private static synchronized DbLogTable getRelation(String tableName, List<DataField> fields,
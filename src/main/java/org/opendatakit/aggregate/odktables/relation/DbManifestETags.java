@@ -34,6 +34,8 @@ import org.opendatakit.common.web.CallingContext;
  * have a TableId of APP_LEVEL ("APP LEVEL"); the space ensures it could never collide with
  * a valid tableId.
  * 
+ * The ETag is shared by the manifests of all odkClientVersions of the tableId.
+ * 
  * TableId is the PK of this table.
  *
  * @author mitchellsundt@gmail.com
@@ -18,7 +18,9 @@ package org.opendatakit.aggregate.odktables.relation;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.Validate;
 import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
@@ -30,9 +32,9 @@ import org.opendatakit.common.ermodel.Relation;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.DataField.DataType;
 import org.opendatakit.common.persistence.DataField.IndexType;
+import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
-import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.web.CallingContext;
 
 /**
@@ -127,11 +129,45 @@ public class DbTable extends Relation {
 
   private static final EntityConverter converter = new EntityConverter();
 
+  /**
+   * Asserting a relation queries the database catalog while holding a global
+   * lock, so the asserted relations are cached by (schema, table, schemaETag).
+   * TableManager evicts the entries of a table before dropping it.
+   */
+  private static final ConcurrentHashMap<String, DbTable> relationCache = new ConcurrentHashMap<String, DbTable>();
+
   public static DbTable getRelation(DbTableDefinitionsEntity entity, List<DbColumnDefinitionsEntity> entities, CallingContext cc)
       throws ODKDatastoreException {
+    String tableName = entity.getDbTableName();
+    String key = RUtil.getRelationCacheKey(cc.getDatastore().getDefaultSchemaName(), tableName,
+        entity.getSchemaETag());
+    DbTable relation = relationCache.get(key);
+    if (relation != null) {
+      return relation;
+    }
     List<DataField> fields = converter.toFields(entities);
     fields.addAll(getStaticFields());
-    return getRelation(entity.getDbTableName(), fields, cc);
+    relation = getRelation(tableName, fields, cc);
+    DbTable existing = relationCache.putIfAbsent(key, relation);
+    return (existing == null) ? relation : existing;
+  }
+
+  /**
+   * Remove all cached relations for the given table definition. This must be
+   * called before the backing table is dropped or redefined.
+   *
+   * @param entity
+   * @param cc
+   */
+  public static void clearRelationCache(DbTableDefinitionsEntity entity, CallingContext cc) {
+    String prefix = RUtil.getRelationCacheKeyPrefix(cc.getDatastore().getDefaultSchemaName(),
+        entity.getDbTableName());
+    Iterator<String> it = relationCache.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
   }
 
   private static synchronized DbTable getRelation(String dbTableName, List<DataField> fields,
@@ -150,27 +186,33 @@ public class DbTable extends Relation {
   }
 
   /**
-   * Retrieve a list of {@link DbTable} row entities.
+   * Retrieve a list of {@link DbTable} row entities. The row ids are queried in
+   * chunks of {@link Datastore#getMaxValueSetFilterSize()} so that each query
+   * stays within the value set limit of the datastore.
    *
    * @param table
    *          the {@link DbTable} relation.
    * @param rowIds
    *          the ids of the rows to get.
    * @param cc
-   * @return the row entities
-   * @throws ODKEntityNotFoundException
-   *           if one of the rows does not exist
+   * @return the row entities, in no particular order. Rows that do not exist
+   *         are omitted.
    * @throws ODKDatastoreException
    */
   public static List<Entity> query(DbTable table, List<String> rowIds, CallingContext cc)
-      throws ODKEntityNotFoundException, ODKDatastoreException {
+      throws ODKDatastoreException {
     Validate.notNull(table);
     Validate.noNullElements(rowIds);
     Validate.notNull(cc);
 
-    Query query = table.query("DbTable.query", cc);
-    query.include(PersistConsts.URI_COLUMN_NAME, rowIds);
-    List<Entity> entities = query.execute();
+    int chunkSize = cc.getDatastore().getMaxValueSetFilterSize();
+    List<Entity> entities = new ArrayList<Entity>();
+    for (int i = 0; i < rowIds.size(); i += chunkSize) {
+      List<String> chunk = rowIds.subList(i, Math.min(i + chunkSize, rowIds.size()));
+      Query query = table.query("DbTable.query", cc);
+      query.include(PersistConsts.URI_COLUMN_NAME, chunk);
+      entities.addAll(query.execute());
+    }
     return entities;
   }
 
@@ -44,4 +44,27 @@ public class RUtil {
     return "_" + proposedName.replace(" ", "_");
   }
 
+  /**
+   * Key under which an asserted DbTable or DbLogTable relation is cached. The
+   * schemaETag changes whenever the column definitions of the table change, so
+   * a stale entry can never be returned for a redefined table.
+   *
+   * @param schemaName
+   * @param dbTableName
+   * @param schemaETag
+   * @return
+   */
+  static String getRelationCacheKey(String schemaName, String dbTableName, String schemaETag) {
+    return schemaName + "." + dbTableName + "@" + schemaETag;
+  }
+
+  /**
+   * @param schemaName
+   * @param dbTableName
+   * @return the prefix shared by the cache keys of all schemaETags of the table
+   */
+  static String getRelationCacheKeyPrefix(String schemaName, String dbTableName) {
+    return schemaName + "." + dbTableName + "@";
+  }
+
 }
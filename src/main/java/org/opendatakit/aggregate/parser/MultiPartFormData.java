@@ -17,8 +17,6 @@
 
 package org.opendatakit.aggregate.parser;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -29,8 +27,7 @@ import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.fileupload.FileItemIterator;
-import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
@@ -55,6 +52,12 @@ public class MultiPartFormData {
 
     private final Map<String, MultiPartFormItem> fileNameWithoutExtensionNameMap;
 
+    /**
+     * All the items parsed from the request, so that their temporary files
+     * can be released.
+     */
+    private final List<MultiPartFormItem> itemList;
+
     /**
      * Construct a mult-part form data container by parsing a multi part form
      * request into a set of multipartformitems. The information are stored in
@@ -69,14 +72,34 @@ public class MultiPartFormData {
      */
     public MultiPartFormData(HttpServletRequest req)
             throws FileUploadException, IOException {
+        this(req, ParserConsts.DEFAULT_MULTIPART_SPILL_THRESHOLD);
+    }
+
+    /**
+     * Construct a mult-part form data container by parsing a multi part form
+     * request into a set of multipartformitems. Parts larger than the spill
+     * threshold are written to temporary files instead of being held in memory;
+     * call {@link #deleteTemporaryFiles()} once the request has been processed.
+     * 
+     * @param req
+     *            an HTTP request from a multipart form
+     * @param spillThreshold
+     *            size in bytes above which a part is stored in a temporary file
+     * 
+     * @throws FileUploadException
+     * @throws IOException
+     */
+    public MultiPartFormData(HttpServletRequest req, int spillThreshold)
+            throws FileUploadException, IOException {
 
         simpleFieldNameMap = new HashMap<String, String>();
         fieldNameMap = new HashMap<String, MultiPartFormItem>();
         fileNameMap = new HashMap<String, MultiPartFormItem>();
         fileNameWithoutExtensionNameMap = new HashMap<String, MultiPartFormItem>();
+        itemList = new ArrayList<MultiPartFormItem>();
 
         ServletFileUpload upload = new ServletFileUpload(
-                new DiskFileItemFactory());
+                new DiskFileItemFactory(spillThreshold, null));
         int size = req.getContentLength();
         if (size > 0) {
             upload.setFileSizeMax(size);
@@ -86,26 +109,14 @@ public class MultiPartFormData {
 
         List<MultiPartFormItem> fileNameList = new ArrayList<MultiPartFormItem>();
         
-        FileItemIterator items = upload.getItemIterator(req);
-        while (items.hasNext()) {
-            FileItemStream item = items.next();
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            BufferedInputStream formStream = new BufferedInputStream(item
-                    .openStream());
-
-            // TODO: determine ways to possibly improve efficiency
-            int nextByte = formStream.read();
-            while (nextByte != -1) {
-                byteStream.write(nextByte);
-                nextByte = formStream.read();
-            }
-            formStream.close();
-
+        for (FileItem item : upload.parseRequest(req)) {
             if ( item.isFormField() ) {
-                simpleFieldNameMap.put(item.getFieldName(), byteStream.toString());
+                simpleFieldNameMap.put(item.getFieldName(), new String(item.get()));
+                item.delete();
             } else {
                 MultiPartFormItem data = new MultiPartFormItem(item.getFieldName(),
-                        item.getName(), item.getContentType(), byteStream);
+                        item.getName(), item.getContentType(), item);
+                itemList.add(data);
     
                 String fieldName = item.getFieldName();
                 if (fieldName != null) {
@@ -200,4 +211,13 @@ public class MultiPartFormData {
     public Set<Map.Entry<String,MultiPartFormItem>> getFieldNameEntrySet() {
         return Collections.unmodifiableSet(fieldNameMap.entrySet());
     }
+
+    /**
+     * Release the temporary files holding the larger parts of the request.
+     */
+    public void deleteTemporaryFiles() {
+        for (MultiPartFormItem item : itemList) {
+            item.delete();
+        }
+    }
 }
@@ -17,10 +17,16 @@
 
 package org.opendatakit.aggregate.parser;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.commons.fileupload.FileItem;
 
 /**
- * Object representation of multi part form data
+ * Object representation of multi part form data. The content of the part is
+ * held in a {@link FileItem}, which keeps small parts in memory and large
+ * parts in a temporary file.
  * 
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
@@ -44,9 +50,9 @@ public final class MultiPartFormItem {
   private final String contentType;
 
   /**
-   * form data's stream
+   * form data's content
    */
-  private final ByteArrayOutputStream stream;
+  private final FileItem item;
   
   /**
    * Constructor of a multi part of data 
@@ -57,14 +63,14 @@ public final class MultiPartFormItem {
    *    form data file name
    * @param contentType
    *    form data content type
-   * @param byteStream
-   *    form data's stream
+   * @param item
+   *    form data's content
    */
-  public MultiPartFormItem(String fieldName, String fileName, String contentType, ByteArrayOutputStream byteStream) {
+  public MultiPartFormItem(String fieldName, String fileName, String contentType, FileItem item) {
     this.name = fieldName;
     this.filename = fileName;
     this.contentType = contentType;
-    this.stream = byteStream;
+    this.item = item;
   }
   
   /**
@@ -109,12 +115,56 @@ public final class MultiPartFormItem {
   }
 
   /**
-   * Get form data's stream
+   * Get form data's size
+   * 
+   * @return
+   *    size in bytes
+   */
+  public long getSize() {
+    return item.getSize();
+  }
+
+  /**
+   * Open a stream over the form data. Large parts are read from their
+   * temporary file rather than from memory.
    * 
    * @return
    *    stream
+   * @throws IOException
+   */
+  public InputStream openStream() throws IOException {
+    return item.getInputStream();
+  }
+
+  /**
+   * Get form data's content as a string. This holds the whole part in memory;
+   * only use it for small parts such as the form definition.
+   * 
+   * @param encoding
+   *    character encoding of the content
+   * @return
+   *    content
+   * @throws UnsupportedEncodingException
+   */
+  public String getString(String encoding) throws UnsupportedEncodingException {
+    return item.getString(encoding);
+  }
+
+  /**
+   * Get form data's content. This holds the whole part in memory; use
+   * {@link #openStream()} for parts that may be large.
+   * 
+   * @return
+   *    content
+   */
+  public byte[] getBytes() {
+    return item.get();
+  }
+
+  /**
+   * Release the temporary file, if any, holding the form data.
    */
-  public ByteArrayOutputStream getStream() {
-    return stream;
+  public void delete() {
+    item.delete();
   }
 }
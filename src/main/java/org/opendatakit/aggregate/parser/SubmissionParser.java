@@ -18,6 +18,7 @@
 package org.opendatakit.aggregate.parser;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -26,11 +27,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.apache.commons.codec.binary.Base64;
+import org.kxml2.io.KXmlParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opendatakit.aggregate.constants.ParserConsts;
@@ -63,12 +61,8 @@ import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.BasicConsts;
 import org.opendatakit.common.web.constants.HtmlConsts;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * Parsers submission xml and saves to datastore
@@ -86,11 +80,6 @@ public class SubmissionParser {
 
   private IForm form;
 
-  /**
-   * Root of XML submission
-   */
-  private Element root;
-
   /**
    * Submission object created from xml submission
    */
@@ -151,7 +140,16 @@ public class SubmissionParser {
   public SubmissionParser(InputStream inputStreamXML, CallingContext cc) throws IOException,
       ODKFormNotFoundException, ODKParseException, ODKIncompleteSubmissionData,
       ODKConversionException, ODKDatastoreException, ODKFormSubmissionsDisabledException, ODKTaskLockException {
-    constructorHelper(inputStreamXML, false, cc);
+    // the xml is read twice (once for the header, once for the values)
+    // so hold the body of a plain xml post in memory.
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int len;
+    while ((len = inputStreamXML.read(chunk)) != -1) {
+      buffer.write(chunk, 0, len);
+    }
+    final byte[] xmlBytes = buffer.toByteArray();
+    constructorHelper(() -> new ByteArrayInputStream(xmlBytes), false, cc);
   }
 
   /**
@@ -190,11 +188,30 @@ public class SubmissionParser {
       throw new IOException("DID NOT GET A SUBMISSION");
     }
 
-    InputStream inputStreamXML = new ByteArrayInputStream(submission.getStream().toByteArray());
-    try {
-      constructorHelper(inputStreamXML, isIncomplete, cc);
-    } finally {
-      inputStreamXML.close();
+    constructorHelper(submission::openStream, isIncomplete, cc);
+  }
+
+  /**
+   * Source of the submission xml. The xml is read once to obtain the form id
+   * and instanceID and a second time to extract the field values, so the
+   * source must be able to supply the document more than once.
+   */
+  private interface SubmissionXmlSource {
+    InputStream openStream() throws IOException;
+  }
+
+  /**
+   * The attributes of the submission's root element and its OpenRosa
+   * instanceID, as gathered by the first pass over the xml.
+   */
+  private static final class SubmissionHeader {
+    String rootNamespace = null;
+    final Map<String, String> rootAttributes = new HashMap<String, String>();
+    String openRosaInstanceId = null;
+
+    String getAttribute(String name) {
+      String value = rootAttributes.get(name);
+      return (value == null) ? BasicConsts.EMPTY_STRING : value;
     }
   }
 
@@ -204,86 +221,99 @@ public class SubmissionParser {
   private static final String OPEN_ROSA_METADATA_TAG = "meta";
   private static final String OPEN_ROSA_INSTANCE_ID = "instanceID";
 
+  private static boolean isOpenRosaNamespace(String namespace) {
+    return (namespace == null || namespace.length() == 0
+        || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE)
+        || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH)
+        || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM));
+  }
+
   /**
-   * Find the OpenRosa instanceID defined for this record, if any.
+   * Create a namespace-aware pull parser over the given stream.
    * 
+   * @param inputStreamXML
+   * @return parser positioned on the root element of the document
+   * @throws XmlPullParserException
+   * @throws IOException
+   */
+  static XmlPullParser openParser(InputStream inputStreamXML)
+      throws XmlPullParserException, IOException {
+    KXmlParser parser = new KXmlParser();
+    parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+    parser.setInput(inputStreamXML, null);
+    parser.nextTag();
+    return parser;
+  }
+
+  /**
+   * First pass over the submission. Gathers the root attributes and finds the
+   * OpenRosa instanceID defined for this record, if any. The instanceID is
+   * taken from the first meta tag (with or without namespace) found in
+   * document order; the scan stops once that tag has been read.
+   *
+   * @param parser
+   *          parser positioned on the root element
    * @return
+   * @throws XmlPullParserException
+   * @throws IOException
    */
-  private String getOpenRosaInstanceId() {
-    Node n = findMetaTag(root);
-    if (n != null) {
-      NodeList nl = n.getChildNodes();
-      for (int i = 0; i < nl.getLength(); ++i) {
-        Node cn = nl.item(i);
-        String cnUri = cn.getNamespaceURI();
-        String cnName = cn.getLocalName();
-        if (cn.getNodeType() == Node.ELEMENT_NODE
-            && cnName.equals(OPEN_ROSA_INSTANCE_ID)
-            && (cnUri == null || 
-                cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE) ||
-                cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH) ||
-                cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM))) {
-          NodeList cnl = cn.getChildNodes();
-          boolean textFound = false;
-          int idxText = -1;
-          for (int j = 0; j < cnl.getLength(); ++j) {
-            Node cnln = cnl.item(j);
-            if (cnln.getNodeType() == Node.TEXT_NODE) {
-              if (textFound) {
-                throw new IllegalStateException("Expected a single text node");
-              }
-              textFound = true;
-              idxText = j;
-            }
-          }
-          if (textFound) {
-            return cnl.item(idxText).getNodeValue();
+  private static SubmissionHeader readSubmissionHeader(XmlPullParser parser)
+      throws XmlPullParserException, IOException {
+    SubmissionHeader header = new SubmissionHeader();
+    header.rootNamespace = parser.getNamespace();
+    for (int i = 0; i < parser.getAttributeCount(); ++i) {
+      String namespace = parser.getAttributeNamespace(i);
+      if (namespace == null || namespace.length() == 0) {
+        header.rootAttributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+      }
+    }
+
+    int metaDepth = -1;
+    int eventType;
+    while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+      if (eventType == XmlPullParser.START_TAG) {
+        if (metaDepth == -1) {
+          if (parser.getName().equals(OPEN_ROSA_METADATA_TAG)
+              && isOpenRosaNamespace(parser.getNamespace())) {
+            metaDepth = parser.getDepth();
           }
+        } else if (parser.getDepth() == metaDepth + 1 && header.openRosaInstanceId == null
+            && parser.getName().equals(OPEN_ROSA_INSTANCE_ID)
+            && isOpenRosaNamespace(parser.getNamespace())) {
+          header.openRosaInstanceId = readInstanceIdText(parser);
         }
+      } else if (eventType == XmlPullParser.END_TAG && parser.getDepth() == metaDepth) {
+        break;
       }
     }
-    return null;
+    return header;
   }
 
-  /**
-   * Traverse submission looking for OpenRosa metadata tag (with or without
-   * namespace).
-   * 
-   * @param parent
-   * @return
-   */
-  private Node findMetaTag(Node parent) {
-    if (parent.getNodeType() != Node.ELEMENT_NODE)
-      return null;
-    @SuppressWarnings("unused")
-    String parentName = parent.getLocalName();
-    NodeList nl = parent.getChildNodes();
-    for (int i = 0; i < nl.getLength(); ++i) {
-      Node n = nl.item(i);
-      String namespace = n.getNamespaceURI();
-      String name = n.getLocalName();
-      if (n.getNodeType() == Node.ELEMENT_NODE
-          && name.equals(OPEN_ROSA_METADATA_TAG)
-          && (namespace == null || 
-              namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE) ||
-              namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH) ||
-              namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM))) {
-        return n;
-      } else {
-        n = findMetaTag(n);
-        if (n != null)
-          return n;
+  private static String readInstanceIdText(XmlPullParser parser) throws XmlPullParserException,
+      IOException {
+    int depth = parser.getDepth();
+    String text = null;
+    int eventType;
+    while ((eventType = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() != depth) {
+      if (eventType == XmlPullParser.END_DOCUMENT) {
+        throw new XmlPullParserException("Unexpected end of document", parser, null);
+      }
+      if (eventType == XmlPullParser.TEXT && parser.getDepth() == depth) {
+        if (text != null) {
+          throw new IllegalStateException("Expected a single text node");
+        }
+        text = parser.getText();
       }
     }
-    return null;
+    return text;
   }
 
   /**
    * Helper Constructor an ODK submission by processing XML submission to
    * extract values
    * 
-   * @param inputStreamXML
-   *          xml submission input stream
+   * @param xmlSource
+   *          source of the xml submission
    * @param isIncomplete
    * 
    * @throws IOException
@@ -296,39 +326,33 @@ public class SubmissionParser {
    * @throws ODKFormSubmissionsDisabledException
    * @throws ODKTaskLockException 
    */
-  private void constructorHelper(InputStream inputStreamXML, boolean isIncomplete, CallingContext cc)
+  private void constructorHelper(SubmissionXmlSource xmlSource, boolean isIncomplete, CallingContext cc)
       throws IOException, ODKFormNotFoundException, ODKParseException, ODKIncompleteSubmissionData,
       ODKConversionException, ODKDatastoreException, ODKFormSubmissionsDisabledException, ODKTaskLockException {
+    SubmissionHeader header;
+    InputStream inputStreamXML = xmlSource.openStream();
     try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      factory.setIgnoringComments(true);
-      factory.setCoalescing(true);
-      DocumentBuilder builder = factory.newDocumentBuilder();
-      Document doc = builder.parse(inputStreamXML);
-      root = doc.getDocumentElement();
-      // if debugging: printNode(root);
-
-      // check for odk id
-      formId = root.getAttribute(ParserConsts.FORM_ID_ATTRIBUTE_NAME);
-
-      // if odk id is not present use namespace
-      if (formId.equalsIgnoreCase(BasicConsts.EMPTY_STRING)) {
-        String schema = root.getAttribute(ParserConsts.NAMESPACE_ATTRIBUTE);
-
-        // TODO: move this into FormDefinition?
-        if (schema == null) {
-          throw new ODKIncompleteSubmissionData(Reason.ID_MISSING);
-        }
+      header = readSubmissionHeader(openParser(inputStreamXML));
+    } catch (XmlPullParserException e) {
+      e.printStackTrace();
+      throw new IOException(e);
+    } finally {
+      inputStreamXML.close();
+    }
 
-        formId = schema;
+    // check for odk id
+    formId = header.getAttribute(ParserConsts.FORM_ID_ATTRIBUTE_NAME);
+
+    // if odk id is not present use namespace
+    if (formId.equalsIgnoreCase(BasicConsts.EMPTY_STRING)) {
+      String schema = header.rootNamespace;
+
+      // TODO: move this into FormDefinition?
+      if (schema == null || schema.length() == 0) {
+        throw new ODKIncompleteSubmissionData(Reason.ID_MISSING);
       }
 
-    } catch (ParserConfigurationException e) {
-      throw new IOException(e);
-    } catch (SAXException e) {
-      e.printStackTrace();
-      throw new IOException(e);
+      formId = schema;
     }
 
     // need to escape all slashes... for xpath processing...
@@ -341,8 +365,8 @@ public class SubmissionParser {
       throw new ODKFormSubmissionsDisabledException();
     }
 
-    String modelVersionString = root.getAttribute(ParserConsts.MODEL_VERSION_ATTRIBUTE_NAME);
-    String uiVersionString = root.getAttribute(ParserConsts.UI_VERSION_ATTRIBUTE_NAME);
+    String modelVersionString = header.getAttribute(ParserConsts.MODEL_VERSION_ATTRIBUTE_NAME);
+    String uiVersionString = header.getAttribute(ParserConsts.UI_VERSION_ATTRIBUTE_NAME);
     Long modelVersion = null;
     Long uiVersion = null;
     if (modelVersionString != null && modelVersionString.length() > 0) {
@@ -352,22 +376,22 @@ public class SubmissionParser {
       uiVersion = Long.valueOf(uiVersionString);
     }
 
-    String instanceId = getOpenRosaInstanceId();
+    String instanceId = header.openRosaInstanceId;
     if (instanceId == null) {
-      instanceId = root.getAttribute(ParserConsts.INSTANCE_ID_ATTRIBUTE_NAME);
+      instanceId = header.getAttribute(ParserConsts.INSTANCE_ID_ATTRIBUTE_NAME);
       if (instanceId == null || instanceId.length() == 0) {
         instanceId = CommonFieldsBase.newUri();
       }
     }
 
     Date submissionDate = new Date();
-    String submissionDateString = root.getAttribute(ParserConsts.SUBMISSION_DATE_ATTRIBUTE_NAME);
+    String submissionDateString = header.getAttribute(ParserConsts.SUBMISSION_DATE_ATTRIBUTE_NAME);
     if (submissionDateString != null && submissionDateString.length() != 0) {
       submissionDate = WebUtils.parseDate(submissionDateString);
     }
 
     Date markedAsCompleteDate = new Date();
-    String markedAsCompleteDateString = root
+    String markedAsCompleteDateString = header
         .getAttribute(ParserConsts.MARKED_AS_COMPLETE_DATE_ATTRIBUTE_NAME);
     if (markedAsCompleteDateString != null && markedAsCompleteDateString.length() != 0) {
       markedAsCompleteDate = WebUtils.parseDate(markedAsCompleteDateString);
@@ -414,9 +438,20 @@ public class SubmissionParser {
   
       Map<String, Integer> repeatGroupIndices = new HashMap<String, Integer>();
       FormElementModel formRoot = form.getTopLevelGroupElement();
+      // second pass: walk the form model in step with the xml and
+      // set the values directly into the submission.
       // if the submission is pre-existing in the datastore, ONLY update binaries
-      boolean uploadAllBinaries = processSubmissionElement(formRoot, root, submission,
-                                                            repeatGroupIndices, preExisting, cc);
+      boolean uploadAllBinaries;
+      inputStreamXML = xmlSource.openStream();
+      try {
+        uploadAllBinaries = processSubmissionElement(formRoot, openParser(inputStreamXML),
+            submission, repeatGroupIndices, preExisting, cc);
+      } catch (XmlPullParserException e) {
+        e.printStackTrace();
+        throw new IOException(e);
+      } finally {
+        inputStreamXML.close();
+      }
       submission.setIsComplete(uploadAllBinaries);
       if (uploadAllBinaries) {
         submission.setMarkedAsCompleteDate(markedAsCompleteDate);
@@ -448,8 +483,10 @@ public class SubmissionParser {
    * 
    * @param node
    *          form data model of the group or repeat group being parsed.
-   * @param currentSubmissionElement
-   *          xml document element that marks the start of this submission set.
+   * @param parser
+   *          xml pull parser positioned on the start tag that marks the start
+   *          of this submission set. On return, the parser is positioned on
+   *          the matching end tag.
    * @param submissionSet
    *          the submission set to add the submission values to.
    * @param repeatGroupIndicies
@@ -462,52 +499,55 @@ public class SubmissionParser {
    * @throws ODKIncompleteSubmissionData
    * @throws ODKConversionException
    * @throws ODKDatastoreException
+   * @throws IOException
+   * @throws XmlPullParserException
    */
-  private boolean processSubmissionElement(FormElementModel node, Element currentSubmissionElement,
+  private boolean processSubmissionElement(FormElementModel node, XmlPullParser parser,
       SubmissionSet submissionSet, Map<String, Integer> repeatGroupIndicies, boolean preExisting,
       CallingContext cc) throws ODKParseException, ODKIncompleteSubmissionData,
-      ODKConversionException, ODKDatastoreException {
-
-    if (node == null || currentSubmissionElement == null) {
-      return true;
-    }
+      ODKConversionException, ODKDatastoreException, IOException, XmlPullParserException {
 
     // the element name of the fdm is the tag name...
-    String submissionTag = node.getElementName();
+    String submissionTag = (node == null) ? null : node.getElementName();
     if (submissionTag == null) {
+      skipElement(parser);
       return true;
     }
 
     // verify that the xml matches the node we are processing...
-    if (!currentSubmissionElement.getLocalName().equals(submissionTag)) {
-      throw new ODKParseException("Xml document element tag: "
-          + currentSubmissionElement.getLocalName()
+    if (!parser.getName().equals(submissionTag)) {
+      throw new ODKParseException("Xml document element tag: " + parser.getName()
           + " does not match the xform data model tag name: " + submissionTag);
     }
 
-    // get the structure under the fdm tag name...
-    List<Element> elements = getElements(currentSubmissionElement);
-    if (elements.size() == 0) {
-      return true; // the group is not relevant...
-    }
-    // and for each of these, they should be fields under the given fdm
-    // and values within the submissionSet
+    // for each of the elements under the fdm tag name, they should be
+    // fields under the given fdm and values within the submissionSet.
+    // If there are none, the group is not relevant...
     boolean complete = true;
-    for (Element e : elements) {
-      FormElementModel m = node.findElementByName(e.getLocalName());
+    int eventType;
+    while ((eventType = parser.next()) != XmlPullParser.END_TAG) {
+      if (eventType == XmlPullParser.END_DOCUMENT) {
+        throw new ODKParseException("Unexpected end of xml document within: " + submissionTag);
+      }
+      if (eventType != XmlPullParser.START_TAG) {
+        continue;
+      }
+      FormElementModel m = node.findElementByName(parser.getName());
       if (m == null) {
+        skipElement(parser);
         continue;
         // throw new ODKParseException();
       }
       switch (m.getElementType()) {
       case METADATA:
         // This keeps lint warnings down
+        skipElement(parser);
         break;
       case GROUP:
         // need to recurse on these elements keeping the same
         // submissionSet...
         complete = complete
-            & processSubmissionElement(m, e, submissionSet, repeatGroupIndicies, preExisting, cc);
+            & processSubmissionElement(m, parser, submissionSet, repeatGroupIndicies, preExisting, cc);
         break;
       case REPEAT:
         // get the field that will hold the repeats...
@@ -542,9 +582,9 @@ public class SubmissionParser {
         } else {
           throw new IllegalStateException("incrementing repeats by more than one!");
         }
-        // populate the instance's submission set with values from e...
+        // populate the instance's submission set with values from the xml...
         complete = complete
-            & processSubmissionElement(m, e, repeatableSubmissionSet, repeatGroupIndicies,
+            & processSubmissionElement(m, parser, repeatableSubmissionSet, repeatGroupIndicies,
                 preExisting, cc);
         break;
       case STRING:
@@ -558,33 +598,40 @@ public class SubmissionParser {
       case GEOSHAPE:
       case SELECT1: // identifies SelectChoice table
       case SELECTN: // identifies SelectChoice table
-        if (!preExisting) {
-          String value = getSubmissionValue(e);
-          SubmissionField<?> subField = (SubmissionField<?>) submissionSet.getElementValue(m);
-          subField.setValueFromString(value);
+        {
+          String value = getSubmissionValue(parser);
+          if (!preExisting) {
+            SubmissionField<?> subField = (SubmissionField<?>) submissionSet.getElementValue(m);
+            subField.setValueFromString(value);
+          }
         }
         break;
       case GEOPOINT:
-        if (!preExisting) {
-          String value = getSubmissionValue(e);
-          ((SubmissionField<?>) submissionSet.getElementValue(m)).setValueFromString(value);
+        {
+          String value = getSubmissionValue(parser);
+          if (!preExisting) {
+            ((SubmissionField<?>) submissionSet.getElementValue(m)).setValueFromString(value);
+          }
         }
         break;
       case BINARY: // identifies BinaryContent table
         {
-          String value = getSubmissionValue(e);
+          String value = getSubmissionValue(parser);
           SubmissionField<?> submissionElement = ((SubmissionField<?>) submissionSet
               .getElementValue(m));
           complete = complete & processBinarySubmission(m, submissionElement, value, cc);
         }
         break;
+      default:
+        skipElement(parser);
+        break;
       }
     }
     return complete;
   }
 
   private boolean processBinarySubmission(FormElementModel m, SubmissionField<?> submissionElement,
-      String value, CallingContext cc) throws ODKDatastoreException {
+      String value, CallingContext cc) throws ODKDatastoreException, IOException {
 
     // value will either be a byte array (if not a multipart/form-data
     // submission)
@@ -617,9 +664,15 @@ public class SubmissionParser {
         if (fileName == null || fileName.length() == 0) {
           fileName = null;
         }
-        byte[] byteArray = binaryData.getStream().toByteArray();
-        submissionElement.setValueFromByteArray(byteArray, binaryData.getContentType(),
-            fileName, false, cc);
+        // stream the content so that large attachments are read from their
+        // temporary file rather than held in memory
+        InputStream binaryStream = binaryData.openStream();
+        try {
+          submissionElement.setValueFromStream(binaryStream, binaryData.getContentType(),
+              fileName, false, cc);
+        } finally {
+          binaryStream.close();
+        }
       } else {
         // Assume the value is the filename...
         submissionElement.setValueFromByteArray(null, null, value, false, cc);
@@ -633,81 +686,53 @@ public class SubmissionParser {
     return true;
   }
 
-  private List<Element> getElements(Element rootNode) {
-    List<Element> elements = new ArrayList<Element>();
-
-    NodeList nodeList = rootNode.getChildNodes();
-
-    for (int i = 0; i < nodeList.getLength(); ++i) {
-      Node node = nodeList.item(i);
-      if (node.getNodeType() == Node.ELEMENT_NODE) {
-        elements.add((Element) node);
+  /**
+   * Skips over the element the parser is positioned on, leaving the parser on
+   * its matching end tag.
+   *
+   * @param parser
+   * @throws XmlPullParserException
+   * @throws IOException
+   */
+  private static void skipElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+    int depth = parser.getDepth();
+    int eventType;
+    while ((eventType = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() != depth) {
+      if (eventType == XmlPullParser.END_DOCUMENT) {
+        throw new XmlPullParserException("Unexpected end of document", parser, null);
       }
     }
-    return elements;
   }
 
   /**
    * Extracts value from the XML submission element by getting value from the
-   * text node
+   * text node. The parser is left on the matching end tag of the element.
    * 
-   * @param element
-   *          element that has text child node that will contain the value
+   * @param parser
+   *          parser positioned on the element that has a text child node that
+   *          will contain the value
    * 
    * @return value contained in the XML submission
+   * @throws XmlPullParserException
+   * @throws IOException
    */
-  private String getSubmissionValue(Element element) {
-    // could not find element, return null
-    if (element == null) {
-      return null;
-    }
-
-    NodeList childNodeList = element.getChildNodes();
-    // get element value
-    for (int i = 0; i < childNodeList.getLength(); i++) {
-      Node node = childNodeList.item(i);
-      if (node.getNodeType() == Node.TEXT_NODE) {
-        String value = node.getNodeValue().trim();
-        if (value.length() > 0) {
-          return value;
-        } // else go to next node
-      }
-    } // else has no value so continue
-
-    return null;
-  }
-
-  /**
-   * Recursive function that prints the nodes from an XML tree
-   * 
-   * @param node
-   *          xml node to be recursively printed
-   */
-  @SuppressWarnings("unused")
-  private void printNode(Element node) {
-    System.out.println(ParserConsts.NODE_FORMATTED + node.getTagName());
-    if (node.hasAttributes()) {
-      NamedNodeMap attributes = node.getAttributes();
-      for (int i = 0; i < attributes.getLength(); i++) {
-        Node attr = attributes.item(i);
-        System.out.println(ParserConsts.ATTRIBUTE_FORMATTED + attr.getNodeName()
-            + BasicConsts.EQUALS + attr.getNodeValue());
+  static String getSubmissionValue(XmlPullParser parser) throws XmlPullParserException,
+      IOException {
+    int depth = parser.getDepth();
+    String value = null;
+    int eventType;
+    while ((eventType = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() != depth) {
+      if (eventType == XmlPullParser.END_DOCUMENT) {
+        throw new XmlPullParserException("Unexpected end of document", parser, null);
       }
-    }
-    if (node.hasChildNodes()) {
-      NodeList children = node.getChildNodes();
-      for (int i = 0; i < children.getLength(); i++) {
-        Node child = children.item(i);
-        if (child.getNodeType() == Node.ELEMENT_NODE) {
-          printNode((Element) child);
-        } else if (child.getNodeType() == Node.TEXT_NODE) {
-          String value = child.getNodeValue().trim();
-          if (value.length() > 0) {
-            System.out.println(ParserConsts.VALUE_FORMATTED + value);
-          }
-        }
+      // get element value from the first non-empty text node
+      if (value == null && eventType == XmlPullParser.TEXT && parser.getDepth() == depth) {
+        String text = parser.getText().trim();
+        if (text.length() > 0) {
+          value = text;
+        } // else go to next node
       }
     }
-
+    return value;
   }
 }
@@ -36,10 +36,12 @@ import org.opendatakit.aggregate.datamodel.FormElementModel;
 import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.format.Row;
+import org.opendatakit.aggregate.format.SubmissionFormatter;
 import org.opendatakit.aggregate.format.element.ElementFormatter;
 import org.opendatakit.aggregate.server.ServerPreferencesProperties;
 import org.opendatakit.aggregate.server.UITrans;
 import org.opendatakit.aggregate.submission.Submission;
+import org.opendatakit.aggregate.submission.SubmissionBulkLoader;
 import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.common.datamodel.ODKEnumeratedElementException;
 import org.opendatakit.common.persistence.CommonFieldsBase;
@@ -211,18 +213,61 @@ public class QueryByUIFilterGroup extends QueryBase {
    * 
    */
   public List<Submission> getResultSubmissions(CallingContext cc) throws ODKDatastoreException {
-    
-    List<Submission> retrievedSubmissions = new ArrayList<Submission>();
 
     // retrieve submissions
     QueryResult results = getQueryResult(cursor, fetchLimit);
-    List<? extends CommonFieldsBase> submissionEntities = results.getResultList();
+    List<Submission> retrievedSubmissions = getSubmissions(results.getResultList(), cc);
+
+    // advance cursor...
+    cursor = results.getResumeCursor();
+    return retrievedSubmissions;
+  }
+
+  /**
+   * Streams all the submissions of the query to the formatter, in segments of
+   * the fetch limit. The top-level records are read by a single streaming query
+   * rather than by one query per segment, so only one segment is held in memory
+   * however many submissions match. Silently skips the submissions that are not
+   * retrievable, as {@link #getResultSubmissions(CallingContext)} does.
+   * 
+   * @param formatter
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void processSubmissionSegments(final SubmissionFormatter formatter,
+      final CallingContext cc) throws ODKDatastoreException {
+    if (fetchLimit <= 0) {
+      throw new IllegalStateException("a segment size (query fetch limit) must be specified");
+    }
+    final List<CommonFieldsBase> segment = new ArrayList<CommonFieldsBase>(fetchLimit);
+    query.forEach(fetchLimit, new Query.EntityCallback() {
+      @Override
+      public void process(CommonFieldsBase entity) throws ODKDatastoreException {
+        segment.add(entity);
+        if (segment.size() == fetchLimit) {
+          formatter.processSubmissionSegment(getSubmissions(segment, cc), cc);
+          segment.clear();
+        }
+      }
+    });
+    if (!segment.isEmpty()) {
+      formatter.processSubmissionSegment(getSubmissions(segment, cc), cc);
+    }
+  }
+
+  private List<Submission> getSubmissions(List<? extends CommonFieldsBase> submissionEntities,
+      CallingContext cc) throws ODKDatastoreException {
+
+    List<Submission> retrievedSubmissions = new ArrayList<Submission>();
+
+    // fetch the nested groups, repeats and choices of the whole page at once
+    SubmissionBulkLoader bulkLoader = new SubmissionBulkLoader(getForm(), submissionEntities, cc);
 
     // create a row for each submission
     for (int count = 0; count < submissionEntities.size(); count++) {
       CommonFieldsBase subEntity = submissionEntities.get(count);
       try {
-        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), cc);
+        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), bulkLoader, cc);
         retrievedSubmissions.add(sub);
       } catch (ODKDatastoreException e ) {
         Logger logger = LoggerFactory.getLogger(QueryByUIFilterGroup.class);
@@ -244,9 +289,6 @@ public class QueryByUIFilterGroup extends QueryBase {
         }
       }
     }
-
-    // advance cursor...
-    cursor = results.getResumeCursor();
     return retrievedSubmissions;
   }
 
@@ -357,10 +399,13 @@ public class QueryByUIFilterGroup extends QueryBase {
 
     List<SubmissionUI> submissionList = new ArrayList<SubmissionUI>();
 
+    // fetch the nested groups, repeats and choices of the whole page at once
+    SubmissionBulkLoader bulkLoader = new SubmissionBulkLoader(getForm(), results.getResultList(), cc);
+
     // create a row for each submission
     for (CommonFieldsBase subEntity : results.getResultList()) {
       try {
-        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), cc);
+        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), bulkLoader, cc);
         Row row = sub.getFormattedValuesAsRow(elementTypes, filteredElements, elemFormatter, false,
             cc);
   
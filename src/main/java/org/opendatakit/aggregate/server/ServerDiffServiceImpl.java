@@ -36,6 +36,7 @@ import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissionsImpl;
+import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.client.exception.DatastoreFailureException;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
@@ -61,21 +62,18 @@ public class ServerDiffServiceImpl extends RemoteServiceServlet implements Serve
       TablesUserPermissions userPermissions = new TablesUserPermissionsImpl(cc);
       String appId = ServerPreferencesProperties.getOdkTablesAppId(cc);
       DataManager dm = new DataManager(appId, tableId, userPermissions, cc);
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      // TODO: paginate this
-      WebsafeRows websafeRows = dm.getRowsSince(dataETag, null, 2000);
-      return transformRows(websafeRows.rows);
+      // follow the change feed to its end. Superseded changes are dropped
+      // from each page, so the latest change of a row may be several pages
+      // after its first change, and a page may be empty.
+      ArrayList<RowClient> clientRows = new ArrayList<RowClient>();
+      QueryResumePoint cursor = null;
+      WebsafeRows websafeRows;
+      do {
+        websafeRows = dm.getRowsSince(dataETag, cursor, 2000, true);
+        clientRows.addAll(transformRows(websafeRows.rows));
+        cursor = QueryResumePoint.fromWebsafeCursor(websafeRows.websafeResumeCursor);
+      } while (websafeRows.hasMore);
+      return clientRows;
     } catch (ODKDatastoreException e) {
       e.printStackTrace();
       throw new DatastoreFailureException(e);
@@ -16,18 +16,24 @@
 
 package org.opendatakit.aggregate.server;
 
+import java.security.SecureRandom;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
+import org.apache.commons.codec.binary.Hex;
 import org.opendatakit.aggregate.client.preferences.PreferenceSummary;
+import org.opendatakit.aggregate.constants.TaskLockType;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
 import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
@@ -59,6 +65,9 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
   // other keys...
   private static final String SITE_KEY = "SITE_KEY";
   private static final String LAST_KNOWN_REALM_STRING = "LAST_KNOWN_REALM_STRING";
+  // secret used to sign the media links handed to external services
+  private static final String BINARY_LINK_SIGNING_KEY = "BINARY_LINK_SIGNING_KEY";
+  private static final int SIGNING_KEY_LOCK_ATTEMPTS = 10;
 
   public static final String GOOGLE_FUSION_TABLE_OAUTH2_ACCESS_TOKEN = "GOOGLE_FUSION_TABLE_OAUTH2_ACCESS_TOKEN";
 
@@ -127,6 +136,57 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
     setServerPreferencesProperty(cc, SITE_KEY, siteKey);
   }
 
+  /**
+   * The key is created under a task lock, so that concurrent requests (possibly
+   * on other servers) all end up signing with the same key.
+   */
+  public static String getBinaryLinkSigningKey(CallingContext cc)
+      throws ODKEntityNotFoundException, ODKOverQuotaException {
+    String value = getServerPreferencesProperty(cc, BINARY_LINK_SIGNING_KEY);
+    if (value != null) {
+      return value;
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    String lockId = UUID.randomUUID().toString();
+    try {
+      boolean locked = false;
+      for (int i = 0; !locked && i < SIGNING_KEY_LOCK_ATTEMPTS; ++i) {
+        if (i != 0) {
+          try {
+            Thread.sleep(PersistConsts.MIN_SETTLE_MILLISECONDS);
+          } catch (InterruptedException e) {
+            // just retry
+          }
+        }
+        locked = ds.createTaskLock(user).obtainLock(lockId, BINARY_LINK_SIGNING_KEY,
+            TaskLockType.SIGNING_KEY_CREATION);
+      }
+      if (!locked) {
+        throw new ODKEntityNotFoundException("Unable to obtain the lock to create "
+            + BINARY_LINK_SIGNING_KEY);
+      }
+      try {
+        // another request may have created it while we waited for the lock
+        value = getServerPreferencesProperty(cc, BINARY_LINK_SIGNING_KEY);
+        if (value == null) {
+          // synthesize a new one...
+          byte[] secret = new byte[32];
+          new SecureRandom().nextBytes(secret);
+          value = Hex.encodeHexString(secret);
+          setServerPreferencesProperty(cc, BINARY_LINK_SIGNING_KEY, value);
+        }
+        return value;
+      } finally {
+        ds.createTaskLock(user).releaseLock(lockId, BINARY_LINK_SIGNING_KEY,
+            TaskLockType.SIGNING_KEY_CREATION);
+      }
+    } catch (ODKTaskLockException e) {
+      throw new ODKEntityNotFoundException(e);
+    }
+  }
+
   public static String getLastKnownRealmString(CallingContext cc) throws ODKEntityNotFoundException,
       ODKOverQuotaException {
     String value = getServerPreferencesProperty(cc, LAST_KNOWN_REALM_STRING);
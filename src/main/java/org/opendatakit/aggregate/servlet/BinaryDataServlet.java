@@ -40,10 +40,12 @@ import org.opendatakit.aggregate.submission.SubmissionElement;
 import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
 import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
+import org.opendatakit.aggregate.util.ImageThumbnailTable;
 import org.opendatakit.aggregate.util.ImageUtil;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
-import org.opendatakit.common.utils.WebUtils;
+import org.opendatakit.common.utils.HttpConditionalUtils;
+import org.opendatakit.common.utils.HttpConditionalUtils.ByteRange;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.HtmlConsts;
 
@@ -70,6 +72,12 @@ public class BinaryDataServlet extends ServletUtilBase {
    */
   public static final String ADDR = "view/binaryData";
 
+  private static final String EXPIRES = "Expires";
+  private static final String LAST_MODIFIED = "Last-Modified";
+
+  private static final int PREVIEW_WIDTH = ImageThumbnailTable.PREVIEW_WIDTH;
+  private static final int PREVIEW_HEIGHT = ImageThumbnailTable.PREVIEW_HEIGHT;
+
   /**
    * Handler for HTTP Get request that responds with an Image
    * 
@@ -103,6 +111,14 @@ public class BinaryDataServlet extends ServletUtilBase {
     String unrootedFileName = null;
     String contentType = null;
     Long contentLength = null;
+    // attachment to stream to the response instead of loading it into imageBlob
+    BlobSubmissionType streamBlob = null;
+    int streamOrdinal = 0;
+    // export file to stream to the response
+    PersistentResults streamResults = null;
+    // attachment to preview; its thumbnail is cached by content hash
+    BlobSubmissionType previewBlob = null;
+    String contentHash = null;
 
     List<SubmissionKeyPart> parts = key.splitSubmissionKey();
     if (parts.get(0).getElementName().equals(PersistentResults.FORM_ID_PERSISTENT_RESULT)) {
@@ -118,7 +134,12 @@ public class BinaryDataServlet extends ServletUtilBase {
         unrootedFileName = info.unrootedFilename;
         contentType = info.contentType;
         contentLength = info.contentLength;
-        imageBlob = p.getResultFileContents(cc);
+        contentHash = info.contentHash;
+        if (previewSize) {
+          imageBlob = p.getResultFileContents(cc);
+        } else {
+          streamResults = p;
+        }
         lastUpdateDate = p.getCompletionDate();
       } catch (ODKOverQuotaException e) {
         e.printStackTrace();
@@ -187,7 +208,13 @@ public class BinaryDataServlet extends ServletUtilBase {
             // OK. This is the attachment we want...
             ordinal = ord.intValue();
           }
-          imageBlob = b.getBlob(ordinal, cc);
+          if (previewSize) {
+            previewBlob = b;
+          } else {
+            streamBlob = b;
+          }
+          streamOrdinal = ordinal;
+          contentHash = b.getContentHash(ordinal, cc);
           lastUpdateDate = b.getLastUpdateDate(ordinal, cc);
           unrootedFileName = b.getUnrootedFilename(ordinal, cc);
           contentType = b.getContentType(ordinal, cc);
@@ -205,33 +232,88 @@ public class BinaryDataServlet extends ServletUtilBase {
       }
     }
 
-    if (imageBlob != null && imageBlob.length > 0) {
+    boolean hasContent = (streamBlob != null || streamResults != null || previewBlob != null)
+        ? (contentLength != null && contentLength > 0)
+        : (imageBlob != null && imageBlob.length > 0);
+    if (hasContent) {
+      ByteRange range = null;
       if (contentType == null) {
         contentType = HtmlConsts.RESP_TYPE_IMAGE_JPEG;
       }
 
       if (previewSize) {
         // cache for 1 hour...
-        resp.setHeader("Expires:", 
-              WebUtils.rfc1123Date(new Date(System.currentTimeMillis() + 3600000L)));
-        resp.setHeader("Last-Modified:",
-              WebUtils.rfc1123Date(lastUpdateDate));
+        resp.setDateHeader(EXPIRES, System.currentTimeMillis() + 3600000L);
+        if (lastUpdateDate != null) {
+          resp.setDateHeader(LAST_MODIFIED, lastUpdateDate.getTime());
+        }
         resp.setContentType(HtmlConsts.RESP_TYPE_IMAGE_JPEG);
-        if (contentType.equals(HtmlConsts.RESP_TYPE_IMAGE_JPEG)) {
+        if (ImageThumbnailTable.hasThumbnail(contentType) && previewBlob != null
+            && contentHash != null) {
+          // the thumbnail only changes if the image does
+          String thumbnailKey = ImageThumbnailTable.getThumbnailKey(contentHash,
+              PREVIEW_WIDTH, PREVIEW_HEIGHT);
+          String eTag = HttpConditionalUtils.strongETag(thumbnailKey);
+          resp.setHeader(HttpConditionalUtils.ETAG, eTag);
+          if (HttpConditionalUtils.matchesIfNoneMatch(
+              req.getHeader(HttpConditionalUtils.IF_NONE_MATCH), eTag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+          }
+          try {
+            imageBlob = getThumbnail(previewBlob, streamOrdinal, thumbnailKey, cc);
+          } catch (ODKOverQuotaException e) {
+            e.printStackTrace();
+            quotaExceededError(resp);
+            return;
+          } catch (ODKDatastoreException e) {
+            e.printStackTrace();
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Unable to retrieve attachment");
+            return;
+          }
+        } else if (contentType.equals(HtmlConsts.RESP_TYPE_IMAGE_JPEG) && imageBlob != null) {
           // resize
           ImageUtil imageUtil = (ImageUtil) cc.getBean(BeanDefs.IMAGE_UTIL);
-          imageBlob = imageUtil.resizeImage(imageBlob, 64, 48);
+          imageBlob = imageUtil.resizeImage(imageBlob, PREVIEW_WIDTH, PREVIEW_HEIGHT);
         } else {
           // display not-able-to-resize image...
           imageBlob = playJPG;
         }
         resp.setContentLength(imageBlob.length);
       } else {
-        resp.setHeader("Last-Modified:",
-            WebUtils.rfc1123Date(lastUpdateDate));
+        if (lastUpdateDate != null) {
+          resp.setDateHeader(LAST_MODIFIED, lastUpdateDate.getTime());
+        }
+        // the content hash identifies the content, so it is a strong eTag
+        String eTag = null;
+        if (contentHash != null) {
+          eTag = HttpConditionalUtils.strongETag(contentHash);
+          resp.setHeader(HttpConditionalUtils.ETAG, eTag);
+        }
+        if (isNotModified(req, eTag, lastUpdateDate)) {
+          resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          return;
+        }
         resp.setContentType(contentType);
-        if (contentLength != null) {
+        if (streamBlob != null || streamResults != null) {
+          resp.setHeader(HttpConditionalUtils.ACCEPT_RANGES, HttpConditionalUtils.BYTES);
+          if (HttpConditionalUtils.isRangeApplicable(req.getHeader(HttpConditionalUtils.IF_RANGE),
+              eTag)) {
+            range = HttpConditionalUtils.parseRange(req.getHeader(HttpConditionalUtils.RANGE),
+                contentLength);
+          }
+        }
+        if (range == null) {
           resp.setContentLength(contentLength.intValue());
+        } else if (range.isSatisfiable()) {
+          resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+          resp.setHeader(HttpConditionalUtils.CONTENT_RANGE, range.getContentRange());
+          resp.setContentLength((int) range.getLength());
+        } else {
+          resp.setHeader(HttpConditionalUtils.CONTENT_RANGE, range.getContentRange());
+          resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+          return;
         }
       }
 
@@ -245,7 +327,25 @@ public class BinaryDataServlet extends ServletUtilBase {
       }
 
       OutputStream os = resp.getOutputStream();
-      os.write(imageBlob);
+      if (streamBlob != null || streamResults != null) {
+        long offset = (range == null) ? 0L : range.getFirst();
+        long length = (range == null) ? contentLength : range.getLength();
+        try {
+          if (streamResults != null) {
+            streamResults.writeResultFileRange(os, offset, length, cc);
+          } else if (range == null) {
+            streamBlob.writeBlob(streamOrdinal, os, cc);
+          } else {
+            streamBlob.writeBlobRange(streamOrdinal, os, offset, length, cc);
+          }
+        } catch (ODKDatastoreException e) {
+          // the headers have been sent; all we can do is truncate the response
+          e.printStackTrace();
+          logger.error("Unable to stream attachment: " + e.toString());
+        }
+      } else {
+        os.write(imageBlob);
+      }
       os.close();
     } else {
       resp.setContentType(HtmlConsts.RESP_TYPE_PLAIN);
@@ -253,6 +353,53 @@ public class BinaryDataServlet extends ServletUtilBase {
     }
   }
 
+  /**
+   * Evaluate If-None-Match, or, if it is absent, If-Modified-Since.
+   *
+   * @param req
+   * @param eTag
+   * @param lastUpdateDate
+   * @return true if the client's copy is current.
+   */
+  private boolean isNotModified(HttpServletRequest req, String eTag, Date lastUpdateDate) {
+    String ifNoneMatch = req.getHeader(HttpConditionalUtils.IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      return HttpConditionalUtils.matchesIfNoneMatch(ifNoneMatch, eTag);
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = req.getDateHeader(HttpConditionalUtils.IF_MODIFIED_SINCE);
+    } catch (IllegalArgumentException e) {
+      // unparseable date -- ignore it
+      return false;
+    }
+    return HttpConditionalUtils.isNotModifiedSince(ifModifiedSince, lastUpdateDate);
+  }
+
+  /**
+   * Get the thumbnail from the thumbnail cache, generating and storing it if
+   * this is the first time it is requested.
+   *
+   * @param b
+   * @param ordinal
+   * @param thumbnailKey
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  private byte[] getThumbnail(BlobSubmissionType b, int ordinal, String thumbnailKey,
+      CallingContext cc) throws ODKDatastoreException {
+    ImageUtil imageUtil = (ImageUtil) cc.getBean(BeanDefs.IMAGE_UTIL);
+    byte[] thumbnail = ImageThumbnailTable.getOrGenerateThumbnail(b, ordinal, thumbnailKey,
+        imageUtil, cc);
+    if (thumbnail == null) {
+      // display not-able-to-resize image...
+      return playJPG;
+    }
+    return thumbnail;
+  }
+
+
   private final String getKeyPath(List<SubmissionKeyPart> parts) {
     StringBuilder b = new StringBuilder();
     for (SubmissionKeyPart p : parts) {
@@ -17,7 +17,8 @@ package org.opendatakit.aggregate.servlet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -225,29 +226,30 @@ public class ResetUsersAndPermissionsServlet extends ServletUtilBase {
     // TODO Add in form title process so it will update the changes in the XML
     // of form
 
+    MultiPartFormData resetUsersAndPermissions = null;
     try {
       // process form
-      MultiPartFormData resetUsersAndPermissions = new MultiPartFormData(req);
+      resetUsersAndPermissions = new MultiPartFormData(req);
 
       MultiPartFormItem usersAndPermissionsCsv = resetUsersAndPermissions
           .getFormDataByFieldName(ACCESS_DEF_PRAM);
-      
-      String inputCsv = null;
 
-      if (usersAndPermissionsCsv != null) {
-        // TODO: changed added output stream writer. probably something better
-        // exists
-        inputCsv = usersAndPermissionsCsv.getStream().toString(HtmlConsts.UTF8_ENCODE);
+      if (usersAndPermissionsCsv == null) {
+        logger.error("users and capabilities .csv upload - missing csv file");
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            ErrorConsts.MISSING_PARAMS + "\nusers and capabilities .csv is missing");
+        return;
       }
 
-      StringReader csvContentReader = null;
+      Reader csvContentReader = null;
       RFC4180CsvReader csvReader = null;
       try {
         // we need to build up the UserSecurityInfo records for all the users
         ArrayList<UserSecurityInfo> users = new ArrayList<UserSecurityInfo>(); 
         
-        // build reader for the csv content
-        csvContentReader = new StringReader(inputCsv);
+        // build reader for the csv content, reading it from the uploaded part
+        csvContentReader = new InputStreamReader(usersAndPermissionsCsv.openStream(),
+            HtmlConsts.UTF8_ENCODE);
         csvReader = new RFC4180CsvReader(csvContentReader);
         
         // get the column headings -- these mimic those in Site Admin / Permissions table. 
@@ -745,6 +747,10 @@ public class ResetUsersAndPermissionsServlet extends ServletUtilBase {
       logger.error("users and capabilities .csv upload persistence error: " + e.toString());
       e.printStackTrace(resp.getWriter());
       resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ErrorConsts.UPLOAD_PROBLEM);
+    } finally {
+      if (resetUsersAndPermissions != null) {
+        resetUsersAndPermissions.deleteTemporaryFiles();
+      }
     }
  }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.constants.ServletConsts;
+import org.opendatakit.aggregate.util.BinaryLinkSigner;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Serves submission attachments to holders of a signed link (see
+ * {@link BinaryLinkSigner}), e.g., the external services data is published to.
+ * This url does not require a login; the signature and its expiry time are
+ * verified instead.
+ */
+public class SignedBinaryDataServlet extends BinaryDataServlet {
+
+  /**
+   * Serial number for serialization
+   */
+  private static final long serialVersionUID = -3161572945210937408L;
+
+  /**
+   * URI from base
+   */
+  public static final String ADDR = "signed/binaryData";
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    CallingContext cc = ContextFactory.getCallingContext(this, req);
+
+    boolean valid;
+    try {
+      valid = BinaryLinkSigner.isValid(getParameter(req, ServletConsts.BLOB_KEY),
+          getParameter(req, BinaryLinkSigner.EXPIRES), getParameter(req, BinaryLinkSigner.SIGNATURE),
+          cc);
+    } catch (ODKOverQuotaException e) {
+      e.printStackTrace();
+      quotaExceededError(resp);
+      return;
+    } catch (ODKEntityNotFoundException e) {
+      e.printStackTrace();
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          "Unable to verify the link signature");
+      return;
+    }
+    if (!valid) {
+      resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid or expired link");
+      return;
+    }
+    super.doGet(req, resp);
+  }
+}
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -88,6 +89,27 @@ public class SubmissionServlet extends ServletUtilBase {
    */
   private static final String TITLE = "Submission Upload";
 
+  /**
+   * Name of the servlet init-param setting the size in bytes above which an
+   * uploaded part is spilled to a temporary file.
+   */
+  private static final String SPILL_THRESHOLD_PARAM = "multipartSpillThreshold";
+
+  private int spillThreshold = ParserConsts.DEFAULT_MULTIPART_SPILL_THRESHOLD;
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    String threshold = getInitParameter(SPILL_THRESHOLD_PARAM);
+    if (threshold != null) {
+      try {
+        spillThreshold = Integer.parseInt(threshold.trim());
+      } catch (NumberFormatException e) {
+        logger.warn("Ignoring invalid " + SPILL_THRESHOLD_PARAM + ": " + threshold);
+      }
+    }
+  }
+
   private static final String UPLOAD_PAGE_BODY_START =
 
   "<div style=\"overflow: auto;\">"
@@ -218,10 +240,11 @@ public class SubmissionServlet extends ServletUtilBase {
 
     Double openRosaVersion = getOpenRosaVersion(req);
     boolean isIncomplete = false;
+    MultiPartFormData uploadedSubmissionItems = null;
     try {
       SubmissionParser submissionParser = null;
       if (ServletFileUpload.isMultipartContent(req)) {
-        MultiPartFormData uploadedSubmissionItems = new MultiPartFormData(req);
+        uploadedSubmissionItems = new MultiPartFormData(req, spillThreshold);
         String isIncompleteFlag = uploadedSubmissionItems
             .getSimpleFormField(ServletConsts.TRANSFER_IS_INCOMPLETE);
         isIncomplete = (isIncompleteFlag != null && isIncompleteFlag.compareToIgnoreCase("YES") == 0);
@@ -368,6 +391,10 @@ public class SubmissionServlet extends ServletUtilBase {
       logger.error("Unexpected exception: " + e.getMessage());
       e.printStackTrace();
       resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unexpected exception");
+    } finally {
+      if (uploadedSubmissionItems != null) {
+        uploadedSubmissionItems.deleteTemporaryFiles();
+      }
     }
   }
 }
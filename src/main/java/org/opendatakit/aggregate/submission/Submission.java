@@ -68,6 +68,17 @@ public class Submission extends SubmissionSet {
     super(null, submission, form.getTopLevelGroupElement(), form, cc);
   }
 
+  /**
+   * Construct a submission from an entity from the data store, taking its
+   * nested records from a bulk loader that fetched them for a page of
+   * submissions.
+   *
+   */
+  public Submission(TopLevelDynamicBase submission, IForm form, SubmissionBulkLoader bulkLoader,
+      CallingContext cc) throws ODKDatastoreException {
+    super(null, submission, form.getTopLevelGroupElement(), form, bulkLoader, cc);
+  }
+
   public Submission(String uri, IForm form, CallingContext cc) throws
       ODKDatastoreException {
     super(null, (TopLevelDynamicBase) cc.getDatastore().getEntity(
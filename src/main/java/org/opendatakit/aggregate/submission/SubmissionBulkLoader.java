@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.submission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.aggregate.datamodel.FormDataModel;
+import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.common.datamodel.DynamicBase;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Loads the nested tables of a page of submissions in bulk. Each phantom,
+ * repeat group and select-choice table of the form is queried once per chunk
+ * of top-level records (filtering on _TOP_LEVEL_AURI) and the rows are indexed
+ * by their _PARENT_AURI. Submissions constructed with this loader then
+ * assemble their trees from memory rather than issuing one query per nested
+ * record.
+ *
+ * Binary attachments continue to be fetched lazily when they are accessed.
+ */
+public final class SubmissionBulkLoader {
+
+  private final IForm form;
+
+  /**
+   * Map from table name to the map of parent uri to the rows under that
+   * parent, ordered by parent uri and ordinal number.
+   */
+  private final Map<String, Map<String, List<CommonFieldsBase>>> rowsByTable = new HashMap<String, Map<String, List<CommonFieldsBase>>>();
+
+  /**
+   * Fetch the nested records for the given top-level records of the form.
+   *
+   * @param form
+   * @param topLevelRows
+   *          the top level records (TopLevelDynamicBase) of the submissions that
+   *          will be constructed.
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public SubmissionBulkLoader(IForm form, List<? extends CommonFieldsBase> topLevelRows,
+      CallingContext cc) throws ODKDatastoreException {
+    this.form = form;
+
+    List<String> topLevelAuris = new ArrayList<String>();
+    for (CommonFieldsBase row : topLevelRows) {
+      if (row instanceof TopLevelDynamicBase) {
+        topLevelAuris.add(row.getUri());
+      }
+    }
+
+    Map<String, DynamicBase> relations = new HashMap<String, DynamicBase>();
+    collectRelations(form.getTopLevelGroupElement().getFormDataModel(), relations);
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    for (Map.Entry<String, DynamicBase> e : relations.entrySet()) {
+      rowsByTable.put(e.getKey(), fetchRowsByParent(ds, e.getValue(), topLevelAuris, user));
+    }
+  }
+
+  /**
+   * Query the rows of the relation under the given top-level records and index
+   * them by their _PARENT_AURI. The uris are split into chunks no larger than
+   * the value set filter limit of the datastore (30 on Google App Engine).
+   *
+   * @param ds
+   * @param relation
+   * @param topLevelAuris
+   * @param user
+   * @return map from parent uri to the rows under that parent, ordered by
+   *         ordinal number.
+   * @throws ODKDatastoreException
+   */
+  static Map<String, List<CommonFieldsBase>> fetchRowsByParent(Datastore ds,
+      DynamicBase relation, List<String> topLevelAuris, User user) throws ODKDatastoreException {
+    int chunkSize = ds.getMaxValueSetFilterSize();
+    Map<String, List<CommonFieldsBase>> byParent = new HashMap<String, List<CommonFieldsBase>>();
+    for (int i = 0; i < topLevelAuris.size(); i += chunkSize) {
+      List<String> chunk = topLevelAuris.subList(i,
+          Math.min(i + chunkSize, topLevelAuris.size()));
+      Query q = ds.createQuery(relation, "SubmissionBulkLoader.fetchNestedRows", user);
+      q.addValueSetFilter(relation.topLevelAuri, chunk);
+      q.addSort(relation.parentAuri, Direction.ASCENDING);
+      q.addSort(relation.ordinalNumber, Direction.ASCENDING);
+      for (CommonFieldsBase cb : q.executeQuery()) {
+        String uriParent = ((DynamicBase) cb).getParentAuri();
+        List<CommonFieldsBase> rows = byParent.get(uriParent);
+        if (rows == null) {
+          rows = new ArrayList<CommonFieldsBase>();
+          byParent.put(uriParent, rows);
+        }
+        rows.add(cb);
+      }
+    }
+    return byParent;
+  }
+
+  /**
+   * Gather the backing relations of the form that are reached through a
+   * _PARENT_AURI reference: phantom tables split off from their group, repeat
+   * groups and select-choice tables.
+   *
+   * @param group
+   * @param relations
+   */
+  private static void collectRelations(FormDataModel group, Map<String, DynamicBase> relations) {
+    CommonFieldsBase groupRelation = group.getBackingObjectPrototype();
+    for (FormDataModel m : group.getChildren()) {
+      CommonFieldsBase mRelation = m.getBackingObjectPrototype();
+      switch (m.getElementType()) {
+      case PHANTOM:
+      case GEOPOINT:
+      case GROUP:
+        if (m.getPersistAsColumn() == null) {
+          if (!groupRelation.equals(mRelation)) {
+            relations.put(mRelation.getTableName(), (DynamicBase) mRelation);
+          }
+          collectRelations(m, relations);
+        }
+        break;
+      case REPEAT:
+        relations.put(mRelation.getTableName(), (DynamicBase) mRelation);
+        collectRelations(m, relations);
+        break;
+      case SELECT1:
+      case SELECTN:
+        relations.put(mRelation.getTableName(), (DynamicBase) mRelation);
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  public IForm getForm() {
+    return form;
+  }
+
+  /**
+   * @param relation
+   * @return true if the rows of this relation were fetched by this loader.
+   */
+  public boolean isLoaded(CommonFieldsBase relation) {
+    return rowsByTable.containsKey(relation.getTableName());
+  }
+
+  /**
+   * Return the rows of the given relation that are under the given parent,
+   * ordered by ordinal number. The relation must be one for which
+   * {@link #isLoaded(CommonFieldsBase)} is true.
+   *
+   * @param relation
+   * @param uriParent
+   * @return the list of rows (never null)
+   */
+  public List<CommonFieldsBase> getChildRows(CommonFieldsBase relation, String uriParent) {
+    Map<String, List<CommonFieldsBase>> byParent = rowsByTable.get(relation.getTableName());
+    if (byParent == null) {
+      throw new IllegalArgumentException("relation was not bulk loaded: " + relation.getTableName());
+    }
+    List<CommonFieldsBase> rows = byParent.get(uriParent);
+    if (rows == null) {
+      return Collections.emptyList();
+    }
+    return rows;
+  }
+}
@@ -17,6 +17,9 @@
 
 package org.opendatakit.aggregate.submission;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.opendatakit.aggregate.exception.ODKConversionException;
 import org.opendatakit.common.datamodel.BinaryContentManipulator;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
@@ -86,5 +89,28 @@ public interface SubmissionField<T> extends SubmissionValue{
   public BinaryContentManipulator.BlobSubmissionOutcome setValueFromByteArray(byte[] byteArray,
       String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
       throws ODKDatastoreException;
+
+  /**
+   * Set the binary value of the submission field from a stream. Only one
+   * part of the content is held in memory at a time.
+   * 
+   * @param stream
+   *          the binary content
+   * @param contentType
+   *          type of binary data
+   * @param unrootedFilePath
+   *          the filename for this content
+   * @param overwriteOK
+   *          true if overwriting an existing value is OK.
+   * @param cc
+   *          calling context
+   * @return the outcome of the storage attempt. md5 hashes are used to
+   *         determine file equivalence.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException;
   
 }
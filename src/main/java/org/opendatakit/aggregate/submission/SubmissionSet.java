@@ -107,6 +107,12 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
    */
   private final Map<FormElementModel, SubmissionValue> elementsToValues = new HashMap<FormElementModel, SubmissionValue>();
 
+  /**
+   * When non-null, the nested records of this submission set were already
+   * fetched as part of a page of submissions and are taken from here.
+   */
+  private final SubmissionBulkLoader bulkLoader;
+
   /**
    * Construct an empty repeating group.
    *
@@ -123,6 +129,7 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
     this.form = form;
     this.group = group;
     this.enclosingSet = enclosingSet;
+    this.bulkLoader = null;
     Datastore datastore = cc.getDatastore();
     User user = cc.getCurrentUser();
     DynamicBase tlg = (DynamicBase) datastore.createEntityUsingRelation(group.getFormDataModel()
@@ -149,6 +156,7 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
     this.form = form;
     this.group = form.getTopLevelGroupElement();
     this.enclosingSet = null;
+    this.bulkLoader = null;
     Datastore datastore = cc.getDatastore();
     User user = cc.getCurrentUser();
     // this is a top level table...
@@ -228,9 +236,28 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
    */
   public SubmissionSet(SubmissionSet enclosingSet, DynamicCommonFieldsBase row,
                        FormElementModel group, IForm form, CallingContext cc) throws ODKDatastoreException {
+    this(enclosingSet, row, group, form, null, cc);
+  }
+
+  /**
+   * Construct a submission set from the datastore, taking the nested records
+   * from the given bulk loader when one is supplied.
+   *
+   * @param enclosingSet   - the enclosing submission set.
+   * @param row            - the base record for this submission set.
+   * @param group          - the form group mapped to the base record.
+   * @param formDefinition - the definition of the form.
+   * @param bulkLoader     - nested records fetched for a page of submissions, or null.
+   * @param cc             - the CallingContext of this request.
+   * @throws ODKDatastoreException
+   */
+  public SubmissionSet(SubmissionSet enclosingSet, DynamicCommonFieldsBase row,
+                       FormElementModel group, IForm form, SubmissionBulkLoader bulkLoader,
+                       CallingContext cc) throws ODKDatastoreException {
     this.form = form;
     this.group = group;
     this.enclosingSet = enclosingSet;
+    this.bulkLoader = bulkLoader;
     this.key = row.getEntityKey();
     Datastore datastore = cc.getDatastore();
     User user = cc.getCurrentUser();
@@ -277,10 +304,15 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
         } else {
           if (mBackingObject == null) {
             DynamicBase mBaseRelation = (DynamicBase) mRelation;
-            Query query = datastore.createQuery(mBaseRelation,
-                "SubmissionSet.recursivelyGetEntities", user);
-            query.addFilter(mBaseRelation.parentAuri, FilterOperation.EQUAL, uriParent);
-            List<? extends CommonFieldsBase> rows = query.executeQuery();
+            List<? extends CommonFieldsBase> rows;
+            if (bulkLoader != null && bulkLoader.isLoaded(mBaseRelation)) {
+              rows = bulkLoader.getChildRows(mBaseRelation, uriParent);
+            } else {
+              Query query = datastore.createQuery(mBaseRelation,
+                  "SubmissionSet.recursivelyGetEntities", user);
+              query.addFilter(mBaseRelation.parentAuri, FilterOperation.EQUAL, uriParent);
+              rows = query.executeQuery();
+            }
             if (rows.size() > 1) {
               throw new IllegalStateException(
                   "Expected exactly one match in phantom reconstruction! " + " SELECT * FROM "
@@ -454,21 +486,27 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
             elementsToValues.put(m, submissionField);
             break;
           case SELECT1: // identifies SelectChoice table
-            submissionField = new ChoiceSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey); // pass
-            // in row we occur under to access parentAuri
-            submissionField.getValueFromEntity(cc);
-            elementsToValues.put(m, submissionField);
+            {
+              ChoiceSubmissionType choiceField = new ChoiceSubmissionType(m,
+                  groupRowGroup.getUri(), topLevelTableKey); // pass
+              // in row we occur under to access parentAuri
+              choiceField.getValueFromEntity(bulkLoader, cc);
+              elementsToValues.put(m, choiceField);
+            }
             break;
           case SELECTN: // identifies SelectChoice table
-            submissionField = new ChoiceSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey); // pass
-            // in row we occur under to access parentAuri
-            submissionField.getValueFromEntity(cc);
-            elementsToValues.put(m, submissionField);
+            {
+              ChoiceSubmissionType choiceField = new ChoiceSubmissionType(m,
+                  groupRowGroup.getUri(), topLevelTableKey); // pass
+              // in row we occur under to access parentAuri
+              choiceField.getValueFromEntity(bulkLoader, cc);
+              elementsToValues.put(m, choiceField);
+            }
             break;
           case REPEAT:
             RepeatSubmissionType repeatNode = new RepeatSubmissionType(this, m,
                 groupRowGroup.getUri(), form);
-            repeatNode.getValueFromEntity(cc);
+            repeatNode.getValueFromEntity(bulkLoader, cc);
             elementsToValues.put(m, repeatNode);
             break;
           case BINARY_CONTENT_REF_BLOB: // association between
@@ -17,6 +17,9 @@
 
 package org.opendatakit.aggregate.submission.type;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 
@@ -82,6 +85,16 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.getBlob(ordinal, cc);
   }
 
+  public void writeBlob(int ordinal, OutputStream os, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+    bcm.writeBlob(ordinal, os, cc);
+  }
+
+  public void writeBlobRange(int ordinal, OutputStream os, long offset, long length,
+      CallingContext cc) throws ODKDatastoreException, IOException {
+    bcm.writeBlobRange(ordinal, os, offset, length, cc);
+  }
+
   /**
    * Constructor
    * 
@@ -134,6 +147,14 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
   }
 
+  @Override
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+
+    return bcm.setValueFromStream(stream, contentType, unrootedFilePath, overwriteOK, cc);
+  }
+
   /**
    * Cannot convert blob from a string
    * 
@@ -23,6 +23,7 @@ import org.opendatakit.aggregate.datamodel.SelectChoice;
 import org.opendatakit.aggregate.exception.ODKConversionException;
 import org.opendatakit.aggregate.format.Row;
 import org.opendatakit.aggregate.format.element.ElementFormatter;
+import org.opendatakit.aggregate.submission.SubmissionBulkLoader;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
 import org.opendatakit.aggregate.submission.SubmissionValue;
 import org.opendatakit.common.datamodel.DeleteHelper;
@@ -74,15 +75,32 @@ public class ChoiceSubmissionType extends SubmissionFieldBase<List<String>> {
 
   @Override
   public void getValueFromEntity(CallingContext cc) throws ODKDatastoreException {
+    getValueFromEntity(null, cc);
+  }
 
-    SelectChoice sel = (SelectChoice) element.getFormDataModel().getBackingObjectPrototype();
-    Query q = cc.getDatastore().createQuery(element.getFormDataModel().getBackingObjectPrototype(),
-        "ChoiceSubmissionType.getValueFromEntity", cc.getCurrentUser());
-    q.addFilter(sel.parentAuri, FilterOperation.EQUAL, parentKey);
-    q.addSort(sel.parentAuri, Direction.ASCENDING); // for GAE work-around
-    q.addSort(sel.ordinalNumber, Direction.ASCENDING);
+  /**
+   * Retrieve the selected choices, taking them from the bulk loader rather
+   * than the datastore if they were fetched with a page of submissions.
+   *
+   * @param bulkLoader may be null
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void getValueFromEntity(SubmissionBulkLoader bulkLoader, CallingContext cc) throws ODKDatastoreException {
 
-    List<? extends CommonFieldsBase> choiceHits = q.executeQuery();
+    SelectChoice sel = (SelectChoice) element.getFormDataModel().getBackingObjectPrototype();
+    List<? extends CommonFieldsBase> choiceHits;
+    if (bulkLoader != null && bulkLoader.isLoaded(sel)) {
+      choiceHits = bulkLoader.getChildRows(sel, parentKey);
+    } else {
+      Query q = cc.getDatastore().createQuery(element.getFormDataModel().getBackingObjectPrototype(),
+          "ChoiceSubmissionType.getValueFromEntity", cc.getCurrentUser());
+      q.addFilter(sel.parentAuri, FilterOperation.EQUAL, parentKey);
+      q.addSort(sel.parentAuri, Direction.ASCENDING); // for GAE work-around
+      q.addSort(sel.ordinalNumber, Direction.ASCENDING);
+
+      choiceHits = q.executeQuery();
+    }
     choices.clear();
     values.clear();
     long expectedOrdinal = 1L;
@@ -16,6 +16,7 @@
 
 package org.opendatakit.aggregate.submission.type;
 
+import java.io.InputStream;
 import java.util.List;
 
 import org.opendatakit.aggregate.datamodel.FormElementModel;
@@ -92,4 +93,10 @@ public abstract class MetadataBaseType<T> implements SubmissionField<T> {
     throw new IllegalStateException("unexpected call to setValueFromByteArray");
   }
 
+  @Override
+  public BlobSubmissionOutcome setValueFromStream(InputStream stream, String contentType,
+      String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
+    throw new IllegalStateException("unexpected call to setValueFromStream");
+  }
+
 }
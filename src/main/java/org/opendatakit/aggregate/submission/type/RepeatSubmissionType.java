@@ -127,13 +127,31 @@ public class RepeatSubmissionType implements SubmissionRepeat {
 
   @Override
   public void getValueFromEntity(CallingContext cc) throws ODKDatastoreException {
+    getValueFromEntity(null, cc);
+  }
+
+  /**
+   * Retrieve the repeat group instances, taking them from the bulk loader
+   * rather than the datastore if they were fetched with a page of submissions.
+   *
+   * @param bulkLoader may be null
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void getValueFromEntity(SubmissionBulkLoader bulkLoader, CallingContext cc) throws ODKDatastoreException {
     DynamicBase submission = (DynamicBase) repeatGroup.getFormDataModel().getBackingObjectPrototype();
 
-    List<CommonFieldsBase> repeatRows = getRepeatRows(cc, submission);
+    List<CommonFieldsBase> repeatRows;
+    if (bulkLoader != null && bulkLoader.isLoaded(submission)) {
+      repeatRows = bulkLoader.getChildRows(submission, uriAssociatedRow);
+    } else {
+      repeatRows = getRepeatRows(cc, submission);
+    }
 
     for (List<DynamicBase> groupOfRepeatRows : groupPerOrdinalNumber(submission, repeatRows)) {
       DynamicBase row = chooseOneFrom(groupOfRepeatRows);
-      SubmissionSet submissionSet = new SubmissionSet(enclosingSet, row, repeatGroup, form, cc);
+      SubmissionSet submissionSet = new SubmissionSet(enclosingSet, row, repeatGroup, form,
+          bulkLoader, cc);
       submissionSets.add(submissionSet);
       submissionSetIndex.put(row.getOrdinalNumber(), submissionSet);
     }
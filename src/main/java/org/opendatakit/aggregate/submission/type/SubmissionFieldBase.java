@@ -17,7 +17,8 @@
 
 package org.opendatakit.aggregate.submission.type;
 
-
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.opendatakit.aggregate.constants.ErrorConsts;
 import org.opendatakit.aggregate.datamodel.FormDataModel.ElementType;
@@ -136,6 +137,17 @@ public abstract class SubmissionFieldBase<T> implements SubmissionField<T>{
       throw new IllegalStateException(ErrorConsts.BINARY_ERROR);
     }
   }
+
+  @Override
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+    if(isBinary()) {
+      throw new IllegalStateException("Should be overridden in derived class");
+    } else {
+      throw new IllegalStateException(ErrorConsts.BINARY_ERROR);
+    }
+  }
   
   /**
    * @see java.lang.Object#equals(java.lang.Object)
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import org.opendatakit.common.web.constants.HtmlConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Destination of an export (csv, json or kml) while it is being generated. The
+ * formatters write into a temporary file so that the heap only holds the
+ * current segment of submissions; the finished file is then streamed into the
+ * PersistentResults blob. Where temporary files cannot be created (e.g., on
+ * App Engine), the export is accumulated in memory as before.
+ */
+final class ExportFile {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExportFile.class);
+
+  private final File file;
+  private final ByteArrayOutputStream memory;
+  private final PrintWriter writer;
+
+  ExportFile(String prefix, String suffix) throws IOException {
+    this(createTempFile(prefix, suffix));
+  }
+
+  private ExportFile(File file) throws IOException {
+    this(file, (file == null) ? null : new BufferedOutputStream(new FileOutputStream(file)));
+  }
+
+  /**
+   * @param file
+   *          the file the export is written to, or null to accumulate the
+   *          export in memory
+   * @param os
+   *          stream over the file; ignored if file is null
+   * @throws IOException
+   */
+  ExportFile(File file, OutputStream os) throws IOException {
+    this.file = file;
+    if (file == null) {
+      memory = new ByteArrayOutputStream();
+      os = memory;
+    } else {
+      memory = null;
+    }
+    writer = new PrintWriter(new OutputStreamWriter(os, HtmlConsts.UTF8_ENCODE));
+  }
+
+  private static File createTempFile(String prefix, String suffix) {
+    try {
+      return File.createTempFile(prefix, suffix);
+    } catch (IOException | SecurityException e) {
+      logger.warn("Unable to create temporary export file -- generating the export in memory: "
+          + e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * @return the writer the formatter emits the export into.
+   */
+  PrintWriter getWriter() {
+    return writer;
+  }
+
+  /**
+   * Close the writer and open the completed export for reading.
+   *
+   * @return stream over the generated export
+   * @throws IOException
+   *           if any write to the export failed. PrintWriter swallows these,
+   *           so without this check a truncated export would be stored as
+   *           complete.
+   */
+  InputStream openStream() throws IOException {
+    writer.flush();
+    writer.close();
+    if (writer.checkError()) {
+      throw new IOException("Unable to write the export"
+          + ((file == null) ? "" : " to " + file.getAbsolutePath()));
+    }
+    if (file == null) {
+      return new ByteArrayInputStream(memory.toByteArray());
+    }
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+
+  /**
+   * Release the temporary file, if any.
+   */
+  void delete() {
+    writer.close();
+    if (file != null && !file.delete()) {
+      logger.warn("Unable to delete temporary export file " + file.getAbsolutePath());
+    }
+  }
+}
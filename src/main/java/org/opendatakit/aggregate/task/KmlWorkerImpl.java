@@ -15,8 +15,7 @@
  */
 package org.opendatakit.aggregate.task;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.Date;
 import java.util.List;
@@ -33,10 +32,8 @@ import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.PersistentResults;
 import org.opendatakit.aggregate.format.SubmissionFormatter;
 import org.opendatakit.aggregate.format.structure.KmlFormatterWithFilters;
-import org.opendatakit.aggregate.query.submission.QueryBase;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
-import org.opendatakit.aggregate.submission.Submission;
 import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.HtmlConsts;
@@ -70,9 +67,11 @@ public class KmlWorkerImpl {
     logger.info("Beginning KML generation: " + persistentResultsKey.toString() + " form "
         + form.getFormId());
 
+    ExportFile exportFile = null;
     try {
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      PrintWriter pw = new PrintWriter(new OutputStreamWriter(stream, HtmlConsts.UTF8_ENCODE));
+      // spool the export to a temporary file rather than holding it in memory
+      exportFile = new ExportFile("kml-export-", ".kml");
+      PrintWriter pw = exportFile.getWriter();
 
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       String filterGroupUri = r.getFilterGroupUri();
@@ -81,7 +80,7 @@ public class KmlWorkerImpl {
       SubmissionFilterGroup subFilterGroup = null;
 
       // create KML
-      QueryBase query;
+      QueryByUIFilterGroup query;
       SubmissionFormatter formatter;
       FilterGroup filterGroup;
 
@@ -101,33 +100,26 @@ public class KmlWorkerImpl {
 
       logger.info("after setup of KML file generation for " + form.getFormId());
       formatter.beforeProcessSubmissions(cc);
-      List<Submission> submissions;
-      int count = 0;
-      for (;;) {
-        count++;
-        logger.info("iteration " + Integer.toString(count) + " before issuing query for "
-            + form.getFormId());
-        submissions = query.getResultSubmissions(cc);
-        if (submissions.isEmpty())
-          break;
-        logger.info("iteration " + Integer.toString(count) + " before emitting kml for "
-            + form.getFormId());
-        formatter.processSubmissionSegment(submissions, cc);
-      }
+      logger.info("streaming submissions into kml for " + form.getFormId());
+      query.processSubmissionSegments(formatter, cc);
       logger.info("wrapping up kml generation for " + form.getFormId());
       formatter.afterProcessSubmissions(cc);
 
       // output file
       pw.close();
-      byte[] outputFile = stream.toByteArray();
 
       // refetch because this might have taken a while...
       r = new PersistentResults(persistentResultsKey, cc);
       if (attemptCount.equals(r.getAttemptCount())) {
         logger.info("saving kml into PersistentResults table for " + form.getFormId());
-        r.setResultFile(outputFile, HtmlConsts.RESP_TYPE_KML,
-            form.getViewableFormNameSuitableAsFileName() + ServletConsts.KML_FILENAME_APPEND,
-            false, cc);
+        InputStream outputFile = exportFile.openStream();
+        try {
+          r.setResultFile(outputFile, HtmlConsts.RESP_TYPE_KML,
+              form.getViewableFormNameSuitableAsFileName() + ServletConsts.KML_FILENAME_APPEND,
+              false, cc);
+        } finally {
+          outputFile.close();
+        }
         r.setStatus(ExportStatus.AVAILABLE);
         r.setCompletionDate(new Date());
         if (subFilterGroup != null) {
@@ -140,6 +132,10 @@ public class KmlWorkerImpl {
       }
     } catch (Exception e) {
       failureRecovery(e);
+    } finally {
+      if (exportFile != null) {
+        exportFile.delete();
+      }
     }
   }
 
@@ -31,6 +31,12 @@ public interface PurgeOlderSubmissions {
     
     public static final String PURGE_DATE = "purgeBefore";
 
+    /**
+     * Request parameter holding the number of submissions purged so far; it is
+     * updated on the task after each round of deletes.
+     */
+    public static final String PURGED_COUNT = "purgedCount";
+
     public void createPurgeOlderSubmissionsTask(IForm form, SubmissionKey miscTasksKey,
                 long attemptCount, CallingContext cc) throws ODKDatastoreException, ODKFormNotFoundException;
 }
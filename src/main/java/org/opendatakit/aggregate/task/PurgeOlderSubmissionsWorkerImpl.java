@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -27,18 +29,28 @@ import org.opendatakit.aggregate.client.filter.FilterGroup;
 import org.opendatakit.aggregate.constants.TaskLockType;
 import org.opendatakit.aggregate.constants.common.FormActionStatus;
 import org.opendatakit.aggregate.constants.common.UIConsts;
+import org.opendatakit.aggregate.datamodel.FormDataModel;
 import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
 import org.opendatakit.aggregate.exception.ODKExternalServiceDependencyException;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.exception.ODKIncompleteSubmissionData;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.MiscTasks;
-import org.opendatakit.aggregate.process.DeleteSubmissions;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
 import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.aggregate.util.ImageThumbnailTable;
+import org.opendatakit.common.datamodel.BinaryContent;
+import org.opendatakit.common.datamodel.DeleteHelper;
+import org.opendatakit.common.datamodel.DynamicAssociationBase;
+import org.opendatakit.common.datamodel.DynamicBase;
+import org.opendatakit.common.datamodel.DynamicCommonFieldsBase;
+import org.opendatakit.common.datamodel.DynamicDocumentBase;
 import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.Query.FilterOperation;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
@@ -60,7 +72,10 @@ import org.opendatakit.common.web.constants.BasicConsts;
  */
 public class PurgeOlderSubmissionsWorkerImpl {
 
-  private static final int MAX_QUERY_LIMIT = 100;
+  /**
+   * Number of submissions removed by each round of set-based deletes.
+   */
+  private static final int MAX_QUERY_LIMIT = 1000;
 
   private final IForm form;
   private final SubmissionKey miscTasksKey;
@@ -203,7 +218,12 @@ public class PurgeOlderSubmissionsWorkerImpl {
     }
 
     if (relation != null) {
-      
+
+      List<DynamicCommonFieldsBase> nestedRelations = getNestedRelations(relation);
+      // a retried task continues the count of the earlier attempts
+      String purgedCountString = rp.get(PurgeOlderSubmissions.PURGED_COUNT);
+      long purgedCount = (purgedCountString == null) ? 0L : Long.valueOf(purgedCountString);
+
       for (;;) {
         // retrieve submissions
         // for large data sets, this might fail?
@@ -214,16 +234,28 @@ public class PurgeOlderSubmissionsWorkerImpl {
         if (topLevelEntities.size() == 0)
           break;
 
-        List<SubmissionKey> keys = new ArrayList<SubmissionKey>();
+        List<String> topLevelAuris = new ArrayList<String>();
         for ( TopLevelDynamicBase tld : topLevelEntities ) {
-          keys.add(new SubmissionKey(form.getFormId(), form.getTopLevelGroupElement().getElementName(), tld.getEntityKey().getKey()));
+          topLevelAuris.add(tld.getUri());
         }
 
-        DeleteSubmissions delete;
-        delete = new DeleteSubmissions(keys);
-        delete.deleteSubmissions(cc);
-        
-        logger.info("successfully deleted " + topLevelEntities.size() + " submissions");
+        // the set-based deletes bypass the attachments, so drop their
+        // thumbnails first.
+        deleteThumbnails(nestedRelations, topLevelAuris);
+
+        // delete the nested records of this chunk of submissions table by
+        // table, then the top-level records themselves. If we fail part way,
+        // the top-level records remain and the next attempt repeats the chunk.
+        for (DynamicCommonFieldsBase nested : nestedRelations) {
+          deleteByTopLevelAuri(nested, getTopLevelAuriField(nested), topLevelAuris);
+        }
+        deleteByTopLevelAuri(relation, relation.primaryKey, topLevelAuris);
+
+        purgedCount += topLevelAuris.size();
+        logger.info("successfully deleted " + topLevelAuris.size() + " submissions ("
+            + purgedCount + " so far)");
+        rp.put(PurgeOlderSubmissions.PURGED_COUNT, Long.toString(purgedCount));
+        t.setRequestParameters(rp);
         t.setLastActivityDate(new Date());
         t.persist(cc);
         // renew lock
@@ -237,4 +269,110 @@ public class PurgeOlderSubmissionsWorkerImpl {
     doMarkAsComplete(t);
     return true;
   }
+
+  /**
+   * @param topLevelRelation
+   * @return the tables holding the nested records of the form's submissions
+   *         (groups, repeats, choices and binary content), ordered so that
+   *         documents and associations are deleted before the groups that
+   *         reference them.
+   */
+  private List<DynamicCommonFieldsBase> getNestedRelations(CommonFieldsBase topLevelRelation) {
+    Set<DynamicCommonFieldsBase> all = new TreeSet<DynamicCommonFieldsBase>(
+        DynamicCommonFieldsBase.sameTableName);
+    all.addAll(form.getAllBackingObjects());
+    // the binary content tables hang off the form data model rather than the
+    // form element model; pick them (and anything else) up from there.
+    collectBackingObjects(form.getTopLevelGroupElement().getFormDataModel(), all);
+
+    List<DynamicCommonFieldsBase> documents = new ArrayList<DynamicCommonFieldsBase>();
+    List<DynamicCommonFieldsBase> associations = new ArrayList<DynamicCommonFieldsBase>();
+    List<DynamicCommonFieldsBase> groups = new ArrayList<DynamicCommonFieldsBase>();
+    for (DynamicCommonFieldsBase dcb : all) {
+      if (dcb instanceof TopLevelDynamicBase || dcb.getTableName().equals(topLevelRelation.getTableName())) {
+        continue;
+      } else if (dcb instanceof DynamicDocumentBase) {
+        documents.add(dcb);
+      } else if (dcb instanceof DynamicAssociationBase) {
+        associations.add(dcb);
+      } else {
+        groups.add(dcb);
+      }
+    }
+    List<DynamicCommonFieldsBase> ordered = new ArrayList<DynamicCommonFieldsBase>();
+    ordered.addAll(documents);
+    ordered.addAll(associations);
+    ordered.addAll(groups);
+    return ordered;
+  }
+
+  private static void collectBackingObjects(FormDataModel m, Set<DynamicCommonFieldsBase> set) {
+    for (FormDataModel child : m.getChildren()) {
+      set.add((DynamicCommonFieldsBase) child.getBackingObjectPrototype());
+      collectBackingObjects(child, set);
+    }
+  }
+
+  private static DataField getTopLevelAuriField(DynamicCommonFieldsBase dcb) {
+    if (dcb instanceof DynamicDocumentBase) {
+      return ((DynamicDocumentBase) dcb).topLevelAuri;
+    } else if (dcb instanceof DynamicAssociationBase) {
+      return ((DynamicAssociationBase) dcb).topLevelAuri;
+    } else {
+      return ((DynamicBase) dcb).topLevelAuri;
+    }
+  }
+
+  /**
+   * Delete the preview thumbnails of the image attachments of a chunk of
+   * submissions.
+   *
+   * @param nestedRelations
+   * @param topLevelAuris
+   * @throws ODKDatastoreException
+   */
+  private void deleteThumbnails(List<DynamicCommonFieldsBase> nestedRelations,
+      List<String> topLevelAuris) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    int maxPerQuery = ds.getMaxValueSetFilterSize();
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    for (DynamicCommonFieldsBase nested : nestedRelations) {
+      if (!(nested instanceof BinaryContent)) {
+        continue;
+      }
+      BinaryContent ctntRelation = (BinaryContent) nested;
+      for (int idxStart = 0; idxStart < topLevelAuris.size(); idxStart += maxPerQuery) {
+        int idxAfterEnd = Math.min(idxStart + maxPerQuery, topLevelAuris.size());
+        Query q = ds.createQuery(ctntRelation, "PurgeOlderSubmissionsWorkerImpl.deleteThumbnails",
+            user);
+        q.addValueSetFilter(ctntRelation.topLevelAuri, topLevelAuris.subList(idxStart, idxAfterEnd));
+        for (CommonFieldsBase cb : q.executeQuery()) {
+          BinaryContent bc = (BinaryContent) cb;
+          ImageThumbnailTable.addEntityKeysForDeletion(bc.getContentHash(), bc.getContentType(),
+              keys, cc);
+        }
+      }
+    }
+    if (!keys.isEmpty()) {
+      DeleteHelper.deleteEntities(keys, cc);
+    }
+  }
+
+  private void deleteByTopLevelAuri(CommonFieldsBase relation, DataField field,
+      List<String> topLevelAuris) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    try {
+      ds.deleteEntitiesByFieldValues(relation, field, topLevelAuris, user);
+    } catch (ODKDatastoreException e) {
+      // tolerate a table that was never created or has already been dropped
+      if (ds.hasRelation(relation.getSchemaName(), relation.getTableName(), user)) {
+        throw e;
+      }
+      LoggerFactory.getLogger(PurgeOlderSubmissionsWorkerImpl.class).warn(
+          "Skipping purge of missing table " + relation.getSchemaName() + "."
+              + relation.getTableName());
+    }
+  }
 }
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task.tomcat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.opendatakit.aggregate.constants.common.ExternalServiceType;
+import org.opendatakit.aggregate.exception.ODKExternalServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the upload tasks of the publishers (FormServiceCursors) on a dedicated
+ * pool of threads, apart from the task scheduler used by the watchdog and the
+ * export tasks.
+ * <ul>
+ * <li>Each FormServiceCursor has at most one queued and one running task;
+ * further requests for a cursor that is already queued are coalesced.</li>
+ * <li>Forms are served round-robin, so a backlogged form cannot starve the
+ * publishers of the other forms.</li>
+ * <li>The number of tasks running against each type of external service is
+ * limited.</li>
+ * <li>A publisher whose endpoint answered 429 or 5xx is held back, with an
+ * exponentially growing delay, until one of its uploads succeeds.</li>
+ * </ul>
+ */
+public class PublisherExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(PublisherExecutor.class);
+
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLISECONDS = 5000L;
+  public static final long MAX_BACKOFF_MILLISECONDS = 10L * 60L * 1000L;
+
+  /**
+   * Counters for one FormServiceCursor. The instances handed out by
+   * {@link PublisherExecutor#getStatistics()} are snapshots.
+   */
+  public static final class PublisherStatistics {
+    private final String uriFormServiceCursor;
+    private final String formId;
+    private final ExternalServiceType serviceType;
+    private boolean queued = false;
+    private boolean running = false;
+    private long requests = 0L;
+    private long coalesced = 0L;
+    private long runs = 0L;
+    private long failures = 0L;
+    private long throttled = 0L;
+    private long totalWaitMillis = 0L;
+    private long totalRunMillis = 0L;
+    private long maxRunMillis = 0L;
+    private long lastRunMillis = 0L;
+    private int consecutiveThrottles = 0;
+    private long heldUntil = 0L;
+
+    private PublisherStatistics(String uriFormServiceCursor, String formId,
+        ExternalServiceType serviceType) {
+      this.uriFormServiceCursor = uriFormServiceCursor;
+      this.formId = formId;
+      this.serviceType = serviceType;
+    }
+
+    private PublisherStatistics(PublisherStatistics ref) {
+      this(ref.uriFormServiceCursor, ref.formId, ref.serviceType);
+      queued = ref.queued;
+      running = ref.running;
+      requests = ref.requests;
+      coalesced = ref.coalesced;
+      runs = ref.runs;
+      failures = ref.failures;
+      throttled = ref.throttled;
+      totalWaitMillis = ref.totalWaitMillis;
+      totalRunMillis = ref.totalRunMillis;
+      maxRunMillis = ref.maxRunMillis;
+      lastRunMillis = ref.lastRunMillis;
+      consecutiveThrottles = ref.consecutiveThrottles;
+      heldUntil = ref.heldUntil;
+    }
+
+    public String getUriFormServiceCursor() {
+      return uriFormServiceCursor;
+    }
+
+    public String getFormId() {
+      return formId;
+    }
+
+    public ExternalServiceType getServiceType() {
+      return serviceType;
+    }
+
+    public boolean isQueued() {
+      return queued;
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    /**
+     * @return number of upload requests, including those coalesced into an
+     *         already-queued task.
+     */
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getCoalesced() {
+      return coalesced;
+    }
+
+    public long getRuns() {
+      return runs;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    /**
+     * @return number of runs that ended with the endpoint answering 429 or 5xx.
+     */
+    public long getThrottled() {
+      return throttled;
+    }
+
+    /**
+     * @return average time a task spent in the queue before it started.
+     */
+    public long getAverageWaitMillis() {
+      return (runs == 0L) ? 0L : totalWaitMillis / runs;
+    }
+
+    /**
+     * @return average time taken to send a batch of submissions.
+     */
+    public long getAverageRunMillis() {
+      return (runs == 0L) ? 0L : totalRunMillis / runs;
+    }
+
+    public long getMaxRunMillis() {
+      return maxRunMillis;
+    }
+
+    public long getLastRunMillis() {
+      return lastRunMillis;
+    }
+
+    /**
+     * @return time until which the publisher is held back, or 0 if it is not.
+     */
+    public long getHeldUntil() {
+      return heldUntil;
+    }
+
+    @Override
+    public String toString() {
+      return "PublisherStatistics[" + uriFormServiceCursor + " form " + formId + " ("
+          + serviceType + ") queued: " + queued + " running: " + running + " requests: "
+          + requests + " coalesced: " + coalesced + " runs: " + runs + " failures: " + failures
+          + " throttled: " + throttled + " avgWait: " + getAverageWaitMillis() + "ms avgRun: "
+          + getAverageRunMillis() + "ms maxRun: " + maxRunMillis + "ms]";
+    }
+  }
+
+  private static final class Task {
+    final String uriFormServiceCursor;
+    final String formId;
+    final ExternalServiceType serviceType;
+    final Callable<?> upload;
+    final long queuedAt = System.currentTimeMillis();
+
+    Task(String uriFormServiceCursor, String formId, ExternalServiceType serviceType,
+        Callable<?> upload) {
+      this.uriFormServiceCursor = uriFormServiceCursor;
+      this.formId = formId;
+      this.serviceType = serviceType;
+      this.upload = upload;
+    }
+  }
+
+  private final int maxConcurrentUploadsPerServiceType;
+  private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLISECONDS;
+
+  // all of the state below is guarded by this lock
+  private final Object lock = new Object();
+  private final Map<String, ArrayDeque<Task>> queuedByForm = new HashMap<String, ArrayDeque<Task>>();
+  // round-robin order in which the forms with queued tasks are served
+  private final ArrayDeque<String> formOrder = new ArrayDeque<String>();
+  private final Set<String> queuedCursors = new HashSet<String>();
+  private final Set<String> runningCursors = new HashSet<String>();
+  private final Map<ExternalServiceType, Integer> runningByServiceType = new EnumMap<ExternalServiceType, Integer>(
+      ExternalServiceType.class);
+  private final Map<String, PublisherStatistics> statistics = new HashMap<String, PublisherStatistics>();
+  private int queueDepth = 0;
+  private boolean shutdown = false;
+
+  private final List<Thread> workers = new ArrayList<Thread>();
+
+  /**
+   * @param maxConcurrentUploads
+   *          number of threads publishing submissions.
+   * @param maxConcurrentUploadsPerServiceType
+   *          the most uploads that may run concurrently against one type of
+   *          external service (e.g., Google Spreadsheets).
+   */
+  public PublisherExecutor(int maxConcurrentUploads, int maxConcurrentUploadsPerServiceType) {
+    this.maxConcurrentUploadsPerServiceType = Math.max(1, maxConcurrentUploadsPerServiceType);
+    for (int i = 0; i < Math.max(1, maxConcurrentUploads); ++i) {
+      Thread worker = new Thread("publisher-" + i) {
+        @Override
+        public void run() {
+          work();
+        }
+      };
+      worker.setDaemon(true);
+      workers.add(worker);
+      worker.start();
+    }
+  }
+
+  /**
+   * @param initialBackoffMillis
+   *          delay applied after the first 429 or 5xx response; it doubles for
+   *          each further one, up to {@link #MAX_BACKOFF_MILLISECONDS}.
+   */
+  public void setInitialBackoffMillis(long initialBackoffMillis) {
+    synchronized (lock) {
+      this.initialBackoffMillis = initialBackoffMillis;
+    }
+  }
+
+  /**
+   * Queue an upload for the given FormServiceCursor.
+   *
+   * @param uriFormServiceCursor
+   * @param formId
+   * @param serviceType
+   * @param upload
+   *          the upload task. If it throws an exception caused by an
+   *          {@link ODKExternalServiceUnavailableException}, the publisher is
+   *          held back before its next upload.
+   * @return false if an upload for this cursor was already queued (and this
+   *         one was dropped).
+   */
+  public boolean submit(String uriFormServiceCursor, String formId,
+      ExternalServiceType serviceType, Callable<?> upload) {
+    synchronized (lock) {
+      if (shutdown) {
+        logger.warn("Upload of " + uriFormServiceCursor + " not queued -- executor is shut down");
+        return false;
+      }
+      PublisherStatistics stats = getStatisticsInternal(uriFormServiceCursor, formId, serviceType);
+      ++stats.requests;
+      if (queuedCursors.contains(uriFormServiceCursor)) {
+        ++stats.coalesced;
+        return false;
+      }
+      ArrayDeque<Task> queue = queuedByForm.get(formId);
+      if (queue == null) {
+        queue = new ArrayDeque<Task>();
+        queuedByForm.put(formId, queue);
+        formOrder.addLast(formId);
+      }
+      queue.addLast(new Task(uriFormServiceCursor, formId, serviceType, upload));
+      queuedCursors.add(uriFormServiceCursor);
+      stats.queued = true;
+      ++queueDepth;
+      lock.notifyAll();
+      return true;
+    }
+  }
+
+  /**
+   * @return the number of uploads waiting to run.
+   */
+  public int getQueueDepth() {
+    synchronized (lock) {
+      return queueDepth;
+    }
+  }
+
+  /**
+   * @return snapshot of the counters of every FormServiceCursor that has been
+   *         submitted to this executor.
+   */
+  public List<PublisherStatistics> getStatistics() {
+    synchronized (lock) {
+      List<PublisherStatistics> snapshot = new ArrayList<PublisherStatistics>();
+      for (PublisherStatistics stats : statistics.values()) {
+        snapshot.add(new PublisherStatistics(stats));
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * Stop the worker threads once their current uploads are done. Queued
+   * uploads are dropped; the watchdog will re-create them.
+   */
+  public void shutdown() {
+    synchronized (lock) {
+      shutdown = true;
+      lock.notifyAll();
+    }
+  }
+
+  private PublisherStatistics getStatisticsInternal(String uriFormServiceCursor, String formId,
+      ExternalServiceType serviceType) {
+    PublisherStatistics stats = statistics.get(uriFormServiceCursor);
+    if (stats == null) {
+      stats = new PublisherStatistics(uriFormServiceCursor, formId, serviceType);
+      statistics.put(uriFormServiceCursor, stats);
+    }
+    return stats;
+  }
+
+  private int runningCount(ExternalServiceType serviceType) {
+    Integer count = runningByServiceType.get(serviceType);
+    return (count == null) ? 0 : count;
+  }
+
+  /**
+   * Take the first runnable task of the next form in round-robin order, waiting
+   * until there is one.
+   *
+   * @return the task, or null if the executor is shut down.
+   * @throws InterruptedException
+   */
+  private Task take() throws InterruptedException {
+    synchronized (lock) {
+      for (;;) {
+        if (shutdown) {
+          return null;
+        }
+        long now = System.currentTimeMillis();
+        long wakeAt = Long.MAX_VALUE;
+        int forms = formOrder.size();
+        for (int i = 0; i < forms; ++i) {
+          String formId = formOrder.removeFirst();
+          ArrayDeque<Task> queue = queuedByForm.get(formId);
+          Task found = null;
+          for (Iterator<Task> it = queue.iterator(); it.hasNext();) {
+            Task task = it.next();
+            if (runningCursors.contains(task.uriFormServiceCursor)
+                || runningCount(task.serviceType) >= maxConcurrentUploadsPerServiceType) {
+              continue;
+            }
+            long heldUntil = statistics.get(task.uriFormServiceCursor).heldUntil;
+            if (heldUntil > now) {
+              wakeAt = Math.min(wakeAt, heldUntil);
+              continue;
+            }
+            it.remove();
+            found = task;
+            break;
+          }
+          if (queue.isEmpty()) {
+            queuedByForm.remove(formId);
+          } else {
+            formOrder.addLast(formId);
+          }
+          if (found != null) {
+            queuedCursors.remove(found.uriFormServiceCursor);
+            runningCursors.add(found.uriFormServiceCursor);
+            runningByServiceType.put(found.serviceType, runningCount(found.serviceType) + 1);
+            PublisherStatistics stats = statistics.get(found.uriFormServiceCursor);
+            stats.queued = false;
+            stats.running = true;
+            stats.totalWaitMillis += now - found.queuedAt;
+            --queueDepth;
+            return found;
+          }
+        }
+        if (wakeAt == Long.MAX_VALUE) {
+          lock.wait();
+        } else {
+          lock.wait(Math.max(1L, wakeAt - now));
+        }
+      }
+    }
+  }
+
+  private void complete(Task task, long runMillis, boolean failed, boolean throttled) {
+    synchronized (lock) {
+      runningCursors.remove(task.uriFormServiceCursor);
+      runningByServiceType.put(task.serviceType, runningCount(task.serviceType) - 1);
+      PublisherStatistics stats = statistics.get(task.uriFormServiceCursor);
+      stats.running = false;
+      ++stats.runs;
+      stats.totalRunMillis += runMillis;
+      stats.lastRunMillis = runMillis;
+      stats.maxRunMillis = Math.max(stats.maxRunMillis, runMillis);
+      if (throttled) {
+        ++stats.throttled;
+        ++stats.failures;
+        long backoff = initialBackoffMillis << Math.min(stats.consecutiveThrottles, 20);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLISECONDS);
+        ++stats.consecutiveThrottles;
+        stats.heldUntil = System.currentTimeMillis() + backoff;
+        logger.warn("Publisher " + task.uriFormServiceCursor + " of form " + task.formId
+            + " is throttled or unavailable -- holding back its uploads for " + backoff + " ms");
+      } else if (failed) {
+        ++stats.failures;
+      } else {
+        stats.consecutiveThrottles = 0;
+        stats.heldUntil = 0L;
+      }
+      logger.info("Upload of " + task.uriFormServiceCursor + " took " + runMillis
+          + " ms; " + queueDepth + " uploads queued");
+      lock.notifyAll();
+    }
+  }
+
+  private static boolean isThrottled(Throwable t) {
+    for (; t != null; t = t.getCause()) {
+      if (t instanceof ODKExternalServiceUnavailableException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void work() {
+    for (;;) {
+      Task task;
+      try {
+        task = take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (task == null) {
+        return;
+      }
+      long start = System.currentTimeMillis();
+      boolean failed = false;
+      boolean throttled = false;
+      try {
+        task.upload.call();
+      } catch (Exception e) {
+        failed = true;
+        throttled = isThrottled(e);
+        logger.error("Upload of " + task.uriFormServiceCursor + " failed", e);
+      } finally {
+        complete(task, System.currentTimeMillis() - start, failed, throttled);
+      }
+    }
+  }
+}
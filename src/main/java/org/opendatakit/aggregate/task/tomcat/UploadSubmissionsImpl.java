@@ -14,6 +14,8 @@
  * the License.
  */
 package org.opendatakit.aggregate.task.tomcat;
+
+import java.util.concurrent.Callable;
 
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.exception.ODKExternalServiceException;
@@ -33,7 +35,7 @@ import org.opendatakit.common.web.CallingContext;
  */
 public class UploadSubmissionsImpl implements UploadSubmissions {
 
-    static class UploadSubmissionsRunner implements Runnable {
+    static class UploadSubmissionsRunner implements Callable<Void> {
         final UploadSubmissionsWorkerImpl impl;
 
         public UploadSubmissionsRunner(FormServiceCursor fsc, boolean useLargerBatchSize, CallingContext cc) {
@@ -41,16 +43,56 @@ public class UploadSubmissionsImpl implements UploadSubmissions {
         }
 
         @Override
-        public void run() {
-            try {
-                impl.uploadAllSubmissions();
-            } catch (Exception e) {
-                e.printStackTrace();
-                // TODO: Problem - decide what to do if an exception occurs
-            }
+        public Void call() throws Exception {
+            // failures are logged by the PublisherExecutor, which also
+            // holds back publishers whose endpoint is throttling us.
+            impl.uploadAllSubmissions();
+            return null;
         }
     }
 
+  private int maxConcurrentUploads = 4;
+  private int maxConcurrentUploadsPerServiceType = 2;
+  private PublisherExecutor publisherExecutor = null;
+
+  public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+    this.maxConcurrentUploads = maxConcurrentUploads;
+  }
+
+  public void setMaxConcurrentUploadsPerServiceType(int maxConcurrentUploadsPerServiceType) {
+    this.maxConcurrentUploadsPerServiceType = maxConcurrentUploadsPerServiceType;
+  }
+
+  /**
+   * @return the executor running the upload tasks (created on first use).
+   */
+  public synchronized PublisherExecutor getPublisherExecutor() {
+    if (publisherExecutor == null) {
+      publisherExecutor = new PublisherExecutor(maxConcurrentUploads,
+          maxConcurrentUploadsPerServiceType);
+    }
+    return publisherExecutor;
+  }
+
+  /**
+   * @return the executor running the upload tasks, or null if no upload has
+   *         been submitted yet.
+   */
+  synchronized PublisherExecutor getStartedPublisherExecutor() {
+    return publisherExecutor;
+  }
+
+  /**
+   * Stop the publishing threads. Invoked by Spring when the application context
+   * is closed.
+   */
+  public synchronized void shutdown() {
+    if (publisherExecutor != null) {
+      publisherExecutor.shutdown();
+      publisherExecutor = null;
+    }
+  }
+
   @Override
   public void createFormUploadTask(FormServiceCursor fsc, boolean onBackground, CallingContext cc)
       throws ODKExternalServiceException {
@@ -58,7 +100,6 @@ public class UploadSubmissionsImpl implements UploadSubmissions {
     // use watchdog's calling context in runner...
     UploadSubmissionsRunner ur = new UploadSubmissionsRunner(fsc, wd.getFasterWatchdogCycleEnabled(), wd.getCallingContext());
     System.out.println("UPLOAD TASK IN TOMCAT");
-    AggregrateThreadExecutor exec = AggregrateThreadExecutor.getAggregateThreadExecutor();
-    exec.execute(ur);
+    getPublisherExecutor().submit(fsc.getUri(), fsc.getFormId(), fsc.getExternalServiceType(), ur);
   }
 }
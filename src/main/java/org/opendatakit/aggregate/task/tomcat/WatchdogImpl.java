@@ -21,6 +21,7 @@ import java.util.concurrent.ScheduledFuture;
 
 import javax.servlet.ServletContext;
 
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opendatakit.aggregate.constants.BeanDefs;
@@ -263,8 +264,57 @@ public class WatchdogImpl implements Watchdog, SmartLifecycle, InitializingBean,
         e.printStackTrace();
         // TODO: Problem - decide what to do if an exception occurs
       }
+      logConnectionPoolStats();
+      logPublisherStatistics();
       logger.debug("Exiting watchdog task in Tomcat") ;
     }
+
+    /**
+     * Report the state of the publishers' shared http connection pool. Waiting
+     * requests mean the pool limits are too low for the active publishers.
+     */
+    private void logConnectionPoolStats() {
+      HttpClientFactory factory = (HttpClientFactory) cc.getBean(BeanDefs.HTTP_CLIENT_FACTORY);
+      PoolStats stats = factory.getConnectionPoolStats();
+      if (stats == null) {
+        return;
+      }
+      if (stats.getPending() > 0) {
+        logger.warn("Publishing connection pool exhausted: {}", stats);
+      } else if (stats.getLeased() > 0) {
+        logger.info("Publishing connection pool: {}", stats);
+      } else {
+        logger.debug("Publishing connection pool: {}", stats);
+      }
+    }
+
+    /**
+     * Report the number of queued publisher uploads and the wait and send
+     * times of each publisher, if any upload has been submitted yet.
+     */
+    private void logPublisherStatistics() {
+      UploadSubmissions uploads = (UploadSubmissions) cc.getBean(BeanDefs.UPLOAD_TASK_BEAN);
+      if (!(uploads instanceof UploadSubmissionsImpl)) {
+        return;
+      }
+      PublisherExecutor executor = ((UploadSubmissionsImpl) uploads).getStartedPublisherExecutor();
+      if (executor == null) {
+        return;
+      }
+      int queueDepth = executor.getQueueDepth();
+      if (queueDepth > 0) {
+        logger.info("Publisher uploads queued: {}", queueDepth);
+      } else {
+        logger.debug("Publisher uploads queued: {}", queueDepth);
+      }
+      for (PublisherExecutor.PublisherStatistics stats : executor.getStatistics()) {
+        if (stats.isQueued() || stats.isRunning() || stats.getHeldUntil() != 0L) {
+          logger.info("Publisher: {}", stats);
+        } else {
+          logger.debug("Publisher: {}", stats);
+        }
+      }
+    }
   }
 
   /**
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+import org.opendatakit.aggregate.constants.ServletConsts;
+import org.opendatakit.aggregate.server.ServerPreferencesProperties;
+import org.opendatakit.aggregate.servlet.SignedBinaryDataServlet;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.utils.HtmlUtil;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.BasicConsts;
+
+/**
+ * Creates and verifies the signed media links given to external services. A
+ * signed link carries the blob key, an expiry time and an HMAC-SHA256 of the
+ * two computed with the server's link signing key, so the recipient can fetch
+ * the attachment from {@link SignedBinaryDataServlet} without logging in.
+ */
+public final class BinaryLinkSigner {
+
+  public static final String EXPIRES = "expires";
+  public static final String SIGNATURE = "signature";
+
+  /**
+   * Signed links are valid for a week.
+   */
+  public static final long LINK_LIFETIME_MILLISECONDS = 7L * 24L * 60L * 60L * 1000L;
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  private BinaryLinkSigner() {
+  }
+
+  /**
+   * @param webServerUrl
+   *          base url for the web app
+   * @param blobKey
+   *          submission key of the attachment
+   * @param cc
+   * @return a signed, expiring link to the attachment.
+   * @throws ODKEntityNotFoundException
+   * @throws ODKOverQuotaException
+   */
+  public static String createSignedLink(String webServerUrl, String blobKey, CallingContext cc)
+      throws ODKEntityNotFoundException, ODKOverQuotaException {
+    String expires = Long.toString(System.currentTimeMillis() + LINK_LIFETIME_MILLISECONDS);
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put(ServletConsts.BLOB_KEY, blobKey);
+    properties.put(EXPIRES, expires);
+    properties.put(SIGNATURE, sign(ServerPreferencesProperties.getBinaryLinkSigningKey(cc),
+        blobKey, expires));
+    return HtmlUtil.createLinkWithProperties(webServerUrl + BasicConsts.FORWARDSLASH
+        + SignedBinaryDataServlet.ADDR, properties);
+  }
+
+  /**
+   * @param blobKey
+   * @param expires
+   * @param signature
+   * @param cc
+   * @return true if the signature is valid and the link has not expired.
+   * @throws ODKEntityNotFoundException
+   * @throws ODKOverQuotaException
+   */
+  public static boolean isValid(String blobKey, String expires, String signature,
+      CallingContext cc) throws ODKEntityNotFoundException, ODKOverQuotaException {
+    if (blobKey == null || expires == null || signature == null) {
+      return false;
+    }
+    try {
+      if (Long.parseLong(expires) < System.currentTimeMillis()) {
+        return false;
+      }
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    String expected = sign(ServerPreferencesProperties.getBinaryLinkSigningKey(cc), blobKey,
+        expires);
+    return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+        signature.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String sign(String signingKey, String blobKey, String expires) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(new SecretKeySpec(signingKey.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+      mac.update(blobKey.getBytes(StandardCharsets.UTF_8));
+      mac.update((byte) '\n');
+      mac.update(expires.getBytes(StandardCharsets.UTF_8));
+      return Hex.encodeHexString(mac.doFinal());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to sign media link", e);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+/**
+ * Holds the preview-sized thumbnails of image attachments, keyed by the
+ * content hash of the image and the thumbnail size. Identical images share a
+ * thumbnail, and a thumbnail never changes once it is stored.
+ *
+ * The most recently used thumbnails are also kept in memory.
+ *
+ * Thumbnails are deleted along with the attachments they were generated from.
+ * If an identical image remains in another submission, its thumbnail is
+ * simply generated again the next time it is requested.
+ */
+public class ImageThumbnailTable extends CommonFieldsBase {
+
+  private static final String TABLE_NAME = "_image_thumbnails";
+
+  private static final DataField THUMBNAIL = new DataField("THUMBNAIL",
+      DataField.DataType.BINARY, false);
+
+  private static final Logger logger = LoggerFactory.getLogger(ImageThumbnailTable.class);
+
+  /** size of the preview thumbnails; the only size generated. */
+  public static final int PREVIEW_WIDTH = 64;
+  public static final int PREVIEW_HEIGHT = 48;
+
+  /** number of thumbnails kept in memory. At 64x48, each is a few KB. */
+  private static final int MAX_CACHED_THUMBNAILS = 500;
+
+  private static final Map<String, byte[]> recentThumbnails = Collections
+      .synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+          return size() > MAX_CACHED_THUMBNAILS;
+        }
+      });
+
+  /**
+   * Construct a relation prototype. Only called via
+   * {@link #assertRelation(Datastore, User)}
+   *
+   * @param schemaName
+   */
+  protected ImageThumbnailTable(String schemaName) {
+    super(schemaName, TABLE_NAME);
+    fieldList.add(THUMBNAIL);
+  }
+
+  /**
+   * Construct an empty entity. Only called via {@link #getEmptyRow(User)}
+   *
+   * @param ref
+   * @param user
+   */
+  protected ImageThumbnailTable(ImageThumbnailTable ref, User user) {
+    super(ref, user);
+  }
+
+  // Only called from within the persistence layer.
+  @Override
+  public CommonFieldsBase getEmptyRow(User user) {
+    ImageThumbnailTable t = new ImageThumbnailTable(this, user);
+    return t;
+  }
+
+  private byte[] getThumbnail() {
+    return getBlobField(THUMBNAIL);
+  }
+
+  private void setThumbnail(byte[] value) {
+    setBlobField(THUMBNAIL, value);
+  }
+
+  private static ImageThumbnailTable relation = null;
+
+  private static synchronized final ImageThumbnailTable assertRelation(Datastore datastore,
+      User user) throws ODKDatastoreException {
+    if (relation == null) {
+      ImageThumbnailTable relationPrototype;
+      relationPrototype = new ImageThumbnailTable(datastore.getDefaultSchemaName());
+      datastore.assertRelation(relationPrototype, user);
+      relation = relationPrototype;
+    }
+    return relation;
+  }
+
+  /**
+   * @param contentHash
+   *          content hash of the image (see BinaryContent.getContentHash())
+   * @param width
+   * @param height
+   * @return the key of the thumbnail; also usable as its eTag.
+   */
+  public static final String getThumbnailKey(String contentHash, int width, int height) {
+    return contentHash + "|" + width + "x" + height;
+  }
+
+  /**
+   * @param thumbnailKey
+   * @param cc
+   * @return the stored thumbnail, or null if it has not been generated yet.
+   * @throws ODKDatastoreException
+   */
+  public static final byte[] getThumbnail(String thumbnailKey, CallingContext cc)
+      throws ODKDatastoreException {
+    byte[] thumbnail = recentThumbnails.get(thumbnailKey);
+    if (thumbnail != null) {
+      return thumbnail;
+    }
+    boolean wasDaemon = cc.getAsDeamon();
+    cc.setAsDaemon(true);
+    try {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      ImageThumbnailTable prototype = assertRelation(ds, user);
+      ImageThumbnailTable record = ds.getEntity(prototype, thumbnailKey, user);
+      thumbnail = record.getThumbnail();
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    } finally {
+      cc.setAsDaemon(wasDaemon);
+    }
+    if (thumbnail != null) {
+      recentThumbnails.put(thumbnailKey, thumbnail);
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Get the thumbnail of an image attachment, generating and storing it if
+   * this is the first time it is requested.
+   *
+   * @param b
+   *          the attachment
+   * @param ordinal
+   * @param thumbnailKey
+   * @param imageUtil
+   * @param cc
+   * @return the thumbnail, or null if the image could not be resized.
+   * @throws ODKDatastoreException
+   */
+  public static final byte[] getOrGenerateThumbnail(BlobSubmissionType b, int ordinal,
+      String thumbnailKey, ImageUtil imageUtil, CallingContext cc) throws ODKDatastoreException {
+    byte[] thumbnail = getThumbnail(thumbnailKey, cc);
+    if (thumbnail == null) {
+      thumbnail = imageUtil.resizeImage(b.getBlob(ordinal, cc), PREVIEW_WIDTH, PREVIEW_HEIGHT);
+      if (thumbnail == null || thumbnail.length == 0) {
+        return null;
+      }
+      putThumbnail(thumbnailKey, thumbnail, cc);
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Forget the thumbnails held in memory. Only used by tests.
+   */
+  static final void forgetRecentThumbnails() {
+    recentThumbnails.clear();
+  }
+
+  /**
+   * Store a newly generated thumbnail.
+   *
+   * @param thumbnailKey
+   * @param thumbnail
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static final void putThumbnail(String thumbnailKey, byte[] thumbnail, CallingContext cc)
+      throws ODKDatastoreException {
+    recentThumbnails.put(thumbnailKey, thumbnail);
+    boolean wasDaemon = cc.getAsDeamon();
+    cc.setAsDaemon(true);
+    try {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      ImageThumbnailTable prototype = assertRelation(ds, user);
+      ImageThumbnailTable record = ds.createEntityUsingRelation(prototype, user);
+      record.setStringField(prototype.primaryKey, thumbnailKey);
+      record.setThumbnail(thumbnail);
+      ds.putEntity(record, user);
+    } catch (ODKEntityPersistException e) {
+      // most likely generated and stored concurrently by another request
+      logger.warn("Unable to store thumbnail " + thumbnailKey + ": " + e.toString());
+    } finally {
+      cc.setAsDaemon(wasDaemon);
+    }
+  }
+
+  /**
+   * @param contentType
+   *          content type of an attachment
+   * @return true if preview thumbnails are generated for attachments of this
+   *         content type.
+   */
+  public static final boolean hasThumbnail(String contentType) {
+    return HtmlConsts.RESP_TYPE_IMAGE_JPEG.equals(contentType);
+  }
+
+  /**
+   * Add the keys of the thumbnails of an attachment that is being deleted to
+   * the list of keys to delete, and forget any copy held in memory. Deleting
+   * a thumbnail that was never generated is harmless.
+   *
+   * @param contentHash
+   *          content hash of the attachment; null if it has no content
+   * @param contentType
+   *          content type of the attachment
+   * @param keyList
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static final void addEntityKeysForDeletion(String contentHash, String contentType,
+      List<EntityKey> keyList, CallingContext cc) throws ODKDatastoreException {
+    if (contentHash == null || !hasThumbnail(contentType)) {
+      return;
+    }
+    ImageThumbnailTable prototype = assertRelation(cc.getDatastore(), cc.getCurrentUser());
+    String thumbnailKey = getThumbnailKey(contentHash, PREVIEW_WIDTH, PREVIEW_HEIGHT);
+    recentThumbnails.remove(thumbnailKey);
+    keyList.add(new EntityKey(prototype, thumbnailKey));
+  }
+}
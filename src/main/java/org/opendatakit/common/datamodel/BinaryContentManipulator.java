@@ -14,6 +14,11 @@
 package org.opendatakit.common.datamodel;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -21,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.opendatakit.aggregate.util.ImageThumbnailTable;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.EntityKey;
@@ -71,15 +77,34 @@ public class BinaryContentManipulator {
   private final Map<Long,BinaryContent> attachments = new HashMap<Long,BinaryContent>();
 
   /**
-   * Manipulator class for handling an in-memory blob
+   * Manipulator class for handling a blob. The parts of an existing blob are
+   * only fetched from the datastore when its content is requested.
    *
    * @author mitchellsundt@gmail.com
    *
    */
   public static class BlobManipulator {
 
+    /**
+     * Number of RefBlob parts fetched per query when reading a blob.
+     */
+    private static final int PART_FETCH_BATCH_SIZE = 4;
+
+    /**
+     * Upper bound on the size of the RefBlob parts written from a stream.
+     * Keeping parts small bounds the memory needed to read them back.
+     */
+    private static final int STREAM_PART_SIZE = 1024 * 1024;
+
+    private final RefBlob refRelation;
+    private final Datastore ds;
+    private final User user;
     private List<BinaryContentRefBlob> dbBcbEntityList = new ArrayList<BinaryContentRefBlob>();
     private List<RefBlob> dbRefBlobList = new ArrayList<RefBlob>();
+    private boolean partsLoaded;
+    private String contentHash = null;
+    private long contentLength = 0L;
+    private boolean unchanged = false;
 
     /**
      * Construct an blob entity and persist it into the data store
@@ -96,12 +121,14 @@ public class BinaryContentManipulator {
     public BlobManipulator(byte[] blob, String uriVersionedContent, BinaryContentRefBlob bcbRef,
         RefBlob ref, String topLevelKey, CallingContext cc) throws ODKDatastoreException {
 
+      refRelation = ref;
+      ds = cc.getDatastore();
+      user = cc.getCurrentUser();
+      partsLoaded = true;
       // loop to create the VBCRB and RB entries for each part of the
       // larger blob
       long blobLimit = ref.value.getMaxCharLen();
       long part = 1L;
-      Datastore ds = cc.getDatastore();
-      User user = cc.getCurrentUser();
       for (long index = 0; index < blob.length; index = index + blobLimit) {
         long endCopy = index + blobLimit;
         if (endCopy > blob.length)
@@ -122,11 +149,115 @@ public class BinaryContentManipulator {
       }
     }
 
+    /**
+     * Construct a blob entity by reading the given stream and persisting it
+     * into the data store one part at a time. The MD5 hash and length of the
+     * content are computed as it is read.
+     *
+     * @param stream
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param ref
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public BlobManipulator(InputStream stream, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, RefBlob ref, String topLevelKey, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+      this(stream, null, uriVersionedContent, bcbRef, ref, topLevelKey, cc);
+    }
+
+    /**
+     * Construct a blob entity by reading the given stream, comparing it with
+     * the content of an existing blob as it is read. Nothing is persisted
+     * while the stream matches that content; if the whole stream matches,
+     * {@link #isUnchanged()} is true and no parts are written. Otherwise the
+     * matching prefix is copied from the existing blob and the rest of the
+     * stream is persisted one part at a time.
+     * <p>
+     * If reading the stream or persisting a part fails, the parts already
+     * written are deleted before the exception is rethrown.
+     *
+     * @param stream
+     * @param current
+     *          the blob to compare against, or null to persist the whole stream
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param ref
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public BlobManipulator(InputStream stream, BlobManipulator current,
+        String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
+        String topLevelKey, CallingContext cc) throws ODKDatastoreException, IOException {
+
+      refRelation = ref;
+      ds = cc.getDatastore();
+      user = cc.getCurrentUser();
+      // the parts are not retained in memory
+      partsLoaded = false;
+      MessageDigest md;
+      try {
+        md = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("Unexpected problem computing md5 hash", e);
+      }
+      int partSize = (int) Math.min(ref.value.getMaxCharLen(), STREAM_PART_SIZE);
+      byte[] buffer = new byte[partSize];
+      boolean matching = (current != null);
+      InputStream currentStream = matching ? current.openStream() : null;
+      byte[] currentBuffer = matching ? new byte[partSize] : null;
+      // whole parts that match the current content and are not yet written
+      int matchedParts = 0;
+      try {
+        for (;;) {
+          int len = readFully(stream, buffer);
+          if (matching) {
+            int currentLen = readFully(currentStream, currentBuffer);
+            if (len == currentLen && Arrays.equals(buffer, currentBuffer)) {
+              md.update(buffer, 0, len);
+              contentLength += len;
+              if (len < partSize) {
+                // both streams ended here
+                break;
+              }
+              ++matchedParts;
+              continue;
+            }
+            matching = false;
+            copyParts(current.openStream(), matchedParts, partSize, uriVersionedContent,
+                bcbRef, topLevelKey);
+          }
+          if (len == 0) {
+            break;
+          }
+          byte[] partialBlob = (len == partSize) ? buffer : Arrays.copyOf(buffer, len);
+          md.update(partialBlob);
+          contentLength += len;
+          persistPart(partialBlob, uriVersionedContent, bcbRef, topLevelKey);
+          if (len < partSize) {
+            break;
+          }
+        }
+      } catch (ODKDatastoreException | IOException | RuntimeException e) {
+        deleteWrittenParts(e, cc);
+        throw e;
+      }
+      unchanged = matching;
+      contentHash = CommonFieldsBase.md5HashUriFromDigest(md.digest());
+    }
+
     public BlobManipulator(String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
         CallingContext cc) throws ODKDatastoreException {
 
-      Datastore ds = cc.getDatastore();
-      User user = cc.getCurrentUser();
+      refRelation = ref;
+      ds = cc.getDatastore();
+      user = cc.getCurrentUser();
+      partsLoaded = false;
       // gather the ordered list of parts...
       Query q = ds.createQuery(bcbRef, "BinaryContentManipulator.BlobManipulator.constructor", user);
       q.addFilter(bcbRef.domAuri, FilterOperation.EQUAL, uriVersionedContent);
@@ -146,14 +277,134 @@ public class BinaryContentManipulator {
         ++expectedPart;
         dbBcbEntityList.add(bcref);
       }
+    }
 
-      // and gather the blob parts themselves...
-      for (BinaryContentRefBlob b : dbBcbEntityList) {
-        RefBlob eBlob = ds.getEntity(ref, b.getSubAuri(), user);
+    /**
+     * Fill the buffer from the stream. Any bytes of the buffer after the
+     * returned length are zeroed, so that buffers holding the same bytes are
+     * equal.
+     *
+     * @return the number of bytes read; less than the buffer length only at the
+     *         end of the stream.
+     */
+    private static int readFully(InputStream stream, byte[] buffer) throws IOException {
+      int len = 0;
+      while (len < buffer.length) {
+        int count = stream.read(buffer, len, buffer.length - len);
+        if (count == -1) {
+          break;
+        }
+        len += count;
+      }
+      Arrays.fill(buffer, len, buffer.length, (byte) 0);
+      return len;
+    }
+
+    /**
+     * Persist the next part of the blob.
+     *
+     * @param partialBlob
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param topLevelKey
+     * @throws ODKDatastoreException
+     */
+    private void persistPart(byte[] partialBlob, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, String topLevelKey) throws ODKDatastoreException {
+      RefBlob eBlob = ds.createEntityUsingRelation(refRelation, user);
+      eBlob.setTopLevelAuri(topLevelKey);
+      eBlob.setValue(partialBlob);
+      BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+      bcb.setTopLevelAuri(topLevelKey);
+      bcb.setDomAuri(uriVersionedContent);
+      bcb.setSubAuri(eBlob.getUri());
+      bcb.setPart(dbBcbEntityList.size() + 1L);
+      dbBcbEntityList.add(bcb);
+      ds.putEntity(eBlob, user);
+      ds.putEntity(bcb, user);
+    }
+
+    /**
+     * Persist the first partCount parts of partSize bytes read from the given
+     * stream.
+     *
+     * @param stream
+     * @param partCount
+     * @param partSize
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param topLevelKey
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    private void copyParts(InputStream stream, int partCount, int partSize,
+        String uriVersionedContent, BinaryContentRefBlob bcbRef, String topLevelKey)
+        throws ODKDatastoreException, IOException {
+      for (int i = 0; i < partCount; ++i) {
+        byte[] partialBlob = new byte[partSize];
+        if (readFully(stream, partialBlob) != partSize) {
+          throw new IOException("Existing blob ended before its matched parts were copied");
+        }
+        persistPart(partialBlob, uriVersionedContent, bcbRef, topLevelKey);
+      }
+    }
+
+    /**
+     * Delete the parts written so far after a failure. A failure of the
+     * deletion is attached to the original exception.
+     *
+     * @param cause
+     * @param cc
+     */
+    private void deleteWrittenParts(Exception cause, CallingContext cc) {
+      List<EntityKey> keyList = new ArrayList<EntityKey>();
+      recursivelyAddEntityKeysForDeletion(keyList);
+      dbBcbEntityList.clear();
+      try {
+        DeleteHelper.deleteEntities(keyList, cc);
+      } catch (ODKDatastoreException e) {
+        cause.addSuppressed(e);
+      }
+    }
+
+    /**
+     * Fetch the RefBlob parts for the given range of the part list.
+     *
+     * @param fromIndex
+     * @param toIndex
+     * @return the parts, in part order
+     * @throws ODKDatastoreException
+     */
+    private List<RefBlob> fetchParts(int fromIndex, int toIndex) throws ODKDatastoreException {
+      List<String> uris = new ArrayList<String>();
+      for (BinaryContentRefBlob b : dbBcbEntityList.subList(fromIndex, toIndex)) {
+        uris.add(b.getSubAuri());
+      }
+      Query q = ds.createQuery(refRelation, "BinaryContentManipulator.BlobManipulator.fetchParts", user);
+      q.addValueSetFilter(refRelation.primaryKey, uris);
+      Map<String, RefBlob> blobs = new HashMap<String, RefBlob>();
+      for (CommonFieldsBase cb : q.executeQuery()) {
+        blobs.put(cb.getUri(), (RefBlob) cb);
+      }
+      List<RefBlob> parts = new ArrayList<RefBlob>();
+      for (String uri : uris) {
+        RefBlob eBlob = blobs.get(uri);
         if (eBlob == null) {
           throw new IllegalStateException("Missing blob part!");
         }
-        dbRefBlobList.add(eBlob);
+        parts.add(eBlob);
+      }
+      return parts;
+    }
+
+    private void loadParts() throws ODKDatastoreException {
+      if (!partsLoaded) {
+        List<RefBlob> parts = new ArrayList<RefBlob>();
+        for (int i = 0; i < dbBcbEntityList.size(); i += PART_FETCH_BATCH_SIZE) {
+          parts.addAll(fetchParts(i, Math.min(i + PART_FETCH_BATCH_SIZE, dbBcbEntityList.size())));
+        }
+        dbRefBlobList = parts;
+        partsLoaded = true;
       }
     }
 
@@ -173,7 +424,30 @@ public class BinaryContentManipulator {
       return dbBcbEntityList.get(0).getDomAuri();
     }
 
-    public byte[] getBlob() {
+    /**
+     * @return true if the stream constructor found the stream to be the same
+     *         as the blob it was compared against; no parts were written.
+     */
+    public boolean isUnchanged() {
+      return unchanged;
+    }
+
+    /**
+     * @return the MD5 hash of the content written by the stream constructor.
+     */
+    public String getContentHash() {
+      return contentHash;
+    }
+
+    /**
+     * @return the length of the content written by the stream constructor.
+     */
+    public long getContentLength() {
+      return contentLength;
+    }
+
+    public byte[] getBlob() throws ODKDatastoreException {
+      loadParts();
       ByteArrayOutputStream reconstructedBlob = new ByteArrayOutputStream();
       for (RefBlob partialBlob : dbRefBlobList) {
         byte[] part = partialBlob.getValue();
@@ -182,6 +456,169 @@ public class BinaryContentManipulator {
       return reconstructedBlob.toByteArray();
     }
 
+    /**
+     * Write the blob to the given stream. The parts are fetched in small
+     * batches and are not retained, so memory use is bounded by the size of
+     * a batch of parts rather than the size of the blob.
+     *
+     * @param os
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public void writeBlob(OutputStream os) throws ODKDatastoreException, IOException {
+      if (partsLoaded) {
+        for (RefBlob partialBlob : dbRefBlobList) {
+          os.write(partialBlob.getValue());
+        }
+        return;
+      }
+      for (int i = 0; i < dbBcbEntityList.size(); i += PART_FETCH_BATCH_SIZE) {
+        for (RefBlob partialBlob : fetchParts(i,
+            Math.min(i + PART_FETCH_BATCH_SIZE, dbBcbEntityList.size()))) {
+          os.write(partialBlob.getValue());
+        }
+      }
+    }
+
+    /**
+     * Write a range of the blob to the given stream. All parts but the last
+     * have the same size, so the first part holding the range is found from
+     * the size of part 1; the parts before it are not fetched. If the part
+     * sizes are not consistent with the content length, the parts are walked
+     * in order instead.
+     *
+     * @param os
+     * @param offset
+     *          offset of the first byte to write
+     * @param length
+     *          number of bytes to write
+     * @param contentLength
+     *          length of the whole blob
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public void writeBlobRange(OutputStream os, long offset, long length, long contentLength)
+        throws ODKDatastoreException, IOException {
+      int partCount = dbBcbEntityList.size();
+      if (length <= 0 || partCount == 0) {
+        return;
+      }
+      int nextPart = 0;
+      long skip = offset;
+      List<RefBlob> batch = new ArrayList<RefBlob>();
+      if (partsLoaded) {
+        batch.addAll(dbRefBlobList);
+        nextPart = partCount;
+      } else if (partCount > 1) {
+        RefBlob first = fetchParts(0, 1).get(0);
+        long partSize = first.getValue().length;
+        if (partSize > 0 && (partCount - 1) * partSize < contentLength
+            && contentLength <= partCount * partSize) {
+          nextPart = (int) Math.min(offset / partSize, partCount - 1);
+          skip = offset - nextPart * partSize;
+        }
+        if (nextPart == 0) {
+          batch.add(first);
+          nextPart = 1;
+        }
+      }
+      long remaining = length;
+      for (;;) {
+        if (batch.isEmpty()) {
+          if (nextPart >= partCount) {
+            break;
+          }
+          int end = Math.min(nextPart + PART_FETCH_BATCH_SIZE, partCount);
+          batch = fetchParts(nextPart, end);
+          nextPart = end;
+        }
+        byte[] part = batch.remove(0).getValue();
+        if (skip >= part.length) {
+          skip -= part.length;
+          continue;
+        }
+        int count = (int) Math.min(part.length - skip, remaining);
+        os.write(part, (int) skip, count);
+        skip = 0;
+        remaining -= count;
+        if (remaining == 0) {
+          break;
+        }
+      }
+    }
+
+    /**
+     * @return a stream over the blob that fetches its parts as they are read.
+     */
+    public InputStream openStream() {
+      return new BlobInputStream();
+    }
+
+    private class BlobInputStream extends InputStream {
+      private int nextPart = 0;
+      private List<RefBlob> batch = new ArrayList<RefBlob>();
+      private byte[] current = null;
+      private int offset = 0;
+
+      private boolean advance() throws IOException {
+        while (current == null || offset >= current.length) {
+          if (batch.isEmpty()) {
+            if (nextPart >= dbBcbEntityList.size()) {
+              return false;
+            }
+            int end = Math.min(nextPart + PART_FETCH_BATCH_SIZE, dbBcbEntityList.size());
+            try {
+              batch = partsLoaded ? new ArrayList<RefBlob>(dbRefBlobList.subList(nextPart, end))
+                  : fetchParts(nextPart, end);
+            } catch (ODKDatastoreException e) {
+              throw new IOException("Unable to retrieve blob parts", e);
+            }
+            nextPart = end;
+          }
+          current = batch.remove(0).getValue();
+          offset = 0;
+        }
+        return true;
+      }
+
+      @Override
+      public int read() throws IOException {
+        if (!advance()) {
+          return -1;
+        }
+        return current[offset++] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (!advance()) {
+          return -1;
+        }
+        int count = Math.min(len, current.length - offset);
+        System.arraycopy(current, offset, b, off, count);
+        offset += count;
+        return count;
+      }
+    }
+
+    /**
+     * Point the parts of this blob at a different versioned content entity.
+     *
+     * @param uriVersionedContent
+     * @throws ODKEntityPersistException
+     * @throws ODKOverQuotaException
+     */
+    void relink(String uriVersionedContent) throws ODKEntityPersistException,
+        ODKOverQuotaException {
+      for (BinaryContentRefBlob bcb : dbBcbEntityList) {
+        bcb.setDomAuri(uriVersionedContent);
+      }
+      ds.putEntities(dbBcbEntityList, user);
+    }
+
     /**
      * Recursively add the keys for this entry to keyList.
      * Pay attention to the order of insertion so that if
@@ -204,6 +641,9 @@ public class BinaryContentManipulator {
         if ( r != null ) {
           keyList.add(r.getEntityKey());
           blobs.remove(sub);
+        } else if ( !partsLoaded && sub != null ) {
+          // the part was never fetched; no need to read it to delete it
+          keyList.add(new EntityKey(refRelation, sub));
         }
         keyList.add(e.getEntityKey());
       }
@@ -212,7 +652,8 @@ public class BinaryContentManipulator {
       }
     }
 
-    public void persist(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
+    public void persist(CallingContext cc) throws ODKDatastoreException {
+      loadParts();
       List<CommonFieldsBase> rows = new ArrayList<CommonFieldsBase>();
       rows.addAll(dbRefBlobList);
       rows.addAll(dbBcbEntityList);
@@ -358,6 +799,75 @@ public class BinaryContentManipulator {
     return blbManipulator.getBlob();
   }
 
+  /**
+   * Open a stream over the attachment. The attachment parts are fetched from
+   * the datastore as the stream is read.
+   *
+   * @param ordinal
+   * @param cc
+   * @return the stream
+   * @throws ODKDatastoreException
+   */
+  public InputStream openBlobStream(int ordinal, CallingContext cc) throws ODKDatastoreException {
+    updateAttachments(cc);
+    BinaryContent b = attachments.get(Long.valueOf(ordinal));
+    if (b == null) {
+      // we are somehow out of sync!
+      throw new IllegalStateException("missing attachment declaration");
+    }
+    BlobManipulator blbManipulator = new BlobManipulator(b.getUri(), vrefRelation, blbRelation, cc);
+    return blbManipulator.openStream();
+  }
+
+  /**
+   * Write the attachment to the given stream without assembling it in memory.
+   *
+   * @param ordinal
+   * @param os
+   * @param cc
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public void writeBlob(int ordinal, OutputStream os, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+    updateAttachments(cc);
+    BinaryContent b = attachments.get(Long.valueOf(ordinal));
+    if (b == null) {
+      // we are somehow out of sync!
+      throw new IllegalStateException("missing attachment declaration");
+    }
+    BlobManipulator blbManipulator = new BlobManipulator(b.getUri(), vrefRelation, blbRelation, cc);
+    blbManipulator.writeBlob(os);
+  }
+
+  /**
+   * Write a range of the attachment to the given stream, fetching only the
+   * parts that hold the range.
+   *
+   * @param ordinal
+   * @param os
+   * @param offset
+   *          offset of the first byte to write
+   * @param length
+   *          number of bytes to write
+   * @param cc
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public void writeBlobRange(int ordinal, OutputStream os, long offset, long length,
+      CallingContext cc) throws ODKDatastoreException, IOException {
+    updateAttachments(cc);
+    BinaryContent b = attachments.get(Long.valueOf(ordinal));
+    if (b == null) {
+      // we are somehow out of sync!
+      throw new IllegalStateException("missing attachment declaration");
+    }
+    BlobManipulator blbManipulator = new BlobManipulator(b.getUri(), vrefRelation, blbRelation, cc);
+    Long contentLength = b.getContentLength();
+    blbManipulator.writeBlobRange(os, offset, length,
+        (contentLength == null) ? offset + length : contentLength);
+  }
+
   /**
    * Atomically rename the given source file path to the destination path.
    * Will fail if the destination path already exists.
@@ -539,6 +1049,11 @@ public class BinaryContentManipulator {
         // (3) create the database entries for the new data.
         // (4) update contentHash to indicate that data is properly stored.
 
+        // the thumbnail of the old content goes with it
+        List<EntityKey> keyList = new ArrayList<EntityKey>();
+        ImageThumbnailTable.addEntityKeysForDeletion(currentContentHash,
+            matchedBc.getContentType(), keyList, cc);
+
         // Step (1)
         matchedBc.setContentHash(null);
         matchedBc.setContentType(contentType);
@@ -547,7 +1062,6 @@ public class BinaryContentManipulator {
 
         // Step (2)
         BlobManipulator b = new BlobManipulator(matchedBc.getUri(), vrefRelation, blbRelation, cc);
-        List<EntityKey> keyList = new ArrayList<EntityKey>();
         b.recursivelyAddEntityKeysForDeletion(keyList);
         DeleteHelper.deleteEntities(keyList, cc);
 
@@ -568,6 +1082,176 @@ public class BinaryContentManipulator {
     }
   }
 
+  /**
+   * Save the attachment to the database, reading its content from a stream.
+   * This has the same outcomes as
+   * {@link #setValueFromByteArray(byte[], String, String, boolean, CallingContext)}
+   * but only holds one part of the content in memory at a time.
+   * <p>
+   * The content is compared with the current content of the attachment as it
+   * is read, and nothing is written while they match, so an unchanged file is
+   * not stored again. If overwriting is not allowed, the content is only
+   * compared. Otherwise it is written into parts that are not linked to any
+   * attachment, which are linked to the attachment once it has been updated,
+   * or deleted if the update fails.
+   *
+   * @param stream
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK -- if the file exists and is different, must be true to overwrite existing value.
+   * @param cc
+   * @return COMPLETELY_NEW_FILE on successful save; FILE_UNCHANGED on hash
+   *         equivalence; NEW_FILE_VERSION on updating existing file (save not allowed unless overwriteOK).
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+
+    if (stream == null || contentType == null) {
+      throw new IllegalArgumentException("unexpected null values passed into method");
+    }
+
+    // search for a matching entry for unrootedFilePath
+    BinaryContent matchedBc = null;
+    String currentContentHash = null;
+
+    updateAttachments(cc);
+    for (BinaryContent bc : attachments.values()) {
+      String bcFilePath = bc.getUnrootedFilePath();
+      if ((bcFilePath == null) ? (unrootedFilePath == null)
+          : (unrootedFilePath != null && bcFilePath.equals(unrootedFilePath))) {
+        matchedBc = bc;
+        currentContentHash = matchedBc.getContentHash();
+        break;
+      }
+    }
+
+    // the current content, if it was completely stored
+    BlobManipulator current = null;
+    if (currentContentHash != null) {
+      current = new BlobManipulator(matchedBc.getUri(), vrefRelation, blbRelation, cc);
+      if (!overwriteOK) {
+        return sameContent(stream, current.openStream())
+            ? BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED
+            : BinaryContentManipulator.BlobSubmissionOutcome.NEW_FILE_VERSION;
+      }
+    }
+
+    // write the content into unlinked parts
+    BlobManipulator staged = new BlobManipulator(stream, current, CommonFieldsBase.newUri(),
+        vrefRelation, blbRelation, topLevelKey, cc);
+    if (staged.isUnchanged()) {
+      return BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED;
+    }
+
+    try {
+      linkStagedContent(staged, matchedBc, currentContentHash, contentType, unrootedFilePath,
+          cc);
+    } catch (ODKDatastoreException | RuntimeException e) {
+      // the staged parts were not linked to the attachment
+      List<EntityKey> keyList = new ArrayList<EntityKey>();
+      staged.recursivelyAddEntityKeysForDeletion(keyList);
+      try {
+        DeleteHelper.deleteEntities(keyList, cc);
+      } catch (ODKDatastoreException ex) {
+        e.addSuppressed(ex);
+      }
+      throw e;
+    }
+
+    return (currentContentHash == null)
+        ? BinaryContentManipulator.BlobSubmissionOutcome.COMPLETELY_NEW_FILE
+        : BinaryContentManipulator.BlobSubmissionOutcome.NEW_FILE_VERSION;
+  }
+
+  /**
+   * Replace the content of the attachment with the staged parts, creating the
+   * attachment if matchedBc is null. The parts are linked only once the old or
+   * incomplete content has been deleted.
+   *
+   * @param staged
+   * @param matchedBc
+   * @param currentContentHash
+   * @param contentType
+   * @param unrootedFilePath
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  private void linkStagedContent(BlobManipulator staged, BinaryContent matchedBc,
+      String currentContentHash, String contentType, String unrootedFilePath,
+      CallingContext cc) throws ODKDatastoreException {
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    // (0) create entry if no matchedBc
+    // (1) modify entry to be intermediate update state (null md5 hash).
+    // (2) delete the database entries for the old or incomplete data.
+    // (3) link the new data to the entry.
+    // (4) update contentHash to indicate that data is properly stored.
+
+    boolean newBc = (matchedBc == null);
+
+    if (newBc) {
+      // Step (0)
+      // create the record...
+      matchedBc = ds.createEntityUsingRelation(ctntRelation, user);
+      matchedBc.setTopLevelAuri(topLevelKey);
+      matchedBc.setParentAuri(parentKey);
+      matchedBc.setOrdinalNumber(internalGetAttachmentCount() + 1L);
+      matchedBc.setUnrootedFilePath(unrootedFilePath);
+    }
+
+    // the thumbnail of the old content goes with it
+    List<EntityKey> keyList = new ArrayList<EntityKey>();
+    ImageThumbnailTable.addEntityKeysForDeletion(currentContentHash, matchedBc.getContentType(),
+        keyList, cc);
+
+    // Step (1)
+    matchedBc.setContentHash(null);
+    matchedBc.setContentType(contentType);
+    matchedBc.setContentLength(Long.valueOf(staged.getContentLength()));
+    ds.putEntity(matchedBc, user);
+
+    if (newBc) {
+      // persist was successful -- remember this new record...
+      attachments.put(matchedBc.getOrdinalNumber(), matchedBc);
+    }
+
+    // Step (2)
+    BlobManipulator b = new BlobManipulator(matchedBc.getUri(), vrefRelation, blbRelation, cc);
+    b.recursivelyAddEntityKeysForDeletion(keyList);
+    DeleteHelper.deleteEntities(keyList, cc);
+
+    // Step (3)
+    staged.relink(matchedBc.getUri());
+
+    // Step (4)
+    matchedBc.setContentHash(staged.getContentHash());
+    ds.putEntity(matchedBc, user);
+  }
+
+  /**
+   * @return true if the two streams hold the same bytes.
+   * @throws IOException
+   */
+  private static boolean sameContent(InputStream a, InputStream b) throws IOException {
+    byte[] bufferA = new byte[8192];
+    byte[] bufferB = new byte[8192];
+    for (;;) {
+      int lenA = BlobManipulator.readFully(a, bufferA);
+      int lenB = BlobManipulator.readFully(b, bufferB);
+      if (lenA != lenB || !Arrays.equals(bufferA, bufferB)) {
+        return false;
+      }
+      if (lenA < bufferA.length) {
+        return true;
+      }
+    }
+  }
+
   public synchronized void updateAttachments(CallingContext cc) throws ODKDatastoreException {
     if ( refreshBeforeUse ) {
       // clear our mutable state.
@@ -669,8 +1353,8 @@ public class BinaryContentManipulator {
 
   /**
    * Build up the list of entity keys for the attachments and their
-   * references and blobs. This is done so that if we delete these in
-   * reverse order, we don't get into a bad state.
+   * references, blobs and preview thumbnails. This is done so that if we
+   * delete these in reverse order, we don't get into a bad state.
    * 
    * @param keyList
    * @param cc
@@ -681,6 +1365,8 @@ public class BinaryContentManipulator {
 
     updateAttachments(cc);
     for (BinaryContent bc : attachments.values()) {
+      ImageThumbnailTable.addEntityKeysForDeletion(bc.getContentHash(), bc.getContentType(),
+          keyList, cc);
       if (bc.getContentHash() != null) {
         BlobManipulator b = new BlobManipulator(bc.getUri(), vrefRelation, blbRelation, cc);
         b.recursivelyAddEntityKeysForDeletion(keyList);
@@ -13,6 +13,9 @@
  */
 package org.opendatakit.common.ermodel;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 
@@ -345,6 +348,17 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
       return m.getBlob(ordinal, cc);
     }
 
+    @Override
+    public void writeBlob(int ordinal, OutputStream os, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+      m.writeBlob(ordinal, os, cc);
+    }
+
+    @Override
+    public InputStream openBlobStream(int ordinal, CallingContext cc) throws ODKDatastoreException {
+      return m.openBlobStream(ordinal, cc);
+    }
+
     @Override
     public String getContentHash(int ordinal, CallingContext cc) throws ODKDatastoreException {
       return m.getContentHash(ordinal, cc);
@@ -392,6 +406,13 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
         throws ODKDatastoreException {
       return m.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
     }
+
+    @Override
+    public BlobSubmissionOutcome addBlob(InputStream stream, String contentType,
+        String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+      return m.setValueFromStream(stream, contentType, unrootedFilePath, overwriteOK, cc);
+    }
   }
 
   public List<BinaryContent> getAllBinaryContents(CallingContext cc) throws ODKDatastoreException {
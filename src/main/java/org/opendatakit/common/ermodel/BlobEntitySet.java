@@ -13,6 +13,9 @@
  */
 package org.opendatakit.common.ermodel;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 
 import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
@@ -143,6 +146,32 @@ public interface BlobEntitySet {
    */
   public byte[] getBlob(int ordinal, CallingContext cc) throws ODKDatastoreException;
 
+  /**
+   * Write the contents of the "ordinal'th" blob to the given stream without
+   * assembling the whole blob in memory.
+   * 
+   * @param ordinal
+   *          [1..]
+   * @param os
+   * @param cc
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public void writeBlob(int ordinal, OutputStream os, CallingContext cc)
+      throws ODKDatastoreException, IOException;
+
+  /**
+   * Open a stream over the contents of the "ordinal'th" blob. The parts of
+   * the blob are fetched from the datastore as the stream is read.
+   * 
+   * @param ordinal
+   *          [1..]
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  public InputStream openBlobStream(int ordinal, CallingContext cc) throws ODKDatastoreException;
+
   /**
    * Save this BlobSet. Only useful for empty blob sets, as inserting a blob
    * always causes an immediate persist of the blob set.
@@ -179,4 +208,22 @@ public interface BlobEntitySet {
   public BlobSubmissionOutcome addBlob(byte[] byteArray, String contentType,
       String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException;
 
+  /**
+   * As {@link #addBlob(byte[], String, String, boolean, CallingContext)}, but
+   * reading the blob from a stream so that it is never held in memory as a
+   * whole.
+   * 
+   * @param stream
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BlobSubmissionOutcome addBlob(InputStream stream, String contentType,
+      String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException;
+
 }
\ No newline at end of file
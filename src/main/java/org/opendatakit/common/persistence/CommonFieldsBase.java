@@ -19,9 +19,10 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -72,7 +73,10 @@ public abstract class CommonFieldsBase {
   private boolean fromDatabase = false;
   private Object opaquePersistenceData = null;
   protected final List<DataField> fieldList = new ArrayList<DataField>();
-  protected final Map<DataField, Object> fieldValueMap = new HashMap<DataField, Object>();
+  /** the ordinals of the fields; shared by the prototype and its entities */
+  private FieldOrdinals fieldOrdinals = null;
+  /** the field values, indexed by field ordinal */
+  private Object[] fieldValues = new Object[0];
 
   public final DataField primaryKey;
   public final DataField creatorUriUser;
@@ -117,13 +121,61 @@ public abstract class CommonFieldsBase {
     lastUpdateDate = ref.lastUpdateDate;
 
     fieldList.addAll(ref.fieldList);
+    fieldOrdinals = ref.getFieldOrdinals();
+    fieldValues = new Object[fieldList.size()];
 
     // populate the audit fields...
     Date now = new Date();
-    fieldValueMap.put(creationDate, now);
-    fieldValueMap.put(lastUpdateDate, now);
-    fieldValueMap.put(creatorUriUser, user.getUriUser());
-    fieldValueMap.put(primaryKey, CommonFieldsBase.newUri());
+    fieldValues[indexOf(creationDate)] = now;
+    fieldValues[indexOf(lastUpdateDate)] = now;
+    fieldValues[indexOf(creatorUriUser)] = user.getUriUser();
+    fieldValues[indexOf(primaryKey)] = CommonFieldsBase.newUri();
+  }
+
+  /**
+   * The position of each field in the field list. The field values of an entity
+   * are held in an array in the same order, rather than in a map per entity.
+   */
+  private static final class FieldOrdinals {
+    final Map<DataField, Integer> ordinals;
+    final int fieldCount;
+
+    FieldOrdinals(List<DataField> fieldList) {
+      fieldCount = fieldList.size();
+      ordinals = new IdentityHashMap<DataField, Integer>(fieldCount);
+      for (int i = 0; i < fieldCount; ++i) {
+        ordinals.put(fieldList.get(i), i);
+      }
+    }
+  }
+
+  /**
+   * @return the field ordinals, recomputed if fields have been added to the
+   *         field list (while constructing a relation prototype).
+   */
+  private FieldOrdinals getFieldOrdinals() {
+    FieldOrdinals ordinals = fieldOrdinals;
+    if (ordinals == null || ordinals.fieldCount != fieldList.size()) {
+      ordinals = new FieldOrdinals(fieldList);
+      fieldOrdinals = ordinals;
+    }
+    return ordinals;
+  }
+
+  /**
+   * @param f
+   * @return the index of the field's value in fieldValues, or -1 if the field
+   *         does not belong to this relation.
+   */
+  private int indexOf(DataField f) {
+    Integer ordinal = getFieldOrdinals().ordinals.get(f);
+    if (ordinal == null) {
+      return -1;
+    }
+    if (fieldValues.length < fieldList.size()) {
+      fieldValues = Arrays.copyOf(fieldValues, fieldList.size());
+    }
+    return ordinal;
   }
 
   public final EntityKey getEntityKey() {
@@ -169,22 +221,24 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    return fieldValueMap.containsKey(f);
+    return fieldValues[idx] != null;
   }
 
   public final String getStringField(DataField f) {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    Object o = fieldValues[idx];
     if (o == null)
       return null;
     return (String) o;
@@ -204,7 +258,8 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to set a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
@@ -219,7 +274,7 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[idx] = null;
       return true;
     } else if (f.getMaxCharLen().compareTo(Long.valueOf(value.length())) < 0) {
       if (f.getDataType() == DataType.LONG_STRING) {
@@ -232,7 +287,7 @@ public abstract class CommonFieldsBase {
       noOverflow = false;
       value = value.substring(0, f.getMaxCharLen().intValue());
     }
-    fieldValueMap.put(f, value);
+    fieldValues[idx] = value;
     return noOverflow;
   }
 
@@ -240,11 +295,12 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    Object o = fieldValues[idx];
     if (o == null)
       return null;
     return (Long) o;
@@ -254,7 +310,8 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to set a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
@@ -267,21 +324,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[idx] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[idx] = value;
   }
 
   public final WrappedBigDecimal getNumericField(DataField f) {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    Object o = fieldValues[idx];
     if (o == null)
       return null;
     return (WrappedBigDecimal) o;
@@ -291,7 +349,8 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to set a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
@@ -304,14 +363,14 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[idx] = null;
       return;
     }
     if ( !f.isDoublePrecision()  && !value.isSpecialValue() ) {
       // enforce scaling here...
-      fieldValueMap.put(f, value.setScale(f.getNumericScale(), BigDecimal.ROUND_HALF_UP));
+      fieldValues[idx] = value.setScale(f.getNumericScale(), BigDecimal.ROUND_HALF_UP);
     } else {
-      fieldValueMap.put(f, value);
+      fieldValues[idx] = value;
     }
   }
 
@@ -319,11 +378,12 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    Object o = fieldValues[idx];
     if (o == null)
       return null;
     return (Date) o;
@@ -333,7 +393,8 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to set a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
@@ -346,21 +407,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[idx] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[idx] = value;
   }
 
   public final Boolean getBooleanField(DataField f) {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    Object o = fieldValues[idx];
     if (o == null)
       return null;
     return (Boolean) o;
@@ -370,7 +432,8 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to set a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
@@ -383,21 +446,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[idx] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[idx] = value;
   }
 
   public final byte[] getBlobField(DataField f) {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to get a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    Object o = fieldValues[idx];
     if (o == null)
       return null;
     return (byte[]) o;
@@ -407,7 +471,8 @@ public abstract class CommonFieldsBase {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
+    int idx = indexOf(f);
+    if (idx < 0) {
       throw new IllegalArgumentException("Attempting to set a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
@@ -420,10 +485,10 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[idx] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[idx] = value;
   }
 
   public final static String newUri() {
@@ -460,18 +525,27 @@ public abstract class CommonFieldsBase {
       MessageDigest md = MessageDigest.getInstance("MD5");
       md.update(asBytes);
 
-      byte[] messageDigest = md.digest();
-
-      BigInteger number = new BigInteger(1, messageDigest);
-      String md5 = number.toString(16);
-      while (md5.length() < 32)
-        md5 = "0" + md5;
-      return "md5:" + md5;
+      return md5HashUriFromDigest(md.digest());
     } catch (NoSuchAlgorithmException e) {
       throw new IllegalStateException("Unexpected problem computing md5 hash", e);
     }
   }
 
+  /**
+   * Format an MD5 digest computed incrementally (e.g., over a stream) the
+   * same way as {@link #newMD5HashUri(byte[])}.
+   *
+   * @param messageDigest
+   * @return the md5: hash uri
+   */
+  public final static String md5HashUriFromDigest(byte[] messageDigest) {
+    BigInteger number = new BigInteger(1, messageDigest);
+    String md5 = number.toString(16);
+    while (md5.length() < 32)
+      md5 = "0" + md5;
+    return "md5:" + md5;
+  }
+
   /**********************************************************************************
    **********************************************************************************
    **********************************************************************************
@@ -530,7 +604,8 @@ public abstract class CommonFieldsBase {
   }
 
   public final boolean isNull(DataField f) {
-    return (fieldValueMap.get(f) == null);
+    int idx = indexOf(f);
+    return (idx < 0) || (fieldValues[idx] == null);
   }
 
   public boolean sameTable(CommonFieldsBase ref) {
@@ -47,6 +47,14 @@ public interface Datastore {
      * @return the maximum length of a column name in this persistence layer implementation
      */
     public int getMaxLenColumnName();
+
+    /**
+     * @return the maximum number of values a value set filter
+     *         ({@link Query#addValueSetFilter}) may hold in this persistence
+     *         layer implementation. Callers with more values must split them
+     *         across several queries.
+     */
+    public int getMaxValueSetFilterSize();
     
     /**
      * Asserts that the relation exists in the datastore.  The details of the 
@@ -202,6 +210,25 @@ public interface Datastore {
     public void deleteEntities(Collection<EntityKey> keys, User user)
             throws ODKOverQuotaException, ODKDatastoreException;
 
+    /**
+     * Deletes all of the entities of the relation whose value in the given
+     * field is one of the given values (e.g., every row of a repeat group's
+     * table that belongs to a set of submissions). The JDBC engines issue
+     * chunked DELETE ... WHERE field IN ( ... ) statements rather than
+     * fetching and deleting the rows one key at a time.
+     * 
+     * @param relation the table to delete from
+     * @param field the string or uri field to match
+     * @param values the values of the field whose rows should be deleted
+     * @param user non-null user responsible for this request.
+     * @throws ODKDatastoreException
+     *             if there was an error deleting the Entities
+    * @throws ODKOverQuotaException 
+    *             if there was a quota limit violation
+     */
+    public void deleteEntitiesByFieldValues(CommonFieldsBase relation, DataField field,
+            Collection<String> values, User user) throws ODKOverQuotaException, ODKDatastoreException;
+
     /**
      * Back-port from Mezuri -- functionality to do a bulk alteration of data.
      * Everything in this list is either an update or an insert. DatastoreImpl
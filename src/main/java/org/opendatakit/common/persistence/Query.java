@@ -76,6 +76,13 @@ public interface Query {
    * @param valueSet
    */
   public void addValueSetFilter(DataField attributeName, Collection<?> valueSet );
+
+  /**
+   * Receives the entities of a streamed query, one at a time.
+   */
+  public interface EntityCallback {
+    public void process(CommonFieldsBase entity) throws ODKDatastoreException;
+  }
   
   /**
    * Returns a list of all the entities which are the results of executing the query.
@@ -96,6 +103,24 @@ public interface Query {
    * @throws ODKOverQuotaException if the usage quota was exceeded
    */
   public QueryResult executeQuery(QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Streams the entities which are the results of executing the query to the
+   * callback, in sort order. Only fetchSize rows are held in memory at a time,
+   * however large the result set is.
+   * 
+   * The JDBC engines read the rows through a server-side cursor within a
+   * read-only transaction. The callback may issue other queries, but must not
+   * modify the datastore. The transaction and its pooled connection are held
+   * until the last row has been handed to the callback.
+   * 
+   * @param fetchSize -- number of rows to fetch from the database at a time
+   * @param callback -- receives each entity as it is read
+   * @throws ODKDatastoreException if there was a problem executing the Query,
+   *         or the callback failed
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public void forEach(int fetchSize, EntityCallback callback) throws ODKDatastoreException, ODKOverQuotaException;
   
   /**
    * Returns a list of distinct EntityKeys of the topLevelAuri for the set of records
@@ -210,4 +210,8 @@ public final class DatastoreAccessMetrics {
   public void recordDeleteUsage(EntityKey key) {
     recordUsage(key.getRelation(), countDeleteArray);
   }
+
+  public void recordDeleteUsage(CommonFieldsBase relation, int deleteCount) {
+    recordUsage(relation, countDeleteArray, deleteCount);
+  }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Query.EntityCallback;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Maps each row of a streamed result set to an entity and hands it to an
+ * {@link EntityCallback}; nothing is retained once the callback returns.
+ *
+ * RowCallbackHandler can only throw SQLException, so a failure of the callback
+ * is carried out of the JdbcTemplate in a {@link CallbackFailure}.
+ */
+public final class EntityRowCallbackHandler implements RowCallbackHandler {
+
+  /**
+   * An ODKDatastoreException thrown by the callback.
+   */
+  public static final class CallbackFailure extends RuntimeException {
+    private static final long serialVersionUID = 4612784218503197453L;
+
+    CallbackFailure(ODKDatastoreException e) {
+      super(e);
+    }
+
+    @Override
+    public synchronized ODKDatastoreException getCause() {
+      return (ODKDatastoreException) super.getCause();
+    }
+  }
+
+  private final RowMapper<? extends CommonFieldsBase> rowMapper;
+  private final EntityCallback callback;
+  private int readCount = 0;
+
+  public EntityRowCallbackHandler(RowMapper<? extends CommonFieldsBase> rowMapper,
+      EntityCallback callback) {
+    this.rowMapper = rowMapper;
+    this.callback = callback;
+  }
+
+  @Override
+  public void processRow(ResultSet rs) throws SQLException {
+    CommonFieldsBase cb = rowMapper.mapRow(rs, readCount++);
+    try {
+      callback.process(cb);
+    } catch (ODKDatastoreException e) {
+      throw new CallbackFailure(e);
+    }
+  }
+
+  public int getReadCount() {
+    return readCount;
+  }
+}
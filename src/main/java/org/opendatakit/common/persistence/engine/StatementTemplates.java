@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+
+/**
+ * The SQL text of the statements the JDBC engines issue for every entity of a
+ * relation: the SELECT column list, and the INSERT, UPDATE-by-PK and
+ * DELETE-by-PK statements. The column list of a relation never changes, so the
+ * text is built once per relation rather than on every call. Identical SQL text
+ * also lets the driver and the connection pool reuse the prepared statement.
+ *
+ * A relation is identified by its schema and table name. A table can be dropped
+ * and re-created with different columns (e.g., an ODK Tables schema change), so
+ * a template is only used if the relation still has the same columns.
+ */
+public final class StatementTemplates {
+
+  private static final String K_SELECT = "SELECT ";
+  private static final String K_CS = ", ";
+  private static final String K_FROM = " FROM ";
+  private static final String K_WHERE = " WHERE ";
+  private static final String K_EQ = " = ";
+  private static final String K_BIND_VALUE = "?";
+  private static final String K_OPEN_PAREN = " ( ";
+  private static final String K_CLOSE_PAREN = " ) ";
+  private static final String K_INSERT_INTO = "INSERT INTO ";
+  private static final String K_VALUES = " VALUES ";
+  private static final String K_UPDATE = "UPDATE ";
+  private static final String K_SET = " SET ";
+  private static final String K_DELETE_FROM = "DELETE FROM ";
+
+  /**
+   * The statements of one relation.
+   */
+  public static final class Template {
+    private final String[] columnNames;
+
+    /** quoted, comma-separated column names, in field list order */
+    public final String columnList;
+    /** " FROM schema.table", quoted */
+    public final String fromTable;
+    /** SELECT of all columns, without a WHERE clause */
+    public final String select;
+    /** INSERT of all columns, bound in field list order */
+    public final String insert;
+    /**
+     * UPDATE of all columns by primary key, bound in field list order with the
+     * primary key moved to the end
+     */
+    public final String update;
+    /** DELETE by primary key */
+    public final String deleteByKey;
+
+    private Template(String quote, CommonFieldsBase relation) {
+      List<DataField> fieldList = relation.getFieldList();
+      columnNames = new String[fieldList.size()];
+
+      String qualifiedName = quote + relation.getSchemaName() + quote + "." + quote
+          + relation.getTableName() + quote;
+      String primaryKey = quote + relation.primaryKey.getName() + quote;
+
+      StringBuilder columns = new StringBuilder();
+      StringBuilder binds = new StringBuilder();
+      StringBuilder assignments = new StringBuilder();
+      int idx = 0;
+      for (DataField f : fieldList) {
+        columnNames[idx++] = f.getName();
+        if (columns.length() != 0) {
+          columns.append(K_CS);
+          binds.append(K_CS);
+        }
+        columns.append(quote).append(f.getName()).append(quote);
+        binds.append(K_BIND_VALUE);
+        // primary key goes in the where clause...
+        if (f == relation.primaryKey) {
+          continue;
+        }
+        if (assignments.length() != 0) {
+          assignments.append(K_CS);
+        }
+        assignments.append(quote).append(f.getName()).append(quote).append(K_EQ)
+            .append(K_BIND_VALUE);
+      }
+
+      columnList = columns.toString();
+      fromTable = K_FROM + qualifiedName;
+      select = K_SELECT + columnList + fromTable;
+      insert = K_INSERT_INTO + qualifiedName + K_OPEN_PAREN + columnList + K_CLOSE_PAREN
+          + K_VALUES + K_OPEN_PAREN + binds.toString() + K_CLOSE_PAREN;
+      update = K_UPDATE + qualifiedName + K_SET + assignments.toString() + K_WHERE + primaryKey
+          + K_EQ + K_BIND_VALUE;
+      deleteByKey = K_DELETE_FROM + qualifiedName + K_WHERE + primaryKey + K_EQ + K_BIND_VALUE;
+    }
+
+    private boolean hasFields(List<DataField> fieldList) {
+      if (fieldList.size() != columnNames.length) {
+        return false;
+      }
+      for (int i = 0; i < columnNames.length; ++i) {
+        if (!fieldList.get(i).getName().equals(columnNames[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private final String quote;
+
+  private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+  /**
+   * @param quote
+   *          the identifier quote of the database
+   */
+  public StatementTemplates(String quote) {
+    this.quote = quote;
+  }
+
+  /**
+   * @param relation
+   *          the relation, or any entity of it
+   * @return the statements of the relation
+   */
+  public Template get(CommonFieldsBase relation) {
+    String key = relation.getSchemaName() + "." + relation.getTableName();
+    Template template = templates.get(key);
+    if (template == null || !template.hasFields(relation.getFieldList())) {
+      template = new Template(quote, relation);
+      templates.put(key, template);
+    }
+    return template;
+  }
+
+  /**
+   * Forget the statements of a dropped relation.
+   *
+   * @param relation
+   */
+  public void remove(CommonFieldsBase relation) {
+    templates.remove(relation.getSchemaName() + "." + relation.getTableName());
+  }
+}
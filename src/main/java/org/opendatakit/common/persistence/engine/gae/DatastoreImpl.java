@@ -61,6 +61,9 @@ public class DatastoreImpl implements Datastore {
 
   private static final int MAX_IDENTIFIER_LEN = 64;
 
+  // the datastore rejects IN filters with more than 30 values
+  private static final int MAX_VALUE_SET_FILTER_SIZE = 30;
+
   private static final Long GAE_MAX_STRING_LEN = 255L;
   // these aren't actually used for filtering...
   public static final Integer DEFAULT_DBL_NUMERIC_SCALE = 10;
@@ -124,6 +127,11 @@ public class DatastoreImpl implements Datastore {
     return MAX_IDENTIFIER_LEN;
   }
 
+  @Override
+  public int getMaxValueSetFilterSize() {
+    return MAX_VALUE_SET_FILTER_SIZE;
+  }
+
   @Override
   public void assertRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException {
     int nColumns = 0;
@@ -478,6 +486,22 @@ public class DatastoreImpl implements Datastore {
 
   }
 
+  @Override
+  public void deleteEntitiesByFieldValues(CommonFieldsBase relation, DataField field,
+      Collection<String> values, User user) throws ODKDatastoreException {
+    // the datastore has no set-based delete; gather the keys of the matching
+    // rows and delete those.
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    for (String value : values) {
+      Query q = createQuery(relation, "DatastoreImpl.deleteEntitiesByFieldValues", user);
+      q.addFilter(field, Query.FilterOperation.EQUAL, value);
+      for (CommonFieldsBase cb : q.executeQuery()) {
+        keys.add(cb.getEntityKey());
+      }
+    }
+    deleteEntities(keys, user);
+  }
+
   @Override
   public TaskLock createTaskLock(User user) {
     return new TaskLockImpl(dam, syncCache);
@@ -953,6 +953,28 @@ public class QueryImpl implements org.opendatakit.common.persistence.Query {
     }
   }
 
+  /**
+   * The datastore has no server-side cursor over a JDBC connection; the query
+   * is instead executed one page of fetchSize entities at a time, resuming
+   * from the cursor of the previous page.
+   */
+  @Override
+  public void forEach(int fetchSize, EntityCallback callback) throws ODKDatastoreException,
+      ODKOverQuotaException {
+    establishDominantSort();
+    QueryResumePoint cursor = null;
+    for (;;) {
+      QueryResult page = executeQuery(cursor, fetchSize);
+      for (CommonFieldsBase cb : page.getResultList()) {
+        callback.process(cb);
+      }
+      if (!page.hasMoreResults()) {
+        break;
+      }
+      cursor = page.getResumeCursor();
+    }
+  }
+
   @Override
   public Set<EntityKey> executeForeignKeyQuery(CommonFieldsBase topLevelTable,
       DataField topLevelAuri) throws ODKDatastoreException, ODKOverQuotaException {
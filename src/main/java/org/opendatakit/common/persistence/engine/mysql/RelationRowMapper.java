@@ -16,6 +16,7 @@ package org.opendatakit.common.persistence.engine.mysql;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.List;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
@@ -33,10 +34,14 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
 
   private final CommonFieldsBase relation;
   private final User user;
+  // the columns are selected in field list order; see StatementTemplates
+  private final DataField[] fields;
 
   RelationRowMapper(CommonFieldsBase relation, User user) {
     this.relation = relation;
     this.user = user;
+    List<DataField> fieldList = relation.getFieldList();
+    this.fields = fieldList.toArray(new DataField[fieldList.size()]);
   }
 
   @Override
@@ -53,19 +58,21 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
     /**
      * Correct for the funky handling of nulls by the various accessors...
      */
-    for (DataField f : relation.getFieldList()) {
+    for (int i = 0; i < fields.length; ++i) {
+      DataField f = fields[i];
+      int column = i + 1;
       switch (f.getDataType()) {
       case BINARY:
-        byte[] blobBytes = rs.getBytes(f.getName());
+        byte[] blobBytes = rs.getBytes(column);
         row.setBlobField(f, blobBytes);
         break;
       case LONG_STRING:
       case URI:
       case STRING:
-        row.setStringField(f, rs.getString(f.getName()));
+        row.setStringField(f, rs.getString(column));
         break;
       case INTEGER:
-        long l = rs.getLong(f.getName());
+        long l = rs.getLong(column);
         if (rs.wasNull()) {
           row.setLongField(f, null);
         } else {
@@ -73,7 +80,7 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
       case DECIMAL: {
-        String value = rs.getString(f.getName());
+        String value = rs.getString(column);
         if ( value == null ) {
           row.setNumericField(f, null);
         } else {
@@ -82,7 +89,7 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
       }
         break;
       case BOOLEAN:
-        Boolean b = rs.getBoolean(f.getName());
+        Boolean b = rs.getBoolean(column);
         if (rs.wasNull()) {
           row.setBooleanField(f, null);
         } else {
@@ -90,12 +97,9 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
       case DATETIME:
-        Date d = rs.getTimestamp(f.getName());
-        if (d == null) {
-          row.setDateField(f, null);
-        } else {
-          row.setDateField(f, (Date) d.clone());
-        }
+        Date d = rs.getTimestamp(column);
+        // the driver returns a new Timestamp on every call
+        row.setDateField(f, d);
         break;
       default:
         throw new IllegalStateException("Did not expect non-primitive type in column fetch");
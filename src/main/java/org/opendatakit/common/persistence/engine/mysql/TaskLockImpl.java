@@ -48,15 +48,24 @@ import org.springframework.jdbc.core.JdbcTemplate;
 public class TaskLockImpl implements TaskLock {
 
   private static final String PERSISTENCE_LAYER_PROBLEM = "Persistence layer failure";
+
+  /**
+   * Longest time to wait for another server's lock transaction on the same
+   * (formId, taskType) to complete when using advisory locks.
+   */
+  private static final int ADVISORY_LOCK_WAIT_SECONDS = 10;
   
   final DatastoreAccessMetrics dam;
   final DatastoreImpl datastore;
   final User user;
+  final boolean useAdvisoryLock;
 
-  TaskLockImpl(DatastoreImpl datastore, DatastoreAccessMetrics dam, User user) {
+  TaskLockImpl(DatastoreImpl datastore, DatastoreAccessMetrics dam, User user,
+      boolean useAdvisoryLock) {
     this.datastore = datastore;
     this.dam = dam;
     this.user = user;
+    this.useAdvisoryLock = useAdvisoryLock;
   }
 
   private static final String K_BQ = "`";
@@ -73,9 +82,18 @@ public class TaskLockImpl implements TaskLock {
         + TaskLockTable.TABLE_NAME + K_BQ;
     // String tableName= TaskLockTable.TABLE_NAME;
 
-    b.append("SET SESSION TRANSACTION ISOLATION LEVEL SERIALIZABLE");
-    stmts.add(b.toString());
+    // GET_LOCK names are limited to 64 characters; use a hash of the resource
+    b.append("'odk_task_lock:").append(
+        CommonFieldsBase.newMD5HashUri(entity.getTaskType() + "|" + entity.getFormId()))
+        .append("'");
+    final String advisoryLockNameInline = b.toString();
     b.setLength(0);
+
+    if (!useAdvisoryLock) {
+      b.append("SET SESSION TRANSACTION ISOLATION LEVEL SERIALIZABLE");
+      stmts.add(b.toString());
+      b.setLength(0);
+    }
     b.append("START TRANSACTION WITH CONSISTENT SNAPSHOT");
     stmts.add(b.toString());
     b.setLength(0);
@@ -96,11 +114,13 @@ public class TaskLockImpl implements TaskLock {
     b.append(1000L * l);
     stmts.add(b.toString());
     b.setLength(0);
-    b.append("LOCK TABLES ");
-    b.append(tableName);
-    b.append(" WRITE ");
-    stmts.add(b.toString());
-    b.setLength(0);
+    if (!useAdvisoryLock) {
+      b.append("LOCK TABLES ");
+      b.append(tableName);
+      b.append(" WRITE ");
+      stmts.add(b.toString());
+      b.setLength(0);
+    }
 
     dam.recordPutUsage(TaskLockTable.TABLE_NAME);
     if (!entity.isFromDatabase()) {
@@ -187,10 +207,21 @@ public class TaskLockImpl implements TaskLock {
       b.setLength(0);
     }
     // delete stale locks (don't care who's)
+    // with advisory locks, we only own the rows of this resource and task type
     dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
     b.append("DELETE FROM ");
     b.append(tableName);
     b.append(" WHERE ");
+    if (useAdvisoryLock) {
+      b.append(K_BQ);
+      b.append(entity.formId.getName());
+      b.append(K_BQ);
+      b.append(" = @formId AND ");
+      b.append(K_BQ);
+      b.append(entity.taskType.getName());
+      b.append(K_BQ);
+      b.append(" = @taskType AND ");
+    }
     b.append(K_BQ);
     b.append(entity.expirationDateTime.getName());
     b.append(K_BQ);
@@ -309,9 +340,11 @@ public class TaskLockImpl implements TaskLock {
     b.append(" = CAST(@minExpiration AS DATETIME)");
     stmts.add(b.toString());
     b.setLength(0);
-    b.append("UNLOCK TABLES");
-    stmts.add(b.toString());
-    b.setLength(0);
+    if (!useAdvisoryLock) {
+      b.append("UNLOCK TABLES");
+      stmts.add(b.toString());
+      b.setLength(0);
+    }
     b.append("COMMIT");
     stmts.add(b.toString());
     b.setLength(0);
@@ -333,9 +366,26 @@ public class TaskLockImpl implements TaskLock {
         public Object doInConnection(Connection conn) throws SQLException, DataAccessException {
           boolean success = false;
           boolean oldValue = conn.getAutoCommit();
+          int oldTransactionValue = conn.getTransactionIsolation();
+          boolean advisoryLocked = false;
           try {
+            if (useAdvisoryLock) {
+              // serialize only with requests for the same resource and task
+              // type. This is a session lock; it is released below.
+              Statement stmt = conn.createStatement();
+              ResultSet rs = stmt.executeQuery("SELECT GET_LOCK(" + advisoryLockNameInline + ","
+                  + ADVISORY_LOCK_WAIT_SECONDS + ")");
+              advisoryLocked = rs.next() && rs.getInt(1) == 1;
+              rs.close();
+              stmt.close();
+              if (!advisoryLocked) {
+                return null;
+              }
+            }
             conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            // the advisory lock already serializes everyone touching these rows
+            conn.setTransactionIsolation(useAdvisoryLock ? Connection.TRANSACTION_READ_COMMITTED
+                : Connection.TRANSACTION_SERIALIZABLE);
             String lastResult = null;
             for (String s : stmts) {
               Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT);
@@ -356,13 +406,16 @@ public class TaskLockImpl implements TaskLock {
             e.printStackTrace();
             conn.rollback();
           } finally {
-            if ( !success ) {
+            if (advisoryLocked) {
+              releaseAdvisoryLock(conn, advisoryLockNameInline);
+            } else if ( !success && !useAdvisoryLock ) {
               Statement stmt = conn.createStatement();
               LoggerFactory.getLogger(TaskLockImpl.class).info("UNLOCK TABLES");
               stmt.execute("UNLOCK TABLES");
               conn.commit();
             }
           }
+          conn.setTransactionIsolation(oldTransactionValue);
           conn.setAutoCommit(oldValue);
           return success ? uri : null;
         }
@@ -381,6 +434,35 @@ public class TaskLockImpl implements TaskLock {
     }
   }
 
+  /**
+   * Release a GET_LOCK session lock. This must run whatever happened in the
+   * transaction: the lock belongs to the connection, and a pooled connection
+   * that still holds it would block every later request for the same resource
+   * and task type. A failure is logged rather than thrown so that it does not
+   * hide the outcome of the transaction.
+   *
+   * @param conn
+   * @param advisoryLockNameInline
+   */
+  private static void releaseAdvisoryLock(Connection conn, String advisoryLockNameInline) {
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute("SELECT RELEASE_LOCK(" + advisoryLockNameInline + ")");
+    } catch (SQLException e) {
+      LoggerFactory.getLogger(TaskLockImpl.class).error(
+          "Unable to release advisory lock " + advisoryLockNameInline, e);
+    } finally {
+      if (stmt != null) {
+        try {
+          stmt.close();
+        } catch (SQLException e) {
+          LoggerFactory.getLogger(TaskLockImpl.class).warn("Unable to close statement", e);
+        }
+      }
+    }
+  }
+
   @Override
   public boolean obtainLock(String lockId, String formId, ITaskLockType taskType) {
     boolean result = false;
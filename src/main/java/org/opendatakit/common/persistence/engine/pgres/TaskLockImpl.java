@@ -48,14 +48,23 @@ public class TaskLockImpl implements TaskLock {
 
   private static final String PERSISTENCE_LAYER_PROBLEM = "Persistence layer failure";
 
+  /**
+   * Longest time to wait for another server's lock transaction on the same
+   * (formId, taskType) to complete when using advisory locks.
+   */
+  private static final long ADVISORY_LOCK_WAIT_MILLISECONDS = 10000L;
+
   final DatastoreAccessMetrics dam;
   final DatastoreImpl datastore;
   final User user;
+  final boolean useAdvisoryLock;
 
-  TaskLockImpl(DatastoreImpl datastore, DatastoreAccessMetrics dam, User user) {
+  TaskLockImpl(DatastoreImpl datastore, DatastoreAccessMetrics dam, User user,
+      boolean useAdvisoryLock) {
     this.datastore = datastore;
     this.dam = dam;
     this.user = user;
+    this.useAdvisoryLock = useAdvisoryLock;
   }
 
   private static final String K_BQ = "\"";
@@ -88,7 +97,17 @@ public class TaskLockImpl implements TaskLock {
     String lifetimeIntervalMilliseconds = b.toString();
     b.setLength(0);
 
-    b.append("LOCK TABLE ").append(tableName).append(" IN ACCESS EXCLUSIVE MODE");
+    if (useAdvisoryLock) {
+      // serialize only with requests for the same resource and task type.
+      // The advisory lock is released when the transaction ends.
+      b.append("SET LOCAL lock_timeout = ").append(ADVISORY_LOCK_WAIT_MILLISECONDS);
+      stmts.add(b.toString());
+      b.setLength(0);
+      b.append("SELECT pg_advisory_xact_lock(hashtext(").append(taskTypeInline)
+          .append("), hashtext(").append(formIdInline).append("))");
+    } else {
+      b.append("LOCK TABLE ").append(tableName).append(" IN ACCESS EXCLUSIVE MODE");
+    }
     stmts.add(b.toString());
     b.setLength(0);
 
@@ -179,8 +198,15 @@ public class TaskLockImpl implements TaskLock {
       b.setLength(0);
     }
     // delete stale locks (don't care who's)
+    // with advisory locks, we only own the rows of this resource and task type
     dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
     b.append("DELETE FROM ").append(tableName).append(" WHERE ");
+    if (useAdvisoryLock) {
+      b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ")
+          .append(formIdInline).append(" AND ");
+      b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
+          .append(taskTypeInline).append(" AND ");
+    }
     b.append(K_BQ).append(entity.expirationDateTime.getName()).append(K_BQ).append(" <= NOW()");
     stmts.add(b.toString());
     b.setLength(0);
@@ -234,7 +260,9 @@ public class TaskLockImpl implements TaskLock {
           int oldTransactionValue = conn.getTransactionIsolation();
           try {
             conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            // the advisory lock already serializes everyone touching these rows
+            conn.setTransactionIsolation(useAdvisoryLock ? Connection.TRANSACTION_READ_COMMITTED
+                : Connection.TRANSACTION_SERIALIZABLE);
             Statement stmt = conn.createStatement();
             for (String s : stmts) {
               // for debugging: LoggerFactory.getLogger(TaskLockImpl.class).info(s);
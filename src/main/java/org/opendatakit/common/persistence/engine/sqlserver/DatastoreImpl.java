@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -41,6 +42,7 @@ import org.opendatakit.common.persistence.Query.FilterOperation;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.WrappedBigDecimal;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.StatementTemplates;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -49,6 +51,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -72,21 +75,29 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   private static final int MAX_TABLE_NAME_LEN = 112; // reserve 4 char for idx
                                                      // name
 
+  // SQL Server allows at most 2100 parameters per statement.
+  private static final int MAX_VALUE_SET_FILTER_SIZE = 1000;
+
   static final long MAX_IN_ROW_NVARCHAR = 4000L;
   
   // limit on SqlServer capacity (minus about 100 for where clause filters)
   private static final int MAX_BIND_PARAMS = 2000;
 
+  // number of keys in the IN (...) clause of a batched delete.
+  private static final int MAX_DELETE_BATCH_SIZE = 1000;
+
   static final String PATTERN_ISO8601_NO_ZONE = "yyyy-MM-dd'T'HH:mm:ss.SSS";
 
   // limit to 256MB blob size; don't know the impact of this...
   private static final Long MAX_BLOB_SIZE = 65536 * 4096L;
 
   private final DatastoreAccessMetrics dam = new DatastoreAccessMetrics();
+  private final StatementTemplates templates = new StatementTemplates(K_BQ);
   private DataSource dataSource = null;
   private DataSourceTransactionManager tm = null;
 
   private String schemaName = null;
+  private boolean useAdvisoryTaskLocks = false;
 
   public DatastoreImpl() throws ODKDatastoreException {
   }
@@ -100,6 +111,18 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     this.schemaName = schemaName;
   }
 
+  /**
+   * When true, task locks serialize on a database advisory lock for the
+   * (formId, taskType) being locked rather than on an exclusive lock of the
+   * whole _task_lock table. The lease records and their expiration times are
+   * maintained exactly as before.
+   *
+   * @param useAdvisoryTaskLocks
+   */
+  public void setUseAdvisoryTaskLocks(boolean useAdvisoryTaskLocks) {
+    this.useAdvisoryTaskLocks = useAdvisoryTaskLocks;
+  }
+
   @Override
   public void afterPropertiesSet() throws Exception {
     if (dataSource == null) {
@@ -139,6 +162,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   public static final String K_UPDATE = "UPDATE ";
   public static final String K_SET = " SET ";
   public static final String K_DELETE_FROM = "DELETE FROM ";
+  public static final String K_IN_OPEN = " IN ( ";
 
   public static final Integer DEFAULT_DBL_NUMERIC_SCALE = 10;
   public static final Integer DEFAULT_DBL_NUMERIC_PRECISION = 38;
@@ -425,6 +449,10 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     }
   }
 
+  StatementTemplates.Template getStatementTemplate(CommonFieldsBase relation) {
+    return templates.get(relation);
+  }
+
   void recordQueryUsage(CommonFieldsBase relation, int recCount) {
     dam.recordQueryUsage(relation, recCount);
   }
@@ -438,6 +466,38 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     return new JdbcTemplate(dataSource);
   }
 
+  /**
+   * Run the query within a read-only transaction and hand each row of the
+   * result set to the handler as it is read.
+   * 
+   * The handler's nested queries share this connection. With the driver's
+   * default direct select, running one of them makes the driver buffer the
+   * rest of this result set in memory, so the odk-settings.xml sets
+   * selectMethod=cursor: the rows are then read through a server-side cursor,
+   * fetchSize rows per round trip, and other statements can run in between.
+   * 
+   * @param query
+   * @param args
+   * @param fetchSize
+   * @param handler
+   */
+  void streamQuery(String query, Object[] args, int fetchSize, RowCallbackHandler handler) {
+    DefaultTransactionDefinition paramTransactionDefinition = new DefaultTransactionDefinition();
+    paramTransactionDefinition.setReadOnly(true);
+    TransactionStatus status = tm.getTransaction(paramTransactionDefinition);
+    try {
+      JdbcTemplate jc = getJdbcConnection();
+      jc.setFetchSize(fetchSize);
+      jc.query(query, args, handler);
+      tm.commit(status);
+      status = null;
+    } finally {
+      if (status != null) {
+        tm.rollback(status);
+      }
+    }
+  }
+
   @Override
   public int getMaxLenColumnName() {
     return MAX_COLUMN_NAME_LEN;
@@ -448,6 +508,11 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     return MAX_TABLE_NAME_LEN;
   }
 
+  @Override
+  public int getMaxValueSetFilterSize() {
+    return MAX_VALUE_SET_FILTER_SIZE;
+  }
+
   private final boolean updateRelation(JdbcTemplate jc, CommonFieldsBase relation,
       String originalStatement) {
 
@@ -795,6 +860,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       LoggerFactory.getLogger(DatastoreImpl.class)
           .info("Executing " + b.toString() + " by user " + user.getUriUser());
       getJdbcConnection().execute(b.toString());
+      templates.remove(relation);
     } catch (Exception e) {
       LoggerFactory.getLogger(DatastoreImpl.class)
           .warn(relation.getTableName() + " exception: " + e.toString());
@@ -949,97 +1015,35 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   public void putEntity(CommonFieldsBase entity, User user) throws ODKEntityPersistException {
     dam.recordPutUsage(entity);
     try {
-      boolean first;
-      StringBuilder b = new StringBuilder();
+      StatementTemplates.Template template = templates.get(entity);
+      ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
       if (entity.isFromDatabase()) {
         // we need to do an update
         entity.setDateField(entity.lastUpdateDate, new Date());
         entity.setStringField(entity.lastUpdateUriUser, user.getUriUser());
 
-        b.append(K_UPDATE);
-        b.append(K_BQ);
-        b.append(entity.getSchemaName());
-        b.append(K_BQ);
-        b.append(".");
-        b.append(K_BQ);
-        b.append(entity.getTableName());
-        b.append(K_BQ);
-        b.append(K_SET);
-
-        ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
-
-        first = true;
         // fields...
         for (DataField f : entity.getFieldList()) {
           // primary key goes in the where clause...
           if (f == entity.primaryKey)
             continue;
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BQ);
-          b.append(f.getName());
-          b.append(K_BQ);
-
-          b.append(K_EQ);
-          b.append(K_BIND_VALUE);
           buildArgumentList(pv, entity, f);
         }
-        b.append(K_WHERE);
-        b.append(K_BQ);
-        b.append(entity.primaryKey.getName());
-        b.append(K_BQ);
-        b.append(K_EQ);
-        b.append(K_BIND_VALUE);
         buildArgumentList(pv, entity, entity.primaryKey);
 
         // update...
-        String sql = b.toString();
+        String sql = template.update;
         ReusableStatementSetter setter = new ReusableStatementSetter(sql, pv);
         getJdbcConnection().update(sql, setter);
       } else {
         // not yet in database -- insert
-        b.append(K_INSERT_INTO);
-        b.append(K_BQ);
-        b.append(entity.getSchemaName());
-        b.append(K_BQ);
-        b.append(".");
-        b.append(K_BQ);
-        b.append(entity.getTableName());
-        b.append(K_BQ);
-        first = true;
-        b.append(K_OPEN_PAREN);
         // fields...
         for (DataField f : entity.getFieldList()) {
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BQ);
-          b.append(f.getName());
-          b.append(K_BQ);
-        }
-        b.append(K_CLOSE_PAREN);
-        b.append(K_VALUES);
-
-        ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
-
-        first = true;
-        b.append(K_OPEN_PAREN);
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BIND_VALUE);
           buildArgumentList(pv, entity, f);
         }
-        b.append(K_CLOSE_PAREN);
 
         // insert...
-        String sql = b.toString();
+        String sql = template.insert;
         ReusableStatementSetter setter = new ReusableStatementSetter(sql, pv);
         getJdbcConnection().update(sql, setter);
         entity.setFromDatabase(true); // now it is in the database...
@@ -1052,8 +1056,31 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   @Override
   public void putEntities(Collection<? extends CommonFieldsBase> entityList, User user)
       throws ODKEntityPersistException {
+    if (entityList.size() == 1) {
+      putEntity(entityList.iterator().next(), user);
+      return;
+    }
+
+    // group the entities by relation and by insert vs. update so that each
+    // group can be written with a single batched statement.
+    Map<String, List<CommonFieldsBase>> inserts = new LinkedHashMap<String, List<CommonFieldsBase>>();
+    Map<String, List<CommonFieldsBase>> updates = new LinkedHashMap<String, List<CommonFieldsBase>>();
     for (CommonFieldsBase d : entityList) {
-      putEntity(d, user);
+      Map<String, List<CommonFieldsBase>> groups = d.isFromDatabase() ? updates : inserts;
+      String fullyQualifiedName = d.getSchemaName() + "." + d.getTableName();
+      List<CommonFieldsBase> group = groups.get(fullyQualifiedName);
+      if (group == null) {
+        group = new ArrayList<CommonFieldsBase>();
+        groups.put(fullyQualifiedName, group);
+      }
+      group.add(d);
+    }
+
+    for (List<CommonFieldsBase> group : inserts.values()) {
+      batchAlterData(group, user);
+    }
+    for (List<CommonFieldsBase> group : updates.values()) {
+      batchAlterData(group, user);
     }
   }
 
@@ -1110,18 +1137,16 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       return;
     }
 
-    boolean generateSQL = true;
-    String sql = null;
+    // the changes are all inserts or all updates of the same relation
+    CommonFieldsBase firstEntity = allChanges.get(idxStart);
+    StatementTemplates.Template template = templates.get(firstEntity);
+    String sql = (firstEntity.isFromDatabase() ? template.update : template.insert) + K_COLON;
     List<List<SqlParameterValue> > batchArgs = new ArrayList<List<SqlParameterValue> >();
-    StringBuilder b = new StringBuilder();
 
     for (int idx = idxStart ; idx < idxAfterEnd ; ++idx ) {
       CommonFieldsBase entity = allChanges.get(idx);
       dam.recordPutUsage(entity);
 
-      boolean first;
-      b.setLength(0);
-
       ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
 
       if (entity.isFromDatabase()) {
@@ -1129,100 +1154,24 @@ public class DatastoreImpl implements Datastore, InitializingBean {
         entity.setDateField(entity.lastUpdateDate, new Date());
         entity.setStringField(entity.lastUpdateUriUser, user.getUriUser());
 
-        if (generateSQL) {
-          b.append(K_UPDATE);
-          b.append(K_BQ);
-          b.append(entity.getSchemaName());
-          b.append(K_BQ);
-          b.append(".");
-          b.append(K_BQ);
-          b.append(entity.getTableName());
-          b.append(K_BQ);
-          b.append(K_SET);
-        }
-
-        first = true;
         // fields...
         for (DataField f : entity.getFieldList()) {
           // primary key goes in the where clause...
           if (f == entity.primaryKey)
             continue;
 
-          if (generateSQL) {
-            if (!first) {
-              b.append(K_CS);
-            }
-            first = false;
-            b.append(K_BQ);
-            b.append(f.getName());
-            b.append(K_BQ);
-            b.append(K_EQ);
-            b.append(K_BIND_VALUE);
-          }
-
           buildArgumentList(pv, entity, f);
         }
-        if (generateSQL) {
-          b.append(K_WHERE);
-          b.append(K_BQ);
-          b.append(entity.primaryKey.getName());
-          b.append(K_BQ);
-          b.append(K_EQ);
-          b.append(K_BIND_VALUE);
-        }
         buildArgumentList(pv, entity, entity.primaryKey);
 
       } else {
-        if (generateSQL) {
-          // not yet in database -- insert
-          b.append(K_INSERT_INTO);
-          b.append(K_BQ);
-          b.append(entity.getSchemaName());
-          b.append(K_BQ);
-          b.append(".");
-          b.append(K_BQ);
-          b.append(entity.getTableName());
-          b.append(K_BQ);
-          first = true;
-          b.append(K_OPEN_PAREN);
-          // fields...
-          for (DataField f : entity.getFieldList()) {
-            if (!first) {
-              b.append(K_CS);
-            }
-            first = false;
-            b.append(K_BQ);
-            b.append(f.getName());
-            b.append(K_BQ);
-          }
-          b.append(K_CLOSE_PAREN);
-          b.append(K_VALUES);
-          b.append(K_OPEN_PAREN);
-        }
-
-        first = true;
+        // not yet in database -- insert
         // fields...
         for (DataField f : entity.getFieldList()) {
-          if (generateSQL) {
-            if (!first) {
-              b.append(K_CS);
-            }
-            first = false;
-            b.append(K_BIND_VALUE);
-          }
           buildArgumentList(pv, entity, f);
         }
-
-        if (generateSQL) {
-          b.append(K_CLOSE_PAREN);
-        }
       }
 
-      if (generateSQL) {
-        b.append(K_COLON);
-        sql = b.toString();
-      }
-      generateSQL = false;
       batchArgs.add(pv);
     }
 
@@ -1232,7 +1181,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       getJdbcConnection().batchUpdate(sql, setter);
 
       // if this was an insert, set the fromDatabase flag in the entities
-      if (!allChanges.get(0).isFromDatabase()) {
+      if (!allChanges.get(idxStart).isFromDatabase()) {
         for (int idx = idxStart ; idx < idxAfterEnd ; ++idx ) {
           CommonFieldsBase entity = allChanges.get(idx);
           entity.setFromDatabase(true);
@@ -1250,25 +1199,11 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     try {
       CommonFieldsBase d = key.getRelation();
 
-      StringBuilder b = new StringBuilder();
-      b.append(K_DELETE_FROM);
-      b.append(K_BQ);
-      b.append(d.getSchemaName());
-      b.append(K_BQ);
-      b.append(".");
-      b.append(K_BQ);
-      b.append(d.getTableName());
-      b.append(K_BQ);
-      b.append(K_WHERE);
-      b.append(K_BQ);
-      b.append(d.primaryKey.getName());
-      b.append(K_BQ);
-      b.append(K_EQ);
-      b.append(K_BIND_VALUE);
+      String sql = templates.get(d).deleteByKey;
 
-      LoggerFactory.getLogger(DatastoreImpl.class).info("Executing " + b.toString() + " with key "
+      LoggerFactory.getLogger(DatastoreImpl.class).info("Executing " + sql + " with key "
           + key.getKey() + " by user " + user.getUriUser());
-      getJdbcConnection().update(b.toString(), new Object[] { key.getKey() });
+      getJdbcConnection().update(sql, new Object[] { key.getKey() });
     } catch (Exception e) {
       throw new ODKDatastoreException("delete failed", e);
     }
@@ -1276,14 +1211,35 @@ public class DatastoreImpl implements Datastore, InitializingBean {
 
   @Override
   public void deleteEntities(Collection<EntityKey> keys, User user) throws ODKDatastoreException {
-    ODKDatastoreException e = null;
+    // group the keys by relation so that each relation can be purged with
+    // DELETE ... WHERE _URI IN ( ... ) statements.
+    Map<String, List<EntityKey>> keyGroups = new LinkedHashMap<String, List<EntityKey>>();
     for (EntityKey k : keys) {
-      try {
-        deleteEntity(k, user);
-      } catch (ODKDatastoreException ex) {
-        ex.printStackTrace();
-        if (e == null) {
-          e = ex; // save the first exception...
+      CommonFieldsBase d = k.getRelation();
+      String fullyQualifiedName = d.getSchemaName() + "." + d.getTableName();
+      List<EntityKey> group = keyGroups.get(fullyQualifiedName);
+      if (group == null) {
+        group = new ArrayList<EntityKey>();
+        keyGroups.put(fullyQualifiedName, group);
+      }
+      group.add(k);
+    }
+
+    int maxPerBatch = Math.min(MAX_DELETE_BATCH_SIZE, MAX_BIND_PARAMS);
+    ODKDatastoreException e = null;
+    for (List<EntityKey> group : keyGroups.values()) {
+      for (int idxStart = 0; idxStart < group.size(); idxStart += maxPerBatch) {
+        int idxAfterEnd = idxStart + maxPerBatch;
+        if (idxAfterEnd > group.size()) {
+          idxAfterEnd = group.size();
+        }
+        try {
+          partialDeleteEntities(group, idxStart, idxAfterEnd, user);
+        } catch (ODKDatastoreException ex) {
+          ex.printStackTrace();
+          if (e == null) {
+            e = ex; // save the first exception...
+          }
         }
       }
     }
@@ -1291,8 +1247,97 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       throw e; // throw the first exception...
   }
 
+  private void partialDeleteEntities(List<EntityKey> keys, int idxStart, int idxAfterEnd,
+      User user) throws ODKDatastoreException {
+    CommonFieldsBase d = keys.get(idxStart).getRelation();
+
+    StringBuilder b = new StringBuilder();
+    b.append(K_DELETE_FROM);
+    b.append(K_BQ);
+    b.append(d.getSchemaName());
+    b.append(K_BQ);
+    b.append(".");
+    b.append(K_BQ);
+    b.append(d.getTableName());
+    b.append(K_BQ);
+    b.append(K_WHERE);
+    b.append(K_BQ);
+    b.append(d.primaryKey.getName());
+    b.append(K_BQ);
+    b.append(K_IN_OPEN);
+
+    Object[] args = new Object[idxAfterEnd - idxStart];
+    for (int idx = idxStart; idx < idxAfterEnd; ++idx) {
+      EntityKey key = keys.get(idx);
+      dam.recordDeleteUsage(key);
+      if (idx != idxStart) {
+        b.append(K_CS);
+      }
+      b.append(K_BIND_VALUE);
+      args[idx - idxStart] = key.getKey();
+    }
+    b.append(K_CLOSE_PAREN);
+
+    try {
+      LoggerFactory.getLogger(DatastoreImpl.class).info("Executing " + K_DELETE_FROM
+          + d.getSchemaName() + "." + d.getTableName() + " for " + args.length
+          + " keys by user " + user.getUriUser());
+      getJdbcConnection().update(b.toString(), args);
+    } catch (Exception e) {
+      throw new ODKDatastoreException("delete failed", e);
+    }
+  }
+
+  @Override
+  public void deleteEntitiesByFieldValues(CommonFieldsBase relation, DataField field,
+      Collection<String> values, User user) throws ODKDatastoreException {
+    List<String> valueList = new ArrayList<String>(values);
+    int maxPerBatch = Math.min(MAX_DELETE_BATCH_SIZE, MAX_BIND_PARAMS);
+    for (int idxStart = 0; idxStart < valueList.size(); idxStart += maxPerBatch) {
+      int idxAfterEnd = idxStart + maxPerBatch;
+      if (idxAfterEnd > valueList.size()) {
+        idxAfterEnd = valueList.size();
+      }
+
+      StringBuilder b = new StringBuilder();
+      b.append(K_DELETE_FROM);
+      b.append(K_BQ);
+      b.append(relation.getSchemaName());
+      b.append(K_BQ);
+      b.append(".");
+      b.append(K_BQ);
+      b.append(relation.getTableName());
+      b.append(K_BQ);
+      b.append(K_WHERE);
+      b.append(K_BQ);
+      b.append(field.getName());
+      b.append(K_BQ);
+      b.append(K_IN_OPEN);
+
+      Object[] args = new Object[idxAfterEnd - idxStart];
+      for (int idx = idxStart; idx < idxAfterEnd; ++idx) {
+        if (idx != idxStart) {
+          b.append(K_CS);
+        }
+        b.append(K_BIND_VALUE);
+        args[idx - idxStart] = valueList.get(idx);
+      }
+      b.append(K_CLOSE_PAREN);
+
+      try {
+        LoggerFactory.getLogger(DatastoreImpl.class).debug("Executing " + K_DELETE_FROM
+            + relation.getSchemaName() + "." + relation.getTableName() + " for " + args.length
+            + " values of " + field.getName() + " by user " + user.getUriUser());
+        int count = getJdbcConnection().update(b.toString(), args);
+        dam.recordDeleteUsage(relation, count);
+      } catch (Exception e) {
+        throw new ODKDatastoreException("delete failed", e);
+      }
+    }
+  }
+
   @Override
   public TaskLock createTaskLock(User user) {
-    return new TaskLockImpl(this, dam, user);
+    return new TaskLockImpl(this, dam, user, useAdvisoryTaskLocks);
   }
 }
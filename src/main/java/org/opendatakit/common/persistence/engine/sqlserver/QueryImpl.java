@@ -32,6 +32,8 @@ import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.engine.EngineUtils;
+import org.opendatakit.common.persistence.engine.EntityRowCallbackHandler;
+import org.opendatakit.common.persistence.engine.StatementTemplates;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.security.User;
 import org.springframework.jdbc.core.ResultSetExtractor;
@@ -58,6 +60,10 @@ public class QueryImpl implements Query {
   private static final String K_IN_CLOSE = ")";
   private static final String K_BIND_VALUE = " ? ";
   private static final String K_ORDER_BY = " ORDER BY ";
+  private static final String K_OR = " OR ";
+  private static final String K_OPEN_PAREN = " (";
+  private static final String K_CLOSE_PAREN = ") ";
+  private static final String K_TOP_OPEN = "TOP (";
 
   private static Map<FilterOperation, String> operationMap = new HashMap<FilterOperation, String>();
   private static Map<Direction, String> directionMap = new HashMap<Direction, String>();
@@ -81,6 +87,8 @@ public class QueryImpl implements Query {
   private DataField dominantSortAttr = null;
   private Direction dominantSortDirection = null;
   private boolean isSortedByUri = false;
+  private Direction uriSortDirection = null;
+  private int sortCount = 0;
 
   private final StringBuilder queryBindBuilder = new StringBuilder();
   private final List<Object> bindValues = new ArrayList<Object>();
@@ -96,29 +104,31 @@ public class QueryImpl implements Query {
   }
 
   private String generateQuery() {
+    return generateQuery(0);
+  }
+
+  /**
+   * SQL Server has no LIMIT clause; the row limit is expressed as a TOP
+   * clause on the select list instead.
+   * 
+   * @param topCount
+   *          the maximum number of rows to return, or 0 for no limit.
+   * @return the SELECT ... FROM ... portion of the query.
+   */
+  private String generateQuery(int topCount) {
+    StatementTemplates.Template template = dataStoreImpl.getStatementTemplate(relation);
+    if (topCount <= 0) {
+      return template.select;
+    }
     // generate the query
     StringBuilder baseQueryBuilder = new StringBuilder();
 
     baseQueryBuilder.append(K_SELECT);
-
-    boolean first = true;
-    for (DataField f : relation.getFieldList()) {
-      if (!first) {
-        baseQueryBuilder.append(K_CS);
-      }
-      first = false;
-      baseQueryBuilder.append(K_BQ);
-      baseQueryBuilder.append(f.getName());
-      baseQueryBuilder.append(K_BQ);
-    }
-    baseQueryBuilder.append(K_FROM);
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(relation.getSchemaName());
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(".");
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(relation.getTableName());
-    baseQueryBuilder.append(K_BQ);
+    baseQueryBuilder.append(K_TOP_OPEN);
+    baseQueryBuilder.append(Integer.toString(topCount));
+    baseQueryBuilder.append(K_CLOSE_PAREN);
+    baseQueryBuilder.append(template.columnList);
+    baseQueryBuilder.append(template.fromTable);
 
     return baseQueryBuilder.toString();
   }
@@ -206,6 +216,115 @@ public class QueryImpl implements Query {
     return values;
   }
 
+  /**
+   * Determines whether the sort criteria allow a keyset (seek) continuation.
+   * This requires that the rows be ordered by exactly the dominant sort
+   * attribute and the PK, both in the same direction, and that the dominant
+   * sort attribute round-trips exactly through the string form held in the
+   * resume cursor (i.e., it is not a floating point value).
+   * 
+   * @return true if the continuation can be expressed entirely in SQL.
+   */
+  private boolean isKeysetContinuationSupported() {
+    if (dominantSortAttr == null) {
+      return false;
+    }
+    if (dominantSortAttr.equals(relation.primaryKey)) {
+      // PK is unique -- any secondary sorts are irrelevant
+      return true;
+    }
+    if (sortCount != 2 || !isSortedByUri || uriSortDirection != dominantSortDirection) {
+      return false;
+    }
+    switch (dominantSortAttr.getDataType()) {
+    case URI:
+    case STRING:
+    case INTEGER:
+    case BOOLEAN:
+    case DATETIME:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Constructs the keyset (seek) filter clause to append to the Query filters
+   * to support continuation cursors. The rows strictly after the
+   * (continuationValue, uriLastReturned) tuple in the sort order are selected,
+   * so the database does not need to re-read or return the rows of earlier
+   * pages.
+   * 
+   * @param queryContinuationBindBuilder
+   * @param continuationValue
+   * @param uriLastReturned
+   * @return the updated bindArgs
+   */
+  private ArrayList<Object> addKeysetContinuationFilter(StringBuilder queryContinuationBindBuilder,
+      Object continuationValue, String uriLastReturned) {
+    if (dominantSortAttr == null) {
+      throw new IllegalStateException("unexpected state");
+    }
+    if (continuationValue == null || uriLastReturned == null) {
+      throw new IllegalStateException("unexpected state");
+    }
+
+    String strictOp = operationMap.get(dominantSortDirection.equals(Direction.ASCENDING)
+        ? FilterOperation.GREATER_THAN : FilterOperation.LESS_THAN);
+
+    ArrayList<Object> values = new ArrayList<Object>();
+    values.addAll(bindValues);
+
+    if (queryBindBuilder.length() == 0) {
+      queryContinuationBindBuilder.append(K_WHERE);
+    } else {
+      queryContinuationBindBuilder.append(K_AND);
+    }
+
+    if (dominantSortAttr.equals(relation.primaryKey)) {
+      // _URI > ?
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(relation.primaryKey.getName());
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(strictOp);
+      queryContinuationBindBuilder.append(K_BIND_VALUE);
+      values.add(DatastoreImpl.getBindValue(relation.primaryKey, uriLastReturned));
+      return values;
+    }
+
+    // sortAttr >= ? AND (sortAttr > ? OR _URI > ?)
+    // i.e., (sortAttr, _URI) > (?, ?) with a leading range predicate that
+    // lets the database use the index on the dominant sort attribute.
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(dominantSortAttr.getName());
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(operationMap.get(dominantSortDirection
+        .equals(Direction.ASCENDING) ? FilterOperation.GREATER_THAN_OR_EQUAL
+        : FilterOperation.LESS_THAN_OR_EQUAL));
+    queryContinuationBindBuilder.append(K_BIND_VALUE);
+    values.add(DatastoreImpl.getBindValue(dominantSortAttr, continuationValue));
+
+    queryContinuationBindBuilder.append(K_AND);
+    queryContinuationBindBuilder.append(K_OPEN_PAREN);
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(dominantSortAttr.getName());
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(strictOp);
+    queryContinuationBindBuilder.append(K_BIND_VALUE);
+    values.add(DatastoreImpl.getBindValue(dominantSortAttr, continuationValue));
+
+    queryContinuationBindBuilder.append(K_OR);
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(relation.primaryKey.getName());
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(strictOp);
+    queryContinuationBindBuilder.append(K_BIND_VALUE);
+    values.add(DatastoreImpl.getBindValue(relation.primaryKey, uriLastReturned));
+    queryContinuationBindBuilder.append(K_CLOSE_PAREN);
+
+    return values;
+  }
+
   @Override
   public void addValueSetFilter(DataField attributeName, Collection<?> valueSet) {
     if (queryBindBuilder.length() == 0) {
@@ -240,6 +359,7 @@ public class QueryImpl implements Query {
     querySortBuilder.append(attributeName.getName());
     querySortBuilder.append(K_BQ);
     querySortBuilder.append(directionMap.get(direction));
+    ++sortCount;
 
     // keep track of the dominant sort attribute...
     if (dominantSortAttr == null) {
@@ -250,6 +370,7 @@ public class QueryImpl implements Query {
     // track whether or not the PK is a sort criteria
     if (attributeName.equals(relation.primaryKey)) {
       isSortedByUri = true;
+      uriSortDirection = direction;
     }
   }
 
@@ -274,6 +395,27 @@ public class QueryImpl implements Query {
     }
   }
 
+  @Override
+  public void forEach(int fetchSize, EntityCallback callback) throws ODKDatastoreException {
+
+    String query = generateQuery() + queryBindBuilder.toString() + querySortBuilder.toString()
+        + ";";
+    EntityRowCallbackHandler handler = new EntityRowCallbackHandler(new RelationRowMapper(
+        relation, user), callback);
+
+    try {
+      queryStringLogger.debug(query);
+      dataStoreImpl.streamQuery(query, bindValues.toArray(), fetchSize, handler);
+    } catch (EntityRowCallbackHandler.CallbackFailure e) {
+      throw e.getCause();
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordQueryUsage(relation, handler.getReadCount());
+    }
+  }
+
   @Override
   public List<?> executeDistinctValueForDataField(DataField dataField) throws ODKDatastoreException {
 
@@ -383,6 +525,9 @@ public class QueryImpl implements Query {
     // for continuation executions of queries
     StringBuilder queryContinuationBindBuilder = new StringBuilder();
     List<Object> values;
+    // when the continuation is pushed into the SQL, the result set starts
+    // immediately after the resume point and can be limited to one page.
+    boolean useKeyset = false;
 
     if (startCursor != null) {
       DataField matchingStartCursorAttr = null;
@@ -405,17 +550,32 @@ public class QueryImpl implements Query {
 
       Object continuationValue = EngineUtils.getDominantSortAttributeValueFromString(
           startCursor.getValue(), dominantSortAttr);
-      values = addContinuationFilter(queryContinuationBindBuilder, continuationValue);
+      String uriLastReturned = startCursor.getUriLastReturnedValue();
+      useKeyset = (uriLastReturned != null) && isKeysetContinuationSupported();
+      if (useKeyset) {
+        values = addKeysetContinuationFilter(queryContinuationBindBuilder, continuationValue,
+            uriLastReturned);
+      } else {
+        values = addContinuationFilter(queryContinuationBindBuilder, continuationValue);
+      }
     } else {
       values = bindValues;
     }
 
-    String query = generateQuery() + queryBindBuilder.toString()
+    int topCount = 0;
+    if ((startCursor == null || useKeyset) && fetchLimit > 0) {
+      // fetch one extra row to determine whether there are more results
+      topCount = fetchLimit + 1;
+    }
+
+    String query = generateQuery(topCount) + queryBindBuilder.toString()
         + queryContinuationBindBuilder.toString() + querySortBuilder.toString() + ";";
     RowMapper<? extends CommonFieldsBase> rowMapper = null;
     rowMapper = new RelationRowMapper(relation, user);
-    RowMapperFilteredResultSetExtractor rse = new RowMapperFilteredResultSetExtractor(startCursor,
-        fetchLimit, rowMapper);
+    // the keyset filter already excludes the last-returned row; only the
+    // value-based continuation needs to skip rows up to and including it.
+    RowMapperFilteredResultSetExtractor rse = new RowMapperFilteredResultSetExtractor(
+        (useKeyset ? null : startCursor), fetchLimit, rowMapper);
 
     try {
       CoreResult r;
@@ -17,6 +17,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.SimpleTimeZone;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
@@ -35,10 +36,15 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
 
   private final CommonFieldsBase relation;
   private final User user;
+  // the columns are selected in field list order; see StatementTemplates
+  private final DataField[] fields;
+  private final Calendar utc = Calendar.getInstance(new SimpleTimeZone(0, "UTC"));
 
   RelationRowMapper(CommonFieldsBase relation, User user) {
     this.relation = relation;
     this.user = user;
+    List<DataField> fieldList = relation.getFieldList();
+    this.fields = fieldList.toArray(new DataField[fieldList.size()]);
   }
 
   @Override
@@ -55,19 +61,21 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
     /**
      * Correct for the funky handling of nulls by the various accessors...
      */
-    for (DataField f : relation.getFieldList()) {
+    for (int i = 0; i < fields.length; ++i) {
+      DataField f = fields[i];
+      int column = i + 1;
       switch (f.getDataType()) {
       case BINARY:
-        byte[] blobBytes = rs.getBytes(f.getName());
+        byte[] blobBytes = rs.getBytes(column);
         row.setBlobField(f, blobBytes);
         break;
       case LONG_STRING:
       case URI:
       case STRING:
-        row.setStringField(f, rs.getString(f.getName()));
+        row.setStringField(f, rs.getString(column));
         break;
       case INTEGER:
-        long l = rs.getLong(f.getName());
+        long l = rs.getLong(column);
         if (rs.wasNull()) {
           row.setLongField(f, null);
         } else {
@@ -75,7 +83,7 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
       case DECIMAL: {
-        String value = rs.getString(f.getName());
+        String value = rs.getString(column);
         if ( value == null ) {
           row.setNumericField(f, null);
         } else {
@@ -84,7 +92,7 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
       }
         break;
       case BOOLEAN:
-        Boolean b = rs.getBoolean(f.getName());
+        Boolean b = rs.getBoolean(column);
         if (rs.wasNull()) {
           row.setBooleanField(f, null);
         } else {
@@ -92,13 +100,9 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
       case DATETIME:
-        Calendar cal = Calendar.getInstance(new SimpleTimeZone(0, "UTC"));
-        Date d = rs.getTimestamp(f.getName(), cal);
-        if (d == null) {
-          row.setDateField(f, null);
-        } else {
-          row.setDateField(f, (Date) d.clone());
-        }
+        Date d = rs.getTimestamp(column, utc);
+        // the driver returns a new Timestamp on every call
+        row.setDateField(f, d);
         break;
       default:
         throw new IllegalStateException("Did not expect non-primitive type in column fetch");
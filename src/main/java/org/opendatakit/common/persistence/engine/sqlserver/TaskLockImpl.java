@@ -48,14 +48,23 @@ public class TaskLockImpl implements TaskLock {
 
   private static final String PERSISTENCE_LAYER_PROBLEM = "Persistence layer failure";
 
+  /**
+   * Longest time to wait for another server's lock transaction on the same
+   * (formId, taskType) to complete when using advisory locks.
+   */
+  private static final long ADVISORY_LOCK_WAIT_MILLISECONDS = 10000L;
+
   final DatastoreAccessMetrics dam;
   final DatastoreImpl datastore;
   final User user;
+  final boolean useAdvisoryLock;
 
-  TaskLockImpl(DatastoreImpl datastore, DatastoreAccessMetrics dam, User user) {
+  TaskLockImpl(DatastoreImpl datastore, DatastoreAccessMetrics dam, User user,
+      boolean useAdvisoryLock) {
     this.datastore = datastore;
     this.dam = dam;
     this.user = user;
+    this.useAdvisoryLock = useAdvisoryLock;
   }
 
   private static final String K_BQ = "\"";
@@ -88,7 +97,18 @@ public class TaskLockImpl implements TaskLock {
     String nowPlusLifetimeIntervalMilliseconds = b.toString();
     b.setLength(0);
 
-    b.append("SELECT  COUNT(1) FROM ").append(tableName).append(" WITH (TABLOCKX, HOLDLOCK)");
+    if (useAdvisoryLock) {
+      // serialize only with requests for the same resource and task type.
+      // The application lock is released when the transaction ends.
+      // Resource names are limited to 255 characters; use a hash of the resource.
+      b.append("DECLARE @result INT; EXEC @result = sp_getapplock @Resource = N'odk_task_lock:")
+          .append(CommonFieldsBase.newMD5HashUri(entity.getTaskType() + "|" + entity.getFormId()))
+          .append("', @LockMode = 'Exclusive', @LockOwner = 'Transaction', @LockTimeout = ")
+          .append(ADVISORY_LOCK_WAIT_MILLISECONDS)
+          .append("; IF @result < 0 RAISERROR('unable to obtain task lock', 16, 1)");
+    } else {
+      b.append("SELECT  COUNT(1) FROM ").append(tableName).append(" WITH (TABLOCKX, HOLDLOCK)");
+    }
     stmts.add(b.toString());
     b.setLength(0);
 
@@ -177,8 +197,15 @@ public class TaskLockImpl implements TaskLock {
       b.setLength(0);
     }
     // delete stale locks (don't care who's)
+    // with advisory locks, we only own the rows of this resource and task type
     dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
     b.append("DELETE FROM ").append(tableName).append(" WHERE ");
+    if (useAdvisoryLock) {
+      b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ")
+          .append(formIdInline).append(" AND ");
+      b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
+          .append(taskTypeInline).append(" AND ");
+    }
     b.append(K_BQ).append(entity.expirationDateTime.getName()).append(K_BQ).append(" <= SYSUTCDATETIME()");
     stmts.add(b.toString());
     b.setLength(0);
@@ -232,7 +259,9 @@ public class TaskLockImpl implements TaskLock {
           int oldTransactionValue = conn.getTransactionIsolation();
           try {
             conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            // the advisory lock already serializes everyone touching these rows
+            conn.setTransactionIsolation(useAdvisoryLock ? Connection.TRANSACTION_READ_COMMITTED
+                : Connection.TRANSACTION_SERIALIZABLE);
             Statement stmt = conn.createStatement();
             for (String s : stmts) {
               // for debugging: LoggerFactory.getLogger(TaskLockImpl.class).info(s);
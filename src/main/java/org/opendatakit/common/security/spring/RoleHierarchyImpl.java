@@ -328,10 +328,11 @@ public class RoleHierarchyImpl implements RoleHierarchy, InitializingBean {
                 User daemon = userService.getDaemonAccountUser();
                 long lastUsersChange = SecurityRevisionsTable.getLastRegisteredUsersRevisionDate(datastore, daemon);
                 long lastGrantsChange = SecurityRevisionsTable.getLastRoleHierarchyRevisionDate(datastore, daemon);
+                long lastSuperUserChange = SecurityRevisionsTable.getLastSuperUserIdRevisionDate(datastore, daemon);
                 if ( lastGrantsChange > lastCheckTimestamp ) {
                     refreshReachableGrantedAuthorities();
                     // NOTE: Timestamps updated and user permissions have been reloaded.
-                } else if ( lastUsersChange > lastCheckTimestamp ) {
+                } else if ( lastUsersChange > lastCheckTimestamp || lastSuperUserChange > lastCheckTimestamp ) {
                     lastCheckTimestamp = System.currentTimeMillis();
                     userService.reloadPermissions();
                 } else {
@@ -17,11 +17,14 @@ package org.opendatakit.common.security.spring;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,14 +52,61 @@ public class UserServiceImpl implements org.opendatakit.common.security.UserServ
 
   private static final Logger logger = LoggerFactory.getLogger(UserServiceImpl.class);
 
+  /**
+   * Upper bound on the number of cached users. Entries from before the last
+   * reloadPermissions() are evicted first.
+   */
+  private static final int MAX_ACTIVE_USERS = 1000;
+
+  /**
+   * A user, with the permissions generation it was built for.
+   */
+  private static final class ActiveUser {
+    final User user;
+    final long generation;
+    final long loadedAt;
+
+    ActiveUser(User user, long generation) {
+      this.user = user;
+      this.generation = generation;
+      this.loadedAt = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * The uris of the super users, with the permissions generation they were
+   * read for.
+   */
+  private static final class SuperUsers {
+    final Set<String> uris;
+    final long generation;
+
+    SuperUsers(Set<String> uris, long generation) {
+      this.uris = uris;
+      this.generation = generation;
+    }
+  }
+
   // configured by bean definition...
   Datastore datastore;
   Realm realm;
   String superUserEmail;
   String superUserUsername;
-  RegisteredUsersTable superUserUsernameRecord;
-  
-  final Map<String, User> activeUsers = new HashMap<String, User>();
+  volatile RegisteredUsersTable superUserUsernameRecord;
+
+  /**
+   * Incremented by reloadPermissions(). Cached entries of an older generation
+   * are rebuilt, one at a time, when they are next requested. RoleHierarchyImpl
+   * calls reloadPermissions() whenever the SecurityRevisionsTable shows that
+   * the users, the role hierarchy or the super users have changed.
+   */
+  private final AtomicLong permissionsGeneration = new AtomicLong();
+
+  final Map<String, ActiveUser> activeUsers = new ConcurrentHashMap<String, ActiveUser>();
+
+  private volatile SuperUsers superUsers = null;
+
+  private final Object superUsersLock = new Object();
 
   public UserServiceImpl() {
   }
@@ -160,24 +210,48 @@ public class UserServiceImpl implements org.opendatakit.common.security.UserServ
   }
 
   @Override
-  public synchronized boolean isSuperUser(CallingContext cc) throws ODKDatastoreException {
-    MessageDigestPasswordEncoder mde = null;
-    try {
-      Object obj = cc.getBean(SecurityBeanDefs.BASIC_AUTH_PASSWORD_ENCODER);
-      if (obj != null) {
-        mde = (MessageDigestPasswordEncoder) obj;
-      }
-    } catch (Exception e) {
-      mde = null;
+  public boolean isSuperUser(CallingContext cc) throws ODKDatastoreException {
+    SuperUsers current = superUsers;
+    if (current == null || current.generation != permissionsGeneration.get()) {
+      current = reloadSuperUsers(cc);
     }
-    List<RegisteredUsersTable> tList = RegisteredUsersTable.assertSuperUsers(mde, cc);
+    return current.uris.contains(cc.getCurrentUser().getUriUser());
+  }
 
-    String uriUser = cc.getCurrentUser().getUriUser();
-    for (RegisteredUsersTable t : tList) {
-      if (t.getUri().equals(uriUser))
-        return true;
+  /**
+   * Assert the super user records and cache their uris. Serialized so that
+   * concurrent callers do not create duplicate records.
+   *
+   * @param cc
+   * @return
+   * @throws ODKDatastoreException
+   */
+  private SuperUsers reloadSuperUsers(CallingContext cc) throws ODKDatastoreException {
+    synchronized (superUsersLock) {
+      long generation = permissionsGeneration.get();
+      SuperUsers current = superUsers;
+      if (current != null && current.generation == generation) {
+        return current;
+      }
+      MessageDigestPasswordEncoder mde = null;
+      try {
+        Object obj = cc.getBean(SecurityBeanDefs.BASIC_AUTH_PASSWORD_ENCODER);
+        if (obj != null) {
+          mde = (MessageDigestPasswordEncoder) obj;
+        }
+      } catch (Exception e) {
+        mde = null;
+      }
+      List<RegisteredUsersTable> tList = RegisteredUsersTable.assertSuperUsers(mde, cc);
+
+      Set<String> uris = new HashSet<String>();
+      for (RegisteredUsersTable t : tList) {
+        uris.add(t.getUri());
+      }
+      current = new SuperUsers(Collections.unmodifiableSet(uris), generation);
+      superUsers = current;
+      return current;
     }
-    return false;
   }
 
   @Override
@@ -196,9 +270,9 @@ public class UserServiceImpl implements org.opendatakit.common.security.UserServ
   }
 
   @Override
-  public synchronized void reloadPermissions() {
+  public void reloadPermissions() {
     logger.info("Executing: reloadPermissions");
-    activeUsers.clear();
+    permissionsGeneration.incrementAndGet();
     superUserUsernameRecord = null;
   }
 
@@ -238,18 +312,54 @@ public class UserServiceImpl implements org.opendatakit.common.security.UserServ
     }
   }
 
-  private synchronized User internalGetUser(String uriUser,
+  private User internalGetUser(String uriUser,
       Collection<? extends GrantedAuthority> authorities) {
-    User match = activeUsers.get(uriUser);
-    if (match != null) {
-      return match;
-    } else if (User.ANONYMOUS_USER.equals(uriUser)) {
+    long generation = permissionsGeneration.get();
+    ActiveUser active = activeUsers.get(uriUser);
+    if (active != null && active.generation == generation) {
+      return active.user;
+    }
+    User match = loadUser(uriUser, authorities);
+    if (active == null && activeUsers.size() >= MAX_ACTIVE_USERS) {
+      evictActiveUsers(generation);
+    }
+    activeUsers.put(uriUser, new ActiveUser(match, generation));
+    return match;
+  }
+
+  /**
+   * Make room in the activeUsers map: drop the entries of older generations
+   * and, if that is not enough, the entry that was loaded first.
+   *
+   * @param generation
+   */
+  private void evictActiveUsers(long generation) {
+    String oldestUri = null;
+    long oldestLoadedAt = Long.MAX_VALUE;
+    Iterator<Map.Entry<String, ActiveUser>> it = activeUsers.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, ActiveUser> entry = it.next();
+      ActiveUser active = entry.getValue();
+      if (active.generation != generation) {
+        it.remove();
+      } else if (active.loadedAt < oldestLoadedAt) {
+        oldestLoadedAt = active.loadedAt;
+        oldestUri = entry.getKey();
+      }
+    }
+    if (oldestUri != null && activeUsers.size() >= MAX_ACTIVE_USERS) {
+      activeUsers.remove(oldestUri);
+    }
+  }
+
+  private User loadUser(String uriUser, Collection<? extends GrantedAuthority> authorities) {
+    User match;
+    if (User.ANONYMOUS_USER.equals(uriUser)) {
       // ignored passed-in authorities
       Set<GrantedAuthority> anonGroups = new HashSet<GrantedAuthority>();
       anonGroups.add(new SimpleGrantedAuthority(GrantedAuthorityName.USER_IS_ANONYMOUS.name()));
       match = new UserImpl(User.ANONYMOUS_USER, null, User.ANONYMOUS_USER_NICKNAME, anonGroups,
           datastore);
-      activeUsers.put(uriUser, match);
       return match;
     } else if (User.DAEMON_USER.equals(uriUser)) {
       // ignored passed-in authorities
@@ -258,7 +368,6 @@ public class UserServiceImpl implements org.opendatakit.common.security.UserServ
       daemonGroups.add(new SimpleGrantedAuthority(GrantedAuthorityName.USER_IS_DAEMON.name()));
       match = new UserImpl(User.DAEMON_USER, null, User.DAEMON_USER_NICKNAME, daemonGroups,
           datastore);
-      activeUsers.put(uriUser, match);
       return match;
     } else {
       try {
@@ -275,7 +384,6 @@ public class UserServiceImpl implements org.opendatakit.common.security.UserServ
         match = new UserImpl(uriUser, getEmail(uriUser, null), getNickname(uriUser), authorities,
             datastore);
       }
-      activeUsers.put(uriUser, match);
       return match;
     }
   }
@@ -22,6 +22,7 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.pool.PoolStats;
 
 import com.google.api.client.http.HttpTransport;
 
@@ -47,5 +48,23 @@ public interface HttpClientFactory {
      */
   public CloseableHttpClient createHttpClient(SocketConfig socketConfig, ConnectionConfig connectionConfig, RequestConfig requestConfig);
 
+  /**
+   * Returns a long-lived client whose connections are kept alive and reused
+   * across requests. The client is shared and must not be closed. Per-request
+   * timeouts and redirect handling are supplied through the request's
+   * RequestConfig, and every response entity must be fully consumed (or
+   * closed) so that its connection is returned to the pool.
+   * 
+   * @return the shared client
+   */
+  public CloseableHttpClient getPooledHttpClient();
+
+  /**
+   * @return the leased, available, pending and maximum connection counts of
+   *         the pool behind {@link #getPooledHttpClient()}, or null if the
+   *         container does not pool connections.
+   */
+  public PoolStats getConnectionPoolStats();
+
   public HttpTransport getGoogleOAuth2Transport() throws GeneralSecurityException, IOException;
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.utils;
+
+import java.util.Date;
+
+/**
+ * Helpers for conditional (If-None-Match, If-Modified-Since) and byte-range
+ * GET requests, as described in RFC 7232 and RFC 7233.
+ */
+public final class HttpConditionalUtils {
+
+  public static final String ETAG = "ETag";
+  public static final String IF_NONE_MATCH = "If-None-Match";
+  public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  public static final String IF_RANGE = "If-Range";
+  public static final String RANGE = "Range";
+  public static final String ACCEPT_RANGES = "Accept-Ranges";
+  public static final String CONTENT_RANGE = "Content-Range";
+  public static final String BYTES = "bytes";
+
+  private static final String BYTES_EQUALS = BYTES + "=";
+  private static final String WEAK_PREFIX = "W/";
+
+  private HttpConditionalUtils() {
+  }
+
+  /**
+   * A single byte range of a representation. The range is unsatisfiable if it
+   * starts beyond the end of the representation.
+   */
+  public static final class ByteRange {
+    private final long first;
+    private final long last;
+    private final long contentLength;
+
+    private ByteRange(long first, long last, long contentLength) {
+      this.first = first;
+      this.last = last;
+      this.contentLength = contentLength;
+    }
+
+    public boolean isSatisfiable() {
+      return first <= last;
+    }
+
+    /**
+     * @return offset of the first byte of the range
+     */
+    public long getFirst() {
+      return first;
+    }
+
+    /**
+     * @return offset of the last byte of the range (inclusive)
+     */
+    public long getLast() {
+      return last;
+    }
+
+    public long getLength() {
+      return last - first + 1;
+    }
+
+    /**
+     * @return the value of the Content-Range header for this range.
+     */
+    public String getContentRange() {
+      if (!isSatisfiable()) {
+        return BYTES + " */" + contentLength;
+      }
+      return BYTES + " " + first + "-" + last + "/" + contentLength;
+    }
+  }
+
+  /**
+   * @param eTag
+   *          the opaque tag, without quotes
+   * @return the quoted, strong entity tag
+   */
+  public static String strongETag(String eTag) {
+    return "\"" + eTag + "\"";
+  }
+
+  /**
+   * Weak comparison, as required for If-None-Match.
+   *
+   * @param ifNoneMatch
+   *          value of the If-None-Match header (may be null)
+   * @param eTag
+   *          the quoted entity tag of the current representation
+   * @return true if the header lists the entity tag or is "*".
+   */
+  public static boolean matchesIfNoneMatch(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null || eTag == null) {
+      return false;
+    }
+    String opaque = stripWeakPrefix(eTag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.equals("*") || stripWeakPrefix(tag).equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeakPrefix(String eTag) {
+    return eTag.startsWith(WEAK_PREFIX) ? eTag.substring(WEAK_PREFIX.length()) : eTag;
+  }
+
+  /**
+   * @param ifModifiedSince
+   *          value of the If-Modified-Since header, in milliseconds (-1 if
+   *          absent)
+   * @param lastModified
+   *          last modification date of the representation (may be null)
+   * @return true if the representation has not changed since the given time,
+   *         at the one-second resolution of HTTP dates.
+   */
+  public static boolean isNotModifiedSince(long ifModifiedSince, Date lastModified) {
+    if (ifModifiedSince < 0 || lastModified == null) {
+      return false;
+    }
+    return (lastModified.getTime() / 1000L) <= (ifModifiedSince / 1000L);
+  }
+
+  /**
+   * If-Range requires a strong match, so a weak or different entity tag (or a
+   * date, which is not supported) means the whole representation is sent.
+   *
+   * @param ifRange
+   *          value of the If-Range header (may be null)
+   * @param eTag
+   *          the quoted, strong entity tag of the current representation
+   * @return true if a Range header should be honored.
+   */
+  public static boolean isRangeApplicable(String ifRange, String eTag) {
+    if (ifRange == null) {
+      return true;
+    }
+    return eTag != null && ifRange.trim().equals(eTag);
+  }
+
+  /**
+   * Parse a Range header. Only a single byte range is supported; anything else
+   * is ignored and the whole representation is sent, as RFC 7233 allows.
+   *
+   * @param range
+   *          value of the Range header (may be null)
+   * @param contentLength
+   *          length of the representation
+   * @return the requested range, or null if the whole representation should be
+   *         sent.
+   */
+  public static ByteRange parseRange(String range, long contentLength) {
+    if (range == null) {
+      return null;
+    }
+    String spec = range.trim();
+    if (!spec.regionMatches(true, 0, BYTES_EQUALS, 0, BYTES_EQUALS.length())) {
+      return null;
+    }
+    spec = spec.substring(BYTES_EQUALS.length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash == -1 || spec.indexOf(',') != -1) {
+      return null;
+    }
+    try {
+      String firstString = spec.substring(0, dash).trim();
+      String lastString = spec.substring(dash + 1).trim();
+      if (firstString.length() == 0) {
+        // suffix range: the final N bytes
+        long suffixLength = Long.parseLong(lastString);
+        if (suffixLength < 0) {
+          return null;
+        }
+        return new ByteRange(Math.max(0L, contentLength - suffixLength), contentLength - 1L,
+            contentLength);
+      }
+      long first = Long.parseLong(firstString);
+      long last = contentLength - 1L;
+      if (lastString.length() != 0) {
+        long requestedLast = Long.parseLong(lastString);
+        if (requestedLast < first) {
+          return null;
+        }
+        last = Math.min(last, requestedLast);
+      }
+      if (first < 0) {
+        return null;
+      }
+      return new ByteRange(first, last, contentLength);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -20,6 +20,7 @@ import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.pool.PoolStats;
 import org.opendatakit.common.utils.HttpClientFactory;
 import org.opendatakit.http.conn.GaeHttpClientConnectionManager;
 
@@ -44,6 +45,20 @@ public class GaeHttpClientFactoryImpl implements HttpClientFactory {
       return HttpClientBuilder.create().setConnectionManager(new GaeHttpClientConnectionManager(socketConfig, connectionConfig, requestConfig)).build();
   }
 
+  /**
+   * URLFetchService manages its own connections, so this is just an
+   * unconfigured client.
+   */
+  @Override
+  public CloseableHttpClient getPooledHttpClient() {
+    return createHttpClient(null, null, null);
+  }
+
+  @Override
+  public PoolStats getConnectionPoolStats() {
+    return null;
+  }
+
   @Override
   public HttpTransport getGoogleOAuth2Transport() {
     return new UrlFetchTransport();
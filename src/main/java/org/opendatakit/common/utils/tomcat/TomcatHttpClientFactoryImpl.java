@@ -17,28 +17,56 @@ package org.opendatakit.common.utils.tomcat;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.opendatakit.common.utils.HttpClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.api.client.googleapis.apache.GoogleApacheHttpTransport;
 import com.google.api.client.http.HttpTransport;
 
 /**
- * Implementation that just uses Apache's default http client.
+ * Implementation that uses Apache's default http client. The pooled client is
+ * backed by a PoolingHttpClientConnectionManager whose limits and idle timeout
+ * can be set on the http_client_factory bean.
  * 
  * @author mitchellsundt@gmail.com
  * 
  */
 public class TomcatHttpClientFactoryImpl implements HttpClientFactory {
 
+  private static final Logger logger = LoggerFactory.getLogger(TomcatHttpClientFactoryImpl.class);
+
+  private int maxConnections = 100;
+  private int maxConnectionsPerRoute = 20;
+  private int idleConnectionTimeoutSeconds = 30;
+
+  private PoolingHttpClientConnectionManager connectionManager = null;
+  private CloseableHttpClient pooledClient = null;
+
   public TomcatHttpClientFactoryImpl() {
   }
 
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  public void setIdleConnectionTimeoutSeconds(int idleConnectionTimeoutSeconds) {
+    this.idleConnectionTimeoutSeconds = idleConnectionTimeoutSeconds;
+  }
+
   @Override
   public CloseableHttpClient createHttpClient(SocketConfig socketConfig,
       ConnectionConfig connectionConfig, RequestConfig requestConfig) {
@@ -55,6 +83,51 @@ public class TomcatHttpClientFactoryImpl implements HttpClientFactory {
     return builder.build();
   }
 
+  @Override
+  public synchronized CloseableHttpClient getPooledHttpClient() {
+    if (pooledClient == null) {
+      connectionManager = new PoolingHttpClientConnectionManager();
+      connectionManager.setMaxTotal(maxConnections);
+      connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+      // stale-check connections that sat idle in the pool before reusing them
+      connectionManager.setValidateAfterInactivity(2000);
+
+      // the evictor thread closes expired connections and those idle longer
+      // than the timeout, so the pool does not hold sockets the server has
+      // already dropped.
+      pooledClient = HttpClientBuilder.create()
+          .setConnectionManager(connectionManager)
+          .evictExpiredConnections()
+          .evictIdleConnections(idleConnectionTimeoutSeconds, TimeUnit.SECONDS)
+          .build();
+    }
+    return pooledClient;
+  }
+
+  @Override
+  public synchronized PoolStats getConnectionPoolStats() {
+    if (connectionManager == null) {
+      return null;
+    }
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * Shut down the pooled client and its connections. Invoked by Spring when the
+   * application context is closed.
+   */
+  public synchronized void close() {
+    if (pooledClient != null) {
+      try {
+        pooledClient.close();
+      } catch (IOException e) {
+        logger.warn("Unable to close the pooled http client: " + e.toString());
+      }
+      pooledClient = null;
+      connectionManager = null;
+    }
+  }
+
   @Override
   public HttpTransport getGoogleOAuth2Transport() throws GeneralSecurityException, IOException {
     return GoogleApacheHttpTransport.newTrustedTransport();
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.externalservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.client.externalserv.ExternServSummary;
+import org.opendatakit.aggregate.constants.common.ExternalServiceType;
+import org.opendatakit.aggregate.constants.common.OperationalStatus;
+import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.submission.Submission;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.security.UserService;
+import org.opendatakit.common.web.CallingContext;
+
+public class AbstractExternalServiceTest {
+
+  private static class ServiceTable extends CommonFieldsBase {
+    ServiceTable() {
+      super("odk_prod", "TEST_SERVICE");
+    }
+
+    private ServiceTable(ServiceTable ref, User user) {
+      super(ref, user);
+    }
+
+    @Override
+    public ServiceTable getEmptyRow(User user) {
+      return new ServiceTable(this, user);
+    }
+  }
+
+  /**
+   * Records the batches handed to insertBatch() and the submissions sent one
+   * at a time through insertData().
+   */
+  private static class RecordingService extends AbstractExternalService {
+    final List<List<Submission>> batches = new ArrayList<List<Submission>>();
+    final List<Submission> inserted = new ArrayList<Submission>();
+    boolean failBatches = false;
+    boolean defaultInsertBatch = false;
+
+    RecordingService(IForm form, FormServiceCursor fsc, CallingContext cc) {
+      super(form, fsc, null, null, cc);
+    }
+
+    @Override
+    protected void insertBatch(List<Submission> submissions, CallingContext cc)
+        throws ODKExternalServiceException {
+      batches.add(new ArrayList<Submission>(submissions));
+      if (failBatches) {
+        throw new ODKExternalServiceException("publisher unavailable");
+      }
+      if (defaultInsertBatch) {
+        super.insertBatch(submissions, cc);
+      }
+    }
+
+    @Override
+    protected void insertData(Submission submission, CallingContext cc)
+        throws ODKExternalServiceException {
+      inserted.add(submission);
+    }
+
+    @Override
+    protected String getOwnership() {
+      return null;
+    }
+
+    @Override
+    protected CommonFieldsBase retrieveObjectEntity() {
+      return null;
+    }
+
+    @Override
+    protected List<? extends CommonFieldsBase> retrieveRepeatElementEntities() {
+      return null;
+    }
+
+    @Override
+    public void initiate(CallingContext cc) {
+    }
+
+    @Override
+    public String getDescriptiveTargetString() {
+      return null;
+    }
+
+    @Override
+    public ExternServSummary transform() {
+      return null;
+    }
+  }
+
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private IForm form;
+  private FormServiceCursor fsc;
+
+  @Before
+  public void setUp() throws Exception {
+    user = mock(User.class);
+    ds = mock(Datastore.class);
+    when(ds.getDefaultSchemaName()).thenReturn("odk_prod");
+    when(ds.createEntityUsingRelation(any(FormServiceCursor.class), any(User.class)))
+        .thenAnswer(new Answer<FormServiceCursor>() {
+          @Override
+          public FormServiceCursor answer(InvocationOnMock invocation) throws Throwable {
+            return ((FormServiceCursor) invocation.getArguments()[0]).getEmptyRow(user);
+          }
+        });
+    UserService userService = mock(UserService.class);
+    when(userService.getDaemonAccountUser()).thenReturn(user);
+    cc = mock(CallingContext.class);
+    when(cc.getDatastore()).thenReturn(ds);
+    when(cc.getCurrentUser()).thenReturn(user);
+    when(cc.getUserService()).thenReturn(userService);
+
+    ServiceTable service = new ServiceTable().getEmptyRow(user);
+    form = mock(IForm.class);
+    when(form.getEntityKey()).thenReturn(new EntityKey(service, "uuid:form"));
+    when(form.getFormId()).thenReturn("batch_test");
+    fsc = FormServiceCursor.createFormServiceCursor(form, ExternalServiceType.JSON_SERVER,
+        service, cc);
+  }
+
+  @Test
+  public void batch_is_sent_once_and_cursor_advances_to_its_last_submission() throws Exception {
+    List<Submission> submissions = Arrays.asList(submission("uuid:1", 1000L),
+        submission("uuid:2", 2000L), submission("uuid:3", 3000L));
+    RecordingService service = new RecordingService(form, fsc, cc);
+
+    service.sendSubmissionBatch(submissions, true, cc);
+
+    assertEquals(1, service.batches.size());
+    assertEquals(submissions, service.batches.get(0));
+    assertEquals("uuid:3", fsc.getLastStreamingKey());
+    assertEquals(new Date(3000L), fsc.getLastStreamingCursorDate());
+    assertNull(fsc.getLastUploadKey());
+    assertEquals(OperationalStatus.ACTIVE, fsc.getOperationalStatus());
+    verify(ds, times(1)).putEntity(fsc, user);
+  }
+
+  @Test
+  public void upload_batch_advances_the_upload_cursor() throws Exception {
+    RecordingService service = new RecordingService(form, fsc, cc);
+
+    service.sendSubmissionBatch(Arrays.asList(submission("uuid:1", 1000L),
+        submission("uuid:2", 2000L)), false, cc);
+
+    assertEquals("uuid:2", fsc.getLastUploadKey());
+    assertEquals(new Date(2000L), fsc.getLastUploadCursorDate());
+    assertNull(fsc.getLastStreamingKey());
+    verify(ds, times(1)).putEntity(fsc, user);
+  }
+
+  @Test
+  public void failed_batch_leaves_the_cursor_alone() throws Exception {
+    RecordingService service = new RecordingService(form, fsc, cc);
+    service.failBatches = true;
+
+    try {
+      service.sendSubmissionBatch(Arrays.asList(submission("uuid:1", 1000L)), true, cc);
+      fail("the failure of insertBatch() was swallowed");
+    } catch (ODKExternalServiceException e) {
+      // expected
+    }
+
+    assertNull(fsc.getLastStreamingKey());
+    assertNull(fsc.getLastStreamingCursorDate());
+    verify(ds, never()).putEntity(any(CommonFieldsBase.class), any(User.class));
+  }
+
+  @Test
+  public void empty_batch_is_not_sent() throws Exception {
+    RecordingService service = new RecordingService(form, fsc, cc);
+
+    service.sendSubmissionBatch(Collections.<Submission> emptyList(), true, cc);
+
+    assertEquals(0, service.batches.size());
+    verify(ds, never()).putEntity(any(CommonFieldsBase.class), any(User.class));
+  }
+
+  @Test
+  public void default_insert_batch_sends_each_submission() throws Exception {
+    List<Submission> submissions = Arrays.asList(submission("uuid:1", 1000L),
+        submission("uuid:2", 2000L));
+    RecordingService service = new RecordingService(form, fsc, cc);
+    service.defaultInsertBatch = true;
+
+    service.sendSubmissionBatch(submissions, true, cc);
+
+    assertEquals(submissions, service.inserted);
+    assertEquals("uuid:2", fsc.getLastStreamingKey());
+  }
+
+  private Submission submission(String uri, long markedAsComplete) {
+    EntityKey key = new EntityKey(new ServiceTable().getEmptyRow(user), uri);
+    Submission submission = mock(Submission.class);
+    when(submission.getKey()).thenReturn(key);
+    when(submission.getMarkedAsCompleteDate()).thenReturn(new Date(markedAsComplete));
+    return submission;
+  }
+}
@@ -0,0 +1,70 @@
+package org.opendatakit.aggregate.format.element;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
+import org.opendatakit.common.web.CallingContext;
+
+public class EmbeddedBinaryWriterTest {
+
+  private EmbeddedBinaryWriter writer = new EmbeddedBinaryWriter();
+
+  @Test
+  public void testValueWithoutPlaceholders() throws Exception {
+    assertOutput("{\"name\":\"value\"}", "{\"name\":\"value\"}");
+  }
+
+  @Test
+  public void testPlaceholdersAreReplacedByBase64() throws Exception {
+    byte[] image = new byte[10000];
+    for (int i = 0; i < image.length; ++i) {
+      image[i] = (byte) i;
+    }
+    byte[] audio = "some audio".getBytes(StandardCharsets.UTF_8);
+
+    String value = "{\"image\":\"" + writer.addPlaceholder(blob(image)) + "\",\"audio\":\""
+        + writer.addPlaceholder(blob(audio)) + "\"}";
+
+    assertOutput("{\"image\":\"" + Base64.encodeBase64String(image) + "\",\"audio\":\""
+        + Base64.encodeBase64String(audio) + "\"}", value);
+  }
+
+  @Test
+  public void testSubmittedTextIsNotMistakenForAPlaceholder() throws Exception {
+    assertOutput("{\"note\":\"@odk-binary:0@\"}", "{\"note\":\"@odk-binary:0@\"}");
+  }
+
+  private void assertOutput(String expected, String value) throws Exception {
+    StringWriter actual = new StringWriter();
+    writer.write(value, actual, null);
+    Assert.assertEquals(expected, actual.toString());
+  }
+
+  private static BlobSubmissionType blob(final byte[] content) throws Exception {
+    BlobSubmissionType blob = mock(BlobSubmissionType.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        OutputStream os = invocation.getArgument(1);
+        // written in pieces, as it is read from the datastore
+        for (int i = 0; i < content.length; i += 1000) {
+          os.write(content, i, Math.min(1000, content.length - i));
+        }
+        return null;
+      }
+    }).when(blob).writeBlob(eq(1), any(OutputStream.class), (CallingContext) any());
+    return blob;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
+import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
+import org.opendatakit.aggregate.odktables.rest.entity.Row;
+import org.opendatakit.aggregate.odktables.rest.entity.RowFilterScope;
+import org.opendatakit.aggregate.odktables.rest.entity.RowList;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcome.OutcomeType;
+import org.opendatakit.aggregate.odktables.rest.entity.RowOutcomeList;
+import org.opendatakit.aggregate.odktables.rest.entity.Scope;
+import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Pushes batches that mix inserts, updates and stale updates through
+ * DataManager.insertOrUpdateRows and checks the outcome of each row and what
+ * was stored.
+ */
+public class DataManagerBulkPushTest {
+
+  private static class AllPermissions implements TablesUserPermissions {
+
+    @Override
+    public String getOdkTablesUserId() {
+      return "myid";
+    }
+
+    @Override
+    public void checkPermission(String appId, String tableId, TablePermission permission) {
+    }
+
+    @Override
+    public boolean hasPermission(String appId, String tableId, TablePermission permission) {
+      return true;
+    }
+
+    @Override
+    public boolean hasFilterScope(String appId, String tableId, TablePermission permission,
+        String rowId, Scope filterScope) {
+      return true;
+    }
+  }
+
+  private CallingContext cc;
+  private TableManager tm;
+  private DataManager dm;
+  private String dataETag;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    tm = new TableManager(T.appId, new AllPermissions(), cc);
+    TableEntry entry = tm.createTable(T.tableId, T.columns);
+    dm = new DataManager(T.appId, T.tableId, new AllPermissions(), cc);
+    dataETag = entry.getDataETag();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    try {
+      tm.deleteTable(T.tableId);
+    } catch (ODKEntityNotFoundException e) {
+      // ignore
+    }
+  }
+
+  @Test
+  public void push_with_inserts_updates_and_a_stale_update() throws Exception {
+    Map<String, RowOutcome> inserted = push(inserts(0, 3, "23"));
+
+    List<Row> batch = new ArrayList<Row>();
+    batch.add(update(inserted.get("row0"), inserted.get("row0").getRowETag(), "30"));
+    // row1 was changed by someone else since this client last synced
+    batch.add(update(inserted.get("row1"), CommonFieldsBase.newUri(), "31"));
+    batch.addAll(inserts(3, 5, "24"));
+    Map<String, RowOutcome> outcomes = push(batch);
+
+    assertEquals(4, outcomes.size());
+    assertEquals(OutcomeType.SUCCESS, outcomes.get("row0").getOutcome());
+    assertFalse(inserted.get("row0").getRowETag().equals(outcomes.get("row0").getRowETag()));
+    assertEquals(OutcomeType.IN_CONFLICT, outcomes.get("row1").getOutcome());
+    assertEquals(inserted.get("row1").getRowETag(), outcomes.get("row1").getRowETag());
+    assertEquals(OutcomeType.SUCCESS, outcomes.get("row3").getOutcome());
+    assertEquals(OutcomeType.SUCCESS, outcomes.get("row4").getOutcome());
+
+    assertEquals("30", age(dm.getRow("row0")));
+    assertEquals("23", age(dm.getRow("row1")));
+    assertEquals("23", age(dm.getRow("row2")));
+    assertEquals("24", age(dm.getRow("row3")));
+    assertEquals("24", age(dm.getRow("row4")));
+    assertEquals(inserted.get("row1").getRowETag(), dm.getRow("row1").getRowETag());
+  }
+
+  @Test
+  public void push_spanning_several_row_id_queries() throws Exception {
+    // more rows than one query for the existing rows can look up
+    int size = cc.getDatastore().getMaxValueSetFilterSize() + 5;
+    Map<String, RowOutcome> inserted = push(inserts(0, size, "23"));
+    assertEquals(size, inserted.size());
+
+    List<Row> batch = new ArrayList<Row>();
+    String staleRowId = "row" + (size - 2);
+    for (int i = 0; i < size; ++i) {
+      RowOutcome current = inserted.get("row" + i);
+      String rowETag = current.getRowId().equals(staleRowId) ? CommonFieldsBase.newUri()
+          : current.getRowETag();
+      batch.add(update(current, rowETag, "40"));
+    }
+    batch.addAll(inserts(size, size + 2, "41"));
+    Map<String, RowOutcome> outcomes = push(batch);
+
+    assertEquals(size + 2, outcomes.size());
+    for (RowOutcome outcome : outcomes.values()) {
+      OutcomeType expected = outcome.getRowId().equals(staleRowId) ? OutcomeType.IN_CONFLICT
+          : OutcomeType.SUCCESS;
+      assertEquals(outcome.getRowId(), expected, outcome.getOutcome());
+    }
+    assertEquals("40", age(dm.getRow("row0")));
+    assertEquals("40", age(dm.getRow("row" + (size - 1))));
+    assertEquals("23", age(dm.getRow(staleRowId)));
+    assertEquals("41", age(dm.getRow("row" + (size + 1))));
+  }
+
+  /**
+   * Push the rows against the current dataETag of the table.
+   *
+   * @return the outcomes, by row id.
+   */
+  private Map<String, RowOutcome> push(List<Row> rows) throws Exception {
+    RowOutcomeList result = dm.insertOrUpdateRows(new RowList(new ArrayList<Row>(rows),
+        dataETag));
+    dataETag = result.getDataETag();
+    Map<String, RowOutcome> outcomes = new HashMap<String, RowOutcome>();
+    for (RowOutcome outcome : result.getRows()) {
+      outcomes.put(outcome.getRowId(), outcome);
+    }
+    return outcomes;
+  }
+
+  private static List<Row> inserts(int first, int afterLast, String age) {
+    List<Row> rows = new ArrayList<Row>();
+    for (int i = first; i < afterLast; ++i) {
+      rows.add(Row.forInsert("row" + i, T.form_id_1, T.locale_1,
+          SavepointTypeManipulator.complete(), T.savepoint_timestamp_1, T.savepoint_creator_1,
+          RowFilterScope.EMPTY_ROW_FILTER, values(i, age)));
+    }
+    return rows;
+  }
+
+  private static Row update(Row current, String rowETag, String age) {
+    int i = Integer.parseInt(current.getRowId().substring(3));
+    return Row.forUpdate(current.getRowId(), rowETag, T.form_id_1, T.locale_1,
+        SavepointTypeManipulator.complete(), T.savepoint_timestamp_1, T.savepoint_creator_1,
+        RowFilterScope.EMPTY_ROW_FILTER, values(i, age));
+  }
+
+  private static ArrayList<DataKeyValue> values(int i, String age) {
+    ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>();
+    values.add(new DataKeyValue(T.Columns.column_name.getElementKey(), "name" + i));
+    values.add(new DataKeyValue(T.Columns.column_age.getElementKey(), age));
+    values.add(new DataKeyValue(T.Columns.column_weight.getElementKey(), "175"));
+    return values;
+  }
+
+  private static String age(Row row) {
+    return Row.convertToMap(row.getValues()).get(T.Columns.column_age.getElementKey());
+  }
+}
@@ -18,6 +18,7 @@ package org.opendatakit.aggregate.odktables;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -34,7 +35,11 @@ import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
 import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
 import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.exception.TableAlreadyExistsException;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
 import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
+import org.opendatakit.aggregate.odktables.rest.entity.ChangeSetList;
 import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
 import org.opendatakit.aggregate.odktables.rest.entity.RowFilterScope;
@@ -44,6 +49,7 @@ import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -398,6 +404,125 @@ public class DataManagerTest {
     Util.assertCollectionSameElements(expected.values(), actual);
   }
 
+  @Test
+  public void testGetRowsSinceCompacted() throws ODKEntityPersistException, ODKDatastoreException,
+      ODKTaskLockException, ETagMismatchException, BadColumnNameException, PermissionDeniedException, InconsistentStateException {
+    TableEntry entry = tm.getTableNullSafe(T.tableId);
+    String beginETag = entry.getDataETag();
+    Map<String, Row> expected = new HashMap<String, Row>();
+    for ( Row r : rows ) {
+      Row row = dm.insertOrUpdateRow(r);
+      expected.put(row.getRowId(), row);
+    }
+
+    // edit the first row many times
+    Row row = expected.get(rows.get(0).getRowId());
+    for (int i = 0; i < 5; ++i) {
+      Map<String,String> evalues = Row.convertToMap(row.getValues());
+      evalues.put(T.Columns.column_age.getElementKey(), Integer.toString(30 + i));
+      row.setValues(Row.convertFromMap(evalues));
+      row = dm.insertOrUpdateRow(row);
+    }
+    expected.put(row.getRowId(), row);
+
+    // page through the change feed; each row should be reported once
+    List<Row> actual = new ArrayList<Row>();
+    QueryResumePoint cursor = null;
+    WebsafeRows websafeRows;
+    do {
+      websafeRows = dm.getRowsSince(beginETag, cursor, 2, true);
+      actual.addAll(websafeRows.rows);
+      cursor = QueryResumePoint.fromWebsafeCursor(websafeRows.websafeResumeCursor);
+    } while (websafeRows.hasMore);
+    assertEquals(expected.size(), actual.size());
+    Util.assertCollectionSameElements(expected.values(), actual);
+  }
+
+  @Test
+  public void testGetRowsSinceCompactedEmptyPage() throws ODKEntityPersistException,
+      ODKDatastoreException, ODKTaskLockException, ETagMismatchException, BadColumnNameException,
+      PermissionDeniedException, InconsistentStateException {
+    TableEntry entry = tm.getTableNullSafe(T.tableId);
+    String beginETag = entry.getDataETag();
+    Row row = dm.insertOrUpdateRow(rows.get(0));
+    for (int i = 0; i < 3; ++i) {
+      Map<String,String> evalues = Row.convertToMap(row.getValues());
+      evalues.put(T.Columns.column_age.getElementKey(), Integer.toString(30 + i));
+      row.setValues(Row.convertFromMap(evalues));
+      row = dm.insertOrUpdateRow(row);
+    }
+
+    // the first page only holds superseded changes
+    WebsafeRows websafeRows = dm.getRowsSince(beginETag, null, 2, true);
+    assertTrue(websafeRows.rows.isEmpty());
+    assertTrue(websafeRows.hasMore);
+
+    // the latest change is on a later page
+    List<Row> actual = new ArrayList<Row>();
+    do {
+      QueryResumePoint cursor = QueryResumePoint.fromWebsafeCursor(websafeRows.websafeResumeCursor);
+      websafeRows = dm.getRowsSince(beginETag, cursor, 2, true);
+      actual.addAll(websafeRows.rows);
+    } while (websafeRows.hasMore);
+    assertEquals(1, actual.size());
+    assertEquals(row.getRowETag(), actual.get(0).getRowETag());
+  }
+
+  @Test
+  public void testGetRowsAfterSchemaChange() throws ODKDatastoreException,
+      ODKTaskLockException, ETagMismatchException, BadColumnNameException,
+      PermissionDeniedException, InconsistentStateException, TableAlreadyExistsException {
+    for ( Row r : rows ) {
+      dm.insertOrUpdateRow(r);
+    }
+    String schemaETag = tm.getTableNullSafe(T.tableId).getSchemaETag();
+
+    // recreate the table without the weight column
+    tm.deleteTable(T.tableId);
+    TableEntry entry = tm.createTable(T.tableId, T.columns2);
+    assertFalse(schemaETag.equals(entry.getSchemaETag()));
+    dm = new DataManager(T.appId, T.tableId, userPermissions, cc);
+
+    ArrayList<DataKeyValue> values = new ArrayList<DataKeyValue>();
+    values.add(new DataKeyValue(T.Columns.column_name.getElementKey(), T.Data.DYLAN.getName()));
+    values.add(new DataKeyValue(T.Columns.column_age.getElementKey(), T.Data.DYLAN.getAge()));
+    Row row = Row.forInsert(T.Data.DYLAN.getId(), T.form_id_1, T.locale_1,
+        SavepointTypeManipulator.complete(), T.savepoint_timestamp_1, T.savepoint_creator_1,
+        RowFilterScope.EMPTY_ROW_FILTER, values);
+    dm.insertOrUpdateRow(row);
+
+    // the relations of the new schemaETag are used, not the cached ones
+    List<Row> actual = dm.getRows(null, 2000).rows;
+    assertEquals(1, actual.size());
+    assertEquals(row.getRowId(), actual.get(0).getRowId());
+    assertEquals(Row.convertToMap(values), Row.convertToMap(actual.get(0).getValues()));
+  }
+
+  @Test
+  public void testGetRowsRevertsPendingChange() throws ODKDatastoreException,
+      ODKTaskLockException, ETagMismatchException, BadColumnNameException,
+      PermissionDeniedException, InconsistentStateException {
+    Row row = dm.insertOrUpdateRow(rows.get(0));
+
+    // leave the insert looking like an abandoned, partially written change
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(T.tableId, cc);
+    entry.setPendingDataETag(row.getDataETagAtModification());
+    entry.put(cc);
+
+    // the read must take the locked path, which reverts the pending change
+    WebsafeRows websafeResult = dm.getRows(null, 2000);
+    assertTrue(websafeResult.rows.isEmpty());
+  }
+
+  @Test
+  public void testGetChangeSetsSinceEmptyLog() throws ODKDatastoreException,
+      ODKTaskLockException, BadColumnNameException, PermissionDeniedException,
+      InconsistentStateException {
+    ChangeSetList changeSets = dm.getChangeSetsSince(null, null);
+    assertTrue(changeSets.getChangeSets() == null || changeSets.getChangeSets().isEmpty());
+    assertNotNull(changeSets.getSequenceValue());
+  }
+
 //  @Test
 //  public void testGetRowsSinceByScope() throws ODKEntityPersistException, ETagMismatchException,
 //      BadColumnNameException, ODKDatastoreException, ODKTaskLockException, PermissionDeniedException {
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.impl.api.FileManifestServiceImpl;
+import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo;
+import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifest;
+import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntry;
+import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Serves the app-level manifest to two client versions, each with its own
+ * files, and checks that both see their own files under the ETag recorded for
+ * the app-level manifest.
+ */
+public class FileManifestManagerTest {
+  private static final String VERSION_1 = "1";
+  private static final String VERSION_2 = "2";
+
+  private CallingContext cc;
+  private FileManager fm;
+  private TablesUserPermissions userPermissions;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    fm = new FileManager(T.appId, cc);
+    userPermissions = mock(TablesUserPermissions.class);
+    when(userPermissions.getOdkTablesUserId()).thenReturn("myid");
+
+    putFile(VERSION_1, "assets/v1.txt", "first client version");
+    putFile(VERSION_2, "assets/v2.txt", "second client version");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fm.deleteFile(VERSION_1, DbTableFileInfo.NO_TABLE_ID, "assets/v1.txt");
+    fm.deleteFile(VERSION_2, DbTableFileInfo.NO_TABLE_ID, "assets/v2.txt");
+    fm.deleteFile(VERSION_2, DbTableFileInfo.NO_TABLE_ID, "assets/v2-extra.txt");
+  }
+
+  @Test
+  public void each_client_version_gets_its_own_manifest_under_the_recorded_etag()
+      throws Exception {
+    FileManifestManager v1 = new FileManifestManager(T.appId, VERSION_1, cc);
+    FileManifestManager v2 = new FileManifestManager(T.appId, VERSION_2, cc);
+
+    assertEquals(Collections.singletonList("assets/v1.txt"),
+        filenames(v1.getManifestForAppLevelFiles()));
+    String eTag = v1.getManifestETag();
+    assertNotNull(eTag);
+    assertEquals(eTag, FileManifestServiceImpl.getAppLevelManifestETag(cc));
+
+    // serving the other version neither changes the ETag nor mixes the files
+    assertEquals(Collections.singletonList("assets/v2.txt"),
+        filenames(v2.getManifestForAppLevelFiles()));
+    assertEquals(eTag, v2.getManifestETag());
+    assertEquals(eTag, FileManifestServiceImpl.getAppLevelManifestETag(cc));
+
+    // and both are now served from the cache
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(Collections.singletonList("assets/v1.txt"),
+          filenames(v1.getManifestForAppLevelFiles()));
+      assertEquals(eTag, v1.getManifestETag());
+      assertEquals(Collections.singletonList("assets/v2.txt"),
+          filenames(v2.getManifestForAppLevelFiles()));
+      assertEquals(eTag, v2.getManifestETag());
+    }
+    assertEquals(eTag, FileManifestServiceImpl.getAppLevelManifestETag(cc));
+  }
+
+  @Test
+  public void a_file_change_for_one_version_changes_the_etag_for_both() throws Exception {
+    FileManifestManager v1 = new FileManifestManager(T.appId, VERSION_1, cc);
+    FileManifestManager v2 = new FileManifestManager(T.appId, VERSION_2, cc);
+    v1.getManifestForAppLevelFiles();
+    v2.getManifestForAppLevelFiles();
+    String eTag = v1.getManifestETag();
+
+    putFile(VERSION_2, "assets/v2-extra.txt", "added later");
+
+    List<String> v2Files = filenames(v2.getManifestForAppLevelFiles());
+    Collections.sort(v2Files);
+    assertEquals(2, v2Files.size());
+    assertEquals("assets/v2-extra.txt", v2Files.get(0));
+    String newETag = v2.getManifestETag();
+    assertFalse(eTag.equals(newETag));
+
+    // the other version's cached manifest is rebuilt under the new ETag
+    assertEquals(Collections.singletonList("assets/v1.txt"),
+        filenames(v1.getManifestForAppLevelFiles()));
+    assertEquals(newETag, v1.getManifestETag());
+    assertEquals(newETag, FileManifestServiceImpl.getAppLevelManifestETag(cc));
+  }
+
+  private void putFile(String odkClientVersion, String path, String content) throws Exception {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    fm.putFile(odkClientVersion, DbTableFileInfo.NO_TABLE_ID,
+        new FileContentInfo(path, "text/plain", Long.valueOf(bytes.length), null, bytes),
+        userPermissions);
+  }
+
+  private static List<String> filenames(OdkTablesFileManifest manifest) {
+    List<String> names = new ArrayList<String>();
+    for (OdkTablesFileManifestEntry entry : manifest.getFiles()) {
+      names.add(entry.filename);
+    }
+    return names;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class MultiPartFormDataTest {
+  private static final String BOUNDARY = "----boundary";
+  private static final int SPILL_THRESHOLD = 1024;
+
+  @Test
+  public void small_and_large_parts_are_readable() throws Exception {
+    byte[] photo = photo();
+    MultiPartFormData data = new MultiPartFormData(request(photo), SPILL_THRESHOLD);
+    try {
+      assertEquals("a form", data.getSimpleFormField("form_name"));
+      assertEquals("<data/>",
+          data.getFormDataByFieldName("xml_submission_file").getString("UTF-8"));
+
+      MultiPartFormItem item = data.getFormDataByFileName("photo.jpg");
+      assertEquals(photo.length, item.getSize());
+      assertArrayEquals(photo, read(item.openStream()));
+    } finally {
+      data.deleteTemporaryFiles();
+    }
+  }
+
+  @Test
+  public void deleteTemporaryFiles_removes_spilled_parts() throws Exception {
+    MultiPartFormData data = new MultiPartFormData(request(photo()), SPILL_THRESHOLD);
+    MultiPartFormItem item = data.getFormDataByFileName("photo.jpg");
+
+    data.deleteTemporaryFiles();
+
+    try {
+      item.openStream();
+      fail("the temporary file of the part still exists");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static byte[] photo() {
+    byte[] photo = new byte[SPILL_THRESHOLD * 4];
+    Arrays.fill(photo, (byte) 7);
+    return photo;
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static HttpServletRequest request(byte[] photo) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    part(body, "form-data; name=\"form_name\"", null, "a form".getBytes(StandardCharsets.UTF_8));
+    part(body, "form-data; name=\"xml_submission_file\"; filename=\"submission.xml\"", "text/xml",
+        "<data/>".getBytes(StandardCharsets.UTF_8));
+    part(body, "form-data; name=\"photo.jpg\"; filename=\"photo.jpg\"", "image/jpeg", photo);
+    body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    final ByteArrayInputStream in = new ByteArrayInputStream(body.toByteArray());
+
+    HttpServletRequest req = mock(HttpServletRequest.class);
+    when(req.getMethod()).thenReturn("POST");
+    when(req.getContentType()).thenReturn("multipart/form-data; boundary=" + BOUNDARY);
+    when(req.getContentLength()).thenReturn(body.size());
+    when(req.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return in.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return in.read(b, off, len);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+      }
+    });
+    return req;
+  }
+
+  private static void part(ByteArrayOutputStream body, String disposition, String contentType,
+      byte[] content) throws IOException {
+    StringBuilder header = new StringBuilder();
+    header.append("--").append(BOUNDARY).append("\r\n");
+    header.append("Content-Disposition: ").append(disposition).append("\r\n");
+    if (contentType != null) {
+      header.append("Content-Type: ").append(contentType).append("\r\n");
+    }
+    header.append("\r\n");
+    body.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+    body.write(content);
+    body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+  }
+}
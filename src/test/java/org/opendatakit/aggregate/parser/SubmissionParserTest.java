@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.datamodel.FormElementModel;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.submission.Submission;
+import org.opendatakit.aggregate.submission.SubmissionSet;
+import org.opendatakit.aggregate.submission.type.LongSubmissionType;
+import org.opendatakit.aggregate.submission.type.RepeatSubmissionType;
+import org.opendatakit.aggregate.submission.type.StringSubmissionType;
+import org.opendatakit.common.datamodel.DeleteHelper;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Submits an instance with many repeats through the pull-based
+ * SubmissionParser and checks that the stored submission holds exactly the
+ * values a DOM reading of the same instance yields.
+ */
+public class SubmissionParserTest {
+  private static final int REPEAT_COUNT = 250;
+  private static final String FORM_ID = "submission_parser_test";
+
+  private CallingContext cc;
+  private IForm form;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    form = TestForms.upload(FORM_ID, cc);
+  }
+
+  @Test
+  public void pull_parser_stores_the_values_of_the_dom() throws Exception {
+    String instanceId = "uuid:" + UUID.randomUUID().toString();
+    byte[] xml = buildInstance(instanceId);
+
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setIgnoringComments(true);
+    factory.setCoalescing(true);
+    Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    Element docRoot = doc.getDocumentElement();
+    NodeList items = docRoot.getElementsByTagName("item");
+
+    SubmissionParser parser = new SubmissionParser(new ByteArrayInputStream(xml), cc);
+    Submission submission = parser.getSubmission();
+    try {
+      assertFalse(parser.wasPreexistingComplete());
+      assertEquals(instanceId, submission.getKey().getKey());
+
+      FormElementModel root = form.getTopLevelGroupElement();
+      FormElementModel item = root.findElementByName("item");
+      FormElementModel label = item.findElementByName("label");
+      FormElementModel count = item.findElementByName("count");
+      assertEquals(value(docRoot, "name"), ((StringSubmissionType) submission.getElementValue(
+          root.findElementByName("name"))).getValue());
+
+      RepeatSubmissionType repeats = (RepeatSubmissionType) submission.getElementValue(item);
+      assertEquals(items.getLength(), repeats.getNumberRepeats());
+      for (int i = 0; i < items.getLength(); ++i) {
+        Element domItem = (Element) items.item(i);
+        SubmissionSet set = repeats.getSubmissionSets().get(i);
+        assertEquals(value(domItem, "label"),
+            ((StringSubmissionType) set.getElementValue(label)).getValue());
+        String domCount = value(domItem, "count");
+        Long storedCount = ((LongSubmissionType) set.getElementValue(count)).getValue();
+        assertEquals(domCount == null ? null : Long.valueOf(domCount), storedCount);
+      }
+    } finally {
+      List<EntityKey> keys = new ArrayList<EntityKey>();
+      submission.recursivelyAddEntityKeysForDeletion(keys, cc);
+      keys.add(submission.getKey());
+      DeleteHelper.deleteEntities(keys, cc);
+    }
+  }
+
+  /**
+   * The value the DOM-based parser used to store: the first non-empty text
+   * node of the first child element with the given name, trimmed.
+   */
+  private static String value(Element parent, String name) {
+    for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getLocalName())) {
+        for (Node text = child.getFirstChild(); text != null; text = text.getNextSibling()) {
+          if (text.getNodeType() == Node.TEXT_NODE) {
+            String value = text.getNodeValue().trim();
+            if (value.length() > 0) {
+              return value;
+            }
+          }
+        }
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private byte[] buildInstance(String instanceId) {
+    StringBuilder b = new StringBuilder();
+    b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    b.append("<").append(FORM_ID).append(" id=\"").append(FORM_ID).append("\">\n");
+    b.append("<name>\n  parser test\n</name>\n");
+    for (int i = 0; i < REPEAT_COUNT; ++i) {
+      if (i % 10 == 9) {
+        b.append("<item><label/><count></count></item>\n");
+      } else {
+        b.append("<item><label> item ").append(i).append(" </label><count>").append(i)
+            .append("</count></item>\n");
+      }
+    }
+    b.append("<meta><instanceID>").append(instanceId).append("</instanceID></meta>\n");
+    b.append("</").append(FORM_ID).append(">\n");
+    return b.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.opendatakit.aggregate.form.FormFactory;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Uploads the form definitions kept as test resources next to this class.
+ */
+public class TestForms {
+
+  private TestForms() {
+  }
+
+  /**
+   * Upload the form definition in the test resource formId.xml the way the
+   * form upload servlet does. Re-uploading an identical form definition is
+   * accepted, so this can run against a datastore that already holds the form.
+   *
+   * @param formId
+   * @param cc
+   * @return the uploaded form
+   * @throws Exception
+   */
+  public static IForm upload(String formId, CallingContext cc) throws Exception {
+    String fileName = formId + ".xml";
+    byte[] xml = readResource(fileName);
+
+    FileItem formItem = new DiskFileItemFactory().createItem("form_def_file", "text/xml", false,
+        fileName);
+    try (OutputStream os = formItem.getOutputStream()) {
+      os.write(xml);
+    }
+    MultiPartFormItem formXmlData = new MultiPartFormItem("form_def_file", fileName,
+        "text/xml", formItem);
+    new FormParserForJavaRosa(null, formXmlData, new String(xml, StandardCharsets.UTF_8),
+        fileName, mock(MultiPartFormData.class), new StringBuilder(), cc);
+    return FormFactory.retrieveFormByFormId(formId, cc);
+  }
+
+  private static byte[] readResource(String fileName) throws Exception {
+    try (InputStream is = TestForms.class.getResourceAsStream(fileName)) {
+      if (is == null) {
+        throw new FileNotFoundException(fileName);
+      }
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int len;
+      while ((len = is.read(buffer)) != -1) {
+        content.write(buffer, 0, len);
+      }
+      return content.toByteArray();
+    }
+  }
+}
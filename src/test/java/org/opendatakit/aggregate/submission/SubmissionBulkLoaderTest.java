@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.submission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.common.datamodel.DynamicBase;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.security.User;
+
+public class SubmissionBulkLoaderTest {
+  private static final int GAE_VALUE_SET_LIMIT = 30;
+
+  private static class RepeatTable extends DynamicBase {
+    RepeatTable() {
+      super("odk_prod", "FORM_REPEAT");
+    }
+
+    private RepeatTable(RepeatTable ref, User user) {
+      super(ref, user);
+    }
+
+    @Override
+    public RepeatTable getEmptyRow(User user) {
+      return new RepeatTable(this, user);
+    }
+  }
+
+  @Test
+  public void uris_are_chunked_to_the_value_set_limit_of_the_datastore() throws Exception {
+    final RepeatTable relation = new RepeatTable();
+    final User user = mock(User.class);
+    List<String> topLevelAuris = new ArrayList<String>();
+    for (int i = 0; i < 2 * GAE_VALUE_SET_LIMIT + 5; ++i) {
+      topLevelAuris.add("uuid:" + i);
+    }
+
+    final List<List<String>> chunks = new ArrayList<List<String>>();
+    Datastore ds = mock(Datastore.class);
+    when(ds.getMaxValueSetFilterSize()).thenReturn(GAE_VALUE_SET_LIMIT);
+    when(ds.createQuery(eq(relation), anyString(), eq(user))).thenAnswer(new Answer<Query>() {
+      @Override
+      public Query answer(InvocationOnMock invocation) throws Throwable {
+        final List<String> chunk = new ArrayList<String>();
+        Query q = mock(Query.class);
+        doAnswer(new Answer<Void>() {
+          @Override
+          public Void answer(InvocationOnMock invocation) throws Throwable {
+            for (Object uri : (Collection<?>) invocation.getArguments()[1]) {
+              chunk.add((String) uri);
+            }
+            return null;
+          }
+        }).when(q).addValueSetFilter(any(DataField.class), anyCollection());
+        doAnswer(new Answer<List<CommonFieldsBase>>() {
+          @Override
+          public List<CommonFieldsBase> answer(InvocationOnMock invocation) throws Throwable {
+            // two repeat rows under each top-level record of the chunk
+            List<CommonFieldsBase> rows = new ArrayList<CommonFieldsBase>();
+            for (String uri : chunk) {
+              for (long ordinal = 1; ordinal <= 2; ++ordinal) {
+                RepeatTable row = relation.getEmptyRow(user);
+                row.setTopLevelAuri(uri);
+                row.setParentAuri(uri);
+                row.setOrdinalNumber(ordinal);
+                rows.add(row);
+              }
+            }
+            return rows;
+          }
+        }).when(q).executeQuery();
+        chunks.add(chunk);
+        return q;
+      }
+    });
+
+    Map<String, List<CommonFieldsBase>> byParent = SubmissionBulkLoader.fetchRowsByParent(ds,
+        relation, topLevelAuris, user);
+
+    assertEquals(3, chunks.size());
+    List<String> queried = new ArrayList<String>();
+    for (List<String> chunk : chunks) {
+      assertTrue(chunk.size() <= GAE_VALUE_SET_LIMIT);
+      queried.addAll(chunk);
+    }
+    assertEquals(topLevelAuris, queried);
+
+    assertEquals(topLevelAuris.size(), byParent.size());
+    for (String uri : topLevelAuris) {
+      List<CommonFieldsBase> rows = byParent.get(uri);
+      assertEquals(2, rows.size());
+      assertEquals(Long.valueOf(1), ((DynamicBase) rows.get(0)).getOrdinalNumber());
+      assertEquals(Long.valueOf(2), ((DynamicBase) rows.get(1)).getOrdinalNumber());
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ExportFileTest {
+
+  /**
+   * Accepts a limited number of bytes and then fails, like a full disk.
+   */
+  private static class FailingOutputStream extends OutputStream {
+    private int remaining;
+
+    FailingOutputStream(int capacity) {
+      remaining = capacity;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (remaining-- <= 0) {
+        throw new IOException("No space left on device");
+      }
+    }
+  }
+
+  @Test
+  public void completed_export_is_readable() throws Exception {
+    ExportFile exportFile = new ExportFile("export-file-test-", ".csv");
+    try {
+      PrintWriter pw = exportFile.getWriter();
+      pw.println("name,count");
+      pw.println("café,1");
+
+      BufferedReader reader = new BufferedReader(new InputStreamReader(exportFile.openStream(),
+          StandardCharsets.UTF_8));
+      try {
+        assertEquals("name,count", reader.readLine());
+        assertEquals("café,1", reader.readLine());
+      } finally {
+        reader.close();
+      }
+    } finally {
+      exportFile.delete();
+    }
+  }
+
+  @Test
+  public void failed_write_is_reported_when_the_export_is_opened() throws Exception {
+    File file = File.createTempFile("export-file-test-", ".csv");
+    ExportFile exportFile = new ExportFile(file, new FailingOutputStream(1024));
+    try {
+      PrintWriter pw = exportFile.getWriter();
+      for (int i = 0; i < 1000; ++i) {
+        pw.println("row " + i);
+      }
+      try {
+        exportFile.openStream();
+        fail("a truncated export was opened as complete");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      exportFile.delete();
+    }
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void failed_final_flush_is_reported() throws Exception {
+    File file = File.createTempFile("export-file-test-", ".csv");
+    // the whole export fits in the writer's buffers; only the flush fails
+    ExportFile exportFile = new ExportFile(file, new FailingOutputStream(0));
+    try {
+      exportFile.getWriter().print("name,count");
+      try {
+        exportFile.openStream();
+        fail("a truncated export was opened as complete");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      exportFile.delete();
+    }
+  }
+
+  @Test
+  public void export_in_memory_is_readable() throws Exception {
+    ExportFile exportFile = new ExportFile((File) null, null);
+    exportFile.getWriter().print("in memory");
+    byte[] buffer = new byte[64];
+    int len = exportFile.openStream().read(buffer);
+    assertEquals("in memory", new String(buffer, 0, len, StandardCharsets.UTF_8));
+    exportFile.delete();
+  }
+}
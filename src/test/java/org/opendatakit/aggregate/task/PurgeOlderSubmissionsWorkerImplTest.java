@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.constants.common.FormActionStatus;
+import org.opendatakit.aggregate.datamodel.FormDataModel;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.form.MiscTasks;
+import org.opendatakit.aggregate.form.MiscTasks.TaskType;
+import org.opendatakit.aggregate.parser.MultiPartFormData;
+import org.opendatakit.aggregate.parser.SubmissionParser;
+import org.opendatakit.aggregate.parser.TestForms;
+import org.opendatakit.aggregate.util.ImageThumbnailTable;
+import org.opendatakit.common.datamodel.BinaryContent;
+import org.opendatakit.common.datamodel.DynamicAssociationBase;
+import org.opendatakit.common.datamodel.DynamicBase;
+import org.opendatakit.common.datamodel.DynamicDocumentBase;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.utils.WebUtils;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Purges the submissions of a form with a repeat group and a photo, and checks
+ * that the top-level, repeat, binary content, reference and blob rows of those
+ * submissions, and the preview thumbnails of their photos, are all gone.
+ */
+public class PurgeOlderSubmissionsWorkerImplTest {
+  private static final String FORM_ID = "purge_worker_test";
+  private static final String BOUNDARY = "----boundary";
+  private static final int SUBMISSIONS = 3;
+
+  private CallingContext cc;
+  private IForm form;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    form = TestForms.upload(FORM_ID, cc);
+  }
+
+  @Test
+  public void purge_removes_nested_and_binary_rows() throws Exception {
+    List<String> uris = new ArrayList<String>();
+    for (int i = 0; i < SUBMISSIONS; ++i) {
+      uris.add(submit(i));
+    }
+
+    Map<CommonFieldsBase, DataField> tables = getBackingTables();
+    // top-level, repeat, binary content, reference and blob tables
+    assertEquals(5, tables.size());
+    for (Map.Entry<CommonFieldsBase, DataField> e : tables.entrySet()) {
+      assertTrue(e.getKey().getTableName() + " is empty before the purge",
+          countRows(e.getKey(), e.getValue(), uris) > 0);
+    }
+    List<String> thumbnailKeys = putThumbnails(tables, uris);
+    assertEquals(SUBMISSIONS, thumbnailKeys.size());
+
+    Map<String, String> parameters = new HashMap<String, String>();
+    // every submission of the form is older than tomorrow
+    parameters.put(PurgeOlderSubmissions.PURGE_DATE,
+        WebUtils.purgeDateString(new Date(System.currentTimeMillis() + 24L * 3600L * 1000L)));
+    MiscTasks task = new MiscTasks(TaskType.PURGE_OLDER_SUBMISSIONS, form, parameters, cc);
+    task.persist(cc);
+
+    new PurgeOlderSubmissionsWorkerImpl(form, task.getSubmissionKey(), 1L, cc)
+        .purgeOlderSubmissions();
+
+    for (Map.Entry<CommonFieldsBase, DataField> e : tables.entrySet()) {
+      assertEquals(e.getKey().getTableName() + " still holds purged rows", 0,
+          countRows(e.getKey(), e.getValue(), uris));
+    }
+    for (String thumbnailKey : thumbnailKeys) {
+      assertNull(thumbnailKey + " was not purged",
+          ImageThumbnailTable.getThumbnail(thumbnailKey, cc));
+    }
+
+    MiscTasks completed = new MiscTasks(task.getSubmissionKey(), cc);
+    assertEquals(FormActionStatus.SUCCESSFUL, completed.getStatus());
+    assertTrue(Long.valueOf(completed.getRequestParameters().get(
+        PurgeOlderSubmissions.PURGED_COUNT)) >= SUBMISSIONS);
+    completed.delete(cc);
+  }
+
+  /**
+   * @return the tables of the form, each with the column that references the
+   *         top-level record.
+   */
+  private Map<CommonFieldsBase, DataField> getBackingTables() {
+    Map<CommonFieldsBase, DataField> tables = new LinkedHashMap<CommonFieldsBase, DataField>();
+    FormDataModel root = form.getTopLevelGroupElement().getFormDataModel();
+    CommonFieldsBase topLevel = root.getBackingObjectPrototype();
+    tables.put(topLevel, topLevel.primaryKey);
+    collectBackingTables(root, tables);
+    return tables;
+  }
+
+  private static void collectBackingTables(FormDataModel m,
+      Map<CommonFieldsBase, DataField> tables) {
+    for (FormDataModel child : m.getChildren()) {
+      CommonFieldsBase table = child.getBackingObjectPrototype();
+      boolean known = false;
+      for (CommonFieldsBase t : tables.keySet()) {
+        known |= t.getTableName().equals(table.getTableName());
+      }
+      if (!known) {
+        if (table instanceof DynamicDocumentBase) {
+          tables.put(table, ((DynamicDocumentBase) table).topLevelAuri);
+        } else if (table instanceof DynamicAssociationBase) {
+          tables.put(table, ((DynamicAssociationBase) table).topLevelAuri);
+        } else if (table instanceof DynamicBase) {
+          tables.put(table, ((DynamicBase) table).topLevelAuri);
+        }
+      }
+      collectBackingTables(child, tables);
+    }
+  }
+
+  /**
+   * Store a preview thumbnail for each photo, as if it had been viewed.
+   *
+   * @return the keys of the thumbnails
+   */
+  private List<String> putThumbnails(Map<CommonFieldsBase, DataField> tables, List<String> uris)
+      throws Exception {
+    List<String> thumbnailKeys = new ArrayList<String>();
+    for (Map.Entry<CommonFieldsBase, DataField> e : tables.entrySet()) {
+      if (!(e.getKey() instanceof BinaryContent)) {
+        continue;
+      }
+      Query q = cc.getDatastore().createQuery(e.getKey(),
+          "PurgeOlderSubmissionsWorkerImplTest.putThumbnails", cc.getCurrentUser());
+      q.addValueSetFilter(e.getValue(), uris);
+      for (CommonFieldsBase cb : q.executeQuery()) {
+        BinaryContent bc = (BinaryContent) cb;
+        String thumbnailKey = ImageThumbnailTable.getThumbnailKey(bc.getContentHash(),
+            ImageThumbnailTable.PREVIEW_WIDTH, ImageThumbnailTable.PREVIEW_HEIGHT);
+        ImageThumbnailTable.putThumbnail(thumbnailKey, new byte[] { 1, 2, 3 }, cc);
+        assertNotNull(ImageThumbnailTable.getThumbnail(thumbnailKey, cc));
+        thumbnailKeys.add(thumbnailKey);
+      }
+    }
+    return thumbnailKeys;
+  }
+
+  private int countRows(CommonFieldsBase table, DataField field, List<String> uris)
+      throws Exception {
+    Datastore ds = cc.getDatastore();
+    Query q = ds.createQuery(table, "PurgeOlderSubmissionsWorkerImplTest.countRows",
+        cc.getCurrentUser());
+    q.addValueSetFilter(field, uris);
+    return q.executeQuery().size();
+  }
+
+  private String submit(int i) throws Exception {
+    String instanceId = "uuid:" + UUID.randomUUID().toString();
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<" + FORM_ID + " id=\"" + FORM_ID + "\">"
+        + "<name>submission " + i + "</name><photo>photo.jpg</photo>"
+        + "<item><label>first</label></item><item><label>second</label></item>"
+        + "<meta><instanceID>" + instanceId + "</instanceID></meta>"
+        + "</" + FORM_ID + ">";
+    byte[] photo = new byte[4096];
+    Arrays.fill(photo, (byte) i);
+
+    MultiPartFormData data = new MultiPartFormData(request(xml, photo), 1024);
+    try {
+      new SubmissionParser(data, false, cc);
+    } finally {
+      data.deleteTemporaryFiles();
+    }
+    return instanceId;
+  }
+
+  private static HttpServletRequest request(String xml, byte[] photo) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    part(body, "form-data; name=\"xml_submission_file\"; filename=\"submission.xml\"",
+        "text/xml", xml.getBytes(StandardCharsets.UTF_8));
+    part(body, "form-data; name=\"photo.jpg\"; filename=\"photo.jpg\"", "image/jpeg", photo);
+    body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    final ByteArrayInputStream in = new ByteArrayInputStream(body.toByteArray());
+
+    HttpServletRequest req = mock(HttpServletRequest.class);
+    when(req.getMethod()).thenReturn("POST");
+    when(req.getContentType()).thenReturn("multipart/form-data; boundary=" + BOUNDARY);
+    when(req.getContentLength()).thenReturn(body.size());
+    when(req.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return in.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return in.read(b, off, len);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+      }
+    });
+    return req;
+  }
+
+  private static void part(ByteArrayOutputStream body, String disposition, String contentType,
+      byte[] content) throws IOException {
+    StringBuilder header = new StringBuilder();
+    header.append("--").append(BOUNDARY).append("\r\n");
+    header.append("Content-Disposition: ").append(disposition).append("\r\n");
+    header.append("Content-Type: ").append(contentType).append("\r\n");
+    header.append("\r\n");
+    body.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+    body.write(content);
+    body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task.tomcat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendatakit.aggregate.constants.common.ExternalServiceType;
+import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.exception.ODKExternalServiceUnavailableException;
+import org.opendatakit.aggregate.task.tomcat.PublisherExecutor.PublisherStatistics;
+
+public class PublisherExecutorTest {
+
+  private PublisherExecutor executor;
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void forms_are_served_round_robin() throws Exception {
+    executor = new PublisherExecutor(1, 10);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(5);
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    // occupy the only thread while the other uploads are queued
+    executor.submit("blocker", "formZ", ExternalServiceType.JSON_SERVER, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        release.await();
+        return null;
+      }
+    });
+    waitForQueueDepth(0);
+
+    for (String uri : Arrays.asList("a1", "a2", "a3")) {
+      executor.submit(uri, "formA", ExternalServiceType.GOOGLE_SPREADSHEET, record(uri, order, done));
+    }
+    for (String uri : Arrays.asList("b1", "b2")) {
+      executor.submit(uri, "formB", ExternalServiceType.JSON_SERVER, record(uri, order, done));
+    }
+    release.countDown();
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), order);
+  }
+
+  @Test
+  public void uploads_of_a_queued_cursor_are_coalesced() throws Exception {
+    executor = new PublisherExecutor(1, 10);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger runs = new AtomicInteger();
+    executor.submit("blocker", "formZ", ExternalServiceType.JSON_SERVER, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        release.await();
+        return null;
+      }
+    });
+    waitForQueueDepth(0);
+
+    Callable<Void> count = new Callable<Void>() {
+      @Override
+      public Void call() {
+        runs.incrementAndGet();
+        return null;
+      }
+    };
+    assertTrue(executor.submit("a1", "formA", ExternalServiceType.JSON_SERVER, count));
+    assertFalse(executor.submit("a1", "formA", ExternalServiceType.JSON_SERVER, count));
+    assertEquals(1, executor.getQueueDepth());
+    release.countDown();
+
+    waitForRuns("a1", 1);
+    assertEquals(1, runs.get());
+    PublisherStatistics stats = statisticsOf("a1");
+    assertEquals(2, stats.getRequests());
+    assertEquals(1, stats.getCoalesced());
+  }
+
+  @Test
+  public void concurrency_is_limited_per_service_type() throws Exception {
+    executor = new PublisherExecutor(4, 1);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(4);
+    for (int i = 0; i < 4; ++i) {
+      executor.submit("sheet" + i, "form" + i, ExternalServiceType.GOOGLE_SPREADSHEET,
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              int now = running.incrementAndGet();
+              synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+              }
+              Thread.sleep(50);
+              running.decrementAndGet();
+              done.countDown();
+              return null;
+            }
+          });
+    }
+
+    // an upload to another type of service is not held up by the sheets
+    final CountDownLatch json = new CountDownLatch(1);
+    executor.submit("json", "formJ", ExternalServiceType.JSON_SERVER, new Callable<Void>() {
+      @Override
+      public Void call() {
+        json.countDown();
+        return null;
+      }
+    });
+    assertTrue(json.await(1, TimeUnit.SECONDS));
+    assertTrue(done.getCount() > 0);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void throttled_publisher_is_held_back() throws Exception {
+    executor = new PublisherExecutor(2, 10);
+    executor.setInitialBackoffMillis(500L);
+
+    executor.submit("a1", "formA", ExternalServiceType.JSON_SERVER, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        throw new ODKExternalServiceException(
+            new ODKExternalServiceUnavailableException("Too Many Requests (429)", 429));
+      }
+    });
+    waitForRuns("a1", 1);
+    long throttledAt = System.currentTimeMillis();
+    PublisherStatistics stats = statisticsOf("a1");
+    assertEquals(1, stats.getThrottled());
+    assertTrue(stats.getHeldUntil() > throttledAt);
+
+    final long[] startedAt = new long[2];
+    final CountDownLatch done = new CountDownLatch(2);
+    executor.submit("a1", "formA", ExternalServiceType.JSON_SERVER, new Callable<Void>() {
+      @Override
+      public Void call() {
+        startedAt[0] = System.currentTimeMillis();
+        done.countDown();
+        return null;
+      }
+    });
+    executor.submit("b1", "formB", ExternalServiceType.JSON_SERVER, new Callable<Void>() {
+      @Override
+      public Void call() {
+        startedAt[1] = System.currentTimeMillis();
+        done.countDown();
+        return null;
+      }
+    });
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    assertTrue(startedAt[0] - throttledAt >= 400L);
+    assertTrue(startedAt[1] - throttledAt < 400L);
+    waitForRuns("a1", 2);
+    assertEquals(0L, statisticsOf("a1").getHeldUntil());
+  }
+
+  private static Callable<Void> record(final String uri, final List<String> order,
+      final CountDownLatch done) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() {
+        order.add(uri);
+        done.countDown();
+        return null;
+      }
+    };
+  }
+
+  private PublisherStatistics statisticsOf(String uri) {
+    for (PublisherStatistics stats : executor.getStatistics()) {
+      if (stats.getUriFormServiceCursor().equals(uri)) {
+        return stats;
+      }
+    }
+    return null;
+  }
+
+  private void waitForQueueDepth(int depth) throws InterruptedException {
+    for (int i = 0; i < 1000 && executor.getQueueDepth() != depth; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(depth, executor.getQueueDepth());
+  }
+
+  private void waitForRuns(String uri, long runs) throws InterruptedException {
+    for (int i = 0; i < 1000; ++i) {
+      PublisherStatistics stats = statisticsOf(uri);
+      if (stats != null && stats.getRuns() >= runs && !stats.isRunning()) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("upload of " + uri + " did not complete");
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
+import org.opendatakit.common.datamodel.DeleteHelper;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+public class ImageThumbnailTableTest {
+  private static final byte[] IMAGE = { 1, 2, 3, 4, 5, 6, 7, 8 };
+  private static final byte[] THUMBNAIL = { 9, 8, 7 };
+
+  private CallingContext cc;
+  private String contentHash;
+  private String thumbnailKey;
+  private BlobSubmissionType blob;
+  private ImageUtil imageUtil;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    contentHash = "md5:" + UUID.randomUUID().toString();
+    thumbnailKey = ImageThumbnailTable.getThumbnailKey(contentHash,
+        ImageThumbnailTable.PREVIEW_WIDTH, ImageThumbnailTable.PREVIEW_HEIGHT);
+    blob = mock(BlobSubmissionType.class);
+    when(blob.getBlob(1, cc)).thenReturn(IMAGE);
+    imageUtil = mock(ImageUtil.class);
+    when(imageUtil.resizeImage(IMAGE, ImageThumbnailTable.PREVIEW_WIDTH,
+        ImageThumbnailTable.PREVIEW_HEIGHT)).thenReturn(THUMBNAIL);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    deleteThumbnail();
+  }
+
+  @Test
+  public void first_request_generates_and_stores_the_thumbnail() throws Exception {
+    assertNull(ImageThumbnailTable.getThumbnail(thumbnailKey, cc));
+
+    assertArrayEquals(THUMBNAIL,
+        ImageThumbnailTable.getOrGenerateThumbnail(blob, 1, thumbnailKey, imageUtil, cc));
+    verify(imageUtil, times(1)).resizeImage(IMAGE, ImageThumbnailTable.PREVIEW_WIDTH,
+        ImageThumbnailTable.PREVIEW_HEIGHT);
+
+    ImageThumbnailTable.forgetRecentThumbnails();
+    assertArrayEquals(THUMBNAIL, ImageThumbnailTable.getThumbnail(thumbnailKey, cc));
+  }
+
+  @Test
+  public void later_requests_do_not_resize_the_image() throws Exception {
+    ImageThumbnailTable.getOrGenerateThumbnail(blob, 1, thumbnailKey, imageUtil, cc);
+    // from memory
+    assertArrayEquals(THUMBNAIL,
+        ImageThumbnailTable.getOrGenerateThumbnail(blob, 1, thumbnailKey, imageUtil, cc));
+    // from the datastore
+    ImageThumbnailTable.forgetRecentThumbnails();
+    assertArrayEquals(THUMBNAIL,
+        ImageThumbnailTable.getOrGenerateThumbnail(blob, 1, thumbnailKey, imageUtil, cc));
+
+    verify(blob, times(1)).getBlob(anyInt(), any(CallingContext.class));
+    verify(imageUtil, times(1)).resizeImage(any(byte[].class), anyInt(), anyInt());
+  }
+
+  @Test
+  public void image_that_cannot_be_resized_is_not_stored() throws Exception {
+    when(imageUtil.resizeImage(IMAGE, ImageThumbnailTable.PREVIEW_WIDTH,
+        ImageThumbnailTable.PREVIEW_HEIGHT)).thenReturn(new byte[0]);
+
+    assertNull(ImageThumbnailTable.getOrGenerateThumbnail(blob, 1, thumbnailKey, imageUtil, cc));
+    assertNull(ImageThumbnailTable.getThumbnail(thumbnailKey, cc));
+  }
+
+  @Test
+  public void thumbnail_is_deleted_with_its_attachment() throws Exception {
+    ImageThumbnailTable.getOrGenerateThumbnail(blob, 1, thumbnailKey, imageUtil, cc);
+
+    deleteThumbnail();
+
+    assertNull(ImageThumbnailTable.getThumbnail(thumbnailKey, cc));
+  }
+
+  @Test
+  public void attachments_without_thumbnails_add_no_keys() throws Exception {
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    ImageThumbnailTable.addEntityKeysForDeletion(contentHash, "image/png", keys, cc);
+    ImageThumbnailTable.addEntityKeysForDeletion(null, HtmlConsts.RESP_TYPE_IMAGE_JPEG, keys, cc);
+    assertEquals(0, keys.size());
+  }
+
+  private void deleteThumbnail() throws Exception {
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    ImageThumbnailTable.addEntityKeysForDeletion(contentHash, HtmlConsts.RESP_TYPE_IMAGE_JPEG,
+        keys, cc);
+    DeleteHelper.deleteEntities(keys, cc);
+  }
+}
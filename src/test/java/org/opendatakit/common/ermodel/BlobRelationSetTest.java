@@ -15,9 +15,19 @@ package org.opendatakit.common.ermodel;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
+import org.opendatakit.common.datamodel.BinaryContentRefBlob;
+import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.TestContextFactory;
@@ -79,4 +89,139 @@ public class BlobRelationSetTest {
         
         rel.dropBlobRelationSet(cc);
     }
+
+
+    @Test
+    public void testStreamingRoundTrip() throws ODKDatastoreException, IOException {
+        CallingContext cc = TestContextFactory.getCallingContext();
+        
+        MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+        
+        BlobEntitySet instance = rel.newBlobEntitySet(cc);
+        // spans several stream parts, the last one partial
+        byte[] content = new byte[5 * 512 * 1024 + 17];
+        for ( int i = 0 ; i < content.length ; ++i ) {
+            content[i] = (byte) (i % 251);
+        }
+        assertEquals(BlobSubmissionOutcome.COMPLETELY_NEW_FILE,
+            instance.addBlob(new ByteArrayInputStream(content), "video/mp4", "clip.mp4", false, cc));
+        assertEquals(BlobSubmissionOutcome.FILE_UNCHANGED,
+            instance.addBlob(new ByteArrayInputStream(content), "video/mp4", "clip.mp4", false, cc));
+
+        BlobEntitySet alt = rel.getBlobEntitySet(instance.getUri(), cc);
+        assertEquals(1, alt.getAttachmentCount(cc));
+        assertEquals(content.length, alt.getContentLength(1, cc).intValue());
+        assertEquals(CommonFieldsBase.newMD5HashUri(content), alt.getContentHash(1, cc));
+        assertArrayEquals(content, alt.getBlob(1, cc));
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        alt.writeBlob(1, written, cc);
+        assertArrayEquals(content, written.toByteArray());
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        InputStream is = alt.openBlobStream(1, cc);
+        byte[] buffer = new byte[4096];
+        int len;
+        while ( (len = is.read(buffer)) != -1 ) {
+            read.write(buffer, 0, len);
+        }
+        is.close();
+        assertArrayEquals(content, read.toByteArray());
+
+        rel.dropBlobRelationSet(cc);
+    }
+
+    @Test
+    public void testStreamingResubmission() throws ODKDatastoreException, IOException {
+        CallingContext cc = TestContextFactory.getCallingContext();
+        
+        MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+        
+        BlobEntitySet instance = rel.newBlobEntitySet(cc);
+        byte[] content = streamContent();
+        instance.addBlob(new ByteArrayInputStream(content), "video/mp4", "clip.mp4", false, cc);
+        int blobRows = countRows(cc, new RefBlob(cc.getDatastore().getDefaultSchemaName(),
+            "___test_blob_blb"));
+
+        // same content, overwriting allowed
+        assertEquals(BlobSubmissionOutcome.FILE_UNCHANGED,
+            instance.addBlob(new ByteArrayInputStream(content), "video/mp4", "clip.mp4", true, cc));
+        assertEquals(blobRows, countRows(cc, new RefBlob(
+            cc.getDatastore().getDefaultSchemaName(), "___test_blob_blb")));
+
+        // differs only in the last part, overwriting not allowed
+        byte[] changed = content.clone();
+        changed[changed.length - 1]++;
+        assertEquals(BlobSubmissionOutcome.NEW_FILE_VERSION,
+            instance.addBlob(new ByteArrayInputStream(changed), "video/mp4", "clip.mp4", false,
+                cc));
+        assertArrayEquals(content, rel.getBlobEntitySet(instance.getUri(), cc).getBlob(1, cc));
+
+        // overwriting allowed; the matching parts are copied from the old content
+        assertEquals(BlobSubmissionOutcome.NEW_FILE_VERSION,
+            instance.addBlob(new ByteArrayInputStream(changed), "video/mp4", "clip.mp4", true,
+                cc));
+        BlobEntitySet alt = rel.getBlobEntitySet(instance.getUri(), cc);
+        assertEquals(1, alt.getAttachmentCount(cc));
+        assertEquals(CommonFieldsBase.newMD5HashUri(changed), alt.getContentHash(1, cc));
+        assertArrayEquals(changed, alt.getBlob(1, cc));
+        assertEquals(blobRows, countRows(cc, new RefBlob(
+            cc.getDatastore().getDefaultSchemaName(), "___test_blob_blb")));
+
+        rel.dropBlobRelationSet(cc);
+    }
+
+    @Test
+    public void testStreamingFailureLeavesNoParts() throws ODKDatastoreException {
+        CallingContext cc = TestContextFactory.getCallingContext();
+        
+        MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+        
+        BlobEntitySet instance = rel.newBlobEntitySet(cc);
+        final byte[] content = streamContent();
+        // fails after several parts have been written
+        InputStream failing = new InputStream() {
+            private int offset = 0;
+
+            @Override
+            public int read() throws IOException {
+                if ( offset >= content.length - 1 ) {
+                    throw new IOException("connection reset");
+                }
+                return content[offset++] & 0xff;
+            }
+        };
+        try {
+            instance.addBlob(failing, "video/mp4", "clip.mp4", false, cc);
+            fail("the stream failure was not reported");
+        } catch (IOException e) {
+            // expected
+        }
+
+        String schemaName = cc.getDatastore().getDefaultSchemaName();
+        assertEquals(0, rel.getBlobEntitySet(instance.getUri(), cc).getAttachmentCount(cc));
+        assertEquals(0, countRows(cc, new RefBlob(schemaName, "___test_blob_blb")));
+        assertEquals(0, countRows(cc, new BinaryContentRefBlob(schemaName, "___test_blob_ref")));
+
+        rel.dropBlobRelationSet(cc);
+    }
+
+    /**
+     * @return content that spans several stream parts, the last one partial.
+     */
+    private static byte[] streamContent() {
+        byte[] content = new byte[5 * 512 * 1024 + 17];
+        for ( int i = 0 ; i < content.length ; ++i ) {
+            content[i] = (byte) (i % 251);
+        }
+        return content;
+    }
+
+    private static int countRows(CallingContext cc, CommonFieldsBase relation)
+            throws ODKDatastoreException {
+        Datastore ds = cc.getDatastore();
+        ds.assertRelation(relation, cc.getCurrentUser());
+        return ds.createQuery(relation, "BlobRelationSetTest.countRows", cc.getCurrentUser())
+            .executeQuery().size();
+    }
 }
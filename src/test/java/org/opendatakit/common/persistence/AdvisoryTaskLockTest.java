@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.constants.TaskLockType;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Exercises the task locks of the JDBC datastores with useAdvisoryTaskLocks
+ * set: only one holder per (formId, taskType), release hands the lock on, and
+ * an expired lock is swept by the next request for the same resource.
+ */
+public class AdvisoryTaskLockTest {
+
+  /**
+   * A task whose locks expire after a second.
+   */
+  private static final ITaskLockType SHORT_LIVED_TASK = new ITaskLockType() {
+    @Override
+    public String getName() {
+      return "ADVISORY_LOCK_TEST";
+    }
+
+    @Override
+    public long getLockExpirationTimeout() {
+      return 1000L;
+    }
+
+    @Override
+    public long getMinSettleTime() {
+      return PersistConsts.MIN_SETTLE_MILLISECONDS;
+    }
+  };
+
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private String formId;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+    setUseAdvisoryTaskLocks(ds, true);
+    formId = "advisory_lock_" + UUID.randomUUID().toString();
+  }
+
+  @After
+  public void tearDown() {
+    setUseAdvisoryTaskLocks(ds, false);
+  }
+
+  @Test
+  public void second_holder_is_refused_until_release() throws Exception {
+    String first = UUID.randomUUID().toString();
+    String second = UUID.randomUUID().toString();
+
+    assertTrue(ds.createTaskLock(user).obtainLock(first, formId, TaskLockType.UPLOAD_SUBMISSION));
+    try {
+      assertFalse(ds.createTaskLock(user).obtainLock(second, formId,
+          TaskLockType.UPLOAD_SUBMISSION));
+      // other resources and other task types are not affected
+      String other = UUID.randomUUID().toString();
+      assertTrue(ds.createTaskLock(user).obtainLock(other, formId + "_other",
+          TaskLockType.UPLOAD_SUBMISSION));
+      assertTrue(ds.createTaskLock(user).releaseLock(other, formId + "_other",
+          TaskLockType.UPLOAD_SUBMISSION));
+      assertTrue(ds.createTaskLock(user).renewLock(first, formId,
+          TaskLockType.UPLOAD_SUBMISSION));
+    } finally {
+      assertTrue(ds.createTaskLock(user).releaseLock(first, formId,
+          TaskLockType.UPLOAD_SUBMISSION));
+    }
+
+    assertTrue(ds.createTaskLock(user).obtainLock(second, formId, TaskLockType.UPLOAD_SUBMISSION));
+    assertTrue(ds.createTaskLock(user).releaseLock(second, formId, TaskLockType.UPLOAD_SUBMISSION));
+  }
+
+  @Test
+  public void expired_lock_is_taken_over() throws Exception {
+    String first = UUID.randomUUID().toString();
+    String second = UUID.randomUUID().toString();
+
+    assertTrue(ds.createTaskLock(user).obtainLock(first, formId, SHORT_LIVED_TASK));
+    assertFalse(ds.createTaskLock(user).obtainLock(second, formId, SHORT_LIVED_TASK));
+
+    Thread.sleep(2 * SHORT_LIVED_TASK.getLockExpirationTimeout());
+
+    assertTrue(ds.createTaskLock(user).obtainLock(second, formId, SHORT_LIVED_TASK));
+    assertTrue(ds.createTaskLock(user).releaseLock(second, formId, SHORT_LIVED_TASK));
+  }
+
+  @Test
+  public void concurrent_holders_are_mutually_exclusive() throws Exception {
+    final int threads = 8;
+    final int entriesPerThread = 5;
+    final CyclicBarrier launchBarrier = new CyclicBarrier(threads);
+    final AtomicBoolean inside = new AtomicBoolean(false);
+    final AtomicInteger overlaps = new AtomicInteger();
+    final AtomicInteger entries = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();
+
+    List<Thread> holders = new ArrayList<Thread>();
+    for (int i = 0; i < threads; ++i) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            launchBarrier.await();
+            for (int j = 0; j < entriesPerThread; ++j) {
+              String lockId = UUID.randomUUID().toString();
+              while (!ds.createTaskLock(user).obtainLock(lockId, formId,
+                  TaskLockType.UPLOAD_SUBMISSION)) {
+                Thread.sleep(PersistConsts.MIN_SETTLE_MILLISECONDS);
+              }
+              try {
+                if (!inside.compareAndSet(false, true)) {
+                  overlaps.incrementAndGet();
+                }
+                Thread.sleep(5);
+                inside.set(false);
+                entries.incrementAndGet();
+              } finally {
+                if (!ds.createTaskLock(user).releaseLock(lockId, formId,
+                    TaskLockType.UPLOAD_SUBMISSION)) {
+                  errors.incrementAndGet();
+                }
+              }
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+            errors.incrementAndGet();
+          }
+        }
+      };
+      t.start();
+      holders.add(t);
+    }
+    for (Thread t : holders) {
+      t.join();
+    }
+
+    assertEquals(0, errors.get());
+    assertEquals(0, overlaps.get());
+    assertEquals(threads * entriesPerThread, entries.get());
+  }
+
+  private static void setUseAdvisoryTaskLocks(Datastore ds, boolean value) {
+    if (ds instanceof org.opendatakit.common.persistence.engine.pgres.DatastoreImpl) {
+      ((org.opendatakit.common.persistence.engine.pgres.DatastoreImpl) ds)
+          .setUseAdvisoryTaskLocks(value);
+    } else if (ds instanceof org.opendatakit.common.persistence.engine.mysql.DatastoreImpl) {
+      ((org.opendatakit.common.persistence.engine.mysql.DatastoreImpl) ds)
+          .setUseAdvisoryTaskLocks(value);
+    } else if (ds instanceof org.opendatakit.common.persistence.engine.sqlserver.DatastoreImpl) {
+      ((org.opendatakit.common.persistence.engine.sqlserver.DatastoreImpl) ds)
+          .setUseAdvisoryTaskLocks(value);
+    } else {
+      Assume.assumeTrue("advisory task locks are only implemented by the JDBC datastores", false);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Compares writing and deleting rows one at a time against the batched
+ * Datastore.putEntities and Datastore.deleteEntities paths, checking that both
+ * paths leave the table in the same state.
+ */
+public class BatchPersistenceTest {
+  private static final int ROW_COUNT = 2000;
+
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private BatchTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+    table = BatchTable.assertRelation(cc);
+    // drop it, in case prior test was messed up...
+    ds.dropRelation(table, user);
+    table = BatchTable.assertRelation(cc);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ds.dropRelation(table, user);
+  }
+
+  @Test
+  public void putEntities_and_deleteEntities_match_row_by_row_results() throws ODKDatastoreException {
+    List<BatchTable> rows = createRows("single");
+    for (BatchTable row : rows) {
+      ds.putEntity(row, user);
+    }
+    assertEquals(ROW_COUNT, countRows());
+
+    for (BatchTable row : rows) {
+      row.setLongField(BatchTable.counterField, 7L);
+    }
+    for (BatchTable row : rows) {
+      ds.putEntity(row, user);
+    }
+    assertEquals(ROW_COUNT, countRows(7L));
+
+    for (BatchTable row : rows) {
+      ds.deleteEntity(row.getEntityKey(), user);
+    }
+    assertEquals(0, countRows());
+
+    rows = createRows("batch");
+    ds.putEntities(rows, user);
+    assertEquals(ROW_COUNT, countRows());
+
+    for (BatchTable row : rows) {
+      row.setLongField(BatchTable.counterField, 7L);
+    }
+    ds.putEntities(rows, user);
+    assertEquals(ROW_COUNT, countRows(7L));
+
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    for (BatchTable row : rows) {
+      keys.add(row.getEntityKey());
+    }
+    ds.deleteEntities(keys, user);
+    assertEquals(0, countRows());
+  }
+
+  @Test
+  public void putEntities_handles_mixed_inserts_and_updates() throws ODKDatastoreException {
+    List<BatchTable> rows = createRows("mixed");
+    List<BatchTable> firstHalf = rows.subList(0, ROW_COUNT / 2);
+    ds.putEntities(firstHalf, user);
+    for (BatchTable row : firstHalf) {
+      row.setLongField(BatchTable.counterField, -1L);
+    }
+
+    ds.putEntities(rows, user);
+
+    assertEquals(ROW_COUNT, countRows());
+    assertEquals(ROW_COUNT / 2, countRows(-1L));
+  }
+
+  @Test
+  public void putEntities_marks_inserts_in_every_chunk_as_stored() throws ODKDatastoreException {
+    // the largest bind parameter limit of the JDBC engines is 65000; one
+    // more row than fits in a chunk under it spans two chunks on all of them
+    int rowCount = 65000 / table.getFieldList().size() + 1;
+    List<BatchTable> rows = new ArrayList<BatchTable>();
+    for (int i = 0; i < rowCount; ++i) {
+      BatchTable row = ds.createEntityUsingRelation(table, user);
+      row.setStringField(BatchTable.nameField, "chunked-" + i);
+      row.setLongField(BatchTable.counterField, (long) i);
+      rows.add(row);
+    }
+    ds.putEntities(rows, user);
+    for (BatchTable row : rows) {
+      assertTrue(row.isFromDatabase());
+    }
+
+    // the last row is in the final chunk; storing it again must update it
+    BatchTable last = rows.get(rowCount - 1);
+    last.setLongField(BatchTable.counterField, 7L);
+    ds.putEntity(last, user);
+    for (BatchTable row : rows) {
+      row.setLongField(BatchTable.counterField, -1L);
+    }
+    ds.putEntities(rows, user);
+
+    assertEquals(rowCount, countRows());
+    assertEquals(rowCount, countRows(-1L));
+  }
+
+  @Test
+  public void deleteEntitiesByFieldValues_removes_only_matching_rows() throws ODKDatastoreException {
+    List<BatchTable> rows = createRows("byValue");
+    ds.putEntities(rows, user);
+
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < ROW_COUNT; i += 2) {
+      names.add(rows.get(i).getStringField(BatchTable.nameField));
+    }
+    ds.deleteEntitiesByFieldValues(table, BatchTable.nameField, names, user);
+
+    assertEquals(ROW_COUNT - names.size(), countRows());
+    Query query = ds.createQuery(table, "BatchPersistenceTest.remaining", user);
+    query.addValueSetFilter(BatchTable.nameField, names);
+    assertEquals(0, query.executeQuery().size());
+  }
+
+  private List<BatchTable> createRows(String prefix) {
+    List<BatchTable> rows = new ArrayList<BatchTable>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      BatchTable row = ds.createEntityUsingRelation(table, user);
+      row.setStringField(BatchTable.nameField, prefix + "-" + i);
+      row.setLongField(BatchTable.counterField, (long) i);
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private int countRows() throws ODKDatastoreException {
+    Query query = ds.createQuery(table, "BatchPersistenceTest.countRows", user);
+    return query.executeQuery().size();
+  }
+
+  private int countRows(Long counter) throws ODKDatastoreException {
+    Query query = ds.createQuery(table, "BatchPersistenceTest.countRows", user);
+    query.addFilter(BatchTable.counterField, Query.FilterOperation.EQUAL, counter);
+    return query.executeQuery().size();
+  }
+
+  @Ignore
+  static class BatchTable extends CommonFieldsBase {
+    static final DataField nameField = new DataField("NAME_FIELD", DataField.DataType.STRING, true, 80L);
+    static final DataField counterField = new DataField("COUNTER_FIELD", DataField.DataType.INTEGER, true);
+
+    /**
+     * Construct a relation prototype.
+     */
+    private BatchTable(String schema) {
+      super(schema, "BATCH_TEST_TABLE");
+      fieldList.add(nameField);
+      fieldList.add(counterField);
+    }
+
+    /**
+     * Construct an empty entity.
+     */
+    private BatchTable(BatchTable ref, User user) {
+      super(ref, user);
+    }
+
+    @Override
+    public CommonFieldsBase getEmptyRow(User user) {
+      return new BatchTable(this, user);
+    }
+
+    static synchronized final BatchTable assertRelation(CallingContext cc) throws ODKDatastoreException {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getUserService().getDaemonAccountUser();
+      BatchTable relationPrototype = new BatchTable(ds.getDefaultSchemaName());
+      ds.assertRelation(relationPrototype, user);
+      return relationPrototype;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.security.User;
+
+/**
+ * Checks that the values of a 300-column relation are stored and read back
+ * by field.
+ */
+public class CommonFieldsBaseTest {
+  private static final int COLUMNS = 300;
+
+  private static class WideTable extends CommonFieldsBase {
+    final DataField[] columns = new DataField[COLUMNS];
+
+    WideTable() {
+      super("odk_prod", "WIDE_FORM_CORE");
+      for (int i = 0; i < COLUMNS; ++i) {
+        columns[i] = new DataField("COLUMN_" + i, DataType.STRING, true, 255L);
+        fieldList.add(columns[i]);
+      }
+    }
+
+    private WideTable(WideTable ref, User user) {
+      super(ref, user);
+      System.arraycopy(ref.columns, 0, columns, 0, COLUMNS);
+    }
+
+    @Override
+    public CommonFieldsBase getEmptyRow(User user) {
+      return new WideTable(this, user);
+    }
+  }
+
+  @Test
+  public void values_are_stored_by_field() {
+    WideTable relation = new WideTable();
+    CommonFieldsBase row = relation.getEmptyRow(user());
+    row.setStringField(relation.columns[7], "seven");
+    assertEquals("seven", row.getStringField(relation.columns[7]));
+    assertTrue(row.isNull(relation.columns[8]));
+    assertFalse(row.hasField(relation.columns[8]));
+    assertEquals("mailto:user@example.org", row.getCreatorUriUser());
+    try {
+      row.getStringField(new DataField("COLUMN_7", DataType.STRING, true, 255L));
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    throw new AssertionError("field of another relation was accepted");
+  }
+
+  private static User user() {
+    User user = mock(User.class);
+    when(user.getUriUser()).thenReturn("mailto:user@example.org");
+    return user;
+  }
+}
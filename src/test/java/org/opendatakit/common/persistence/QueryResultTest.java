@@ -17,6 +17,8 @@ package org.opendatakit.common.persistence;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.opendatakit.common.persistence.Query.Direction.ASCENDING;
 import static org.opendatakit.common.persistence.TestTable.booleanField;
 import static org.opendatakit.common.persistence.TestTable.dateField;
@@ -24,6 +26,8 @@ import static org.opendatakit.common.persistence.TestTable.doubleField;
 import static org.opendatakit.common.persistence.TestTable.integerField;
 import static org.opendatakit.common.persistence.TestTable.stringField;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -188,6 +192,77 @@ public class QueryResultTest {
     assertFalse(lastPage.hasMoreResults());
   }
 
+  @Test
+  public void query_executeQuery_keyset_cursor_pages_through_shared_sort_values() throws ODKDatastoreException {
+    Query query = ds.createQuery(table, "query_executeQuery_keyset_cursor_pages_through_shared_sort_values", user);
+    // Only one sort column, so many rows share each dominant sort value
+    // and the _URI tie-breaker decides the page boundaries
+    query.addSort(stringField, ASCENDING);
+
+    int pageSize = SET_SIZE * DOUBLES.length - 1;
+    Set<String> pks = new HashSet<>();
+    int rowCount = 0;
+    QueryResumePoint startCursor = null;
+    QueryResult page;
+    do {
+      page = query.executeQuery(startCursor, pageSize);
+      for (CommonFieldsBase cb : page.getResultList()) {
+        pks.add(cb.getUri());
+        rowCount++;
+      }
+      startCursor = page.getResumeCursor();
+    } while (page.hasMoreResults());
+
+    assertEquals(TEST_ROWS.length, rowCount);
+    assertEquals(TEST_ROWS.length, pks.size());
+  }
+
+  @Test
+  public void query_forEach_streams_all_rows_in_sort_order() throws ODKDatastoreException {
+    Query query = ds.createQuery(table, "query_forEach_streams_all_rows_in_sort_order", user);
+    query.addSort(stringField, ASCENDING);
+
+    final Set<String> pks = new HashSet<>();
+    final List<String> strings = new ArrayList<>();
+    // a fetch size smaller than the result set, so the rows arrive in several fetches
+    query.forEach(TEST_ROWS.length / 5, new Query.EntityCallback() {
+      @Override
+      public void process(CommonFieldsBase entity) throws ODKDatastoreException {
+        pks.add(entity.getUri());
+        strings.add(entity.getStringField(stringField));
+        if (strings.size() == 1) {
+          // other queries can be issued while the rows are streamed
+          Query nested = ds.createQuery(table, "query_forEach_nested", user);
+          assertEquals(STRINGS.length, nested.executeDistinctValueForDataField(stringField).size());
+        }
+      }
+    });
+
+    assertEquals(TEST_ROWS.length, pks.size());
+    List<String> sorted = new ArrayList<>(strings);
+    Collections.sort(sorted);
+    assertEquals(sorted, strings);
+  }
+
+  @Test
+  public void query_forEach_rethrows_callback_exception() throws ODKDatastoreException {
+    Query query = ds.createQuery(table, "query_forEach_rethrows_callback_exception", user);
+    query.addSort(stringField, ASCENDING);
+
+    final ODKDatastoreException failure = new ODKDatastoreException("stop");
+    try {
+      query.forEach(10, new Query.EntityCallback() {
+        @Override
+        public void process(CommonFieldsBase entity) throws ODKDatastoreException {
+          throw failure;
+        }
+      });
+      fail("expected the exception of the callback");
+    } catch (ODKDatastoreException e) {
+      assertSame(failure, e);
+    }
+  }
+
   private static synchronized TestTable createTestTable() throws ODKDatastoreException {
     System.out.println("Creating the test table");
     TestTable tablePrototype = new TestTable(ds.getDefaultSchemaName());
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.DataField.DataType;
+import org.opendatakit.common.security.User;
+
+/**
+ * Checks the statement text of a relation and when the template cache
+ * rebuilds it.
+ */
+public class StatementTemplatesTest {
+
+  private static class Relation extends CommonFieldsBase {
+    Relation(String tableName, int columns) {
+      super("odk_prod", tableName);
+      for (int i = 0; i < columns; ++i) {
+        fieldList.add(new DataField("COLUMN_" + i, DataType.STRING, true));
+      }
+    }
+
+    @Override
+    public CommonFieldsBase getEmptyRow(User user) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  public void statement_text() {
+    StatementTemplates.Template t = new StatementTemplates("\"").get(new Relation("T", 1));
+    String table = "\"odk_prod\".\"T\"";
+    String columns = "\"_URI\", \"_CREATOR_URI_USER\", \"_CREATION_DATE\", "
+        + "\"_LAST_UPDATE_URI_USER\", \"_LAST_UPDATE_DATE\", \"COLUMN_0\"";
+    assertEquals("SELECT " + columns + " FROM " + table, t.select);
+    assertEquals("INSERT INTO " + table + " ( " + columns + " )  VALUES  ( ?, ?, ?, ?, ?, ? ) ",
+        t.insert);
+    assertEquals("UPDATE " + table + " SET \"_CREATOR_URI_USER\" = ?, \"_CREATION_DATE\" = ?, "
+        + "\"_LAST_UPDATE_URI_USER\" = ?, \"_LAST_UPDATE_DATE\" = ?, \"COLUMN_0\" = ? "
+        + "WHERE \"_URI\" = ?", t.update);
+    assertEquals("DELETE FROM " + table + " WHERE \"_URI\" = ?", t.deleteByKey);
+  }
+
+  @Test
+  public void changed_columns_are_not_served_from_the_cache() {
+    StatementTemplates templates = new StatementTemplates("`");
+    StatementTemplates.Template t = templates.get(new Relation("T", 3));
+    assertSame(t, templates.get(new Relation("T", 3)));
+    assertNotSame(t, templates.get(new Relation("T", 4)));
+  }
+}
@@ -0,0 +1,77 @@
+package org.opendatakit.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.opendatakit.common.utils.HttpConditionalUtils.ByteRange;
+
+public class HttpConditionalUtilsTest {
+
+  private static final String ETAG = HttpConditionalUtils.strongETag("md5:abc");
+
+  @Test
+  public void testIfNoneMatch() {
+    assertTrue(HttpConditionalUtils.matchesIfNoneMatch("\"md5:abc\"", ETAG));
+    assertTrue(HttpConditionalUtils.matchesIfNoneMatch("\"x\", W/\"md5:abc\"", ETAG));
+    assertTrue(HttpConditionalUtils.matchesIfNoneMatch("*", ETAG));
+    assertFalse(HttpConditionalUtils.matchesIfNoneMatch("\"md5:abd\"", ETAG));
+    assertFalse(HttpConditionalUtils.matchesIfNoneMatch(null, ETAG));
+  }
+
+  @Test
+  public void testIfModifiedSinceUsesSecondResolution() {
+    Date lastModified = new Date(1500000000123L);
+    assertTrue(HttpConditionalUtils.isNotModifiedSince(1500000000000L, lastModified));
+    assertFalse(HttpConditionalUtils.isNotModifiedSince(1499999999000L, lastModified));
+    assertFalse(HttpConditionalUtils.isNotModifiedSince(-1L, lastModified));
+  }
+
+  @Test
+  public void testIfRangeRequiresStrongMatch() {
+    assertTrue(HttpConditionalUtils.isRangeApplicable(null, ETAG));
+    assertTrue(HttpConditionalUtils.isRangeApplicable("\"md5:abc\"", ETAG));
+    assertFalse(HttpConditionalUtils.isRangeApplicable("W/\"md5:abc\"", ETAG));
+    assertFalse(HttpConditionalUtils.isRangeApplicable("Sat, 01 Jan 2000 00:00:00 GMT", ETAG));
+  }
+
+  @Test
+  public void testRanges() {
+    assertRange("bytes=0-99", 1000, 0, 99, "bytes 0-99/1000");
+    assertRange("bytes=500-", 1000, 500, 999, "bytes 500-999/1000");
+    assertRange("bytes=-100", 1000, 900, 999, "bytes 900-999/1000");
+    assertRange("bytes=900-5000", 1000, 900, 999, "bytes 900-999/1000");
+    assertRange("bytes=-5000", 1000, 0, 999, "bytes 0-999/1000");
+  }
+
+  @Test
+  public void testUnsatisfiableRanges() {
+    ByteRange range = HttpConditionalUtils.parseRange("bytes=1000-", 1000);
+    assertFalse(range.isSatisfiable());
+    assertEquals("bytes */1000", range.getContentRange());
+    assertFalse(HttpConditionalUtils.parseRange("bytes=-0", 1000).isSatisfiable());
+  }
+
+  @Test
+  public void testIgnoredRanges() {
+    assertNull(HttpConditionalUtils.parseRange(null, 1000));
+    assertNull(HttpConditionalUtils.parseRange("items=0-1", 1000));
+    assertNull(HttpConditionalUtils.parseRange("bytes=0-1,5-6", 1000));
+    assertNull(HttpConditionalUtils.parseRange("bytes=5-1", 1000));
+    assertNull(HttpConditionalUtils.parseRange("bytes=a-", 1000));
+  }
+
+  private static void assertRange(String header, long contentLength, long first, long last,
+      String contentRange) {
+    ByteRange range = HttpConditionalUtils.parseRange(header, contentLength);
+    assertTrue(range.isSatisfiable());
+    assertEquals(first, range.getFirst());
+    assertEquals(last, range.getLast());
+    assertEquals(last - first + 1, range.getLength());
+    assertEquals(contentRange, range.getContentRange());
+  }
+}
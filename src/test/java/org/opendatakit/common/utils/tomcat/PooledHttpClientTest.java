@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.utils.tomcat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpClientTest {
+  private static final int POOL_TIMEOUT_MILLISECONDS = 200;
+
+  private HttpServer server;
+  private String url;
+  private TomcatHttpClientFactoryImpl factory;
+  private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+  @BeforeClass
+  public static void disableNagle() {
+    // otherwise the stub server's separate header and body writes stall on
+    // delayed ACKs once the connection is kept alive.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/publish", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        byte[] rsp = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, rsp.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(rsp);
+        os.close();
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/publish";
+    factory = new TomcatHttpClientFactoryImpl();
+  }
+
+  @After
+  public void tearDown() {
+    factory.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void sequential_requests_reuse_one_connection() throws Exception {
+    CloseableHttpClient client = factory.getPooledHttpClient();
+    for (int i = 0; i < 5; ++i) {
+      HttpResponse rsp = get(client);
+      EntityUtils.consume(rsp.getEntity());
+      assertEquals(200, rsp.getStatusLine().getStatusCode());
+    }
+
+    assertEquals(1, clientPorts.size());
+    PoolStats stats = factory.getConnectionPoolStats();
+    assertEquals(0, stats.getLeased());
+    assertEquals(1, stats.getAvailable());
+  }
+
+  @Test
+  public void request_times_out_while_the_pool_is_exhausted() throws Exception {
+    factory.setMaxConnections(1);
+    factory.setMaxConnectionsPerRoute(1);
+    CloseableHttpClient client = factory.getPooledHttpClient();
+
+    // an unconsumed response keeps its connection leased
+    HttpResponse held = get(client);
+    assertEquals(1, factory.getConnectionPoolStats().getLeased());
+
+    long start = System.currentTimeMillis();
+    try {
+      get(client);
+      fail("a second connection was leased from a pool of one");
+    } catch (ConnectionPoolTimeoutException e) {
+      // expected
+    }
+    long waited = System.currentTimeMillis() - start;
+    assertTrue(waited >= POOL_TIMEOUT_MILLISECONDS);
+
+    // once the response is consumed, the connection goes back to the pool
+    EntityUtils.consume(held.getEntity());
+    HttpResponse rsp = get(client);
+    EntityUtils.consume(rsp.getEntity());
+    assertEquals(200, rsp.getStatusLine().getStatusCode());
+    assertEquals(1, clientPorts.size());
+  }
+
+  private HttpResponse get(CloseableHttpClient client) throws IOException {
+    HttpGet get = new HttpGet(url);
+    get.setConfig(RequestConfig.custom().setConnectTimeout(10000).setSocketTimeout(10000)
+        .setConnectionRequestTimeout(POOL_TIMEOUT_MILLISECONDS).build());
+    return client.execute(get);
+  }
+}